@@ -18,6 +18,8 @@
 package org.ccnx.ccn;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
@@ -25,6 +27,7 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.impl.CCNNetworkManager;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.support.SettableFuture;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Interest;
@@ -326,6 +329,50 @@ public class CCNHandle implements CCNBase {
 			} catch (InterruptedException e) {}
 		}
 	}
+
+	/**
+	 * Get a single piece of content from CCN without blocking. No thread waits
+	 * for the content, so many of these can be outstanding at once.
+	 * @param interest
+	 * @param timeout time to wait in ms, or SystemConfiguration.NO_TIMEOUT
+	 * @return a future for the content object, which is null if it timed out.
+	 * 	Cancelling the future cancels the interest.
+	 * @throws IOException if the handle is closed or on error
+	 */
+	public SettableFuture<ContentObject> getAsync(Interest interest, long timeout) throws IOException {
+		synchronized(_openLock) {
+			if( !_isOpen )
+				throw new IOException(formatMessage("Handle is closed"));
+		}
+		applyScope(interest);
+		return getNetworkManager().getAsync(interest, timeout);
+	}
+
+	/**
+	 * Get a piece of content for each of a set of interests without blocking.
+	 * @param interests
+	 * @param timeout time to wait for each in ms, or SystemConfiguration.NO_TIMEOUT
+	 * @return a future for the content objects in the order of the interests, with null
+	 * 	for any that timed out
+	 * @throws IOException if the handle is closed or on error
+	 */
+	public SettableFuture<List<ContentObject>> getAll(Collection<Interest> interests, long timeout) throws IOException {
+		synchronized(_openLock) {
+			if( !_isOpen )
+				throw new IOException(formatMessage("Handle is closed"));
+		}
+		for (Interest interest : interests)
+			applyScope(interest);
+		return getNetworkManager().getAll(interests, timeout);
+	}
+
+	protected void applyScope(Interest interest) {
+		if (_scope != disableScope) {
+			if (interest.scope() == null) {
+				interest.scope(_scope);
+			}
+		}
+	}
 	
 	/**
 	 * Put a single content object into the network. This is a low-level put,
@@ -357,6 +404,23 @@ public class CCNHandle implements CCNBase {
 		return null;
 	}
 
+	/**
+	 * Put a single content object into the network without blocking the caller.
+	 * The same flow balance caveats apply as for put().
+	 * @param co the content object to write
+	 * @return a future for the object that was put
+	 * @throws IOException if the handle is closed
+	 */
+	public SettableFuture<ContentObject> putAsync(ContentObject co) throws IOException {
+		synchronized(_openLock) {
+			if( !_isOpen )
+				throw new IOException(formatMessage("Handle is closed"));
+		}
+		if( Log.isLoggable(Level.FINEST) )
+			Log.finest(Log.FAC_NETMANAGER, formatMessage("Putting content on wire asynchronously: " + co.name()));
+		return getNetworkManager().putAsync(co);
+	}
+
 	/**
 	 * Register a standing interest filter with callback to receive any 
 	 * matching interests seen
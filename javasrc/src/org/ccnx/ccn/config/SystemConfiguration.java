@@ -189,6 +189,55 @@ public class SystemConfiguration {
 	protected static final String PIPELINE_RTT_ENV_VAR = "JAVA_PIPELINE_RTTFACTOR";
 	public static int PIPELINE_RTTFACTOR = 2;
 
+	/**
+	 * Use an adaptive (AIMD) window for the pipeline in CCNAbstractInputStream instead of
+	 * the fixed PIPELINE_SIZE. Default is off
+	 */
+	protected static final String PIPELINE_ADAPTIVE_PROPERTY = "org.ccnx.PipelineAdaptive";
+	protected static final String PIPELINE_ADAPTIVE_ENV_VAR = "JAVA_PIPELINE_ADAPTIVE";
+	public static boolean PIPELINE_ADAPTIVE = false;
+
+	/**
+	 * Smallest size of an adaptive pipeline window
+	 * Default is 2
+	 */
+	protected static final String PIPELINE_MIN_SIZE_PROPERTY = "org.ccnx.PipelineMinSize";
+	protected static final String PIPELINE_MIN_SIZE_ENV_VAR = "JAVA_PIPELINE_MIN_SIZE";
+	public static int PIPELINE_MIN_SIZE = 2;
+
+	/**
+	 * Largest size of an adaptive pipeline window
+	 * Default is 64
+	 */
+	protected static final String PIPELINE_MAX_SIZE_PROPERTY = "org.ccnx.PipelineMaxSize";
+	protected static final String PIPELINE_MAX_SIZE_ENV_VAR = "JAVA_PIPELINE_MAX_SIZE";
+	public static int PIPELINE_MAX_SIZE = 64;
+
+	/**
+	 * Grow an adaptive pipeline window exponentially until the first loss
+	 * Default is on
+	 */
+	protected static final String PIPELINE_SLOW_START_PROPERTY = "org.ccnx.PipelineSlowStart";
+	protected static final String PIPELINE_SLOW_START_ENV_VAR = "JAVA_PIPELINE_SLOW_START";
+	public static boolean PIPELINE_SLOW_START = true;
+
+	/**
+	 * Verify segments in CCNAbstractInputStream on the VerificationService threads rather
+	 * than on the thread delivering them. Default is off
+	 */
+	protected static final String PIPELINE_VERIFY_ASYNC_PROPERTY = "org.ccnx.PipelineVerifyAsync";
+	protected static final String PIPELINE_VERIFY_ASYNC_ENV_VAR = "JAVA_PIPELINE_VERIFY_ASYNC";
+	public static boolean PIPELINE_VERIFY_ASYNC = false;
+
+	/**
+	 * Number of ranges CCNFileInputStream#read(long, ByteBuffer) splits a read into, each
+	 * fetched by its own pipeline of PIPELINE_SIZE segments
+	 * Default is 4
+	 */
+	protected static final String PIPELINE_PARALLEL_RANGES_PROPERTY = "org.ccnx.PipelineParallelRanges";
+	protected static final String PIPELINE_PARALLEL_RANGES_ENV_VAR = "JAVA_PIPELINE_PARALLEL_RANGES";
+	public static int PIPELINE_PARALLEL_RANGES = 4;
+
 	/**
 	 * Pipeline stat printouts in CCNAbstractInputStream
 	 * Default is off
@@ -258,6 +307,197 @@ public class SystemConfiguration {
 	protected final static String DUMP_NETMANAGER_STATS_ENV_VAR = "CCNX_DUMP_NETMANAGER_STATS";
 	public static boolean DUMP_NETMANAGER_STATS = false;
 
+	/**
+	 * Number of worker threads CCNNetworkManager uses to run content and interest handlers.
+	 * The default of 0 runs handlers directly on the network manager reader thread.
+	 */
+	protected static final String NETMANAGER_DISPATCH_THREADS_PROPERTY = "org.ccnx.netmanager.dispatch.threads";
+	protected final static String NETMANAGER_DISPATCH_THREADS_ENV_VAR = "CCNX_NETMANAGER_DISPATCH_THREADS";
+	public final static int NETMANAGER_DISPATCH_THREADS_DEFAULT = 0;
+	public static int NETMANAGER_DISPATCH_THREADS = NETMANAGER_DISPATCH_THREADS_DEFAULT;
+
+	/**
+	 * Number of bytes CCNNetworkManager collects before writing them to a TCP connection to ccnd
+	 * in one gathering write. The default of 0 writes every packet as soon as it is encoded.
+	 */
+	protected static final String NETMANAGER_WRITE_BATCH_BYTES_PROPERTY = "org.ccnx.netmanager.write.batch.bytes";
+	protected final static String NETMANAGER_WRITE_BATCH_BYTES_ENV_VAR = "CCNX_NETMANAGER_WRITE_BATCH_BYTES";
+	public final static int NETMANAGER_WRITE_BATCH_BYTES_DEFAULT = 0;
+	public static int NETMANAGER_WRITE_BATCH_BYTES = NETMANAGER_WRITE_BATCH_BYTES_DEFAULT;
+
+	/**
+	 * Longest time in ms a batched write may wait before it is flushed to ccnd.
+	 * Only used if NETMANAGER_WRITE_BATCH_BYTES is set.
+	 */
+	protected static final String NETMANAGER_WRITE_BATCH_DELAY_PROPERTY = "org.ccnx.netmanager.write.batch.delay";
+	protected final static String NETMANAGER_WRITE_BATCH_DELAY_ENV_VAR = "CCNX_NETMANAGER_WRITE_BATCH_DELAY";
+	public final static int NETMANAGER_WRITE_BATCH_DELAY_DEFAULT = 2;
+	public static int NETMANAGER_WRITE_BATCH_DELAY = NETMANAGER_WRITE_BATCH_DELAY_DEFAULT;
+
+	/**
+	 * Should LogStructRepoStore read content from files which are no longer being written
+	 * through memory mappings rather than by seeking and reading the file
+	 */
+	protected static final String REPO_MMAP_READS_PROPERTY = "org.ccnx.repo.mmap.reads";
+	protected final static String REPO_MMAP_READS_ENV_VAR = "CCNX_REPO_MMAP_READS";
+	public final static boolean REPO_MMAP_READS_DEFAULT = false;
+	public static boolean REPO_MMAP_READS = REPO_MMAP_READS_DEFAULT;
+
+	/**
+	 * When LogStructRepoStore forces written content to disk: "none" leaves it to the OS, "batch"
+	 * syncs each batch of writes before the content is indexed, and "periodic" syncs any new
+	 * content every REPO_SYNC_PERIOD ms and on shutdown. With "none" and "periodic" content is
+	 * indexed, and can be served, before it is on disk, so a crash can lose content the
+	 * repository has already answered interests with.
+	 */
+	protected static final String REPO_SYNC_MODE_PROPERTY = "org.ccnx.repo.sync";
+	protected final static String REPO_SYNC_MODE_ENV_VAR = "CCNX_REPO_SYNC";
+	public final static String REPO_SYNC_MODE_DEFAULT = "none";
+	public static String REPO_SYNC_MODE = REPO_SYNC_MODE_DEFAULT;
+
+	protected static final String REPO_SYNC_PERIOD_PROPERTY = "org.ccnx.repo.sync.period";
+	protected final static String REPO_SYNC_PERIOD_ENV_VAR = "CCNX_REPO_SYNC_PERIOD";
+	public final static int REPO_SYNC_PERIOD_DEFAULT = 1000;
+	public static int REPO_SYNC_PERIOD = REPO_SYNC_PERIOD_DEFAULT;
+
+	/**
+	 * How often, in seconds, LogStructRepoStore looks for files to compact. The default of 0
+	 * turns compaction off.
+	 */
+	protected static final String REPO_COMPACT_INTERVAL_PROPERTY = "org.ccnx.repo.compact.interval";
+	protected final static String REPO_COMPACT_INTERVAL_ENV_VAR = "CCNX_REPO_COMPACT_INTERVAL";
+	public final static int REPO_COMPACT_INTERVAL_DEFAULT = 0;
+	public static int REPO_COMPACT_INTERVAL = REPO_COMPACT_INTERVAL_DEFAULT;
+
+	/**
+	 * Percentage of a repository file which must be unreferenced before it is compacted
+	 */
+	protected static final String REPO_COMPACT_THRESHOLD_PROPERTY = "org.ccnx.repo.compact.threshold";
+	protected final static String REPO_COMPACT_THRESHOLD_ENV_VAR = "CCNX_REPO_COMPACT_THRESHOLD";
+	public final static int REPO_COMPACT_THRESHOLD_DEFAULT = 30;
+	public static int REPO_COMPACT_THRESHOLD = REPO_COMPACT_THRESHOLD_DEFAULT;
+
+	/**
+	 * Maximum rate in bytes per second at which compaction copies content, so it doesn't starve
+	 * normal reads and writes. 0 means no limit.
+	 */
+	protected static final String REPO_COMPACT_RATE_PROPERTY = "org.ccnx.repo.compact.rate";
+	protected final static String REPO_COMPACT_RATE_ENV_VAR = "CCNX_REPO_COMPACT_RATE";
+	public final static int REPO_COMPACT_RATE_DEFAULT = 4 * 1024 * 1024;
+	public static int REPO_COMPACT_RATE = REPO_COMPACT_RATE_DEFAULT;
+
+	/**
+	 * Number of threads the repository uses to prepare arriving content for storage. The
+	 * default of 0 uses one per processor.
+	 */
+	protected static final String REPO_INGEST_THREADS_PROPERTY = "org.ccnx.repo.ingest.threads";
+	protected final static String REPO_INGEST_THREADS_ENV_VAR = "CCNX_REPO_INGEST_THREADS";
+	public final static int REPO_INGEST_THREADS_DEFAULT = 0;
+	public static int REPO_INGEST_THREADS = REPO_INGEST_THREADS_DEFAULT;
+
+	/**
+	 * Bytes of arriving content waiting to be stored at which the repository stops asking
+	 * for more
+	 */
+	protected static final String REPO_THROTTLE_BYTES_PROPERTY = "org.ccnx.repo.throttle.bytes";
+	protected final static String REPO_THROTTLE_BYTES_ENV_VAR = "CCNX_REPO_THROTTLE_BYTES";
+	public final static long REPO_THROTTLE_BYTES_DEFAULT = 16 * 1024 * 1024;
+	public static long REPO_THROTTLE_BYTES = REPO_THROTTLE_BYTES_DEFAULT;
+
+	/**
+	 * Bytes of content the repository keeps in memory to answer popular interests without
+	 * reading from the store. 0 turns this off.
+	 */
+	protected static final String REPO_CACHE_BYTES_PROPERTY = "org.ccnx.repo.cache.bytes";
+	protected final static String REPO_CACHE_BYTES_ENV_VAR = "CCNX_REPO_CACHE_BYTES";
+	public final static long REPO_CACHE_BYTES_DEFAULT = 16 * 1024 * 1024;
+	public static long REPO_CACHE_BYTES = REPO_CACHE_BYTES_DEFAULT;
+
+	/**
+	 * Verify content arriving at the repository, using the VerificationService, and drop
+	 * content which fails. The default is to store content without verifying it.
+	 */
+	protected static final String REPO_VERIFY_PROPERTY = "org.ccnx.repo.verify";
+	protected final static String REPO_VERIFY_ENV_VAR = "CCNX_REPO_VERIFY";
+	public static boolean REPO_VERIFY = false;
+
+	/**
+	 * Number of threads the default VerificationService uses. The default of 0 uses one
+	 * per processor.
+	 */
+	protected static final String VERIFY_THREADS_PROPERTY = "org.ccnx.verify.threads";
+	protected final static String VERIFY_THREADS_ENV_VAR = "CCNX_VERIFY_THREADS";
+	public final static int VERIFY_THREADS_DEFAULT = 0;
+	public static int VERIFY_THREADS = VERIFY_THREADS_DEFAULT;
+
+	/**
+	 * Number of verified Merkle tree roots remembered, so other segments signed in the same
+	 * tree can be verified without a public key operation. 0 turns this off.
+	 */
+	protected static final String VERIFIED_ROOT_CACHE_SIZE_PROPERTY = "org.ccnx.verify.rootcache.size";
+	protected final static String VERIFIED_ROOT_CACHE_SIZE_ENV_VAR = "CCNX_VERIFY_ROOTCACHE_SIZE";
+	public final static int VERIFIED_ROOT_CACHE_SIZE_DEFAULT = 1024;
+	public static int VERIFIED_ROOT_CACHE_SIZE = VERIFIED_ROOT_CACHE_SIZE_DEFAULT;
+
+	/**
+	 * Number of threads the default ParallelDigester spreads Merkle tree hashing over.
+	 * The default of 0 uses one per processor.
+	 */
+	protected static final String DIGEST_THREADS_PROPERTY = "org.ccnx.digest.threads";
+	protected final static String DIGEST_THREADS_ENV_VAR = "CCNX_DIGEST_THREADS";
+	public final static int DIGEST_THREADS_DEFAULT = 0;
+	public static int DIGEST_THREADS = DIGEST_THREADS_DEFAULT;
+
+	/**
+	 * Number of recently used sync tree nodes held by a SyncNodeCache whether or not anything
+	 * else refers to them. 0 means no limit.
+	 */
+	protected static final String SYNC_NODE_CACHE_SIZE_PROPERTY = "org.ccnx.sync.nodecache.size";
+	protected final static String SYNC_NODE_CACHE_SIZE_ENV_VAR = "CCNX_SYNC_NODECACHE_SIZE";
+	public final static int SYNC_NODE_CACHE_SIZE_DEFAULT = 4096;
+	public static int SYNC_NODE_CACHE_SIZE = SYNC_NODE_CACHE_SIZE_DEFAULT;
+
+	/**
+	 * Number of entries for nodes from the network each slice comparator's SyncHashCache holds.
+	 * Entries for locally built nodes don't count. 0 means no limit.
+	 */
+	protected static final String SYNC_HASH_CACHE_SIZE_PROPERTY = "org.ccnx.sync.hashcache.size";
+	protected final static String SYNC_HASH_CACHE_SIZE_ENV_VAR = "CCNX_SYNC_HASHCACHE_SIZE";
+	public final static int SYNC_HASH_CACHE_SIZE_DEFAULT = 16384;
+	public static int SYNC_HASH_CACHE_SIZE = SYNC_HASH_CACHE_SIZE_DEFAULT;
+
+	/**
+	 * Number of threads shared by all slice comparators. The default of 0 uses one per processor.
+	 */
+	protected static final String SYNC_COMPARE_THREADS_PROPERTY = "org.ccnx.sync.compare.threads";
+	protected final static String SYNC_COMPARE_THREADS_ENV_VAR = "CCNX_SYNC_COMPARE_THREADS";
+	public final static int SYNC_COMPARE_THREADS_DEFAULT = 0;
+	public static int SYNC_COMPARE_THREADS = SYNC_COMPARE_THREADS_DEFAULT;
+
+	/**
+	 * Number of node requests a slice comparator keeps outstanding at once while comparing
+	 */
+	protected static final String SYNC_FETCH_WINDOW_PROPERTY = "org.ccnx.sync.fetch.window";
+	protected final static String SYNC_FETCH_WINDOW_ENV_VAR = "CCNX_SYNC_FETCH_WINDOW";
+	public final static int SYNC_FETCH_WINDOW_DEFAULT = 64;
+	public static int SYNC_FETCH_WINDOW = SYNC_FETCH_WINDOW_DEFAULT;
+
+	/**
+	 * Whether to publish the statistics of CCNStatistics implementers as JMX MBeans
+	 */
+	protected static final String STATS_JMX_PROPERTY = "org.ccnx.stats.jmx";
+	protected final static String STATS_JMX_ENV_VAR = "CCNX_STATS_JMX";
+	public static boolean STATS_JMX = true;
+
+	/**
+	 * Loopback port to serve statistics on in the Prometheus text format. -1 turns the
+	 * server off, 0 picks any free port.
+	 */
+	protected static final String STATS_HTTP_PORT_PROPERTY = "org.ccnx.stats.http.port";
+	protected final static String STATS_HTTP_PORT_ENV_VAR = "CCNX_STATS_HTTP_PORT";
+	public final static int STATS_HTTP_PORT_DEFAULT = -1;
+	public static int STATS_HTTP_PORT = STATS_HTTP_PORT_DEFAULT;
+
 
 	/**
 	 * Settable system default timeout.
@@ -415,6 +655,24 @@ public class SystemConfiguration {
 
 		}
 
+		// Allow use of an adaptive pipeline window in CCNAbstractInputStream
+		PIPELINE_ADAPTIVE = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(PIPELINE_ADAPTIVE_PROPERTY, PIPELINE_ADAPTIVE_ENV_VAR, STRING_FALSE));
+		PIPELINE_SLOW_START = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(PIPELINE_SLOW_START_PROPERTY, PIPELINE_SLOW_START_ENV_VAR, STRING_TRUE));
+		PIPELINE_VERIFY_ASYNC = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(PIPELINE_VERIFY_ASYNC_PROPERTY, PIPELINE_VERIFY_ASYNC_ENV_VAR, STRING_FALSE));
+		try {
+			PIPELINE_MIN_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_MIN_SIZE_PROPERTY, PIPELINE_MIN_SIZE_ENV_VAR, "2"));
+			PIPELINE_MAX_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_MAX_SIZE_PROPERTY, PIPELINE_MAX_SIZE_ENV_VAR, "64"));
+		} catch (NumberFormatException e) {
+			System.err.println("The PipelineMinSize and PipelineMaxSize must be integers.");
+			throw e;
+		}
+		try {
+			PIPELINE_PARALLEL_RANGES = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_PARALLEL_RANGES_PROPERTY, PIPELINE_PARALLEL_RANGES_ENV_VAR, "4"));
+		} catch (NumberFormatException e) {
+			System.err.println("The PipelineParallelRanges must be an integer.");
+			throw e;
+		}
+
 		// Allow printing of pipeline stats in CCNAbstractInputStream
 		PIPELINE_STATS = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(PIPELINE_STATS_PROPERTY, PIPELINE_STATS_ENV_VAR, STRING_FALSE));
 
@@ -484,6 +742,102 @@ public class SystemConfiguration {
 		
 		// Dump netmanager statistics if requested
 		DUMP_NETMANAGER_STATS = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(DUMP_NETMANAGER_STATS_PROPERTY, DUMP_NETMANAGER_STATS_ENV_VAR, Boolean.toString(DUMP_NETMANAGER_STATS)));
+
+		// Allow override of the number of netmanager handler dispatch threads
+		try {
+			NETMANAGER_DISPATCH_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(NETMANAGER_DISPATCH_THREADS_PROPERTY, NETMANAGER_DISPATCH_THREADS_ENV_VAR, Integer.toString(NETMANAGER_DISPATCH_THREADS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The netmanager dispatch thread count must be an integer.");
+			throw e;
+		}
+
+		// Allow override of netmanager write batching
+		try {
+			NETMANAGER_WRITE_BATCH_BYTES = Integer.parseInt(retrievePropertyOrEnvironmentVariable(NETMANAGER_WRITE_BATCH_BYTES_PROPERTY, NETMANAGER_WRITE_BATCH_BYTES_ENV_VAR, Integer.toString(NETMANAGER_WRITE_BATCH_BYTES_DEFAULT)));
+			NETMANAGER_WRITE_BATCH_DELAY = Integer.parseInt(retrievePropertyOrEnvironmentVariable(NETMANAGER_WRITE_BATCH_DELAY_PROPERTY, NETMANAGER_WRITE_BATCH_DELAY_ENV_VAR, Integer.toString(NETMANAGER_WRITE_BATCH_DELAY_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The netmanager write batch size and delay must be integers.");
+			throw e;
+		}
+
+		// Allow override of repository mmap reads
+		REPO_MMAP_READS = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(REPO_MMAP_READS_PROPERTY, REPO_MMAP_READS_ENV_VAR, Boolean.toString(REPO_MMAP_READS_DEFAULT)));
+
+		// Allow override of repository sync behavior
+		REPO_SYNC_MODE = retrievePropertyOrEnvironmentVariable(REPO_SYNC_MODE_PROPERTY, REPO_SYNC_MODE_ENV_VAR, REPO_SYNC_MODE_DEFAULT);
+		try {
+			REPO_SYNC_PERIOD = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_SYNC_PERIOD_PROPERTY, REPO_SYNC_PERIOD_ENV_VAR, Integer.toString(REPO_SYNC_PERIOD_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository sync period must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository compaction
+		try {
+			REPO_COMPACT_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_INTERVAL_PROPERTY, REPO_COMPACT_INTERVAL_ENV_VAR, Integer.toString(REPO_COMPACT_INTERVAL_DEFAULT)));
+			REPO_COMPACT_THRESHOLD = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_THRESHOLD_PROPERTY, REPO_COMPACT_THRESHOLD_ENV_VAR, Integer.toString(REPO_COMPACT_THRESHOLD_DEFAULT)));
+			REPO_COMPACT_RATE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_RATE_PROPERTY, REPO_COMPACT_RATE_ENV_VAR, Integer.toString(REPO_COMPACT_RATE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository compaction interval, threshold and rate must be integers.");
+			throw e;
+		}
+
+		// Allow override of the repository ingest threads and throttle
+		try {
+			REPO_INGEST_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_INGEST_THREADS_PROPERTY, REPO_INGEST_THREADS_ENV_VAR, Integer.toString(REPO_INGEST_THREADS_DEFAULT)));
+			REPO_THROTTLE_BYTES = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_THROTTLE_BYTES_PROPERTY, REPO_THROTTLE_BYTES_ENV_VAR, Long.toString(REPO_THROTTLE_BYTES_DEFAULT)));
+			REPO_CACHE_BYTES = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_CACHE_BYTES_PROPERTY, REPO_CACHE_BYTES_ENV_VAR, Long.toString(REPO_CACHE_BYTES_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository ingest thread count, throttle and cache size must be integers.");
+			throw e;
+		}
+
+		// Allow verification of content stored by the repository
+		REPO_VERIFY = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(REPO_VERIFY_PROPERTY, REPO_VERIFY_ENV_VAR, STRING_FALSE));
+
+		// Allow override of the number of verification threads and verified roots cached
+		try {
+			VERIFY_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(VERIFY_THREADS_PROPERTY, VERIFY_THREADS_ENV_VAR, Integer.toString(VERIFY_THREADS_DEFAULT)));
+			VERIFIED_ROOT_CACHE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(VERIFIED_ROOT_CACHE_SIZE_PROPERTY, VERIFIED_ROOT_CACHE_SIZE_ENV_VAR, Integer.toString(VERIFIED_ROOT_CACHE_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The verification thread count and root cache size must be integers.");
+			throw e;
+		}
+
+		// Allow override of the number of digest threads
+		try {
+			DIGEST_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(DIGEST_THREADS_PROPERTY, DIGEST_THREADS_ENV_VAR, Integer.toString(DIGEST_THREADS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The digest thread count must be an integer.");
+			throw e;
+		}
+
+		// Allow override of the sync cache sizes
+		try {
+			SYNC_NODE_CACHE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_NODE_CACHE_SIZE_PROPERTY, SYNC_NODE_CACHE_SIZE_ENV_VAR, Integer.toString(SYNC_NODE_CACHE_SIZE_DEFAULT)));
+			SYNC_HASH_CACHE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_HASH_CACHE_SIZE_PROPERTY, SYNC_HASH_CACHE_SIZE_ENV_VAR, Integer.toString(SYNC_HASH_CACHE_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The sync node and hash cache sizes must be integers.");
+			throw e;
+		}
+
+		// Allow override of the sync compare threads and fetch window
+		try {
+			SYNC_COMPARE_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_COMPARE_THREADS_PROPERTY, SYNC_COMPARE_THREADS_ENV_VAR, Integer.toString(SYNC_COMPARE_THREADS_DEFAULT)));
+			SYNC_FETCH_WINDOW = Integer.parseInt(retrievePropertyOrEnvironmentVariable(SYNC_FETCH_WINDOW_PROPERTY, SYNC_FETCH_WINDOW_ENV_VAR, Integer.toString(SYNC_FETCH_WINDOW_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The sync compare thread count and fetch window must be integers.");
+			throw e;
+		}
+
+		// Allow override of where statistics are published
+		STATS_JMX = Boolean.parseBoolean(retrievePropertyOrEnvironmentVariable(STATS_JMX_PROPERTY, STATS_JMX_ENV_VAR, STRING_TRUE));
+		try {
+			STATS_HTTP_PORT = Integer.parseInt(retrievePropertyOrEnvironmentVariable(STATS_HTTP_PORT_PROPERTY, STATS_HTTP_PORT_ENV_VAR, Integer.toString(STATS_HTTP_PORT_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The statistics HTTP port must be an integer.");
+			throw e;
+		}
 	
 		// Allow override of block size
 		// TODO should we make sure its a reasonable number?
@@ -0,0 +1,122 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * A pool of worker threads used to run handler callbacks off of the CCNNetworkManager reader thread.
+ *
+ * Each task is dispatched with a partitioning key (normally a ContentName). All tasks with
+ * equal keys are run by the same worker, in the order in which they were dispatched, so a
+ * handler registered on a given name always sees its packets in order even though packets
+ * for unrelated names are being handled in parallel.
+ */
+public class CCNDispatcher {
+
+	protected final ArrayList<LinkedBlockingQueue<Runnable>> _queues;
+	protected final Thread [] _workers;
+	protected volatile boolean _run = true;
+
+	private class Worker implements Runnable {
+		private final LinkedBlockingQueue<Runnable> _queue;
+
+		private Worker(LinkedBlockingQueue<Runnable> queue) {
+			_queue = queue;
+		}
+
+		public void run() {
+			while (_run) {
+				Runnable task;
+				try {
+					task = _queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					Log.warning(Log.FAC_NETMANAGER, "Dispatched handler failed: {0}", ex);
+					Log.warningStackTrace(ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create and start a dispatcher
+	 * @param name used to name the worker threads
+	 * @param workers the number of worker threads, must be at least 1
+	 */
+	public CCNDispatcher(String name, int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("CCNDispatcher needs at least one worker, got " + workers);
+		_queues = new ArrayList<LinkedBlockingQueue<Runnable>>(workers);
+		_workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			_queues.add(new LinkedBlockingQueue<Runnable>());
+			_workers[i] = new Thread(new Worker(_queues.get(i)), name + " dispatcher " + i);
+			_workers[i].setDaemon(true);
+			_workers[i].start();
+		}
+	}
+
+	/**
+	 * Queue a task to the worker owning this key
+	 *
+	 * @param key partitioning key - tasks with equal keys are run in order by one worker
+	 * @param task the task
+	 * @return the depth of the worker queue after the task was added
+	 */
+	public int dispatch(Object key, Runnable task) {
+		LinkedBlockingQueue<Runnable> queue = _queues.get((key.hashCode() & Integer.MAX_VALUE) % _queues.size());
+		queue.add(task);
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of tasks waiting in all worker queues
+	 */
+	public int queueDepth() {
+		int depth = 0;
+		for (LinkedBlockingQueue<Runnable> queue : _queues)
+			depth += queue.size();
+		return depth;
+	}
+
+	/**
+	 * @return the number of worker threads
+	 */
+	public int workers() {
+		return _workers.length;
+	}
+
+	/**
+	 * Stop all workers. Tasks still queued are discarded.
+	 */
+	public void shutdown() {
+		_run = false;
+		for (Thread worker : _workers)
+			worker.interrupt();
+		for (LinkedBlockingQueue<Runnable> queue : _queues)
+			queue.clear();
+	}
+}
@@ -29,6 +29,7 @@ import org.ccnx.ccn.CCNInterestHandler;
 import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.InterestTable.Entry;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -587,32 +588,68 @@ public class CCNFlowControl implements CCNInterestHandler {
 
 	/**
 	 * Must be called with _holdingArea locked
+	 * 
+	 * Only the part of the holding area under the interest name is examined. Names with a
+	 * given prefix are contiguous in ContentName order starting with the prefix itself, so for
+	 * the leftmost match we walk forward from the prefix, and for the rightmost we walk back
+	 * from the first name past the end of the prefix's range.
 	 * @param interest
-	 * @param set
-	 * @return
+	 * @return the matching object with the lowest name, or with the highest if the interest
+	 * 		asks for CHILD_SELECTOR_RIGHT. null if there is no match.
 	 */
 	private ContentObject getBestMatch(Interest interest) {
-		ContentObject bestMatch = null;
 		if( Log.isLoggable(Log.FAC_IO, Level.FINEST))
 			Log.finest(Log.FAC_IO, "Looking for best match to {0} among {1} options.", interest, _holdingArea.size());
-		for ( java.util.Map.Entry<ContentName, ContentObject> entry :  _holdingArea.entrySet() ) {
-			ContentName name = entry.getKey();
-			ContentObject result = entry.getValue();
-
-			// We only have to do something unusual here if the caller is looking for CHILD_SELECTOR_RIGHT
-			if (null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT) {
-				if (interest.matches(result)) {
-					if (bestMatch == null)
-						bestMatch = result;
-					if (name.compareTo(bestMatch.name()) > 0) {
-						bestMatch = result;
-					}
-				}
-			} else
-				if (interest.matches(result))
-					return result;
+		ContentName prefix = interest.name();
+		
+		// An interest whose last component is an implicit digest can also match the object named by its
+		// parent. That name sorts before everything under the interest name.
+		ContentObject digestMatch = null;
+		if (prefix.count() > 0 && prefix.lastComponent().length == CCNDigestHelper.DEFAULT_DIGEST_LENGTH) {
+			digestMatch = _holdingArea.get(prefix.parent());
+			if (null != digestMatch && !interest.matches(digestMatch))
+				digestMatch = null;
+		}
+		
+		Iterable<ContentObject> candidates;
+		if (null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT) {
+			ContentName end = nameRangeEnd(prefix);
+			candidates = (null == end ? _holdingArea : _holdingArea.headMap(end, false)).descendingMap().values();
+		} else {
+			if (null != digestMatch)
+				return digestMatch;
+			candidates = _holdingArea.tailMap(prefix, true).values();
+		}
+		for (ContentObject result : candidates) {
+			if (!prefix.isPrefixOf(result.name()))
+				break;
+			if (interest.matches(result))
+				return result;
 		}
-		return bestMatch;
+		return digestMatch;
+	}
+	
+	/**
+	 * @param prefix
+	 * @return the lowest name greater than every name starting with prefix, or null if prefix
+	 * 		is the root
+	 */
+	private static ContentName nameRangeEnd(ContentName prefix) {
+		if (prefix.count() == 0)
+			return null;
+		// Components order by length and then by value, so the next component is the last one
+		// plus one, or the lowest component one byte longer if that overflows
+		byte [] last = prefix.lastComponent();
+		byte [] next = new byte[last.length];
+		System.arraycopy(last, 0, next, 0, last.length);
+		int i = next.length - 1;
+		while (i >= 0 && next[i] == (byte)0xff)
+			next[i--] = 0;
+		if (i < 0)
+			next = new byte[last.length + 1];
+		else
+			next[i]++;
+		return new ContentName(prefix.parent(), next);
 	}
 
 	/**
@@ -668,6 +705,10 @@ public class CCNFlowControl implements CCNInterestHandler {
 				startSize = _nOut;
 			}
 		}
+		// What we've handed to the network manager may still be held back in a write batch
+		CCNNetworkManager cnm = _handle.getNetworkManager();
+		if (null != cnm)
+			cnm.flush();
 	}
 
 	/**
@@ -37,6 +37,7 @@ import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
 import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
 
 /**
  *  This guy manages all of the access to the network connection.
@@ -221,7 +222,18 @@ public class CCNNetworkChannel extends InputStream {
 				if (ret <= 0 || !isConnected())
 					return null;
 			}
-			_decoder.beginDecoding(this);
+			// Normally the whole packet is already in the buffer, in which case
+			// decode it in place. Otherwise (a TCP read split it) fall back to
+			// reading through the stream, which reads in more as needed.
+			boolean decoded = false;
+			try {
+				decoded = _decoder.tryDecoding(_datagram);
+			} catch (ContentDecodingException cde) {
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE))
+					Log.fine(Log.FAC_NETMANAGER, "NetworkChannel {0}: in place decode failed: {1}", _channelId, cde.getMessage());
+			}
+			if (! decoded)
+				_decoder.beginDecoding(this);
 			return _decoder.getPacket();
 		}
 		try {
@@ -327,6 +339,57 @@ public class CCNNetworkChannel extends InputStream {
 		return -1;
 	}
 
+	/**
+	 * Write several packets to ccnd. For TCP this is a single gathering write so the packets
+	 * go to the kernel in as few system calls as possible. For UDP each buffer is still sent
+	 * as its own datagram.
+	 * @param srcs - ByteBuffers to write, each holding one or more complete packets
+	 * @return - number of bytes written
+	 * @throws IOException
+	 */
+	public long write(ByteBuffer [] srcs) throws IOException {
+		if (! isConnected())
+			return -1;
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST))
+			Log.finest(Log.FAC_NETMANAGER,
+					"NetworkChannel {0}: write() of {1} buffers on port {2}", _channelId, srcs.length, _ncLocalPort);
+
+		if (_ncDGrmChannel != null) {
+			long written = 0;
+			for (ByteBuffer src : srcs) {
+				int b = write(src);
+				if (b < 0)
+					return -1;
+				written += b;
+			}
+			return written;
+		}
+		try {
+			// XXX -this depends on synchronization in caller, as does write(ByteBuffer)
+			long written = 0;
+			int first = 0;
+			while (first < srcs.length) {
+				if (! srcs[first].hasRemaining()) {
+					first++;
+					continue;
+				}
+				if (! isConnected())
+					return -1;
+				long b = _ncSockChannel.write(srcs, first, srcs.length - first);
+				if (b > 0) {
+					written += b;
+				} else {
+					_ncWriteSelector.selectedKeys().clear();
+					_ncWriteSelector.select();
+				}
+			}
+			return written;
+		} catch (ClosedChannelException cce) {}
+		Log.info(Log.FAC_NETMANAGER, "NetworkChannel {0}: closing due to error on write", _channelId);
+		close(true);
+		return -1;
+	}
+
 	/**
 	 * Force wakeup from a select
 	 * @return the selector
@@ -27,9 +27,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,11 +45,13 @@ import org.ccnx.ccn.ContentVerifier;
 import org.ccnx.ccn.KeyManager;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
 import org.ccnx.ccn.impl.InterestTable.Entry;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.support.SettableFuture;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 import org.ccnx.ccn.profiles.ccnd.CCNDaemonException;
 import org.ccnx.ccn.profiles.ccnd.PrefixRegistrationManager;
@@ -70,6 +76,14 @@ import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
  * within the callback. This is similar to the restrictions on the event dispatching thread in Swing. The
  * setup of callback handlers should also normally be done via the CCNHandle API.
  *
+ * If SystemConfiguration.NETMANAGER_DISPATCH_THREADS is set, the reader thread only decodes packets and
+ * finds the matching registrations, and the callbacks are run by a pool of dispatch threads instead. Work
+ * is partitioned by name so that each registration still sees its packets in order.
+ *
+ * If SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES is set and ccnd is reached over TCP, outgoing
+ * packets are collected and written with a single gathering write once the batch is full or
+ * SystemConfiguration.NETMANAGER_WRITE_BATCH_DELAY ms have passed. flush() writes a partial batch at once.
+ *
  * The class also has a separate timer process which is used to refresh unsatisfied interests and to
  * keep UDP connections alive by sending a heartbeat packet at regular intervals.
  *
@@ -79,7 +93,7 @@ import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
  * all the communications with ccnd.
  *
  */
-public class CCNNetworkManager implements Runnable {
+public class CCNNetworkManager implements Runnable, CCNStatistics {
 
 	public static final int DEFAULT_AGENT_PORT = 9695; // ccnx registered port
 	public static final String DEFAULT_AGENT_HOST = "localhost";
@@ -89,6 +103,8 @@ public class CCNNetworkManager implements Runnable {
 	public static final String ENV_TAP = "CCN_TAP"; // match C library
 	public static final int PERIOD = 2000; // period for occasional ops in ms.
 	public static final int MAX_PERIOD = PERIOD * 8;
+	public static final int REFRESH_TICK = 20;	// resolution of interest refresh times in ms
+	public static final int REFRESH_BATCH_SIZE = 256;	// Most refreshed interests written at once
 	public static final String KEEPALIVE_NAME = "/HereIAm";
 	public static final int THREAD_LIFE = 8;	// in seconds
 	public static final int MAX_PAYLOAD = 8800; // number of bytes in UDP payload
@@ -123,7 +139,14 @@ public class CCNNetworkManager implements Runnable {
 	protected Thread _thread = null; // the main processing thread
 
 	protected CCNNetworkChannel _channel = null;
-	protected boolean _run = true;
+	protected volatile boolean _run = true;
+
+	// Batched writes. These are only used for TCP and are all protected by the lock on _channel
+	protected ArrayList<ByteBuffer> _pendingWrites = new ArrayList<ByteBuffer>();
+	protected int _pendingWriteBytes = 0;
+	protected Timer _flushTimer = null;
+	protected boolean _flushScheduled = false;
+	protected boolean _refreshing = false;	// writing a batch of interest refreshes
 
 	protected FileOutputStream _tapStreamOut = null;
 	protected FileOutputStream _tapStreamIn = null;
@@ -137,6 +160,13 @@ public class CCNNetworkManager implements Runnable {
 
 	// Tables of interests/filters
 	protected InterestTable<InterestRegistration> _myInterests = new InterestTable<InterestRegistration>();
+	protected TimingWheel<InterestRegistration> _refreshWheel = new TimingWheel<InterestRegistration>(REFRESH_TICK, System.currentTimeMillis());
+
+	// Timeouts for getAsync, swept by a task on the periodic timer while any are outstanding
+	protected TimingWheel<AsyncGet> _timeoutWheel = new TimingWheel<AsyncGet>(REFRESH_TICK, System.currentTimeMillis());
+	protected TimeoutSweeper _timeoutSweeper = null;
+	// Every getAsync that hasn't completed, including those with no timeout, so shutdown can fail them
+	protected final HashSet<AsyncGet> _asyncGets = new HashSet<AsyncGet>();
 	protected InterestTable<Filter> _myFilters = new InterestTable<Filter>();
 
 	// Prefix registration handling. Only one registration change (add or remove a registration) with ccnd is
@@ -174,9 +204,13 @@ public class CCNNetworkManager implements Runnable {
 	protected long _lastHandler = -1;
 
 	// Atomic cancel
-	protected InterestRegistration _beingDelivered = null;
+	protected ArrayList<InterestRegistration> _beingDelivered = new ArrayList<InterestRegistration>(1);
 	protected Object _beingDeliveredLock = new Object();
 
+	// Handler dispatch threads - null if handlers are run on the reader thread. Set before the
+	// reader thread is started.
+	protected volatile CCNDispatcher _dispatcher = null;
+
 	/**
 	 * Keep track of prefixes that are actually registered with ccnd (as opposed to Filters used
 	 * to dispatch interests). There may be several filters for each registered prefix.
@@ -247,34 +281,37 @@ public class CCNNetworkManager implements Runnable {
             }
 
             long ourTime = System.currentTimeMillis();
-            long minInterestRefreshTime = PERIOD + ourTime;
 
-			// Re-express interests that need to be re-expressed
-			try {
-				for (Entry<InterestRegistration> entry : _myInterests.values()) {
-					InterestRegistration reg = entry.value();
-					 // allow some slop for scheduling
-                    if (ourTime + 20 > reg.nextRefresh) {
-                            if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
-                                    Log.finer(Log.FAC_NETMANAGER, "Refresh interest: {0}", reg.interest);
-                            _lastHeartbeat = ourTime;
-                            reg.nextRefresh = ourTime + SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT;
-;
-                            try {
-                                write(reg.interest);
-                        } catch (NotYetConnectedException nyce) {
-                                refreshError = true;
-                        }
-                    }
-					if (minInterestRefreshTime > reg.nextRefresh)
-						minInterestRefreshTime = reg.nextRefresh;
+			// Re-express interests that need to be re-expressed. Only the registrations which
+			// are due come off the wheel. Allow some slop for scheduling.
+			List<InterestRegistration> due = _refreshWheel.advance(ourTime + REFRESH_TICK);
+			ArrayList<Interest> refreshes = new ArrayList<Interest>(due.size());
+			for (InterestRegistration reg : due) {
+				if (!reg.registered)
+					continue;
+				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+					Log.finer(Log.FAC_NETMANAGER, "Refresh interest: {0}", reg.interest);
+				reg.nextRefresh = ourTime + SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT;
+				_refreshWheel.schedule(reg.refreshNode, reg.nextRefresh);
+				// It may have been unregistered while it was off the wheel
+				if (!reg.registered)
+					_refreshWheel.cancel(reg.refreshNode);
+				refreshes.add(reg.interest);
+			}
+			if (!refreshes.isEmpty())
+				_lastHeartbeat = ourTime;
+			for (int i = 0; i < refreshes.size(); i += REFRESH_BATCH_SIZE) {
+				try {
+					writeRefreshes(refreshes.subList(i, Math.min(i + REFRESH_BATCH_SIZE, refreshes.size())));
+				} catch (NotYetConnectedException nyce) {
+					refreshError = true;
+				} catch (ContentEncodingException xmlex) {
+					Log.severe(Log.FAC_NETMANAGER, "PeriodicWriter interest refresh thread failure (Malformed datagram): {0}", xmlex.getMessage());
+					Log.warningStackTrace(xmlex);
+					refreshError = true;
 				}
-
-			} catch (ContentEncodingException xmlex) {
-                Log.severe(Log.FAC_NETMANAGER, "PeriodicWriter interest refresh thread failure (Malformed datagram): {0}", xmlex.getMessage());
-                Log.warningStackTrace(xmlex);
-                refreshError = true;
 			}
+			long minInterestRefreshTime = Math.min(PERIOD + ourTime, _refreshWheel.nextDeadline());
 
 			// Re-express prefix registrations that need to be re-expressed
             // FIXME: The lifetime of a prefix is returned in seconds, not milliseconds.  The refresh code needs
@@ -399,6 +436,10 @@ public class CCNNetworkManager implements Runnable {
 	private void setupTimers() throws IOException {
 		synchronized (_timersSetupLock) {
 			if (!_timersSetup) {
+				if (SystemConfiguration.NETMANAGER_DISPATCH_THREADS > 0)
+					_dispatcher = new CCNDispatcher("CCNNetworkManager " + _managerId,
+													SystemConfiguration.NETMANAGER_DISPATCH_THREADS);
+
 				// Create main processing thread
 				_thread = new Thread(this, "CCNNetworkManager " + _managerId);
 				_thread.setPriority(Thread.MAX_PRIORITY);
@@ -471,6 +512,9 @@ public class CCNNetworkManager implements Runnable {
 	protected class InterestRegistration extends CallbackHandlerRegistration {
 		public final Interest interest;
 		protected long nextRefresh;		// next time to refresh the interest
+		protected final TimingWheel.Node<InterestRegistration> refreshNode = new TimingWheel.Node<InterestRegistration>(this);
+		protected volatile boolean registered = false;	// in _myInterests, so should be refreshed
+		protected final long expressTime = System.nanoTime();
 		protected ContentObject content;
 
 		// All internal client interests must have an owner
@@ -488,11 +532,16 @@ public class CCNNetworkManager implements Runnable {
 		 * Deliver content to a registered handler
 		 */
 		public void deliver(ContentObject co) {
+			_stats.addSample(StatsEnum.FetchLatency, System.nanoTime() - expressTime);
 			synchronized (_beingDeliveredLock) {
-				_beingDelivered = this;
+				_beingDelivered.add(this);
 			}
 			try {
-				if (null != this.handler) {
+				if (null != this.handler && cancelled) {
+					// Cancelled while it was queued for a dispatch thread
+					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+						Log.finer(Log.FAC_NETMANAGER, "Content callback skipped (cancelled) for: {0}", this.interest.name());
+				} else if (null != this.handler) {
 					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
 						Log.finer(Log.FAC_NETMANAGER, "Content callback (" + co + " data) for: {0}", this.interest.name());
 
@@ -539,7 +588,7 @@ public class CCNNetworkManager implements Runnable {
 			}
 
 			synchronized (_beingDeliveredLock) {
-				_beingDelivered = null;
+				_beingDelivered.remove(this);
 			}
 		}
 
@@ -673,6 +722,7 @@ public class CCNNetworkManager implements Runnable {
 		_channel = new CCNNetworkChannel(_host, _port, _protocol, _tapStreamIn);
 		_ccndId = null;
 		_channel.open();
+		CCNStatsRegistry.registerStats(this);
 	}
 
 	/**
@@ -680,13 +730,29 @@ public class CCNNetworkManager implements Runnable {
 	 */
 	public void shutdown() {
 		Log.info(Log.FAC_NETMANAGER, formatMessage("Shutdown requested"));
+		CCNStatsRegistry.unregisterStats(this);
 
 		_run = false;
 		if (_periodicTimer != null)
 			_periodicTimer.cancel();
+		_timeoutWheel.clear();
+		ArrayList<AsyncGet> gets;
+		synchronized (_asyncGets) {
+			gets = new ArrayList<AsyncGet>(_asyncGets);
+		}
+		for (AsyncGet get : gets)
+			get.setException(new IOException("Network manager shut down"));
 		if (_thread != null)
 			_thread.interrupt();
+		if (null != _dispatcher)
+			_dispatcher.shutdown();
 		if (null != _channel) {
+			synchronized (_channel) {
+				flushWrites();
+				if (null != _flushTimer)
+					_flushTimer.cancel();
+			}
+
 			try {
 				setTap(null);
 			} catch (IOException io) {
@@ -842,6 +908,8 @@ public class CCNNetworkManager implements Runnable {
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("get: {0} with timeout: {1}"), interest, timeout);
 		InterestRegistration reg = new InterestRegistration(interest, null, null);
 		expressInterest(reg);
+		// Don't block with the interest still held back in a write batch
+		flush();
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
 			Log.finest(Log.FAC_NETMANAGER, formatMessage("blocking for {0} on {1}"), interest.name(), reg.sema);
 		// Await data to consume the interest
@@ -866,6 +934,212 @@ public class CCNNetworkManager implements Runnable {
 		return reg.content;
 	}
 
+	/**
+	 * get content matching an interest from ccnd without blocking. The interest is expressed
+	 * straight away and the future completes when matching data arrives. The timeout is kept
+	 * by the network manager's timer rather than by a waiting thread, so any number of these
+	 * can be outstanding at once.
+	 *
+	 * @param interest	the interest
+	 * @param timeout	time to wait for return in ms, or SystemConfiguration.NO_TIMEOUT
+	 * @return	a future for the ContentObject, which is null on timeout as for get(). Cancelling
+	 * 			the future cancels the interest.
+	 * @throws IOException 	on incorrect interest data
+	 */
+	public SettableFuture<ContentObject> getAsync(Interest interest, long timeout) throws IOException {
+		_stats.increment(StatsEnum.GetsAsync);
+
+		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE) )
+			Log.fine(Log.FAC_NETMANAGER, formatMessage("getAsync: {0} with timeout: {1}"), interest, timeout);
+		AsyncGet get = new AsyncGet(interest);
+		synchronized (_asyncGets) {
+			_asyncGets.add(get);
+		}
+		if (!_run) {
+			// Shutdown may have missed it
+			get.setException(new IOException("Network manager shut down"));
+			return get;
+		}
+		if (timeout != SystemConfiguration.NO_TIMEOUT) {
+			// Schedule the timeout first so data arriving straight away can't race with it.
+			// The wheel may expire things up to a tick early, so allow an extra tick.
+			setupTimers();
+			_timeoutWheel.schedule(get._timeoutNode, System.currentTimeMillis() + timeout + REFRESH_TICK);
+			startTimeoutSweeper();
+		}
+		try {
+			expressInterest(this, interest, get);
+		} catch (IOException e) {
+			_timeoutWheel.cancel(get._timeoutNode);
+			synchronized (_asyncGets) {
+				_asyncGets.remove(get);
+			}
+			throw e;
+		}
+		return get;
+	}
+
+	/**
+	 * get content matching each of a set of interests without blocking
+	 *
+	 * @param interests	the interests
+	 * @param timeout	time to wait for each return in ms, or SystemConfiguration.NO_TIMEOUT
+	 * @return	a future which completes when all the gets have, with the ContentObjects in the
+	 * 			order of the interests, null for those that timed out. If any get fails the
+	 * 			future fails with its exception. Cancelling the future cancels the interests.
+	 * @throws IOException 	on incorrect interest data
+	 */
+	public SettableFuture<List<ContentObject>> getAll(Collection<Interest> interests, long timeout) throws IOException {
+		final ArrayList<SettableFuture<ContentObject>> gets = new ArrayList<SettableFuture<ContentObject>>(interests.size());
+		final SettableFuture<List<ContentObject>> all = new SettableFuture<List<ContentObject>>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (!super.cancel(mayInterruptIfRunning))
+					return false;
+				synchronized (gets) {
+					for (SettableFuture<ContentObject> get : gets)
+						get.cancel(mayInterruptIfRunning);
+				}
+				return true;
+			}
+		};
+		final AtomicInteger remaining = new AtomicInteger(interests.size() + 1);
+		Runnable countDown = new Runnable() {
+			public void run() {
+				if (remaining.decrementAndGet() > 0)
+					return;
+				ArrayList<ContentObject> results = new ArrayList<ContentObject>(gets.size());
+				try {
+					for (SettableFuture<ContentObject> get : gets)
+						results.add(get.get());
+					all.set(results);
+				} catch (ExecutionException e) {
+					all.setException(e.getCause());
+				} catch (InterruptedException e) {
+					all.setException(e);	// can't happen, the gets are all done
+				}
+			}
+		};
+		synchronized (gets) {
+			try {
+				for (Interest interest : interests) {
+					SettableFuture<ContentObject> get = getAsync(interest, timeout);
+					gets.add(get);
+					get.addListener(countDown, null);
+				}
+			} catch (IOException e) {
+				for (SettableFuture<ContentObject> get : gets)
+					get.cancel(false);
+				throw e;
+			}
+		}
+		// Wait until all the gets are started before completing
+		countDown.run();
+		return all;
+	}
+
+	/**
+	 * Write content to ccnd without blocking the caller. The write is done on the system thread pool.
+	 *
+	 * @param co the content
+	 * @return a future for the content written, as returned by put()
+	 */
+	public SettableFuture<ContentObject> putAsync(final ContentObject co) {
+		final SettableFuture<ContentObject> result = new SettableFuture<ContentObject>();
+		SystemConfiguration._systemThreadpool.execute(new Runnable() {
+			public void run() {
+				if (result.isCancelled())
+					return;
+				try {
+					result.set(put(co));
+				} catch (Exception e) {
+					result.setException(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * The future for a getAsync, which is also the handler for its interest
+	 */
+	protected class AsyncGet extends SettableFuture<ContentObject> implements CCNContentHandler {
+		protected final Interest _interest;
+		protected final TimingWheel.Node<AsyncGet> _timeoutNode = new TimingWheel.Node<AsyncGet>(this);
+
+		protected AsyncGet(Interest interest) {
+			_interest = interest;
+		}
+
+		public Interest handleContent(ContentObject data, Interest interest) {
+			_timeoutWheel.cancel(_timeoutNode);
+			set(data);
+			return null;
+		}
+
+		protected void timedOut() {
+			if (set(null)) {
+				_stats.increment(StatsEnum.GetsAsyncTimeout);
+				cancelInterest(CCNNetworkManager.this, _interest, this);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!super.cancel(mayInterruptIfRunning))
+				return false;
+			_timeoutWheel.cancel(_timeoutNode);
+			cancelInterest(CCNNetworkManager.this, _interest, this);
+			return true;
+		}
+
+		@Override
+		protected void completed() {
+			synchronized (_asyncGets) {
+				_asyncGets.remove(this);
+			}
+			super.completed();
+		}
+
+		@Override
+		public String toString() {
+			return "getAsync " + _interest;
+		}
+	}
+
+	/**
+	 * Expires getAsync timeouts. Runs every tick while there are any, and stops itself
+	 * when there are none left.
+	 */
+	protected class TimeoutSweeper extends TimerTask {
+		@Override
+		public void run() {
+			List<AsyncGet> expired = _timeoutWheel.advance(System.currentTimeMillis());
+			for (AsyncGet get : expired)
+				get.timedOut();
+			synchronized (_timeoutWheel) {
+				if (_timeoutWheel.size() == 0) {
+					cancel();
+					_timeoutSweeper = null;
+				}
+			}
+		}
+	}
+
+	private void startTimeoutSweeper() {
+		synchronized (_timeoutWheel) {
+			if (null != _timeoutSweeper || !_run)
+				return;
+			_timeoutSweeper = new TimeoutSweeper();
+			try {
+				_periodicTimer.scheduleAtFixedRate(_timeoutSweeper, REFRESH_TICK, REFRESH_TICK);
+			} catch (IllegalStateException e) {
+				// Timer cancelled - we're shutting down
+				_timeoutSweeper = null;
+			}
+		}
+	}
+
 	/**
 	 * We express interests to the ccnd and register them within the network manager
 	 *
@@ -947,8 +1221,10 @@ public class CCNNetworkManager implements Runnable {
 
 		// Make sure potential remnants of cancelled interest are also cancelled
 		synchronized (_beingDeliveredLock) {
-			if (null != _beingDelivered  && _beingDelivered.equals(reg))
-				_beingDelivered.cancelled = true;
+			for (InterestRegistration delivering : _beingDelivered) {
+				if (delivering.equals(reg))
+					delivering.cancelled = true;
+			}
 		}
 	}
 
@@ -1204,27 +1480,141 @@ public class CCNNetworkManager implements Runnable {
 		writeInner(interest);
 	}
 
+	/**
+	 * Write out any packets held back for a batched write. This is only needed by callers that
+	 * want their output to go to ccnd before the batch delay expires - see
+	 * SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES.
+	 */
+	public void flush() {
+		synchronized (_channel) {
+			flushWrites();
+		}
+	}
+
+	/**
+	 * Write refreshed interests. On a stream connection they go out together in one gathering
+	 * write, whether or not other writes are batched.
+	 */
+	private void writeRefreshes(List<Interest> interests) throws ContentEncodingException {
+		if (interests.isEmpty())
+			return;
+		synchronized (_channel) {
+			_refreshing = true;
+			try {
+				for (Interest interest : interests)
+					write(interest);
+			} finally {
+				_refreshing = false;
+				flushWrites();
+			}
+		}
+	}
+
+	/**
+	 * Batch writes only on a stream connection. Over UDP each packet has to be its own datagram
+	 * anyway.
+	 */
+	private boolean batchWrites() {
+		return _run && _protocol == NetworkProtocol.TCP && (_refreshing || SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES > 0);
+	}
+
+	/**
+	 * Write all pending packets to the channel with one gathering write.
+	 * Must be called with the _channel lock held.
+	 */
+	private void flushWrites() {
+		if (_pendingWrites.isEmpty())
+			return;
+		ByteBuffer [] srcs = _pendingWrites.toArray(new ByteBuffer[_pendingWrites.size()]);
+		int length = _pendingWriteBytes;
+		_pendingWrites.clear();
+		_pendingWriteBytes = 0;
+		try {
+			long result = _channel.write(srcs);
+			if (result < 0) {
+				// The channel has gone away under us - the whole batch is lost
+				_stats.increment(StatsEnum.WriteBatchesDropped);
+				Log.warning(Log.FAC_NETMANAGER, formatMessage("Dropped batch of {0} packets ({1} bytes): channel closed"), srcs.length, length);
+				return;
+			}
+			_stats.increment(StatsEnum.WriteBatches);
+			_stats.addSample(StatsEnum.WriteBatchPackets, srcs.length);
+			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
+				Log.finest(Log.FAC_NETMANAGER, formatMessage("Wrote batch of " + srcs.length + " packets (" + length + " bytes, result " + result + ")"));
+
+			if( result < length ) {
+				_stats.increment(StatsEnum.WriteUnderflows);
+				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
+					Log.info(Log.FAC_NETMANAGER,
+							formatMessage("Wrote batch {0} bytes to channel, but batch was {1} bytes"),
+							result,
+							length);
+			}
+		} catch (IOException io) {
+			_stats.increment(StatsEnum.WriteErrors);
+			Log.warning(Log.FAC_NETMANAGER, formatMessage("Error sending packet batch: " + io.toString()));
+		}
+	}
+
+	/**
+	 * Flushes a batch which hasn't filled up within the batch delay
+	 */
+	private class WriteFlusher extends TimerTask {
+		@Override
+		public void run() {
+			synchronized (_channel) {
+				_flushScheduled = false;
+				flushWrites();
+			}
+		}
+	}
+
 	// DKS TODO unthrown exception
 	private void writeInner(GenericXMLEncodable packet) throws ContentEncodingException {
 		try {
-			byte[] bytes = packet.encode();
-			ByteBuffer datagram = ByteBuffer.wrap(bytes);
+			// Encode in to this thread's shared buffer; only batched writes,
+			// which outlive this call, need their own copy
+			ByteBuffer encoded = packet.encodeShared();
+			int length = encoded.remaining();
 			synchronized (_channel) {
-				int result = _channel.write(datagram);
-				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
-					Log.finest(Log.FAC_NETMANAGER, formatMessage("Wrote datagram (" + datagram.position() + " bytes, result " + result + ")"));
-
-				if( result < bytes.length ) {
-					_stats.increment(StatsEnum.WriteUnderflows);
-					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
-						Log.info(Log.FAC_NETMANAGER,
-								formatMessage("Wrote datagram {0} bytes to channel, but packet was {1} bytes"),
-								result,
-								bytes.length);
+				if (batchWrites()) {
+					ByteBuffer copy = ByteBuffer.allocate(length);
+					copy.put(encoded.duplicate());
+					copy.flip();
+					_pendingWrites.add(copy);
+					_pendingWriteBytes += length;
+					if (_refreshing) {
+						// writeRefreshes() flushes when it is done
+					} else if (_pendingWriteBytes >= SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES) {
+						flushWrites();
+					} else if (!_flushScheduled) {
+						if (null == _flushTimer)
+							_flushTimer = new Timer("CCNNetworkManager " + _managerId + " write flusher", true);
+						_flushTimer.schedule(new WriteFlusher(), SystemConfiguration.NETMANAGER_WRITE_BATCH_DELAY);
+						_flushScheduled = true;
+					}
+				} else {
+					// Anything left over from before batching was turned off must go first
+					flushWrites();
+					ByteBuffer datagram = encoded.duplicate();
+					int result = _channel.write(datagram);
+					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
+						Log.finest(Log.FAC_NETMANAGER, formatMessage("Wrote datagram (" + datagram.position() + " bytes, result " + result + ")"));
+
+					if( result < length ) {
+						_stats.increment(StatsEnum.WriteUnderflows);
+						if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
+							Log.info(Log.FAC_NETMANAGER,
+									formatMessage("Wrote datagram {0} bytes to channel, but packet was {1} bytes"),
+									result,
+									length);
+					}
 				}
 
 				if (null != _tapStreamOut) {
 					try {
+						byte [] bytes = new byte[length];
+						encoded.duplicate().get(bytes);
 						_tapStreamOut.write(bytes);
 					} catch (IOException io) {
 						Log.warning(Log.FAC_NETMANAGER, formatMessage("Unable to write packet to tap stream for debugging"));
@@ -1250,7 +1640,9 @@ public class CCNNetworkManager implements Runnable {
 		setupTimers();
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
 			Log.finest(Log.FAC_NETMANAGER, formatMessage("registerInterest for {0}, and obj is " + _myInterests.hashCode()), reg.interest.name());
+		reg.registered = true;
 		_myInterests.add(reg.interest, reg);
+		_refreshWheel.schedule(reg.refreshNode, reg.nextRefresh);
 		return reg;
 	}
 
@@ -1265,11 +1657,21 @@ public class CCNNetworkManager implements Runnable {
 	private InterestRegistration unregisterInterest(InterestRegistration reg) {
 		InterestRegistration result = reg;
 		Entry<InterestRegistration> entry = _myInterests.remove(reg.interest, reg);
-		if (null != entry)
+		if (null != entry) {
 			result = entry.value();
+			stopRefreshing(result);
+		}
 		return result;
 	}
 
+	/**
+	 * Take a registration which has been removed from _myInterests off the refresh wheel
+	 */
+	private void stopRefreshing(InterestRegistration reg) {
+		reg.registered = false;
+		_refreshWheel.cancel(reg.refreshNode);
+	}
+
 	/**
 	 * Reader thread: this thread will handle reading datagrams and perform callbacks after reading
 	 * complete packets.
@@ -1355,8 +1757,26 @@ public class CCNNetworkManager implements Runnable {
 	protected void deliverInterest(InterestRegistration ireg, Interest interest) {
 		_stats.increment(StatsEnum.DeliverInterest);
 
-		// Call any handlers with matching filters
-		for (Filter filter : _myFilters.getValues(ireg.interest.name())) {
+		List<Filter> filters = _myFilters.getValues(ireg.interest.name());
+		if (filters.isEmpty())
+			return;
+		if (null == _dispatcher) {
+			deliverInterest(filters, ireg, interest);
+			return;
+		}
+
+		// Filters are returned longest first. Any shorter filter matching this interest is a prefix
+		// of every longer one, so the shortest matching filter is the same for every interest seen by
+		// a given filter. Partitioning on it keeps each filter's interests in order.
+		ContentName partition = filters.get(filters.size() - 1).prefix;
+		dispatch(partition, new InterestDelivery(filters, ireg, interest));
+	}
+
+	/**
+	 * Call the handlers of matching filters until one of them handles the interest
+	 */
+	protected void deliverInterest(List<Filter> filters, InterestRegistration ireg, Interest interest) {
+		for (Filter filter : filters) {
 			if (filter.owner != ireg.owner) {
 				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
 					Log.finer(Log.FAC_NETMANAGER, formatMessage("Schedule delivery for interest: {0}"), interest);
@@ -1379,9 +1799,82 @@ public class CCNNetworkManager implements Runnable {
 
 		for (InterestRegistration ireg : _myInterests.getValues(co)) {
 			_stats.increment(StatsEnum.DeliverContentMatchingInterests);
+			if (null != _dispatcher && null != ireg.handler) {
+				// Claim the registration here so that a later packet can't also be routed to it
+				// before the handler has run. If it's already gone it was cancelled or consumed.
+				if (null == _myInterests.remove(ireg.interest, ireg))
+					continue;
+				stopRefreshing(ireg);
+				// Until it runs a cancel must be able to find it
+				synchronized (_beingDeliveredLock) {
+					_beingDelivered.add(ireg);
+				}
+				dispatch(ireg.interest.name(), new ContentDelivery(ireg, co));
+			} else {
+				// Blocked getters are just woken up so there's no point in dispatching them
+				long startTime = System.nanoTime();
+				ireg.deliver(co);
+				_stats.addSample(StatsEnum.ContentHandlerTime, System.nanoTime() - startTime);
+			}
+		}
+	}
+
+	/**
+	 * Hand a delivery to the dispatch threads
+	 */
+	protected void dispatch(ContentName partition, DispatchedDelivery delivery) {
+		_stats.increment(StatsEnum.Dispatched);
+		_stats.addSample(StatsEnum.DispatchQueueDepth, _dispatcher.dispatch(partition, delivery));
+	}
+
+	/**
+	 * A handler callback queued to the dispatch threads
+	 */
+	protected abstract class DispatchedDelivery implements Runnable {
+		protected final long _queuedTime = System.nanoTime();
+
+		public void run() {
 			long startTime = System.nanoTime();
-			ireg.deliver(co);
+			_stats.addSample(StatsEnum.DispatchLatency, startTime - _queuedTime);
+			deliver(startTime);
+		}
+
+		protected abstract void deliver(long startTime);
+	}
+
+	protected class ContentDelivery extends DispatchedDelivery {
+		protected final InterestRegistration _ireg;
+		protected final ContentObject _co;
+
+		protected ContentDelivery(InterestRegistration ireg, ContentObject co) {
+			_ireg = ireg;
+			_co = co;
+		}
+
+		@Override
+		protected void deliver(long startTime) {
+			_ireg.deliver(_co);
 			_stats.addSample(StatsEnum.ContentHandlerTime, System.nanoTime() - startTime);
+			synchronized (_beingDeliveredLock) {
+				_beingDelivered.remove(_ireg);
+			}
+		}
+	}
+
+	protected class InterestDelivery extends DispatchedDelivery {
+		protected final List<Filter> _filters;
+		protected final InterestRegistration _ireg;
+		protected final Interest _interest;
+
+		protected InterestDelivery(List<Filter> filters, InterestRegistration ireg, Interest interest) {
+			_filters = filters;
+			_ireg = ireg;
+			_interest = interest;
+		}
+
+		@Override
+		protected void deliver(long startTime) {
+			deliverInterest(_filters, _ireg, _interest);
 		}
 	}
 
@@ -1479,10 +1972,15 @@ public class CCNNetworkManager implements Runnable {
 
 		Puts ("ContentObjects", "The number of put calls"),
 		Gets ("ContentObjects", "The number of get calls"),
+		GetsAsync ("ContentObjects", "The number of getAsync calls"),
+		GetsAsyncTimeout ("ContentObjects", "The number of getAsync calls which timed out"),
 		WriteInterest ("calls", "The number of calls to write(Interest)"),
 		WriteObject ("calls", "The number of calls to write(ContentObject)"),
 		WriteErrors ("count", "Error count for writeInner()"),
 		WriteUnderflows ("count", "The count of times when the bytes written to the channel < buffer size"),
+		WriteBatches ("calls", "The number of batched writes to the channel"),
+		WriteBatchPackets ("packets", "The average number of packets in a batched write"),
+		WriteBatchesDropped ("batches", "The number of batched writes lost because the channel was closed"),
 
 		ExpressInterest ("calls", "The number of calls to expressInterest"),
 		CancelInterest ("calls", "The number of calls to cancelInterest"),
@@ -1495,6 +1993,7 @@ public class CCNNetworkManager implements Runnable {
 
 		InterestHandlerTime("nanos", "The average amount of time spent in interest handlers"),
 		ContentHandlerTime("nanos", "The average amount of time spent in content handlers"),
+		FetchLatency("nanos", "The time from expressing an interest to delivering content for it"),
 
 		ReceiveObject ("objects", "Receive count of ContentObjects from channel"),
 		ReceiveInterest ("interests", "Receive count of Interests from channel"),
@@ -1502,6 +2001,10 @@ public class CCNNetworkManager implements Runnable {
 		ReceiveErrors ("errors", "Number of errors from the channel in run() loop"),
 
 		ContentObjectsIgnored ("ContentObjects", "The number of ContentObjects that are never handled"),
+
+		Dispatched ("calls", "The number of handler calls queued to the dispatch threads"),
+		DispatchQueueDepth ("calls", "The average depth of a dispatch queue after queueing a handler call"),
+		DispatchLatency ("nanos", "The average time a handler call waits in a dispatch queue"),
 		;
 
 		// ====================================
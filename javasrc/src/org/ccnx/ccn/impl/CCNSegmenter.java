@@ -37,6 +37,7 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.security.crypto.CCNAggregatedSigner;
 import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTreeBuilder;
 import org.ccnx.ccn.impl.security.crypto.CCNMerkleTreeSigner;
 import org.ccnx.ccn.impl.security.crypto.ContentKeys;
 import org.ccnx.ccn.impl.security.crypto.UnbufferedCipherInputStream;
@@ -136,6 +137,12 @@ public class CCNSegmenter {
 	 */
 	protected CCNAggregatedSigner _bulkSigner;
 
+	/**
+	 * If we're signing with Merkle trees, hashes blocks as they are added to _blocks
+	 * rather than all at once when they are output.
+	 */
+	protected CCNMerkleTreeBuilder _treeBuilder;
+
 	/**
 	 * The first segment, useful for obtaining starting segment number and digest to characterize
 	 * set of segmented content.
@@ -188,6 +195,8 @@ public class CCNSegmenter {
 		} else {
 			_bulkSigner = signer; // if null, default to merkle tree
 		}
+		if (_bulkSigner instanceof CCNMerkleTreeSigner)
+			_treeBuilder = new CCNMerkleTreeBuilder();
 
 		_blockSize = SystemConfiguration.BLOCK_SIZE;
 	}
@@ -673,10 +682,25 @@ public class CCNSegmenter {
 			if (Log.isLoggable(Log.FAC_IO, Level.INFO))
 				Log.info(Log.FAC_IO, "flush: putting merkle tree to the network, name starts with " + blocks[0].name() + "; "
 	                    + _blocks.size() + " blocks");
-			_bulkSigner.signBlocks(blocks, signingKey);
+			if ((null != _treeBuilder) && (_treeBuilder.size() == blocks.length))
+				_treeBuilder.build(signingKey);
+			else
+				_bulkSigner.signBlocks(blocks, signingKey);
 			getFlowControl().put(blocks);
 		}
 		_blocks.clear();
+		if (null != _treeBuilder)
+			_treeBuilder.clear();
+	}
+
+	/**
+	 * Add a block to those awaiting signing and output
+	 * @param co the block, complete except for its signature
+	 */
+	protected void addBlock(ContentObject co) {
+		_blocks.add(co);
+		if (null != _treeBuilder)
+			_treeBuilder.add(co);
 	}
 
 	/**
@@ -803,7 +827,7 @@ public class CCNSegmenter {
 						SegmentationProfile.segmentName(rootName, nextSegmentIndex),
 						signedInfo,
 						dataStream, blockWidth);
-			_blocks.add(co);
+			addBlock(co);
 			if (null == _firstSegment) {
 				_firstSegment = co;
 			}
@@ -868,7 +892,7 @@ public class CCNSegmenter {
 			new ContentObject(
 					SegmentationProfile.segmentName(rootName, segmentNumber),
 					signedInfo,contentBlock, offset, length,(Signature)null);
-		_blocks.add(co);
+		addBlock(co);
 		if (null == _firstSegment) {
 			_firstSegment = co;
 		}
@@ -17,7 +17,11 @@
 
 package org.ccnx.ccn.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
 
@@ -54,6 +58,10 @@ import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
  * of the Enums.  If you call addSample(item, value), then the item "item" will be
  * tagged as an averaging stat and the toString() method will format it as such.
  * 
+ * The averaging counter also keeps a Histogram of the samples, so percentiles can be
+ * read with getHistogram(name, reset). Reading with reset gives windowed statistics:
+ * each read covers the samples since the last one. Adding a sample takes no locks.
+ * 
  * Might want to add an EWMA type counter too.  I think we'll want to expand the
  * IStatsEnum to make it take a counter type argument.
  */
@@ -120,6 +128,19 @@ public abstract class CCNStats {
 	 */
 	public abstract double[] getAverageAndStdev(String name) throws IllegalArgumentException;
 
+	/**
+	 * Return the distribution of the samples of an averaging counter, from which
+	 * percentiles can be read.
+	 * 
+	 * @param name
+	 * @param reset if true, clear the samples returned, starting a new window
+	 * @return the distribution, or null if the counter doesn't keep one
+	 * @throws IllegalArgumentException if name unrecognized
+	 */
+	public Histogram.Snapshot getHistogram(String name, boolean reset) throws IllegalArgumentException {
+		return null;
+	}
+
 	/**
 	 * Return a text description of the units of the counter (e.g. packets, packets per second)
 	 * @param name
@@ -128,6 +149,16 @@ public abstract class CCNStats {
 	 */
 	public abstract String getCounterUnits(String name) throws IllegalArgumentException;
 
+	/**
+	 * Return a text description of what the counter counts
+	 * @param name
+	 * @return the description, or the name if there isn't one
+	 * @throws IllegalArgumentException if name unrecognized
+	 */
+	public String getCounterDescription(String name) throws IllegalArgumentException {
+		return name;
+	}
+
 	/**
 	 * Reset all counters to zero
 	 */
@@ -180,14 +211,23 @@ public abstract class CCNStats {
 		}
 
 		public CCNEnumStats(IStatsEnum stats) {
+			this(stats, null);
+		}
+
+		/**
+		 * @param stats
+		 * @param bounds bucket bounds for the histograms of averaging counters, see
+		 * 	Histogram(long []). null for the default buckets.
+		 */
+		public CCNEnumStats(IStatsEnum stats, long [] bounds) {
 			_resolver = stats;
+			_bounds = bounds;
 			int size = _resolver.getNames().length;
 			_counters = new AtomicLong[size];		
-			_avgcounters = new AveragingCounter[size];
+			_histograms = new AtomicReferenceArray<Histogram>(size);
 			
 			for(int i = 0; i < size; i++) {
 				_counters[i] = new AtomicLong(0);
-				_avgcounters[i] = new AveragingCounter();
 			}
 		}
 
@@ -196,14 +236,18 @@ public abstract class CCNStats {
 			for(AtomicLong al : _counters)
 				al.set(0);
 			
-			for(AveragingCounter ac : _avgcounters)
-				ac.clear();
+			for(int i = 0; i < _histograms.length(); i++) {
+				Histogram histogram = _histograms.get(i);
+				if (null != histogram)
+					histogram.clear();
+			}
 		}
 
 		@Override
 		public boolean isAveragingCounter(String name) throws IllegalArgumentException {
 			int index = _resolver.getIndex(name);
-			return _avgcounters[index].getCount() > 0;
+			Histogram histogram = _histograms.get(index);
+			return null != histogram && histogram.getCount() > 0;
 		}
 		
 		@Override
@@ -215,7 +259,17 @@ public abstract class CCNStats {
 		@Override
 		public double[] getAverageAndStdev(String name) throws IllegalArgumentException {
 			int index = _resolver.getIndex(name);
-			return _avgcounters[index].getAverageAndDeviation();
+			Histogram histogram = _histograms.get(index);
+			if (null == histogram)
+				return new double[] { Double.NaN, Double.NaN };
+			return histogram.snapshot(false).getAverageAndStdev();
+		}
+
+		@Override
+		public Histogram.Snapshot getHistogram(String name, boolean reset) throws IllegalArgumentException {
+			int index = _resolver.getIndex(name);
+			Histogram histogram = _histograms.get(index);
+			return (null == histogram) ? null : histogram.snapshot(reset);
 		}
 
 		@Override
@@ -229,6 +283,12 @@ public abstract class CCNStats {
 			return _resolver.getUnits(index);
 		}
 
+		@Override
+		public String getCounterDescription(String name) throws IllegalArgumentException {
+			int index = _resolver.getIndex(name);
+			return _resolver.getDescription(index);
+		}
+
 		@Override
 		public void setEnabled(boolean enabled) {
 			_enabled = enabled;	
@@ -259,8 +319,9 @@ public abstract class CCNStats {
 				
 				// if we have been accumulating an avg/std, then return it
 				// as that, otherwise return it as a counter.
-				if( _avgcounters[i].getCount() > 0 ) {
-					sb.append(_avgcounters[i].toString());
+				Histogram.Snapshot snapshot = (null == _histograms.get(i)) ? null : _histograms.get(i).snapshot(false);
+				if( null != snapshot && snapshot.getCount() > 0 ) {
+					sb.append(snapshot.toString());
 				} else {
 					sb.append(_counters[i].get());
 				}
@@ -290,101 +351,368 @@ public abstract class CCNStats {
 		 */
 		public void addSample(K key, long value) {
 			if(_enabled) {
-				_avgcounters[key.ordinal()].addSample(value);
+				histogram(key.ordinal()).addSample(value);
 			}
 		}
+
+		/**
+		 * Use different buckets for the histogram of one averaging counter. Any samples
+		 * it already has are discarded.
+		 * @param key
+		 * @param bounds see Histogram(long [])
+		 */
+		public void setHistogramBounds(K key, long [] bounds) {
+			_histograms.set(key.ordinal(), new Histogram(bounds));
+		}
+
+		protected Histogram histogram(int index) {
+			Histogram histogram = _histograms.get(index);
+			if (null == histogram) {
+				_histograms.compareAndSet(index, null, new Histogram(_bounds));
+				histogram = _histograms.get(index);
+			}
+			return histogram;
+		}
 		
 		// =======================
 		protected final AtomicLong [] _counters;
 		protected final IStatsEnum _resolver;
 		protected boolean _enabled = true;
-		protected final AveragingCounter [] _avgcounters;
-		
+		protected final AtomicReferenceArray<Histogram> _histograms;
+		protected final long [] _bounds;
+	}
+
+	/**
+	 * A distribution of samples, such as latencies, from which percentiles can be read.
+	 *
+	 * Samples are counted in buckets. By default there are four buckets for each power of two,
+	 * so a percentile is reported to within 25% of the true value whatever the units, and the
+	 * bucket is found with a few shifts. Alternatively the caller can give the bucket bounds.
+	 *
+	 * Adding a sample takes no locks. Each thread adds to one of several stripes of counters,
+	 * chosen by its id, so threads adding at the same time rarely touch the same counters; the
+	 * stripes are summed when the distribution is read. Reading with reset starts a new window.
+	 * A sample added while a snapshot is being taken is counted in either the old window or
+	 * the new one, but its bucket and its contribution to the sum might not land in the same one.
+	 */
+	public static class Histogram {
+		public static final double [] REPORTED_PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+		protected static final int SUB_BUCKET_BITS = 2;
+		protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		protected static final int LOG_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+		// Counters kept in each stripe after the buckets
+		protected static final int SUM = 0;
+		protected static final int SUM2 = 1;
+		protected static final int MAX = 2;
+		protected static final int EXTRA = 3;
+
+		protected static final int STRIPES;
+
+		static {
+			int stripes = 1;
+			while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16)
+				stripes <<= 1;
+			STRIPES = stripes;
+		}
+
+		protected final long [] _bounds;
+		protected final int _buckets;
+		protected final int _stride;
+		protected final AtomicLongArray _cells;
+
+		/**
+		 * Create a histogram with the default buckets, four per power of two
+		 */
+		public Histogram() {
+			this(null);
+		}
+
 		/**
-		 * This is used to track an averaging counter.
-		 * This is a thread-safe class, so will work like
-		 * the AtomicLong.
-		 * 
-		 * Returns the mean (sum/count) and sample standard
-		 * deviation.  The sample standard deviation is:
-		 * 
-		 * 1/(N-1) * Sum(x_i - mean)^2 = N/(N-1) * ( 1/N * sum^2 - mean^2)
+		 * @param bounds the inclusive upper bounds of the buckets, in increasing order. Samples
+		 * 	above the last bound are counted in a bucket of their own. null for the default buckets.
 		 */
-		private static class AveragingCounter {
-			public AveragingCounter() {
-				clear();
+		public Histogram(long [] bounds) {
+			if (null != bounds) {
+				for (int i = 1; i < bounds.length; i++) {
+					if (bounds[i] <= bounds[i - 1])
+						throw new IllegalArgumentException("Histogram bounds must increase: " + Arrays.toString(bounds));
+				}
+				_bounds = bounds.clone();
+				_buckets = bounds.length + 1;
+			} else {
+				_bounds = null;
+				_buckets = LOG_BUCKETS;
 			}
-			
-			public synchronized void addSample(long sample) {
-				_sum += sample;
-				_sum2+= sample * sample;
-				_count++;
-				_dirty = true;
+			_stride = _buckets + EXTRA;
+			_cells = new AtomicLongArray(STRIPES * _stride);
+			for (int stripe = 0; stripe < STRIPES; stripe++)
+				_cells.set(stripe * _stride + _buckets + MAX, Long.MIN_VALUE);
+		}
+
+		public void addSample(long sample) {
+			int base = (int)(Thread.currentThread().getId() & (STRIPES - 1)) * _stride;
+			_cells.incrementAndGet(base + bucket(sample));
+			_cells.addAndGet(base + _buckets + SUM, sample);
+			_cells.addAndGet(base + _buckets + SUM2, sample * sample);
+			int max = base + _buckets + MAX;
+			long current;
+			while (sample > (current = _cells.get(max)) && !_cells.compareAndSet(max, current, sample))
+				;
+		}
+
+		/**
+		 * @param reset if true, clear the samples returned so the next snapshot covers a new window
+		 * @return the samples added since the histogram was created or last reset
+		 */
+		public Snapshot snapshot(boolean reset) {
+			long [] counts = new long[_buckets];
+			long sum = 0;
+			long sum2 = 0;
+			long max = Long.MIN_VALUE;
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				int base = stripe * _stride;
+				for (int i = 0; i < _buckets; i++)
+					counts[i] += reset ? _cells.getAndSet(base + i, 0) : _cells.get(base + i);
+				sum += reset ? _cells.getAndSet(base + _buckets + SUM, 0) : _cells.get(base + _buckets + SUM);
+				sum2 += reset ? _cells.getAndSet(base + _buckets + SUM2, 0) : _cells.get(base + _buckets + SUM2);
+				max = Math.max(max, reset ? _cells.getAndSet(base + _buckets + MAX, Long.MIN_VALUE)
+						: _cells.get(base + _buckets + MAX));
 			}
-			
-			public synchronized void clear() {
-				_sum = 0;
-				_sum2= 0;
-				_count=0;
-				_dirty = true;
+			return new Snapshot(this, counts, sum, sum2, max);
+		}
+
+		/**
+		 * @return the number of samples added since the histogram was created or last reset
+		 */
+		public long getCount() {
+			long count = 0;
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				int base = stripe * _stride;
+				for (int i = 0; i < _buckets; i++)
+					count += _cells.get(base + i);
 			}
-			
+			return count;
+		}
+
+		public void clear() {
+			snapshot(true);
+		}
+
+		protected int bucket(long sample) {
+			if (null != _bounds) {
+				int index = Arrays.binarySearch(_bounds, sample);
+				return (index >= 0) ? index : -index - 1;
+			}
+			if (sample < SUB_BUCKETS)
+				return (sample < 0) ? 0 : (int)sample;
+			int power = 63 - Long.numberOfLeadingZeros(sample);
+			int sub = (int)(sample >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return SUB_BUCKETS + (power - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+		}
+
+		/**
+		 * @return the largest sample counted in bucket
+		 */
+		protected long upperBound(int bucket) {
+			if (null != _bounds)
+				return (bucket < _bounds.length) ? _bounds[bucket] : Long.MAX_VALUE;
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int power = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+			long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+			long width = 1L << (power - SUB_BUCKET_BITS);
+			return (SUB_BUCKETS + sub) * width + width - 1;
+		}
+
+		/**
+		 * The samples in a Histogram at one time
+		 */
+		public static class Snapshot {
+			protected final Histogram _histogram;
+			protected final long [] _counts;
+			protected final long _count;
+			protected final long _sum;
+			protected final long _sum2;
+			protected final long _max;
+
+			protected Snapshot(Histogram histogram, long [] counts, long sum, long sum2, long max) {
+				_histogram = histogram;
+				_counts = counts;
+				long count = 0;
+				for (long c : counts)
+					count += c;
+				_count = count;
+				_sum = sum;
+				_sum2 = sum2;
+				_max = max;
+			}
+
+			public long getCount() {
+				return _count;
+			}
+
 			/**
-			 * returns the [average, stdev] pair.  Both may be NaN if there
-			 * are not enough samples (need 1 for avg, 2 for stdev).
+			 * @return the total of the samples
 			 */
-			public synchronized double[] getAverageAndDeviation() {
-				if(_dirty) {
-					calculate();
-				}
-				
-				// return a copy so values inside the array cannot be modified
-				double[] out = new double[2];
-				out[0] = _avg;
-				out[1] = _std;
-				return out;
+			public long getSum() {
+				return _sum;
 			}
 
-			public synchronized long getCount() {
-				return _count;
+			/**
+			 * @return the largest sample, or 0 if there are none
+			 */
+			public long getMax() {
+				return (_count > 0) ? _max : 0;
 			}
-			
-			public synchronized String toString() {
-				if(_dirty) {
-					calculate();
+
+			/**
+			 * @param percent between 0 and 100
+			 * @return the upper bound of the bucket holding the sample at that percentile, but no
+			 * 	more than the largest sample; 0 if there are no samples
+			 */
+			public long getPercentile(double percent) {
+				if (_count == 0)
+					return 0;
+				long rank = Math.max(1, (long)Math.ceil(percent / 100.0 * _count));
+				long seen = 0;
+				for (int i = 0; i < _counts.length; i++) {
+					seen += _counts[i];
+					if (seen >= rank)
+						return Math.min(_histogram.upperBound(i), _max);
 				}
-				
-				return _string;
+				return _max;
 			}
-			
-			// ============================
-			private boolean _dirty = false;
-			private long _sum;
-			private long _sum2;
-			private long _count;
-			private double _avg, _std;
-			private String _string;
-			
-			// must be called in a synchronized method
-			private void calculate() {
-				_avg = Double.NaN;
-				_std = Double.NaN;
+
+			/**
+			 * returns the [average, stdev] pair.  Both may be NaN if there
+			 * are not enough samples (need 1 for avg, 2 for stdev).
+			 *
+			 * The standard deviation is:
+			 * 1/(N-1) * Sum(x_i - mean)^2 = N/(N-1) * ( 1/N * sum^2 - mean^2)
+			 */
+			public double[] getAverageAndStdev() {
+				double avg = Double.NaN;
+				double std = Double.NaN;
 				if( _count > 0 ) {
-					_avg = (double) _sum / _count;
-					
+					avg = (double) _sum / _count;
+
 					if( _count > 1 ) {
-						double inner = (double) _sum2 / _count - (_avg * _avg);
+						double inner = (double) _sum2 / _count - (avg * avg);
 						double var = _count/(_count-1) * inner ;
-						_std = Math.sqrt(var);
+						std = Math.sqrt(var);
 					}
 				}
-				
-				_string = String.format("avg %.3g stdev %.3g", _avg, _std);
-				_dirty = false;
+				return new double[] { avg, std };
+			}
+
+			@Override
+			public String toString() {
+				double [] avgStd = getAverageAndStdev();
+				StringBuilder sb = new StringBuilder(String.format("avg %.3g stdev %.3g", avgStd[0], avgStd[1]));
+				for (double percent : REPORTED_PERCENTILES) {
+					sb.append(" p");
+					sb.append(percentileName(percent));
+					sb.append(' ');
+					sb.append(getPercentile(percent));
+				}
+				return sb.toString();
+			}
+
+			/**
+			 * @return "50" for 50, "999" for 99.9 and so on
+			 */
+			public static String percentileName(double percent) {
+				String name = Double.toString(percent);
+				if (name.endsWith(".0"))
+					name = name.substring(0, name.length() - 2);
+				return name.replace(".", "");
 			}
 		}
 	}
 
+	/**
+	 * Presents the counters of several CCNStats as one, for a class whose statistics
+	 * are partly kept by the objects it uses. Counter names must be distinct across
+	 * the parts.
+	 */
+	public static class CCNCompositeStats extends CCNStats {
+		protected final CCNStats [] _parts;
+
+		public CCNCompositeStats(CCNStats... parts) {
+			_parts = parts;
+		}
+
+		protected CCNStats part(String name) throws IllegalArgumentException {
+			for (CCNStats part : _parts) {
+				for (String partName : part.getCounterNames()) {
+					if (partName.equals(name))
+						return part;
+				}
+			}
+			throw new IllegalArgumentException("No counter named " + name);
+		}
+
+		@Override
+		public void setEnabled(boolean enabled) {
+			for (CCNStats part : _parts)
+				part.setEnabled(enabled);
+		}
+
+		@Override
+		public String [] getCounterNames() {
+			ArrayList<String> names = new ArrayList<String>();
+			for (CCNStats part : _parts)
+				names.addAll(Arrays.asList(part.getCounterNames()));
+			return names.toArray(new String[names.size()]);
+		}
+
+		@Override
+		public boolean isAveragingCounter(String name) throws IllegalArgumentException {
+			return part(name).isAveragingCounter(name);
+		}
+
+		@Override
+		public long getCounter(String name) throws IllegalArgumentException {
+			return part(name).getCounter(name);
+		}
+
+		@Override
+		public double[] getAverageAndStdev(String name) throws IllegalArgumentException {
+			return part(name).getAverageAndStdev(name);
+		}
+
+		@Override
+		public Histogram.Snapshot getHistogram(String name, boolean reset) throws IllegalArgumentException {
+			return part(name).getHistogram(name, reset);
+		}
+
+		@Override
+		public String getCounterUnits(String name) throws IllegalArgumentException {
+			return part(name).getCounterUnits(name);
+		}
+
+		@Override
+		public String getCounterDescription(String name) throws IllegalArgumentException {
+			return part(name).getCounterDescription(name);
+		}
+
+		@Override
+		public void clearCounters() {
+			for (CCNStats part : _parts)
+				part.clearCounters();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (CCNStats part : _parts)
+				sb.append(part.toString());
+			return sb.toString();
+		}
+	}
+
 	public static class ExampleClassWithStatistics implements CCNStatistics {
 		public enum MyStats implements IStatsEnum {
 			// =============================================
@@ -0,0 +1,476 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.Histogram;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * Every CCNStatistics implementer registers with the registry when it is constructed, so its
+ * counters can be read from outside the process.
+ *
+ * Each registered object is published as a JMX MBean named org.ccnx.ccn:type=<class>,name=<n>,
+ * whose attributes are its counters. Averaging counters also have Average and P50, P90, P99
+ * and P999 attributes. This is turned off by SystemConfiguration.STATS_JMX.
+ *
+ * If SystemConfiguration.STATS_HTTP_PORT is 0 or more, the registry also serves the counters of
+ * every registered object in the Prometheus text format to GET requests on that port of the
+ * loopback address. Counters become ccnx_<class>_<counter> with an id label for the object;
+ * averaging counters become summaries.
+ *
+ * Objects are held by WeakReference and drop out of the registry when they are collected, so
+ * registering doesn't keep anything alive. Objects with a shutdown unregister explicitly.
+ */
+public class CCNStatsRegistry {
+
+	public static final String JMX_DOMAIN = "org.ccnx.ccn";
+	public static final String METRIC_PREFIX = "ccnx_";
+
+	protected static CCNStatsRegistry _defaultRegistry = null;
+
+	protected final LinkedHashMap<String, Registration> _registrations = new LinkedHashMap<String, Registration>();
+	protected final HashMap<String, Integer> _typeCounts = new HashMap<String, Integer>();
+	protected final ReferenceQueue<CCNStatistics> _collected = new ReferenceQueue<CCNStatistics>();
+	protected final MBeanServer _mbeanServer;
+	protected ServerSocket _httpSocket = null;
+
+	protected class Registration extends WeakReference<CCNStatistics> {
+		protected final String _type;
+		protected final String _id;
+		protected ObjectName _objectName = null;
+
+		protected Registration(CCNStatistics source, String type, String id) {
+			super(source, _collected);
+			_type = type;
+			_id = id;
+		}
+
+		protected String key() {
+			return _type + ":" + _id;
+		}
+
+		/**
+		 * @return the object's stats, or null if it has been collected
+		 */
+		protected CCNStats stats() {
+			CCNStatistics source = get();
+			return (null == source) ? null : source.getStats();
+		}
+	}
+
+	/**
+	 * The samples of one Prometheus metric, one per registered object
+	 */
+	protected static class Family {
+		protected final String _help;
+		protected boolean _summary = false;
+		protected final ArrayList<String> _labels = new ArrayList<String>();
+		protected final ArrayList<Long> _values = new ArrayList<Long>();
+		protected final ArrayList<Histogram.Snapshot> _snapshots = new ArrayList<Histogram.Snapshot>();
+
+		protected Family(String help) {
+			_help = help;
+		}
+	}
+
+	/**
+	 * @param jmx true to publish registered objects as MBeans
+	 */
+	public CCNStatsRegistry(boolean jmx) {
+		_mbeanServer = jmx ? ManagementFactory.getPlatformMBeanServer() : null;
+	}
+
+	/**
+	 * @return the registry CCNStatistics implementers register with, configured by
+	 * 	SystemConfiguration.STATS_JMX and SystemConfiguration.STATS_HTTP_PORT
+	 */
+	public static synchronized CCNStatsRegistry getDefault() {
+		if (null == _defaultRegistry) {
+			_defaultRegistry = new CCNStatsRegistry(SystemConfiguration.STATS_JMX);
+			if (SystemConfiguration.STATS_HTTP_PORT >= 0) {
+				try {
+					_defaultRegistry.startHttpServer(SystemConfiguration.STATS_HTTP_PORT);
+				} catch (IOException e) {
+					Log.warning(Log.FAC_DEFAULT, "Cannot serve statistics on port {0}: {1}", SystemConfiguration.STATS_HTTP_PORT, e.getMessage());
+				}
+			}
+		}
+		return _defaultRegistry;
+	}
+
+	/**
+	 * Register an object with the default registry, under the simple name of its class
+	 * @param source
+	 */
+	public static void registerStats(CCNStatistics source) {
+		getDefault().register(source, source.getClass().getSimpleName());
+	}
+
+	/**
+	 * Remove an object from the default registry
+	 * @param source
+	 */
+	public static void unregisterStats(CCNStatistics source) {
+		getDefault().unregister(source);
+	}
+
+	/**
+	 * @param source
+	 * @param type the kind of object, used in the names the counters are published under
+	 * @return the id given to source, distinguishing it from other objects of its type
+	 */
+	public String register(CCNStatistics source, String type) {
+		expunge();
+		Registration registration;
+		synchronized (_registrations) {
+			Integer count = _typeCounts.get(type);
+			count = (null == count) ? 1 : count + 1;
+			_typeCounts.put(type, count);
+			registration = new Registration(source, type, count.toString());
+			_registrations.put(registration.key(), registration);
+		}
+		if (null != _mbeanServer) {
+			try {
+				ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + registration._id);
+				_mbeanServer.registerMBean(new StatsMBean(registration), name);
+				registration._objectName = name;
+			} catch (Exception e) {
+				Log.warning(Log.FAC_DEFAULT, "Cannot publish statistics for {0} as an MBean: {1}", type, e.getMessage());
+			}
+		}
+		return registration._id;
+	}
+
+	public void unregister(CCNStatistics source) {
+		Registration found = null;
+		synchronized (_registrations) {
+			for (Registration registration : _registrations.values()) {
+				if (registration.get() == source) {
+					found = registration;
+					break;
+				}
+			}
+		}
+		if (null != found)
+			remove(found);
+		expunge();
+	}
+
+	/**
+	 * @return the number of objects registered that haven't been collected
+	 */
+	public int size() {
+		expunge();
+		synchronized (_registrations) {
+			return _registrations.size();
+		}
+	}
+
+	/**
+	 * @return the counters of every registered object, in the Prometheus text format
+	 */
+	public String toPrometheus() {
+		expunge();
+		ArrayList<Registration> registrations;
+		synchronized (_registrations) {
+			registrations = new ArrayList<Registration>(_registrations.values());
+		}
+
+		// Samples for the same metric from different objects have to be together. A metric is a
+		// summary if any object keeps a histogram for it.
+		TreeMap<String, Family> families = new TreeMap<String, Family>();
+		for (Registration registration : registrations) {
+			CCNStats stats = registration.stats();
+			if (null == stats)
+				continue;
+			for (String counter : stats.getCounterNames()) {
+				String metric = METRIC_PREFIX + metricName(registration._type) + "_" + metricName(counter);
+				Family family = families.get(metric);
+				if (null == family) {
+					family = new Family(escapeHelp(stats.getCounterDescription(counter)) + " (" + escapeHelp(stats.getCounterUnits(counter)) + ")");
+					families.put(metric, family);
+				}
+				Histogram.Snapshot snapshot = stats.getHistogram(counter, false);
+				family._summary |= (null != snapshot);
+				family._labels.add("id=\"" + registration._id + "\"");
+				family._values.add(stats.getCounter(counter));
+				family._snapshots.add(snapshot);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String metric : families.keySet()) {
+			Family family = families.get(metric);
+			sb.append("# HELP ").append(metric).append(' ').append(family._help).append('\n');
+			sb.append("# TYPE ").append(metric).append(family._summary ? " summary\n" : " counter\n");
+			for (int i = 0; i < family._labels.size(); i++) {
+				String label = family._labels.get(i);
+				if (!family._summary) {
+					sb.append(metric).append('{').append(label).append("} ").append(family._values.get(i)).append('\n');
+					continue;
+				}
+				Histogram.Snapshot snapshot = family._snapshots.get(i);
+				for (double percent : Histogram.REPORTED_PERCENTILES) {
+					sb.append(metric).append('{').append(label).append(",quantile=\"").append(percent / 100.0).append("\"} ")
+						.append(null == snapshot ? 0 : snapshot.getPercentile(percent)).append('\n');
+				}
+				sb.append(metric).append("_sum{").append(label).append("} ").append(null == snapshot ? 0 : snapshot.getSum()).append('\n');
+				sb.append(metric).append("_count{").append(label).append("} ").append(null == snapshot ? 0 : snapshot.getCount()).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Serve toPrometheus() over HTTP on the loopback address
+	 * @param port the port to listen on, 0 for any free port
+	 * @return the port listened on
+	 * @throws IOException
+	 */
+	public synchronized int startHttpServer(int port) throws IOException {
+		if (null != _httpSocket)
+			return _httpSocket.getLocalPort();
+		final ServerSocket socket = new ServerSocket(port, 16, InetAddress.getByName("127.0.0.1"));
+		_httpSocket = socket;
+		Thread thread = new Thread("CCNStatsRegistry HTTP " + socket.getLocalPort()) {
+			@Override
+			public void run() {
+				while (!socket.isClosed()) {
+					try {
+						Socket connection = socket.accept();
+						try {
+							serve(connection);
+						} finally {
+							connection.close();
+						}
+					} catch (IOException e) {
+						if (!socket.isClosed())
+							Log.warning(Log.FAC_DEFAULT, "Error serving statistics: {0}", e.getMessage());
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		if (Log.isLoggable(Log.FAC_DEFAULT, Level.INFO))
+			Log.info(Log.FAC_DEFAULT, "Serving statistics on http://127.0.0.1:{0}/metrics", socket.getLocalPort());
+		return socket.getLocalPort();
+	}
+
+	public synchronized void stopHttpServer() {
+		if (null == _httpSocket)
+			return;
+		try {
+			_httpSocket.close();
+		} catch (IOException e) {}
+		_httpSocket = null;
+	}
+
+	protected void serve(Socket connection) throws IOException {
+		connection.setSoTimeout(SystemConfiguration.SHORT_TIMEOUT);
+		BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "US-ASCII"));
+		String request = in.readLine();
+		String line;
+		while (null != (line = in.readLine()) && line.length() > 0)
+			;	// Skip headers
+		String status;
+		String body;
+		if (null != request && request.startsWith("GET ")) {
+			status = "200 OK";
+			body = toPrometheus();
+		} else {
+			status = "405 Method Not Allowed";
+			body = "";
+		}
+		byte [] content = body.getBytes("UTF-8");
+		OutputStream out = connection.getOutputStream();
+		out.write(("HTTP/1.0 " + status + "\r\n"
+				+ "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+				+ "Content-Length: " + content.length + "\r\n"
+				+ "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+		out.write(content);
+		out.flush();
+	}
+
+	/**
+	 * Forget objects the GC has collected
+	 */
+	protected void expunge() {
+		Registration registration;
+		while (null != (registration = (Registration)_collected.poll()))
+			remove(registration);
+	}
+
+	protected void remove(Registration registration) {
+		synchronized (_registrations) {
+			if (_registrations.get(registration.key()) == registration)
+				_registrations.remove(registration.key());
+		}
+		if (null != _mbeanServer && null != registration._objectName) {
+			try {
+				_mbeanServer.unregisterMBean(registration._objectName);
+			} catch (Exception e) {}
+		}
+	}
+
+	/**
+	 * @return name converted from CamelCase to lower_case, with anything but letters and digits
+	 * 	turned into _
+	 */
+	protected static String metricName(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i > 0 && !Character.isUpperCase(name.charAt(i - 1)) && sb.charAt(sb.length() - 1) != '_')
+					sb.append('_');
+				sb.append(Character.toLowerCase(c));
+			} else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+				sb.append(c);
+			} else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '_') {
+				sb.append('_');
+			}
+		}
+		return sb.toString();
+	}
+
+	protected static String escapeHelp(String text) {
+		if (null == text)
+			return "";
+		return text.replace("\\", "\\\\").replace("\n", "\\n");
+	}
+
+	/**
+	 * The MBean for a registered object
+	 */
+	protected static class StatsMBean implements DynamicMBean {
+		protected static final String AVERAGE = "Average";
+		protected static final String CLEAR = "clearCounters";
+
+		protected final Registration _registration;
+
+		protected StatsMBean(Registration registration) {
+			_registration = registration;
+		}
+
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			CCNStats stats = _registration.stats();
+			if (null == stats)
+				throw new AttributeNotFoundException(attribute);
+			try {
+				if (attribute.endsWith(AVERAGE)) {
+					String counter = attribute.substring(0, attribute.length() - AVERAGE.length());
+					if (null != stats.getHistogram(counter, false))
+						return stats.getAverageAndStdev(counter)[0];
+				}
+				for (double percent : Histogram.REPORTED_PERCENTILES) {
+					String suffix = "P" + Histogram.Snapshot.percentileName(percent);
+					if (attribute.endsWith(suffix)) {
+						String counter = attribute.substring(0, attribute.length() - suffix.length());
+						Histogram.Snapshot snapshot = stats.getHistogram(counter, false);
+						if (null != snapshot)
+							return snapshot.getPercentile(percent);
+					}
+				}
+				return stats.getCounter(attribute);
+			} catch (IllegalArgumentException e) {
+				throw new AttributeNotFoundException(attribute);
+			}
+		}
+
+		public AttributeList getAttributes(String [] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {}
+			}
+			return list;
+		}
+
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Statistics are read only: " + attribute.getName());
+		}
+
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		public Object invoke(String actionName, Object [] params, String [] signature) throws ReflectionException {
+			CCNStats stats = _registration.stats();
+			if (CLEAR.equals(actionName)) {
+				if (null != stats)
+					stats.clearCounters();
+				return null;
+			}
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		public MBeanInfo getMBeanInfo() {
+			ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			CCNStats stats = _registration.stats();
+			if (null != stats) {
+				for (String counter : stats.getCounterNames()) {
+					String description = stats.getCounterDescription(counter) + " (" + stats.getCounterUnits(counter) + ")";
+					attributes.add(new MBeanAttributeInfo(counter, Long.class.getName(), description, true, false, false));
+					if (null != stats.getHistogram(counter, false)) {
+						attributes.add(new MBeanAttributeInfo(counter + AVERAGE, Double.class.getName(), "Average: " + description, true, false, false));
+						for (double percent : Histogram.REPORTED_PERCENTILES) {
+							attributes.add(new MBeanAttributeInfo(counter + "P" + Histogram.Snapshot.percentileName(percent), Long.class.getName(),
+									percent + " percentile: " + description, true, false, false));
+						}
+					}
+				}
+			}
+			MBeanOperationInfo [] operations = new MBeanOperationInfo[] {
+					new MBeanOperationInfo(CLEAR, "Reset all counters to zero", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION) };
+			return new MBeanInfo(getClass().getName(), "Statistics for " + _registration._type + " " + _registration._id,
+					attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, operations, null);
+		}
+	}
+}
@@ -19,15 +19,14 @@ package org.ccnx.ccn.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
+import org.ccnx.ccn.impl.support.ByteArrayCompare;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -40,8 +39,13 @@ import org.ccnx.ccn.protocol.Interest;
  * duplicate entries and has operations for access based on CCN
  * matching.  An InterestTable may be used to hold real Interests, or merely
  * ContentNames only, though mixing the two in the same instance of InterestTable
- * is not recommended. InterestTables are synchronized using _contents as a synchronization
- * object
+ * is not recommended.
+ *
+ * Entries are held in a tree with one node per name component, so a lookup only visits
+ * the nodes along the target name. Lookups take no locks: the children of a node are held
+ * in a concurrent map and the entries at a node are replaced as a whole (copy on write)
+ * whenever they change. Changes lock only the node being changed, plus its parent when a
+ * child is added or an empty node is pruned.
  *
  * Since interests can be reexpressed we could end up with duplicate
  * interests in the table. To avoid that an LRU algorithm is
@@ -71,33 +75,53 @@ public class InterestTable<V> {
 		public T value();
 	}
 
-    protected final static class LongestFirstComparator implements Comparator<ContentName>{
-        public int compare(ContentName o1, ContentName o2) {
-            if (o1 == o2)
-                return 0;
-            int thisCount = o1.count();
-            int oCount = o2.count();
-            if (thisCount == oCount)
-                return o1.compareTo(o2);
-            return (oCount - thisCount);
-        }
-    }
+	protected static final ByteArrayCompare COMPONENT_COMPARATOR = new ByteArrayCompare();
+
+	/**
+	 * A node in the name tree. The holders list is never modified once it has been
+	 * published, so readers can use whatever list they see without locking.
+	 */
+	protected class Node {
+		protected final Node parent;
+		protected final byte [] component;
+		protected final ContentName name;
+		protected volatile ConcurrentSkipListMap<byte [], Node> children = null;
+		protected volatile List<Holder<V>> holders = Collections.emptyList();
+		protected boolean removed = false;	// pruned from the tree - guarded by this
 
-    protected SortedMap<ContentName,List<Holder<V>>> _contents = new TreeMap<ContentName,List<Holder<V>>>(new LongestFirstComparator()) {
-        private static final long serialVersionUID = -2774858588706066528L;
+		protected Node(Node parent, byte [] component, ContentName name) {
+			this.parent = parent;
+			this.component = component;
+			this.name = name;
+		}
+
+		protected Node child(byte [] component) {
+			ConcurrentSkipListMap<byte [], Node> c = children;
+			return (null == c) ? null : c.get(component);
+		}
+
+		protected boolean hasChildren() {
+			ConcurrentSkipListMap<byte [], Node> c = children;
+			return (null != c) && !c.isEmpty();
+		}
+
+		/**
+		 * Must be called with this locked
+		 */
+		protected boolean isEmpty() {
+			return holders.isEmpty() && !hasChildren();
+		}
+	}
 
-        @Override
-		public String toString() {
-            StringBuffer s = new StringBuffer();
-            for(ContentName n : keySet() )
-                s.append(n.toString() + " ");
-            return s.toString();
-        }
-    };
+	protected final Node _root = new Node(null, null, ContentName.ROOT);
 
-	protected List<ContentName> _contentNamesLRU = null;
+	protected final AtomicInteger _size = new AtomicInteger(0);
+	protected final AtomicInteger _sizeNames = new AtomicInteger(0);
 
-	protected Integer _capacity = null;	// For LRU size control - default is none
+	// For LRU size control - default is none. Both guarded by _lruLock
+	protected LinkedHashSet<ContentName> _contentNamesLRU = null;
+	protected Integer _capacity = null;
+	protected final Object _lruLock = new Object();
 
 	protected abstract class Holder<T> implements Entry<T> {
 		protected T value;
@@ -142,9 +166,9 @@ public class InterestTable<V> {
 	 * @param capacity
 	 */
 	public void setCapacity(int capacity) {
-		synchronized (_contents) {
+		synchronized (_lruLock) {
 			_capacity = capacity;
-			_contentNamesLRU = new LinkedList<ContentName>();
+			_contentNamesLRU = new LinkedHashSet<ContentName>();
 		}
 	}
 
@@ -153,7 +177,7 @@ public class InterestTable<V> {
 	 * @return	the capacity. null if not set
 	 */
 	public Integer getCapacity() {
-		synchronized (_contents) {
+		synchronized (_lruLock) {
 			return _capacity;
 		}
 	}
@@ -200,108 +224,188 @@ public class InterestTable<V> {
 	 */
 	protected void add(Holder<V> holder) {
 		ContentName name = holder.name();
-		synchronized (_contents) {
-			if (_contents.containsKey(name)) {
-				List<Holder<V>> list = _contents.get(name);
-				list.add(holder);
-				if (null != _capacity) {
-					// Have to update our LRUness
-					_contentNamesLRU.remove(name);
-					_contentNamesLRU.add(name);
-				}
-			} else {
-				ArrayList<Holder<V>> list = new ArrayList<Holder<V>>(1);
+		for (;;) {
+			Node node = findOrCreate(name);
+			if (null == node)
+				continue;	// raced with a prune - start again from the top
+			synchronized (node) {
+				if (node.removed)
+					continue;
+				ArrayList<Holder<V>> list = new ArrayList<Holder<V>>(node.holders.size() + 1);
+				list.addAll(node.holders);
 				list.add(holder);
+				if (node.holders.isEmpty())
+					_sizeNames.incrementAndGet();
+				node.holders = list;
+				_size.incrementAndGet();
+			}
+			break;
+		}
 
-				if (null != _capacity) {
-					if ( _contents.size() >= _capacity) {
-						// The LRU is the first key in the LRU list. So remove the contents
+		synchronized (_lruLock) {
+			if (null != _capacity) {
+				if (!_contentNamesLRU.remove(name)) {
+					if (_contentNamesLRU.size() >= _capacity) {
+						// The LRU is the first name in the LRU list. So remove the contents
 						// corresponding to that one.
 						// XXX - should we care about whether the key has multiple
 						// interests attached?
+						ContentName lru = _contentNamesLRU.iterator().next();
 						if (Log.isLoggable(Log.FAC_ENCODING, Level.INFO)) {
-							Log.info(Log.FAC_ENCODING, "removing entry associated with name {0}", _contentNamesLRU.get(0));
+							Log.info(Log.FAC_ENCODING, "removing entry associated with name {0}", lru);
 						}
-						_contents.remove(_contentNamesLRU.get(0));
-						_contentNamesLRU.remove(0);
+						_contentNamesLRU.remove(lru);
+						Node evict = find(lru);
+						if (null != evict)
+							removeHolders(evict, new ArrayList<Holder<V>>(evict.holders));
 					}
-					_contentNamesLRU.add(name);
 				}
-				_contents.put(name, list);
+				_contentNamesLRU.add(name);
 			}
 		}
 	}
 
-	protected Holder<V> getMatchByName(ContentName name, ContentObject target) {
-		List<Holder<V>> list;
-		synchronized (_contents) {
-			list = _contents.get(name);
-			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
-				Log.finest(Log.FAC_ENCODING, "name: {0} target: {1} possible matches: {2}", name, target.name(), ((null == list) ? 0 : list.size()));
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (null != holder.interest()) {
-						if (holder.interest().matches(target)) {
-							return holder;
-						}
+	/**
+	 * Find the node for a name, if it exists
+	 */
+	protected Node find(ContentName name) {
+		Node node = _root;
+		int count = name.count();
+		for (int i = 0; i < count && null != node; i++)
+			node = node.child(name.component(i));
+		return node;
+	}
+
+	/**
+	 * Find the node for a name, creating it and any missing ancestors.
+	 * @return the node or null if we raced with removal of a node on the path
+	 */
+	protected Node findOrCreate(ContentName name) {
+		Node node = _root;
+		int count = name.count();
+		for (int i = 0; i < count; i++) {
+			byte [] component = name.component(i);
+			Node next = node.child(component);
+			if (null == next) {
+				synchronized (node) {
+					if (node.removed)
+						return null;
+					if (null == node.children)
+						node.children = new ConcurrentSkipListMap<byte [], Node>(COMPONENT_COMPARATOR);
+					next = node.children.get(component);
+					if (null == next) {
+						next = new Node(node, component, name.cut(i + 1));
+						node.children.put(component, next);
 					}
 				}
 			}
+			node = next;
 		}
-		return null;
+		return node;
 	}
 
 	/**
-	 * Internal: return all the entries having exactly the specified name,
-	 * useful once you have found the matching names to collect entries from them
-	 *
-	 * @param name
-	 * @param target
-	 * @return
+	 * Get the nodes along a name, from the root down to the longest name in the table which is
+	 * a prefix of it.
 	 */
-	protected List<Holder<V>> getAllMatchByName(ContentName name, ContentObject target) {
-		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
-			Log.finest(Log.FAC_ENCODING, "name: {0} target: {1}", name, target.name());
-		List<Holder<V>> matches = new ArrayList<Holder<V>>();
-		List<Holder<V>> list;
-		synchronized (_contents) {
-			list = _contents.get(name);
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (null != holder.interest()) {
-						if (holder.interest().matches(target)) {
-							matches.add(holder);
-						}
-					}
+	protected ArrayList<Node> path(ContentName name) {
+		ArrayList<Node> path = new ArrayList<Node>(name.count() + 1);
+		Node node = _root;
+		int count = name.count();
+		path.add(node);
+		for (int i = 0; i < count; i++) {
+			node = node.child(name.component(i));
+			if (null == node)
+				break;
+			path.add(node);
+		}
+		return path;
+	}
+
+	/**
+	 * Get the nodes along the name of a ContentObject. Since an interest may specify the
+	 * implicit digest component, this includes the node for the full name (with digest)
+	 * if there is one.
+	 */
+	protected ArrayList<Node> path(ContentObject target) {
+		ArrayList<Node> path = path(target.name());
+		if (path.size() == target.name().count() + 1) {
+			Node last = path.get(path.size() - 1);
+			if (last.hasChildren()) {
+				Node digestNode = last.child(target.digest());
+				if (null != digestNode)
+					path.add(digestNode);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Remove some holders from a node, pruning the node from the tree if it is now empty.
+	 * @return the holders that were actually removed
+	 */
+	protected List<Holder<V>> removeHolders(Node node, List<Holder<V>> toRemove) {
+		List<Holder<V>> removed = new ArrayList<Holder<V>>(toRemove.size());
+		if (toRemove.isEmpty())
+			return removed;
+		boolean empty;
+		synchronized (node) {
+			if (node.removed)
+				return removed;
+			ArrayList<Holder<V>> list = new ArrayList<Holder<V>>(node.holders.size());
+			for (Holder<V> holder : node.holders) {
+				if (toRemove.contains(holder))
+					removed.add(holder);
+				else
+					list.add(holder);
+			}
+			if (removed.isEmpty())
+				return removed;
+			node.holders = list;
+			_size.addAndGet(-removed.size());
+			if (list.isEmpty())
+				_sizeNames.decrementAndGet();
+			empty = node.isEmpty();
+		}
+		if (empty) {
+			synchronized (_lruLock) {
+				if (null != _contentNamesLRU && node.holders.isEmpty())
+					_contentNamesLRU.remove(node.name);
+			}
+			prune(node);
+		}
+		return removed;
+	}
+
+	/**
+	 * Remove empty nodes from the tree, working upwards from node
+	 */
+	protected void prune(Node node) {
+		while (node != _root) {
+			Node parent = node.parent;
+			synchronized (parent) {
+				synchronized (node) {
+					if (node.removed || !node.isEmpty())
+						return;
+					node.removed = true;
+					parent.children.remove(node.component);
 				}
 			}
+			node = parent;
 		}
-		return matches;
 	}
 
-	protected Holder<V> removeMatchByName(ContentName name, ContentObject target) {
-		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
-			Log.finest(Log.FAC_ENCODING, "name: {0} target: {1}", name, target.name());
-		synchronized (_contents) {
-			List<Holder<V>> list = _contents.get(name);
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (null != holder.interest()) {
-						if (holder.interest().matches(target)) {
-							holdIt.remove();
-							if (list.size() == 0) {
-								_contents.remove(name);
-							}
-							return holder;
-						}
-					}
+	/**
+	 * Internal: return all the entries at a node matching a ContentObject.
+	 */
+	protected void getAllMatches(Node node, ContentObject target, List<? super Holder<V>> matches) {
+		for (Holder<V> holder : node.holders) {
+			if (null != holder.interest()) {
+				if (holder.interest().matches(target)) {
+					matches.add(holder);
 				}
 			}
 		}
-		return null;
 	}
 
 	/**
@@ -313,32 +417,22 @@ public class InterestTable<V> {
 	 * @return the matching entry or null if none found
 	 */
 	public Entry<V> remove(ContentName name, V value) {
-		Holder<V> result = null;
-		synchronized (_contents) {
-			List<Holder<V>> list = _contents.get(name);
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (null == holder.value()) {
-						if (null == value) {
-							holdIt.remove();
-							result = holder;
-						}
-					} else {
-						if (holder.value().equals(value)) {
-							holdIt.remove();
-							result = holder;
-						}
-					}
+		Node node = find(name);
+		if (null == node)
+			return null;
+		List<Holder<V>> toRemove = new ArrayList<Holder<V>>(1);
+		for (Holder<V> holder : node.holders) {
+			if (null == holder.value()) {
+				if (null == value) {
+					toRemove.add(holder);
 				}
-				if (list.size() == 0) {
-					synchronized (_contents) {
-						_contents.remove(name);
-					}
+			} else {
+				if (holder.value().equals(value)) {
+					toRemove.add(holder);
 				}
 			}
 		}
-		return result;
+		return last(removeHolders(node, toRemove));
 	}
 
 	/**
@@ -349,56 +443,28 @@ public class InterestTable<V> {
 	 * @return			the matching entry or null if none found
 	 */
 	public Entry<V> remove(Interest interest, V value) {
-		Holder<V> result = null;
-		ContentName name = interest.name();
-		synchronized (_contents) {
-			List<Holder<V>> list = _contents.get(name);
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (interest.equals(holder.interest())) {
-						if (null == holder.value()) {
-							if (null == value) {
-								holdIt.remove();
-								result = holder;
-
-							}
-						} else {
-							if (holder.value().equals(value)) {
-								holdIt.remove();
-								result = holder;
-							}
-						}
+		Node node = find(interest.name());
+		if (null == node)
+			return null;
+		List<Holder<V>> toRemove = new ArrayList<Holder<V>>(1);
+		for (Holder<V> holder : node.holders) {
+			if (interest.equals(holder.interest())) {
+				if (null == holder.value()) {
+					if (null == value) {
+						toRemove.add(holder);
+					}
+				} else {
+					if (holder.value().equals(value)) {
+						toRemove.add(holder);
 					}
-				}
-				if (list.size() == 0) {
-					_contents.remove(name);
 				}
 			}
 		}
-		return result;
+		return last(removeHolders(node, toRemove));
 	}
 
-	protected List<Holder<V>> removeAllMatchByName(ContentName name, ContentObject target) {
-		List<Holder<V>> matches = new ArrayList<Holder<V>>();
-		synchronized (_contents) {
-			List<Holder<V>> list = _contents.get(name);
-			if (null != list) {
-				for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
-					Holder<V> holder = holdIt.next();
-					if (null != holder.interest()) {
-						if (holder.interest().matches(target)) {
-							holdIt.remove();
-							matches.add(holder);
-						}
-					}
-				}
-				if (list.size() == 0) {
-					_contents.remove(name);
-				}
-			}
-		}
-		return matches;
+	private Entry<V> last(List<Holder<V>> list) {
+		return list.isEmpty() ? null : list.get(list.size() - 1);
 	}
 
 	/**
@@ -430,17 +496,14 @@ public class InterestTable<V> {
 	public Entry<V> getMatch(ContentObject target) {
 		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target.name());
-		Entry<V> match = null;
-		Set<ContentName> names;
-		synchronized (_contents) {
-			names = _contents.keySet();
-			for (ContentName name : names) {
-				match = getMatchByName(name, target);
-				if (null != match)
-					break;
+		ArrayList<Node> path = path(target);
+		for (int i = path.size() - 1; i >= 0; i--) {
+			for (Holder<V> holder : path.get(i).holders) {
+				if (null != holder.interest() && holder.interest().matches(target))
+					return holder;
 			}
 		}
-		return match;
+		return null;
 	}
 
 	/**
@@ -481,11 +544,10 @@ public class InterestTable<V> {
 
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
 		if (null != target) {
-			synchronized (_contents) {
-				for (ContentName name : _contents.keySet()) {
-					// Name match - is there an interest match here?
-					matches.addAll(getAllMatchByName(name, target));
-				}
+			ArrayList<Node> path = path(target);
+			for (int i = path.size() - 1; i >= 0; i--) {
+				// Name match - is there an interest match here?
+				getAllMatches(path.get(i), target, matches);
 			}
 		}
 		return matches;
@@ -524,16 +586,13 @@ public class InterestTable<V> {
 		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
 
-		Entry<V> match = null;
-		synchronized (_contents) {
-			for (ContentName name : _contents.keySet()) {
-				if (name.isPrefixOf(target)) {
-					match = _contents.get(name).get(0);
-					break;
-				}
-			}
+		ArrayList<Node> path = path(target);
+		for (int i = path.size() - 1; i >= 0; i--) {
+			List<Holder<V>> holders = path.get(i).holders;
+			if (!holders.isEmpty())
+				return holders.get(0);
 		}
-		return match;
+		return null;
 	}
 
 	/**
@@ -569,12 +628,9 @@ public class InterestTable<V> {
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
 
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
-		synchronized (_contents) {
-			for (ContentName name : _contents.keySet()) {
-				if (name.isPrefixOf(target)) {
-					matches.addAll(_contents.get(name));
-				}
-			}
+		ArrayList<Node> path = path(target);
+		for (int i = path.size() - 1; i >= 0; i--) {
+			matches.addAll(path.get(i).holders);
 		}
 		return matches;
 	}
@@ -587,16 +643,25 @@ public class InterestTable<V> {
 	 */
 	public Collection<Entry<V>> values() {
 		List<Entry<V>> results =  new ArrayList<Entry<V>>();
-		synchronized (_contents) {
-			for (Iterator<ContentName> keyIt = _contents.keySet().iterator(); keyIt.hasNext();) {
-				ContentName name = keyIt.next();
-				List<Holder<V>> list = _contents.get(name);
-				results.addAll(list);
-			}
-		}
+		for (Node node : nodes())
+			results.addAll(node.holders);
 		return results;
 	}
 
+	/**
+	 * Get all nodes currently in the tree
+	 */
+	protected List<Node> nodes() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(_root);
+		for (int i = 0; i < nodes.size(); i++) {
+			ConcurrentSkipListMap<byte [], Node> children = nodes.get(i).children;
+			if (null != children)
+				nodes.addAll(children.values());
+		}
+		return nodes;
+	}
+
 	/**
 	 * Remove and return value of the longest matching Interest for a ContentObject, where best is defined
 	 * as longest ContentName.  Any ContentName entries in the table will be
@@ -624,28 +689,29 @@ public class InterestTable<V> {
 	 * @return Entry of longest match if any, null if no match
 	 */
 	public Entry<V> removeMatch(ContentObject target) {
-		Entry<V> match = null;
 		if (null != target) {
-			ContentName matchName = null;
 			if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
-				Log.finest(Log.FAC_ENCODING, "removeMatch: looking for match to target {0} among {1} possibilities.", target.name(), _contents.keySet().size());
-			Set<ContentName> names;
-			synchronized (_contents) {
-				names = _contents.keySet();
-				for (ContentName name : names) {
-					match = getMatchByName(name, target);
-					if (null != match) {
-						matchName = name;
-						break;
+				Log.finest(Log.FAC_ENCODING, "removeMatch: looking for match to target {0} among {1} possibilities.", target.name(), sizeNames());
+			ArrayList<Node> path = path(target);
+			for (int i = path.size() - 1; i >= 0; i--) {
+				Node node = path.get(i);
+				for (;;) {
+					Holder<V> match = null;
+					for (Holder<V> holder : node.holders) {
+						if (null != holder.interest() && holder.interest().matches(target)) {
+							match = holder;
+							break;
+						}
 					}
-					// Do not remove here -- need to find best match and avoid disturbing iterator
-				}
-				if (null != match) {
-					return removeMatchByName(matchName, target);
+					if (null == match)
+						break;
+					// Someone else may have removed it first, in which case try again
+					if (!removeHolders(node, Collections.singletonList(match)).isEmpty())
+						return match;
 				}
 			}
 		}
-		return match;
+		return null;
 	}
 
 	/**
@@ -679,22 +745,13 @@ public class InterestTable<V> {
 	 */
 	public List<Entry<V>> removeMatches(ContentObject target) {
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
-		List<ContentName> names = new ArrayList<ContentName>();
-		Set<ContentName> LFCnames;
-		synchronized (_contents) {
-			LFCnames = _contents.keySet();
-			for (ContentName name : LFCnames) {
-				if (name.isPrefixOf(target.name())) {
-					// Name match - is there an interest match here?
-					matches.addAll(getAllMatchByName(name, target));
-					names.add(name);
-				}
-			}
-			if (matches.size() != 0) {
-				for (ContentName contentName : names) {
-					removeAllMatchByName(contentName, target);
-				}
-			}
+		ArrayList<Node> path = path(target.name());
+		for (int i = path.size() - 1; i >= 0; i--) {
+			Node node = path.get(i);
+			List<Holder<V>> toRemove = new ArrayList<Holder<V>>();
+			// Name match - is there an interest match here?
+			getAllMatches(node, target, toRemove);
+			matches.addAll(removeHolders(node, toRemove));
 		}
 		return matches;
 	}
@@ -707,15 +764,7 @@ public class InterestTable<V> {
 	 * @return the number of entries in the table
 	 */
 	public int size() {
-		int result = 0;
-		synchronized (_contents) {
-			for (Iterator<ContentName> nameIt = _contents.keySet().iterator(); nameIt.hasNext();) {
-				ContentName name = nameIt.next();
-				List<Holder<V>> list = _contents.get(name);
-				result += list.size();
-			}
-		}
-		return result;
+		return _size.get();
 	}
 
 	/**
@@ -726,18 +775,26 @@ public class InterestTable<V> {
 	 * @return	the number of ContentNames in the table
 	 */
 	public int sizeNames() {
-		synchronized (_contents) {
-			return _contents.size();
-		}
+		return _sizeNames.get();
 	}
 
 	/**
 	 * Clear the table
 	 */
 	public void clear() {
-		synchronized (_contents) {
-			_contents.clear();
+		List<Node> nodes = nodes();
+		// Deepest first so that pruning can remove whole branches
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			Node node = nodes.get(i);
+			removeHolders(node, new ArrayList<Holder<V>>(node.holders));
 		}
 	}
 
+	@Override
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		for (Entry<V> entry : values())
+			s.append(entry.name().toString() + " ");
+		return s.toString();
+	}
 }
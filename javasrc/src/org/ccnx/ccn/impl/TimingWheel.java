@@ -0,0 +1,281 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, for scheduling large numbers of timeouts which are mostly
+ * cancelled or rescheduled before they expire, such as interest refreshes.
+ *
+ * Time is divided into ticks. The first level has a slot for each of the next SLOTS ticks, and
+ * each further level has SLOTS slots each covering a whole turn of the level below. A timeout
+ * goes in the slot of the lowest level that reaches its deadline, and moves down a level each
+ * time the wheel turns to its slot, until it expires from the first level. Anything beyond
+ * the last level waits in an overflow list. Scheduling and cancelling are constant time, and
+ * advancing only touches the timeouts that are due or moving down a level.
+ *
+ * A timeout is represented by a Node, which can be scheduled repeatedly. All methods are
+ * synchronized.
+ */
+public class TimingWheel<T> {
+
+	public static final int SLOT_BITS = 6;
+	public static final int SLOTS = 1 << SLOT_BITS;
+	public static final int LEVELS = 4;
+
+	/**
+	 * A timeout. Nodes in a slot form a circular list around a node with no value.
+	 */
+	public static class Node<T> {
+		protected final T _value;
+		protected long _deadline;
+		protected long _deadlineTick;
+		protected Node<T> _prev = null;
+		protected Node<T> _next = null;
+
+		public Node(T value) {
+			_value = value;
+		}
+
+		public T value() {
+			return _value;
+		}
+
+		/**
+		 * @return the time the node is due, valid while it is scheduled
+		 */
+		public long deadline() {
+			return _deadline;
+		}
+
+		protected boolean isScheduled() {
+			return null != _next;
+		}
+
+		protected void unlink() {
+			_prev._next = _next;
+			_next._prev = _prev;
+			_prev = null;
+			_next = null;
+		}
+
+		protected boolean isEmpty() {
+			return _next == this;
+		}
+	}
+
+	protected final long _tick;
+	protected long _currentTick;
+	protected final Node<T> [][] _slots;
+	protected final Node<T> _overflow;
+	protected int _size = 0;
+
+	/**
+	 * @param tick length of a tick in ms. Timeouts expire at the first advance() at least this
+	 * 	close to their deadline.
+	 * @param now the current time in ms
+	 */
+	public TimingWheel(long tick, long now) {
+		if (tick <= 0)
+			throw new IllegalArgumentException("TimingWheel tick must be positive, got " + tick);
+		_tick = tick;
+		_currentTick = now / tick;
+		// There's no creating an array of Node<T>, but only Node<T>s ever go in this one.
+		// The slots are on the hot path, so they stay an array rather than a list.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<T> [][] slots = new Node[LEVELS][SLOTS];
+		_slots = slots;
+		for (int level = 0; level < LEVELS; level++) {
+			for (int slot = 0; slot < SLOTS; slot++)
+				_slots[level][slot] = emptyList();
+		}
+		_overflow = emptyList();
+	}
+
+	/**
+	 * Schedule node to expire at deadline, replacing any earlier schedule
+	 * @param node
+	 * @param deadline time in ms
+	 */
+	public synchronized void schedule(Node<T> node, long deadline) {
+		if (node.isScheduled())
+			node.unlink();
+		else
+			_size++;
+		node._deadline = deadline;
+		node._deadlineTick = deadline / _tick;
+		place(node);
+	}
+
+	/**
+	 * @param node
+	 * @return true if node was scheduled
+	 */
+	public synchronized boolean cancel(Node<T> node) {
+		if (!node.isScheduled())
+			return false;
+		node.unlink();
+		_size--;
+		return true;
+	}
+
+	/**
+	 * Turn the wheel up to now
+	 * @param now the current time in ms
+	 * @return the values of the nodes which expired, in the order they were due
+	 */
+	public synchronized List<T> advance(long now) {
+		ArrayList<T> expired = new ArrayList<T>();
+		long targetTick = now / _tick;
+		if (_size == 0) {
+			if (targetTick > _currentTick)
+				_currentTick = targetTick;
+			return expired;
+		}
+		while (_currentTick <= targetTick) {
+			Node<T> head = _slots[0][(int)(_currentTick & (SLOTS - 1))];
+			while (!head.isEmpty()) {
+				Node<T> node = head._next;
+				node.unlink();
+				if (node._deadlineTick <= _currentTick) {
+					_size--;
+					expired.add(node._value);
+				} else {
+					place(node);
+				}
+			}
+			if (_currentTick == targetTick)
+				break;
+			_currentTick++;
+			cascade();
+			if (_size == 0) {
+				_currentTick = targetTick;
+				break;
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * @return a time in ms by which advance() should next be called, or Long.MAX_VALUE if
+	 * 	nothing is scheduled. Nothing will expire before this.
+	 */
+	public synchronized long nextDeadline() {
+		if (_size == 0)
+			return Long.MAX_VALUE;
+		for (int i = 0; i < SLOTS; i++) {
+			if (!_slots[0][(int)((_currentTick + i) & (SLOTS - 1))].isEmpty())
+				return (_currentTick + i) * _tick;
+		}
+		// Nothing on the first level, so the next thing that can happen is a cascade
+		return ((_currentTick | (SLOTS - 1)) + 1) * _tick;
+	}
+
+	public synchronized int size() {
+		return _size;
+	}
+
+	/**
+	 * Unschedule everything
+	 * @return the values of the nodes which were scheduled
+	 */
+	public synchronized List<T> clear() {
+		ArrayList<T> values = new ArrayList<T>(_size);
+		for (int level = 0; level < LEVELS; level++) {
+			for (int slot = 0; slot < SLOTS; slot++)
+				clearList(_slots[level][slot], values);
+		}
+		clearList(_overflow, values);
+		_size = 0;
+		return values;
+	}
+
+	protected void clearList(Node<T> head, List<T> values) {
+		while (!head.isEmpty()) {
+			Node<T> node = head._next;
+			node.unlink();
+			values.add(node._value);
+		}
+	}
+
+	/**
+	 * Put node in the slot for its deadline
+	 */
+	protected void place(Node<T> node) {
+		long delta = node._deadlineTick - _currentTick;
+		Node<T> head;
+		if (delta < SLOTS) {
+			// Includes anything overdue, which will expire at the next advance
+			long tick = Math.max(node._deadlineTick, _currentTick);
+			head = _slots[0][(int)(tick & (SLOTS - 1))];
+		} else {
+			head = _overflow;
+			for (int level = 1; level < LEVELS; level++) {
+				if (delta < (1L << (SLOT_BITS * (level + 1)))) {
+					head = _slots[level][(int)((node._deadlineTick >>> (SLOT_BITS * level)) & (SLOTS - 1))];
+					break;
+				}
+			}
+		}
+		node._prev = head._prev;
+		node._next = head;
+		head._prev._next = node;
+		head._prev = node;
+	}
+
+	/**
+	 * Move the timeouts in the slots the wheel has just turned to down a level. Called
+	 * after _currentTick moves on.
+	 */
+	protected void cascade() {
+		for (int level = 1; level < LEVELS; level++) {
+			long shifted = _currentTick >>> (SLOT_BITS * (level - 1));
+			if ((shifted & (SLOTS - 1)) != 0)
+				return;
+			replace(_slots[level][(int)((_currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1))]);
+		}
+		if (((_currentTick >>> (SLOT_BITS * (LEVELS - 1))) & (SLOTS - 1)) == 0)
+			replace(_overflow);
+	}
+
+	protected void replace(Node<T> head) {
+		if (head.isEmpty())
+			return;
+		// Detach the list first, since nodes can go back into the same slot
+		Node<T> node = head._next;
+		head._prev._next = null;
+		head._next = head;
+		head._prev = head;
+		while (null != node) {
+			Node<T> next = node._next;
+			node._prev = null;
+			node._next = null;
+			place(node);
+			node = next;
+		}
+	}
+
+	protected Node<T> emptyList() {
+		Node<T> head = new Node<T>(null);
+		head._prev = head;
+		head._next = head;
+		return head;
+	}
+}
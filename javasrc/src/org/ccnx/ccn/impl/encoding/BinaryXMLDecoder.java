@@ -19,10 +19,13 @@ package org.ccnx.ccn.impl.encoding;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.TreeMap;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.support.ByteBufferInputStream;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -40,6 +43,12 @@ import org.ccnx.ccn.protocol.Interest;
  * It also exposes the segment buffer through getBytes() and the
  * segment DOM via getElement().
  *
+ * When the whole packet is already in a ByteBuffer, beginDecoding(ByteBuffer) parses straight
+ * from the buffer instead of pulling it through an InputStream a byte at a time. BLOB and UDATA
+ * elements are then only noted by position, and their bytes are copied out the first time they
+ * are read. That copy is needed because decoded content and name components outlive the buffer,
+ * which the caller is free to reuse.
+ *
  * TODO:
  * - Try buffering reads from the network channel rather than byte-by-byte.
  *   CCNNetworkChannel is rewindable, so if we read past the end of the
@@ -120,12 +129,23 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 */
 	@Override
 	public final void beginDecoding(InputStream istream) throws ContentDecodingException {
+		if (istream instanceof ByteBufferInputStream) {
+			// Parse the backing buffer directly. If that fails fall through to
+			// the stream decode from the same place so resync works as usual.
+			try {
+				if (tryDecoding(((ByteBufferInputStream)istream).buffer()))
+					return;
+			} catch (ContentDecodingException cde) {
+				if (! _resyncable)
+					throw cde;
+			}
+		}
+
 		if (_resyncable)
 			istream.mark(_resyncLimit);
-		
-		_elements_type = new byte[_currentElements];
-		_elements_value = new int[_currentElements];
-		_elements_blob = new byte[_currentElements][];
+
+		allocateElements();
+		_source = null;
 
 		try {
 			setupForDecoding(istream);
@@ -156,6 +176,63 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		}
 	}
 
+	/**
+	 * Reset the Decoder's state and start parsing from the position of a buffer.
+	 * The buffer's position is advanced past the element decoded.
+	 *
+	 * Decoded BLOB and UDATA elements refer back in to the buffer, so its contents
+	 * must not be changed until decoding is finished.
+	 *
+	 * @param buffer
+	 * @throws ContentDecodingException if the buffer does not start with a complete,
+	 * 		valid element
+	 */
+	public final void beginDecoding(ByteBuffer buffer) throws ContentDecodingException {
+		if (! tryDecoding(buffer))
+			throw new ContentDecodingException("Unexpected EOF");
+	}
+
+	/**
+	 * As beginDecoding(ByteBuffer) but if the buffer holds only the start of an element
+	 * returns false and leaves the buffer's position alone, so that the caller can read
+	 * in more data and try again.
+	 *
+	 * @param buffer
+	 * @return true if a complete element was parsed
+	 * @throws ContentDecodingException if the data is not valid
+	 */
+	public final boolean tryDecoding(ByteBuffer buffer) throws ContentDecodingException {
+		allocateElements();
+		_source = buffer.duplicate();
+		try {
+			if (! setupForDecoding(_source)) {
+				_source = null;
+				initialize();
+				return false;
+			}
+		} catch (ContentDecodingException cde) {
+			_source = null;
+			initialize();
+			throw cde;
+		}
+		buffer.position(_source.position());
+		return true;
+	}
+
+	/**
+	 * The DOM arrays don't escape the decoder so are reused from packet to packet. Only
+	 * the blob references need clearing, so we don't hold on to the last packet's data.
+	 */
+	private void allocateElements() {
+		if (null == _elements_type || _elements_type.length < _currentElements) {
+			_elements_type = new byte[_currentElements];
+			_elements_value = new int[_currentElements];
+			_elements_offset = new int[_currentElements];
+			_elements_blob = new byte[_currentElements][];
+		} else
+			Arrays.fill(_elements_blob, 0, Math.min(_elementCount, _elements_blob.length), null);
+	}
+
 	/**
 	 * This method does the initial parsing into elements
 	 * @param istream
@@ -189,6 +266,46 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 //			System.out.println("count = " + _elements.size() + ", bytes = " + _buffer.position());
 	}
 
+	/**
+	 * Initial parsing into elements from a buffer. BLOB and UDATA elements are
+	 * skipped over with their position noted rather than being read in.
+	 * @param buffer
+	 * @return false if the buffer ends before the element does
+	 * @throws ContentDecodingException
+	 */
+	private final boolean setupForDecoding(ByteBuffer buffer) throws ContentDecodingException {
+		initialize();
+
+		int opentags = 0;
+
+		do {
+			int start = buffer.position();
+			int index = readTypeAndValue(buffer);
+			if (index < 0)
+				return false;
+			byte type = _elements_type[index];
+
+			if( type == BinaryXMLCodec.XML_DTAG ) {
+				_elements_offset[index] = start;
+				opentags++;
+				continue;
+			}
+
+			if( type  == BinaryXMLCodec.XML_CLOSE ) {
+				_elements_offset[index] = start;
+				opentags--;
+				continue;
+			}
+
+			int length = _elements_value[index];
+			if (length > buffer.remaining())
+				return false;
+			_elements_offset[index] = buffer.position();
+			buffer.position(buffer.position() + length);
+		} while(opentags > 0);
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -224,6 +341,12 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	private byte [] _elements_type;
 	private int [] _elements_value;
 	private byte [][] _elements_blob;
+	// Position in _source of each element: the start of the data for BLOB and UDATA,
+	// the start of the tag for DTAG and CLOSE. -1 when decoding from a stream.
+	private int [] _elements_offset;
+
+	// the buffer being decoded, or null if decoding from a stream
+	private ByteBuffer _source = null;
 
 	// BLOB and UDATA now go in their own buffers, so don't really need the full BLOCKSIZE
 
@@ -305,6 +428,57 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		if (next < 0)
 			throw new IOException("Unexpected EOF");
 
+		return addElement(typ, val, true);
+	}
+
+	/**
+	 * Parse the type and value from a buffer.
+	 * @param buffer
+	 * @return the index in to the _element_X arrays, or -1 if the buffer ran out
+	 * @throws ContentDecodingException If not DTAG or BLOB/UDATA or CLOSE (END)
+	 */
+	private final int readTypeAndValue(final ByteBuffer buffer) throws ContentDecodingException {
+		byte typ = -1;
+		long val = 0;
+
+		boolean more = false;
+		while (true) {
+			if (! buffer.hasRemaining())
+				return -1;
+			int next = buffer.get() & 0xff;
+
+			// detect the CLOSE marker
+			if( !more && (0 == next) ) {
+				typ = 0;
+				break;
+			}
+
+			more = (0 == (next & BinaryXMLCodec.XML_TT_NO_MORE));
+
+			if (more) {
+				val = val << BinaryXMLCodec.XML_REG_VAL_BITS;
+				val |= (next & BinaryXMLCodec.XML_REG_VAL_MASK);
+			} else {
+				// last byte
+				typ = (byte) (next & BinaryXMLCodec.XML_TT_MASK);
+				val = val << BinaryXMLCodec.XML_TT_VAL_BITS;
+				val |= ((next >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+				break;
+			}
+		}
+
+		return addElement(typ, val, false);
+	}
+
+	/**
+	 * Check and add a parsed type and value to the DOM.
+	 * @param typ
+	 * @param val
+	 * @param allocate if true allocate the byte buffer for BLOB or UDATA
+	 * @return the index in to the _element_X arrays
+	 * @throws ContentDecodingException
+	 */
+	private final int addElement(byte typ, long val, boolean allocate) throws ContentDecodingException {
 		// sanity check.  tag needs to be either a DTAG or a BLOB
 		if( typ != BinaryXMLCodec.XML_DTAG && typ != BinaryXMLCodec.XML_BLOB &&
 				typ != BinaryXMLCodec.XML_UDATA && typ != BinaryXMLCodec.XML_CLOSE )
@@ -314,13 +488,14 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		if( typ == BinaryXMLCodec.XML_BLOB || typ == BinaryXMLCodec.XML_UDATA ) {
 			if (val < 0 || val > CCNNetworkManager.MAX_PAYLOAD)
 				throw new ContentDecodingException("Invalid blob size: " + val);
-			buffer = new byte[(int) val];
+			if (allocate)
+				buffer = new byte[(int) val];
 		}
 
 //		System.out.println(String.format("Decode tag 0x%02x value 0x%02x pos %d", typ, val, pos));
 
 		int index = _elementCount;
-		setElement(index, typ, (int)val, buffer);
+		setElement(index, typ, (int)val, buffer, -1);
 		_elementCount++;
 		return index;
 	}
@@ -331,8 +506,9 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 * @param typ
 	 * @param val
 	 * @param buffer
+	 * @param offset
 	 */
-	private void setElement(int index, byte typ, int val, byte[] buffer) {
+	private void setElement(int index, byte typ, int val, byte[] buffer, int offset) {
 		try {
 			_elements_type[index]  = typ;
 		} catch (ArrayIndexOutOfBoundsException aiobe) {
@@ -347,12 +523,16 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 			byte[][] newBlobs = new byte[_currentElements][];
 			System.arraycopy(_elements_blob, 0, newBlobs, 0, prevElements);
 			_elements_blob = newBlobs;
+			int[] newOffsets = new int[_currentElements];
+			System.arraycopy(_elements_offset, 0, newOffsets, 0, prevElements);
+			_elements_offset = newOffsets;
 			_elements_type[index] = typ;
 			if (Log.isLoggable(Log.FAC_ENCODING, Level.INFO))
 				Log.info(Log.FAC_ENCODING, "Reset decode array sizes to {0}", _currentElements);
 		}
 		_elements_value[index] = val;
 		_elements_blob[index]  = buffer;
+		_elements_offset[index] = offset;
 	}
 
 	/**
@@ -393,7 +573,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		// This seems a little bogus but it emulates what the original code did...
 		if (type == BinaryXMLCodec.XML_BLOB) {
 			for (int i = _parsingElement; i < _elementCount; i++) {
-				setElement(i + 1, _elements_type[i], _elements_value[i], _elements_blob[i]);
+				setElement(i + 1, _elements_type[i], _elements_value[i], _elements_blob[i], _elements_offset[i]);
 			}
 			_elementCount++;
 			_elements_blob[_parsingElement] = new byte[0];
@@ -451,6 +631,33 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 	 * (blobs don't have an end element).
 	 */
 	public final byte[] readBinary(byte type) throws ContentDecodingException {
+		int index = consumeBinary(type);
+
+		if( 0 == _elements_value[index] ) {
+			return _byte0;
+		}
+
+//		Log.fine(Log.FAC_ENCODING, "readBinary type {0} start {1} length {2} buffer len {3}",
+//				type, elem.position, elem.value, _bytes.length);
+
+		byte [] buffer = _elements_blob[index];
+		if (null == buffer) {
+			// Decoding from a buffer - this is where the data escapes, so copy it
+			buffer = new byte[_elements_value[index]];
+			_source.position(_elements_offset[index]);
+			_source.get(buffer);
+			_elements_blob[index] = buffer;
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Check the current element is a BLOB or UDATA and consume it and the
+	 * following END element.
+	 * @return the index of the BLOB or UDATA element
+	 */
+	private final int consumeBinary(byte type) throws ContentDecodingException {
 		if( type != BinaryXMLCodec.XML_BLOB && type != BinaryXMLCodec.XML_UDATA )
 			throw new ContentDecodingException("Must be BLOB or UDATA");
 
@@ -463,16 +670,7 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		// By definition, we need to consume the next END element
 		readEndElement();
 
-		if( 0 == _elements_value[index] ) {
-			return _byte0;
-		}
-
-//		Log.fine(Log.FAC_ENCODING, "readBinary type {0} start {1} length {2} buffer len {3}",
-//				type, elem.position, elem.value, _bytes.length);
-
-		final byte [] buffer = _elements_blob[index];
-
-		return buffer;
+		return index;
 	}
 
 	/**
@@ -494,6 +692,39 @@ public final class BinaryXMLDecoder extends GenericXMLDecoder implements XMLDeco
 		return readBlob();
 	}
 
+	/**
+	 * When decoding from a ByteBuffer, get the encoding of the element the parser is at,
+	 * from its start tag to its end tag inclusive, without consuming it. Lets an object
+	 * hang on to the exact bytes it was decoded from.
+	 * @return a read-only view of the buffer being decoded with its position at the start
+	 * 	of the element and its limit at the end, or null if not decoding from a buffer
+	 * @throws ContentDecodingException if the parser is not at a start element
+	 */
+	public final ByteBuffer peekElementBuffer() throws ContentDecodingException {
+		if (null == _source)
+			return null;
+		if( _parsingElement >= _elementCount )
+			throw new ContentDecodingException(
+					String.format("Past end of DOM! size %d position %d", _elementCount, _parsingElement));
+		if( _elements_type[_parsingElement] != BinaryXMLCodec.XML_DTAG )
+			throw new ContentDecodingException(
+					String.format("Expected start element, got type 0x%02x position %d",
+							_elements_type[_parsingElement], _parsingElement));
+
+		int depth = 0;
+		for (int i = _parsingElement; i < _elementCount; i++) {
+			if (_elements_type[i] == BinaryXMLCodec.XML_DTAG)
+				depth++;
+			else if (_elements_type[i] == BinaryXMLCodec.XML_CLOSE && --depth == 0) {
+				ByteBuffer view = _source.asReadOnlyBuffer();
+				view.limit(_elements_offset[i] + 1);
+				view.position(_elements_offset[_parsingElement]);
+				return view;
+			}
+		}
+		throw new ContentDecodingException("Unterminated element at position " + _parsingElement);
+	}
+
 	public final byte [] readBlob() throws ContentDecodingException {
 		return readBinary(BinaryXMLCodec.XML_BLOB);
 	}
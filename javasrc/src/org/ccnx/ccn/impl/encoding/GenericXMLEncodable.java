@@ -18,10 +18,12 @@
 package org.ccnx.ccn.impl.encoding;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
+import org.ccnx.ccn.impl.support.ByteBufferOutputStream;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -43,6 +45,18 @@ import org.ccnx.ccn.io.content.ContentEncodingException;
  */
 public abstract class GenericXMLEncodable implements XMLEncodable {
 
+	/**
+	 * Buffers kept per thread for encode(), encodeShared() and the like, so we don't
+	 * allocate and grow a new ByteArrayOutputStream for every encoding. A buffer is
+	 * taken out of its slot while in use, so an encoding done in the middle of
+	 * another one gets a buffer of its own. Buffers that have grown past
+	 * ENCODE_BUFFER_LIMIT aren't kept, so an occasional large object doesn't pin
+	 * memory on every thread that ever encoded one.
+	 */
+	protected static final int ENCODE_BUFFER_INITIAL_SIZE = 1024;
+	protected static final int ENCODE_BUFFER_LIMIT = 64 * 1024;
+	private static final ThreadLocal<ByteBufferOutputStream> _encodeBuffers = new ThreadLocal<ByteBufferOutputStream>();
+
 	/**
 	 * All subclasses should provide a public no-argument constructor to be used
 	 * by decoding methods. 
@@ -99,9 +113,85 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
 	}
 	
 	public byte [] encode(String codec) throws ContentEncodingException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		encode(baos, codec);
-		return baos.toByteArray();
+		ByteBufferOutputStream bbos = takeEncodeBuffer();
+		try {
+			encode(bbos, codec);
+			return bbos.toByteArray();
+		} finally {
+			returnEncodeBuffer(bbos);
+		}
+	}
+
+	/**
+	 * Encode this object as the top-level item in a new XML document, writing it
+	 * in to a buffer starting at the buffer's position. The position is advanced past
+	 * the encoding. Assumes default encoding.
+	 * @param buffer the buffer to write to
+	 * @throws ContentEncodingException if there is an error encoding the object, including
+	 * 	the buffer not having room for it; in that case the buffer's position is unchanged
+	 * 
+	 * @see encodedLength()
+	 */
+	public void encode(ByteBuffer buffer) throws ContentEncodingException {
+		int start = buffer.position();
+		try {
+			encode(new ByteBufferOutputStream(buffer), null);
+		} catch (BufferOverflowException boe) {
+			buffer.position(start);
+			throw new ContentEncodingException("Buffer of " + (buffer.limit() - start) + " bytes too small to encode " + getClass().getName());
+		}
+	}
+
+	/**
+	 * Encode this object as the top-level item in a new XML document, in to a buffer
+	 * belonging to the calling thread which is reused from one call to the next.
+	 * Saves allocating and growing a new buffer for every encoding when the result is
+	 * used straight away, for example written to the network or digested. Assumes
+	 * default encoding.
+	 * @return a read-only buffer holding the encoding. It is only valid until the next
+	 * 	encoding done by this thread, so must be copied if it needs to be kept.
+	 * @throws ContentEncodingException if there is an error encoding the content
+	 */
+	public ByteBuffer encodeShared() throws ContentEncodingException {
+		ByteBufferOutputStream bbos = takeEncodeBuffer();
+		try {
+			encode(bbos, null);
+			return bbos.buffer();
+		} finally {
+			returnEncodeBuffer(bbos);
+		}
+	}
+
+	/**
+	 * Find the exact length this object encodes to, so that a buffer of the right size
+	 * can be found before calling encode(ByteBuffer). Assumes default encoding.
+	 * 
+	 * In general this means encoding the object, which is done in to this thread's
+	 * shared buffer so nothing is allocated. Subclasses which keep their encoding,
+	 * as ContentObject does, should answer from that instead.
+	 * @return the length of encode()
+	 * @throws ContentEncodingException if there is an error encoding the content
+	 */
+	public int encodedLength() throws ContentEncodingException {
+		return encodeShared().remaining();
+	}
+
+	/**
+	 * Get this thread's encoding buffer, emptied, or a new one if it is already in use.
+	 * Hand it back with returnEncodeBuffer() when done.
+	 */
+	protected static ByteBufferOutputStream takeEncodeBuffer() {
+		ByteBufferOutputStream bbos = _encodeBuffers.get();
+		if (null == bbos)
+			return new ByteBufferOutputStream(ENCODE_BUFFER_INITIAL_SIZE);
+		_encodeBuffers.set(null);
+		bbos.reset();
+		return bbos;
+	}
+
+	protected static void returnEncodeBuffer(ByteBufferOutputStream bbos) {
+		if (bbos.capacity() <= ENCODE_BUFFER_LIMIT)
+			_encodeBuffers.set(bbos);
 	}
 
 	/**
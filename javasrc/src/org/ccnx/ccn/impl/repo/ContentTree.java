@@ -19,11 +19,15 @@ package org.ccnx.ccn.impl.repo;
 
 import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.logging.Level;
@@ -52,6 +56,22 @@ public class ContentTree {
 		public ContentObject get(ContentRef ref);
 	}
 	
+	/**
+	 * Used to write the ContentRefs held by the tree to a checkpoint and read them back again
+	 * @see ContentTree#save(DataOutputStream, ContentRefSerializer)
+	 */
+	public interface ContentRefSerializer {
+		public void writeRef(DataOutputStream out, ContentRef ref) throws IOException;
+		public ContentRef readRef(DataInputStream in) throws IOException;
+	}
+	
+	/**
+	 * Called for each ContentRef in the tree by visitRefs
+	 */
+	public interface ContentRefVisitor {
+		public void visit(ContentRef ref);
+	}
+	
 	/**
 	 * TreeNode is the data structure representing one
 	 * node of a tree which may have children and/or content.
@@ -446,18 +466,20 @@ public class ContentTree {
 
 		// At conclusion of this loop, node must be holding the last node for this name
 		// so we insert the ref there
-		if (null == node.oneContent && null == node.content) {
-			// This is first and only content at this leaf
-			node.oneContent = ref;
-		} else if (null == node.oneContent) {
-			// Multiple content already at this node, add this one
-			node.content.add(ref);
-		} else {
-			// Second content at current node, need to switch to list
-			node.content = new ArrayList<ContentRef>();
-			node.content.add(node.oneContent);
-			node.content.add(ref);
-			node.oneContent = null;
+		synchronized (node) {
+			if (null == node.oneContent && null == node.content) {
+				// This is first and only content at this leaf
+				node.oneContent = ref;
+			} else if (null == node.oneContent) {
+				// Multiple content already at this node, add this one
+				node.content.add(ref);
+			} else {
+				// Second content at current node, need to switch to list
+				node.content = new ArrayList<ContentRef>();
+				node.content.add(node.oneContent);
+				node.content.add(ref);
+				node.oneContent = null;
+			}
 		}
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
@@ -465,6 +487,166 @@ public class ContentTree {
 		return true;
 	}
 
+	/**
+	 * Write the whole tree, including node timestamps and content references, to a checkpoint.
+	 * Writers may continue to insert while this is running. Each node is copied under its lock
+	 * so the result contains at least everything that was inserted before the call.
+	 * 
+	 * @param out the stream to write to
+	 * @param serializer writes the ContentRefs
+	 * @throws IOException
+	 */
+	public void save(DataOutputStream out, ContentRefSerializer serializer) throws IOException {
+		saveNode(out, _root, serializer);
+	}
+	
+	protected void saveNode(DataOutputStream out, TreeNode node, ContentRefSerializer serializer) throws IOException {
+		ArrayList<ContentRef> refs = new ArrayList<ContentRef>();
+		ArrayList<TreeNode> children = new ArrayList<TreeNode>();
+		long timestamp;
+		synchronized (node) {
+			timestamp = node.timestamp;
+			if (null != node.oneContent)
+				refs.add(node.oneContent);
+			else if (null != node.content)
+				refs.addAll(node.content);
+			if (null != node.oneChild)
+				children.add(node.oneChild);
+			else if (null != node.children)
+				children.addAll(node.children.keySet());
+		}
+		if (null == node.component) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(node.component.length);
+			out.write(node.component);
+		}
+		out.writeLong(timestamp);
+		out.writeInt(refs.size());
+		for (ContentRef ref : refs)
+			serializer.writeRef(out, ref);
+		out.writeInt(children.size());
+		for (TreeNode child : children)
+			saveNode(out, child, serializer);
+	}
+	
+	/**
+	 * Call the visitor for every ContentRef in the tree. As with save(), inserts may continue
+	 * while this is running.
+	 * 
+	 * @param visitor the visitor
+	 */
+	public void visitRefs(ContentRefVisitor visitor) {
+		visitNode(_root, visitor);
+	}
+	
+	protected void visitNode(TreeNode node, ContentRefVisitor visitor) {
+		ArrayList<ContentRef> refs = new ArrayList<ContentRef>();
+		ArrayList<TreeNode> children = new ArrayList<TreeNode>();
+		synchronized (node) {
+			if (null != node.oneContent)
+				refs.add(node.oneContent);
+			else if (null != node.content)
+				refs.addAll(node.content);
+			if (null != node.oneChild)
+				children.add(node.oneChild);
+			else if (null != node.children)
+				children.addAll(node.children.keySet());
+		}
+		for (ContentRef ref : refs)
+			visitor.visit(ref);
+		for (TreeNode child : children)
+			visitNode(child, visitor);
+	}
+	
+	/**
+	 * Replace ContentRefs in the tree, for instance when the content has been moved. Each reference
+	 * is replaced under its node's lock so readers see either the old or the new reference.
+	 * 
+	 * @param replacements map from the ContentRefs to replace to their replacements. References are
+	 * 		looked up in this map so it should normally be an IdentityHashMap.
+	 */
+	public void replaceRefs(Map<ContentRef, ContentRef> replacements) {
+		replaceNode(_root, replacements);
+	}
+	
+	protected void replaceNode(TreeNode node, Map<ContentRef, ContentRef> replacements) {
+		ArrayList<TreeNode> children = new ArrayList<TreeNode>();
+		synchronized (node) {
+			if (null != node.oneContent) {
+				ContentRef replacement = replacements.get(node.oneContent);
+				if (null != replacement)
+					node.oneContent = replacement;
+			} else if (null != node.content) {
+				for (int i = 0; i < node.content.size(); i++) {
+					ContentRef replacement = replacements.get(node.content.get(i));
+					if (null != replacement)
+						node.content.set(i, replacement);
+				}
+			}
+			if (null != node.oneChild)
+				children.add(node.oneChild);
+			else if (null != node.children)
+				children.addAll(node.children.keySet());
+		}
+		for (TreeNode child : children)
+			replaceNode(child, replacements);
+	}
+	
+	/**
+	 * Replace the contents of this tree with a checkpoint written by save(). Must be called
+	 * before the tree is in use.
+	 * 
+	 * @param in the stream to read from
+	 * @param serializer reads the ContentRefs
+	 * @throws IOException if the checkpoint can't be read or is not correctly formatted
+	 */
+	public void load(DataInputStream in, ContentRefSerializer serializer) throws IOException {
+		TreeNode root = loadNode(in, serializer);
+		if (null != root.component)
+			throw new IOException("Checkpoint does not start with the root node");
+		_root = root;
+	}
+	
+	protected TreeNode loadNode(DataInputStream in, ContentRefSerializer serializer) throws IOException {
+		TreeNode node = new TreeNode();
+		int length = in.readInt();
+		if (length >= 0) {
+			node.component = new byte[length];
+			in.readFully(node.component);
+		} else if (length != -1) {
+			throw new IOException("Bad component length in checkpoint: " + length);
+		}
+		node.timestamp = in.readLong();
+		int nrefs = in.readInt();
+		if (nrefs < 0)
+			throw new IOException("Bad content count in checkpoint: " + nrefs);
+		if (nrefs == 1) {
+			node.oneContent = serializer.readRef(in);
+		} else if (nrefs > 1) {
+			node.content = new ArrayList<ContentRef>(nrefs);
+			for (int i = 0; i < nrefs; i++)
+				node.content.add(serializer.readRef(in));
+		}
+		int nchildren = in.readInt();
+		if (nchildren < 0)
+			throw new IOException("Bad child count in checkpoint: " + nchildren);
+		if (nchildren == 1) {
+			node.oneChild = loadNode(in, serializer);
+		} else if (nchildren > 1) {
+			node.children = new TreeMap<TreeNode, TreeNode>();
+			for (int i = 0; i < nchildren; i++) {
+				TreeNode child = loadNode(in, serializer);
+				if (null == child.component)
+					throw new IOException("Checkpoint contains a second root node");
+				node.children.put(child, child);
+			}
+		}
+		if (null != node.oneChild && null == node.oneChild.component)
+			throw new IOException("Checkpoint contains a second root node");
+		return node;
+	}
+
 	/**
 	 * Find the node for the given name
 	 * 
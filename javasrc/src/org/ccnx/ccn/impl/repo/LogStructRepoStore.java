@@ -18,20 +18,35 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -39,8 +54,13 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
 import org.ccnx.ccn.config.SystemConfiguration.DEBUGGING_FLAGS;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
+import org.ccnx.ccn.impl.support.ByteBufferInputStream;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
@@ -57,9 +77,18 @@ import org.ccnx.ccn.protocol.MalformedContentNameStringException;
  * Implements a log-structured RepositoryStore on a filesystem using sequential data files with an index for queries
  */
 
-public class LogStructRepoStore extends RepositoryStoreBase implements RepositoryStore, ContentTree.ContentGetter {
+public class LogStructRepoStore extends RepositoryStoreBase implements RepositoryStore, ContentTree.ContentGetter,
+		ContentTree.ContentRefSerializer, CCNStatistics {
 
 	public final static String CURRENT_VERSION = "1.4";
+	
+	protected final static int CHECKPOINT_MAGIC = 0x43434e49;	// "CCNI"
+	protected final static int CHECKPOINT_VERSION = 2;
+	
+	// Files are mapped in windows of this size. Each window extends into the next by the overlap so that
+	// objects starting near the end of a window can normally still be decoded from it.
+	protected final static long MMAP_WINDOW_SIZE = 1L << 30;
+	protected final static long MMAP_WINDOW_OVERLAP = 1L << 20;
 		
 	public static class LogStructRepoStoreProfile implements CCNProfile {
 		public final static String META_DIR = ".meta";
@@ -81,6 +110,15 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		public static final String REPOSITORY_KEYSTORE_ALIAS = REPOSITORY_USER.toLowerCase();
 
 		public static String CONTENT_FILE_PREFIX = "repoFile";
+		
+		// Checkpoint of the index, kept in META_DIR. A new checkpoint is written in the background
+		// after every INDEX_CHECKPOINT_BYTES of new content, and on shutdown
+		public static final String INDEX_CHECKPOINT_FILE = "index";
+		public static long INDEX_CHECKPOINT_BYTES = 256 * 1024 * 1024;
+		
+		// Compacted files are written here and then renamed into place
+		public static final String COMPACT_TEMP_FILE = "compacting";
+		
 		private static String DEBUG_TREEDUMP_FILE = "debugNamesTree";
 
 		private static String DIAG_NAMETREE = "nametree"; // Diagnostic/signal to dump name tree to debug file
@@ -99,16 +137,67 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	
 	protected HashMap<String, String> _bulkImportInProgress = new HashMap<String, String>();
 	
+	protected SyncMode _syncMode = SyncMode.NONE;
+	protected boolean _syncPending = false;
+	protected Timer _syncTimer = null;
+	
+	protected Object _checkpointLock = new Object();
+	protected long _bytesSinceCheckpoint = 0;
+	protected volatile boolean _checkpointPending = false;
+	
+	// Compaction. Files that have been compacted are retired - they stay readable until the next
+	// compaction run (or shutdown) in case a reader picked up a reference to them just before the swap
+	protected Object _compactLock = new Object();
+	protected Timer _compactTimer = null;
+	protected volatile boolean _compactStop = false;
+	protected ArrayList<RepoFile> _retiredFiles = new ArrayList<RepoFile>();	// Locked by _files
+	
 	public static class RepoFile {
 		File file;
 		RandomAccessFile openFile;
 		long nextWritePos;
+		volatile ByteBuffer [] mapped;	// Read only mappings of a file that is no longer written
+		boolean mapFailed;
+		volatile boolean indexed;		// All content in the file has been added to the index
+		volatile long deadBytes;		// Bytes of content the index doesn't refer to (duplicates)
+	}
+	
+	/**
+	 * How much of a file is covered by an index checkpoint
+	 */
+	protected static class FileMark {
+		long offset;
+		long deadBytes;
 	}
 	
 	protected static class FileRef extends ContentRef {
 		int id;
 		long offset;
 	}
+	
+	/**
+	 * When written content is forced to disk - see SystemConfiguration.REPO_SYNC_MODE.
+	 * Only BATCH waits for the sync before indexing; with PERIODIC, content is indexed
+	 * straight away and is only durable after the next sync.
+	 */
+	public enum SyncMode {NONE, BATCH, PERIODIC};
+	
+	/**
+	 * Collects the encoding of a batch of content so it can be written with one call
+	 */
+	protected static class BatchBuffer extends ByteArrayOutputStream {
+		protected BatchBuffer() {
+			super(8192);
+		}
+		
+		protected void truncate(int size) {
+			count = size;
+		}
+		
+		protected ByteBuffer buffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
 
 	/**
 	 * Gets content matching the given interest
@@ -162,15 +251,21 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 	/**
 	 * Read the current repository file(s) for this repository and create an index for them.
+	 * If there is a valid index checkpoint we start from that and only read the parts of the
+	 * files written after the checkpoint was taken.
 	 * WARNING: multiple files are not well tested
 	 * 
 	 * @return the number of files making up the repository
 	 */
 	protected Integer createIndex() {
 		int max = 0;
-		_index = new ContentTree();
 		assert(null != _repositoryFile);
 		assert(_repositoryFile.isDirectory());
+		Map<Integer, FileMark> marks = readCheckpoint();
+		if (null == marks) {
+			_index = new ContentTree();
+			marks = new HashMap<Integer, FileMark>();
+		}
 		String[] filenames = _repositoryFile.list();
 		for (int i = 0; i < filenames.length; i++) {
 			if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
@@ -180,8 +275,12 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 					if (index > max) {
 						max = index.intValue();
 					}
+					FileMark mark = marks.get(index);
 					try {
-						createIndex(filenames[i], index, false);
+						if (null == mark)
+							createIndex(filenames[i], index, false, 0, 0);
+						else
+							createIndex(filenames[i], index, false, mark.offset, mark.deadBytes);
 					} catch (RepositoryException e) {}	// This can't happen
 				}
 			}
@@ -189,6 +288,157 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		return new Integer(max);
 	}
 	
+	/**
+	 * Load the index checkpoint if there is one. The checkpoint must refer only to repository
+	 * files which still exist and are at least as long as they were when it was taken, otherwise
+	 * we don't trust it and rebuild the index from scratch.
+	 * 
+	 * @return the offset in each file up to which the loaded index is complete, or null
+	 * 		if there was no usable checkpoint. If non-null the checkpoint has been loaded into _index.
+	 */
+	protected Map<Integer, FileMark> readCheckpoint() {
+		File f = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE);
+		if (!f.exists())
+			return null;
+		long start = System.currentTimeMillis();
+		HashMap<Integer, FileMark> marks = new HashMap<Integer, FileMark>();
+		ContentTree index = new ContentTree();
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(f);
+			CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(fis, 65536), new CRC32());
+			DataInputStream dis = new DataInputStream(cis);
+			if (dis.readInt() != CHECKPOINT_MAGIC)
+				throw new IOException("not an index checkpoint");
+			int version = dis.readInt();
+			if (version != CHECKPOINT_VERSION)
+				throw new IOException("unknown checkpoint version " + version);
+			int nfiles = dis.readInt();
+			for (int i = 0; i < nfiles; i++) {
+				int id = dis.readInt();
+				FileMark mark = new FileMark();
+				mark.offset = dis.readLong();
+				mark.deadBytes = dis.readLong();
+				File rf = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+				if (!rf.exists() || rf.length() < mark.offset)
+					throw new IOException("checkpoint does not match " + rf.getName());
+				marks.put(id, mark);
+			}
+			index.load(dis, this);
+			long checksum = cis.getChecksum().getValue();
+			if (dis.readLong() != checksum || dis.read() != -1)
+				throw new IOException("bad checksum");
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Ignoring index checkpoint {0}: {1}", f.getAbsolutePath(), e.getMessage());
+			return null;
+		} finally {
+			if (null != fis)
+				try {
+					fis.close();
+				} catch (IOException e) {}
+		}
+		_index = index;
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Loaded index checkpoint for {0} files in {1} ms", marks.size(), System.currentTimeMillis() - start);
+		}
+		return marks;
+	}
+	
+	/**
+	 * Write a checkpoint of the current index. The checkpoint records how far into each file the
+	 * index is known to be complete, so on restart only data beyond that needs to be read.
+	 * 
+	 * @return true if a checkpoint was written
+	 */
+	protected boolean writeCheckpoint() {
+		synchronized (_checkpointLock) {
+			long start = System.currentTimeMillis();
+			HashMap<Integer, FileMark> marks = new HashMap<Integer, FileMark>();
+			
+			// Holding our lock keeps out bulk imports so there are no partly indexed files. Everything below
+			// the marks is in the index by the time we have them, since saveContent indexes new content before
+			// releasing the active file. Retired files aren't referenced by the index any more.
+			synchronized (this) {
+				Integer activeId = null;
+				synchronized (_files) {
+					for (Map.Entry<Integer, RepoFile> entry : _files.entrySet()) {
+						RepoFile rfile = entry.getValue();
+						if (rfile == _activeWriteFile) {
+							activeId = entry.getKey();
+						} else if (!_retiredFiles.contains(rfile)) {
+							FileMark mark = new FileMark();
+							mark.offset = rfile.file.length();
+							mark.deadBytes = rfile.deadBytes;
+							marks.put(entry.getKey(), mark);
+						}
+					}
+				}
+				if (null != activeId) {
+					synchronized (_activeWriteFile) {
+						FileMark mark = new FileMark();
+						mark.offset = _activeWriteFile.nextWritePos;
+						mark.deadBytes = _activeWriteFile.deadBytes;
+						marks.put(activeId, mark);
+					}
+				}
+			}
+			
+			File f = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE);
+			File tmp = new File(_repositoryMeta, LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE + ".tmp");
+			FileOutputStream fos = null;
+			try {
+				fos = new FileOutputStream(tmp);
+				CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, 65536), new CRC32());
+				DataOutputStream dos = new DataOutputStream(cos);
+				dos.writeInt(CHECKPOINT_MAGIC);
+				dos.writeInt(CHECKPOINT_VERSION);
+				dos.writeInt(marks.size());
+				for (Map.Entry<Integer, FileMark> entry : marks.entrySet()) {
+					dos.writeInt(entry.getKey());
+					dos.writeLong(entry.getValue().offset);
+					dos.writeLong(entry.getValue().deadBytes);
+				}
+				_index.save(dos, this);
+				dos.writeLong(cos.getChecksum().getValue());
+				dos.flush();
+				fos.getFD().sync();
+				fos.close();
+				fos = null;
+				if (!tmp.renameTo(f)) {
+					f.delete();
+					if (!tmp.renameTo(f))
+						throw new IOException("can't rename " + tmp.getName());
+				}
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Unable to write index checkpoint: {0}", e.getMessage());
+				tmp.delete();
+				return false;
+			} finally {
+				if (null != fos)
+					try {
+						fos.close();
+					} catch (IOException e) {}
+			}
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+				Log.info(Log.FAC_REPO, "Wrote index checkpoint for {0} files in {1} ms", marks.size(), System.currentTimeMillis() - start);
+			}
+			return true;
+		}
+	}
+	
+	public void writeRef(DataOutputStream out, ContentRef ref) throws IOException {
+		FileRef fref = (FileRef)ref;
+		out.writeInt(fref.id);
+		out.writeLong(fref.offset);
+	}
+	
+	public ContentRef readRef(DataInputStream in) throws IOException {
+		FileRef ref = new FileRef();
+		ref.id = in.readInt();
+		ref.offset = in.readLong();
+		return ref;
+	}
+	
 	/**
 	 * Create index from specific file. For now we will allow errors during the initial index creation,
 	 * assuming that we want to keep trying if there's an error in the existing index files. If an import
@@ -201,17 +451,22 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @param fileName
 	 * @param index
 	 * @param fromImport - this is an "import" file.
+	 * @param startOffset - offset of the first object to index. Objects before this are already
+	 * 		in the index from a checkpoint.
+	 * @param deadBytes - unreferenced bytes before startOffset
 	 * @throws RepositoryException 
 	 */
-	private void createIndex(String fileName, Integer index, boolean fromImport) throws RepositoryException {
+	private void createIndex(String fileName, Integer index, boolean fromImport, long startOffset, long deadBytes) 
+				throws RepositoryException {
 		try {
 			RepoFile rfile = new RepoFile();
 			rfile.file = new File(_repositoryFile,fileName);
+			rfile.deadBytes = deadBytes;
 			rfile.openFile = new RandomAccessFile(rfile.file, "r");
 			InputStream is = new BufferedInputStream(new RandomAccessInputStream(rfile.openFile),8192);
 			
 			if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-				Log.fine(Log.FAC_REPO, "Creating index for {0}", fileName);
+				Log.fine(Log.FAC_REPO, "Creating index for {0} starting at {1}", fileName, startOffset);
 			}
 			
 			// Must be done before inserting into the index because once objects are inserted into the
@@ -230,10 +485,11 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			// keep track of where our pointer was also synchronized under the RepoFile so we can restore
 			// it to where it was in the case someone was reading one of our previously created nodes
 			// while the index creation is in progress.
-			long nextOffset = 0;
+			long nextOffset = startOffset;
 			while (true) {
 				FileRef ref = new FileRef();
 				ContentObject tmp = new ContentObject();
+				long size;
 				synchronized (rfile) {
 					ref.id = index.intValue();
 					ref.offset = nextOffset;
@@ -244,6 +500,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 						if (rfile.openFile.getFilePointer()<rfile.openFile.length() || is.available()!=0) {
 							tmp.decode(is);
 							nextOffset = rfile.openFile.getFilePointer();
+							size = nextOffset - is.available() - ref.offset;
 						}
 						else{
 							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
@@ -266,8 +523,10 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 						break;
 					}
 				}
-				_index.insert(tmp, ref, rfile.file.lastModified(), this, null);
+				if (!_index.insert(tmp, ref, rfile.file.lastModified(), this, null))
+					rfile.deadBytes += size;
 			}
+			rfile.indexed = true;
 		} catch (NumberFormatException e) {
 			// Not valid file
 			Log.warning(Log.FAC_REPO, "Invalid file name " +fileName);
@@ -376,6 +635,12 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		}
 		_handle = handle;
 
+		try {
+			_syncMode = SyncMode.valueOf(SystemConfiguration.REPO_SYNC_MODE.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RepositoryException("Unknown repository sync mode: " + SystemConfiguration.REPO_SYNC_MODE);
+		}
+
 		// Internal initialization
 		_files = new HashMap<Integer, RepoFile>();
 		_currentFileIndex = createIndex();
@@ -400,6 +665,32 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		} catch (FileNotFoundException e) {
 			Log.warning(Log.FAC_REPO, "Error opening content output file index " + _currentFileIndex);
 		}
+		
+		if (_syncMode == SyncMode.PERIODIC && null != _activeWriteFile) {
+			_syncTimer = new Timer("LogStructRepoStore sync", true);
+			_syncTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					syncActiveFile();
+				}
+			}, SystemConfiguration.REPO_SYNC_PERIOD, SystemConfiguration.REPO_SYNC_PERIOD);
+		}
+		
+		if (SystemConfiguration.REPO_COMPACT_INTERVAL > 0) {
+			long interval = SystemConfiguration.REPO_COMPACT_INTERVAL * 1000L;
+			_compactTimer = new Timer("LogStructRepoStore compaction", true);
+			_compactTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (RuntimeException e) {
+						Log.warning(Log.FAC_REPO, "Repository compaction failed: {0}", e);
+						Log.warningStackTrace(e);
+					}
+				}
+			}, interval, interval);
+		}
 			
 		// Verify stored policy info
 		// TODO - we shouldn't do this if the user has specified a policy file which already has
@@ -472,40 +763,357 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @returns NameEnumerationResponse if this satisfies an outstanding NameEnumeration request
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException {
-		// Make sure content is within allowable nameSpace
+		BatchBuffer buffer = new BatchBuffer();
+		try {
+			content.encode(buffer);
+		} catch (ContentEncodingException e) {
+			throw new RepositoryException("Failed to encode content: " + e.getMessage());
+		}
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>(1);
+		batch.add(content);
+		return commit(batch, new int[] {0}, buffer).get(0);
+	}
+	
+	/**
+	 * Save a batch of content with a single write to the active file, and a single sync
+	 * if the sync mode calls for one. Content which can't be encoded is skipped.
+	 * 
+	 * @param content the content to save
+	 * @throws RepositoryException if the content can not be written
+	 * @returns NameEnumerationResponses for the content, null for content that wasn't saved
+	 */
+	@Override
+	public List<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		// Encode outside of the file lock so the writes themselves are the only thing serialized
+		BatchBuffer buffer = new BatchBuffer();
+		ArrayList<ContentObject> encoded = new ArrayList<ContentObject>(content.size());
+		int [] offsets = new int[content.size()];
+		for (ContentObject co : content) {
+			int start = buffer.size();
+			try {
+				co.encode(buffer);
+				offsets[encoded.size()] = start;
+				encoded.add(co);
+			} catch (ContentEncodingException e) {
+				Log.warning(Log.FAC_REPO, "Failed to encode content {0}: {1}", co.name(), e.getMessage());
+				buffer.truncate(start);
+			}
+		}
+		List<NameEnumerationResponse> committed = commit(encoded, offsets, buffer);
+		if (encoded.size() == content.size())
+			return committed;
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		int next = 0;
+		for (ContentObject co : content) {
+			if (next < encoded.size() && encoded.get(next) == co)
+				ners.add(committed.get(next++));
+			else
+				ners.add(null);
+		}
+		return ners;
+	}
+	
+	/**
+	 * Append encoded content to the active file, sync it if required and then add it to the index.
+	 * 
+	 * @param content the content
+	 * @param offsets the offset of each object in buffer
+	 * @param buffer the encoded content
+	 * @return a NameEnumerationResponse for each object, or nulls if the repository has been shut down
+	 * @throws RepositoryException if the content couldn't be written
+	 */
+	private List<NameEnumerationResponse> commit(List<ContentObject> content, int [] offsets, BatchBuffer buffer) 
+				throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
 		if (null == _activeWriteFile) {
-			Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", content.name());
-			return null;
+			for (ContentObject co : content) {
+				Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", co.name());
+				ners.add(null);
+			}
+			return ners;
 		}
-		try {	
-			NameEnumerationResponse ner = new NameEnumerationResponse();
+		try {
 			synchronized(_activeWriteFile) {
-				assert(null != _activeWriteFile.openFile);
-				FileRef ref = new FileRef();
-				ref.id = Integer.parseInt(_activeWriteFile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
-				ref.offset = _activeWriteFile.nextWritePos;
-				_activeWriteFile.openFile.seek(_activeWriteFile.nextWritePos);
-				OutputStream os = new RandomAccessOutputStream(_activeWriteFile.openFile);
-				content.encode(os);
-				_activeWriteFile.nextWritePos = _activeWriteFile.openFile.getFilePointer();
-				_index.insert(content, ref, System.currentTimeMillis(), this, ner);
-				if (ner==null || ner.getPrefix()==null) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
+				if (null == _activeWriteFile.openFile) {
+					for (ContentObject co : content) {
+						Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", co.name());
+						ners.add(null);
 					}
-				} else {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-						Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+					return ners;
+				}
+				int id = Integer.parseInt(_activeWriteFile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
+				long base = _activeWriteFile.nextWritePos;
+				FileChannel channel = _activeWriteFile.openFile.getChannel();
+				ByteBuffer bytes = buffer.buffer();
+				long position = base;
+				while (bytes.hasRemaining())
+					position += channel.write(bytes, position);
+				if (_syncMode == SyncMode.BATCH)
+					channel.force(false);
+				else if (_syncMode == SyncMode.PERIODIC)
+					_syncPending = true;	// Indexed below before it is durable - see SyncMode
+				_activeWriteFile.nextWritePos = position;
+				
+				long now = System.currentTimeMillis();
+				for (int i = 0; i < content.size(); i++) {
+					FileRef ref = new FileRef();
+					ref.id = id;
+					ref.offset = base + offsets[i];
+					NameEnumerationResponse ner = new NameEnumerationResponse();
+					if (!_index.insert(content.get(i), ref, now, this, ner))
+						_activeWriteFile.deadBytes += (i + 1 < content.size() ? offsets[i + 1] : buffer.size()) - offsets[i];
+					if (ner.getPrefix()==null) {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+							Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
+						}
+					} else {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
+							Log.fine(Log.FAC_REPO, "new content was added where there was a name enumeration response interest flag");
+						}
 					}
+					ners.add(ner);
+				}
+				
+				_bytesSinceCheckpoint += position - base;
+				if (_bytesSinceCheckpoint >= LogStructRepoStoreProfile.INDEX_CHECKPOINT_BYTES && !_checkpointPending) {
+					_bytesSinceCheckpoint = 0;
+					_checkpointPending = true;
+					SystemConfiguration._systemThreadpool.execute(new Runnable() {
+						public void run() {
+							try {
+								writeCheckpoint();
+							} finally {
+								_checkpointPending = false;
+							}
+						}
+					});
 				}
-				return ner;
+				return ners;
 			}
-		} catch (ContentEncodingException e) {
-			throw new RepositoryException("Failed to encode content: " + e.getMessage());
 		} catch (IOException e) {
 			throw new RepositoryException("Failed to write content: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Sync the active file if anything has been written since the last sync
+	 */
+	protected void syncActiveFile() {
+		FileChannel channel;
+		synchronized (_activeWriteFile) {
+			if (!_syncPending || null == _activeWriteFile.openFile)
+				return;
+			_syncPending = false;
+			channel = _activeWriteFile.openFile.getChannel();
+		}
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to sync {0}: {1}", _activeWriteFile.file.getName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrite sealed files in which at least SystemConfiguration.REPO_COMPACT_THRESHOLD percent of the
+	 * content is no longer referenced by the index, keeping only the content that is. Copying is
+	 * limited to SystemConfiguration.REPO_COMPACT_RATE bytes per second.
+	 * 
+	 * The index is switched to the new file in one step, and the old file is retired rather than
+	 * deleted so that reads already in progress can finish. Retired files are deleted at the start of
+	 * the next compaction, or on shutdown.
+	 * 
+	 * @return the number of files compacted
+	 */
+	public int compact() {
+		synchronized (_compactLock) {
+			deleteRetiredFiles();
+			
+			final HashMap<Integer, ArrayList<FileRef>> live = new HashMap<Integer, ArrayList<FileRef>>();
+			HashMap<Integer, RepoFile> candidates = new HashMap<Integer, RepoFile>();
+			synchronized (_files) {
+				for (Map.Entry<Integer, RepoFile> entry : _files.entrySet()) {
+					RepoFile rfile = entry.getValue();
+					if (rfile == _activeWriteFile || !rfile.indexed)
+						continue;
+					long length = rfile.file.length();
+					if (rfile.deadBytes > 0 && rfile.deadBytes * 100 >= length * SystemConfiguration.REPO_COMPACT_THRESHOLD) {
+						candidates.put(entry.getKey(), rfile);
+						live.put(entry.getKey(), new ArrayList<FileRef>());
+					}
+				}
+			}
+			_stats.increment(StatsEnum.CompactionRuns);
+			if (candidates.isEmpty())
+				return 0;
+			
+			_index.visitRefs(new ContentTree.ContentRefVisitor() {
+				public void visit(ContentRef ref) {
+					ArrayList<FileRef> refs = live.get(((FileRef)ref).id);
+					if (null != refs)
+						refs.add((FileRef)ref);
+				}
+			});
+			
+			int compacted = 0;
+			for (Map.Entry<Integer, RepoFile> entry : candidates.entrySet()) {
+				if (_compactStop)
+					break;
+				if (compactFile(entry.getValue(), live.get(entry.getKey())))
+					compacted++;
+			}
+			if (compacted > 0) {
+				_stats.increment(StatsEnum.CompactionFiles, compacted);
+				writeCheckpoint();
+			}
+			return compacted;
+		}
+	}
+	
+	/**
+	 * Copy the live content of a file to a new file and retire the old one
+	 * 
+	 * @param rfile the file to compact
+	 * @param refs the index references to content in the file
+	 * @return true if the file was compacted
+	 */
+	private boolean compactFile(RepoFile rfile, ArrayList<FileRef> refs) {
+		long oldLength = rfile.file.length();
+		if (refs.isEmpty()) {
+			retireFile(rfile, null);
+			_stats.increment(StatsEnum.CompactionKBytesReclaimed, (int)(oldLength / 1024));
+			return true;
+		}
+		
+		// Copy in file order so the reads are sequential
+		Collections.sort(refs, new Comparator<FileRef>() {
+			public int compare(FileRef r1, FileRef r2) {
+				return r1.offset < r2.offset ? -1 : (r1.offset > r2.offset ? 1 : 0);
+			}
+		});
+		
+		File tmp = new File(_repositoryMeta, LogStructRepoStoreProfile.COMPACT_TEMP_FILE);
+		IdentityHashMap<ContentRef, ContentRef> replacements = new IdentityHashMap<ContentRef, ContentRef>();
+		FileOutputStream fos = null;
+		boolean done = false;
+		long copied = 0;
+		long start = System.currentTimeMillis();
+		try {
+			fos = new FileOutputStream(tmp);
+			BatchBuffer buffer = new BatchBuffer();
+			for (FileRef ref : refs) {
+				if (_compactStop)
+					return false;
+				ContentObject content = get(ref);
+				if (null == content) {
+					Log.warning(Log.FAC_REPO, "Can't read content at {0} in {1}, not compacting it", ref.offset, rfile.file.getName());
+					return false;
+				}
+				buffer.reset();
+				content.encode(buffer);
+				buffer.writeTo(fos);
+				FileRef newRef = new FileRef();
+				newRef.offset = copied;
+				replacements.put(ref, newRef);
+				copied += buffer.size();
+				_stats.increment(StatsEnum.CompactionObjectsCopied);
+				_stats.increment(StatsEnum.CompactionBytesCopied, buffer.size());
+				
+				if (SystemConfiguration.REPO_COMPACT_RATE > 0) {
+					long wait = start + (copied * 1000 / SystemConfiguration.REPO_COMPACT_RATE) - System.currentTimeMillis();
+					if (wait > 0)
+						Thread.sleep(wait);
+				}
+			}
+			fos.getChannel().force(true);
+			fos.close();
+			fos = null;
+			
+			// Add the new file and switch the index over to it in one step, so a checkpoint
+			// never sees the new file without the index references to it or vice versa
+			RepoFile newFile = new RepoFile();
+			synchronized (_checkpointLock) {
+				int id;
+				synchronized (this) {
+					id = ++_currentFileIndex;
+				}
+				newFile.file = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+				if (!tmp.renameTo(newFile.file)) {
+					Log.warning(Log.FAC_REPO, "Can't rename compacted file to {0}", newFile.file.getName());
+					return false;
+				}
+				newFile.indexed = true;
+				for (ContentRef newRef : replacements.values())
+					((FileRef)newRef).id = id;
+				synchronized (_files) {
+					_files.put(id, newFile);
+				}
+				retireFile(rfile, replacements);
+			}
+			done = true;
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
+				Log.info(Log.FAC_REPO, "Compacted {0} ({1} bytes) to {2} ({3} bytes)", rfile.file.getName(), oldLength, 
+						newFile.file.getName(), copied);
+			_stats.increment(StatsEnum.CompactionKBytesReclaimed, (int)((oldLength - copied) / 1024));
+			return true;
+		} catch (ContentEncodingException e) {
+			Log.warning(Log.FAC_REPO, "Can't encode content while compacting {0}: {1}", rfile.file.getName(), e.getMessage());
+			return false;
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Error compacting {0}: {1}", rfile.file.getName(), e.getMessage());
+			return false;
+		} catch (InterruptedException e) {
+			return false;
+		} finally {
+			if (null != fos)
+				try {
+					fos.close();
+				} catch (IOException e) {}
+			if (!done)
+				tmp.delete();
+		}
+	}
+	
+	/**
+	 * Switch the index away from a file. This is done under the checkpoint lock so a checkpoint
+	 * sees either the old file or the new one, never a mixture.
+	 * 
+	 * @param rfile the file to retire
+	 * @param replacements new references for the content in the file, or null if there is none
+	 */
+	private void retireFile(RepoFile rfile, Map<ContentRef, ContentRef> replacements) {
+		synchronized (_checkpointLock) {
+			if (null != replacements)
+				_index.replaceRefs(replacements);
+			synchronized (_files) {
+				_retiredFiles.add(rfile);
+			}
+		}
+	}
+	
+	/**
+	 * Close and delete files retired by an earlier compaction
+	 */
+	protected void deleteRetiredFiles() {
+		ArrayList<RepoFile> retired;
+		synchronized (_files) {
+			retired = new ArrayList<RepoFile>(_retiredFiles);
+			_retiredFiles.clear();
+			_files.values().removeAll(retired);
+		}
+		for (RepoFile rfile : retired) {
+			synchronized (rfile) {
+				if (null != rfile.openFile) {
+					try {
+						rfile.openFile.close();
+					} catch (IOException e) {}
+					rfile.openFile = null;
+				}
+				rfile.mapped = null;
+			}
+			if (!rfile.file.delete())
+				Log.warning(Log.FAC_REPO, "Unable to delete compacted file {0}", rfile.file.getName());
+		}
+	}
 
 	/**
 	 * Get content for the given reference from the storage files. Used to retrieve content for 
@@ -525,6 +1133,12 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			}
 			if (null == file)
 				return null;
+			// Until initialization is done we don't know which file will be written
+			if (SystemConfiguration.REPO_MMAP_READS && null != _activeWriteFile && file != _activeWriteFile) {
+				ContentObject content = getMapped(file, fref);
+				if (null != content)
+					return content;
+			}
 			synchronized (file) {
 				if (null == file.openFile) {
 					file.openFile = new RandomAccessFile(file.file, "r");
@@ -541,6 +1155,81 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		}
 	}
 	
+	/**
+	 * Decode content from a mapping of a file. Since the file is not being written we don't need the
+	 * file lock - each reader works on its own duplicate of the mapping.
+	 * 
+	 * @return the content or null if it couldn't be read from the mapping, in which case the caller
+	 * 		should read the file normally
+	 */
+	protected ContentObject getMapped(RepoFile file, FileRef fref) {
+		ByteBuffer [] mapped = file.mapped;
+		if (null == mapped) {
+			synchronized (file) {
+				if (file.mapFailed)
+					return null;
+				mapped = file.mapped;
+				if (null == mapped) {
+					mapped = map(file);
+					if (null == mapped) {
+						file.mapFailed = true;
+						return null;
+					}
+					file.mapped = mapped;
+				}
+			}
+		}
+		int window = (int)(fref.offset / MMAP_WINDOW_SIZE);
+		if (window >= mapped.length)
+			return null;
+		ByteBuffer buf = mapped[window].duplicate();
+		long position = fref.offset - window * MMAP_WINDOW_SIZE;
+		if (position >= buf.limit())
+			return null;
+		buf.position((int)position);
+		ContentObject content = new ContentObject();
+		try {
+			content.decode(new ByteBufferInputStream(buf));
+		} catch (ContentDecodingException e) {
+			// Most likely the object runs past the end of the window
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "Can't decode mapped content at {0} in {1}: {2}", fref.offset, file.file.getName(), e.getMessage());
+			return null;
+		}
+		return content;
+	}
+	
+	/**
+	 * Map the whole of a file read only
+	 * @return the mapped windows or null if the file couldn't be mapped
+	 */
+	private ByteBuffer [] map(RepoFile file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file.file, "r");
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			int windows = (int)((length + MMAP_WINDOW_SIZE - 1) / MMAP_WINDOW_SIZE);
+			ByteBuffer [] mapped = new ByteBuffer[windows];
+			for (int i = 0; i < windows; i++) {
+				long start = i * MMAP_WINDOW_SIZE;
+				long size = Math.min(length - start, MMAP_WINDOW_SIZE + MMAP_WINDOW_OVERLAP);
+				mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			}
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINE))
+				Log.fine(Log.FAC_REPO, "Mapped {0} ({1} bytes)", file.file.getName(), length);
+			return mapped;
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to map {0}: {1}", file.file.getName(), e.getMessage());
+			return null;
+		} finally {
+			if (null != raf)
+				try {
+					raf.close();
+				} catch (IOException e) {}
+		}
+	}
+	
 	/**
 	 * Check/write files that contain meta data for the repo
 	 * @throws RepositoryException
@@ -636,6 +1325,22 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			KeyManager.closeDefaultKeyManager();
 		}
 		
+		_compactStop = true;
+		if (null != _compactTimer)
+			_compactTimer.cancel();
+		
+		if (null != _index) {
+			synchronized (_compactLock) {
+				writeCheckpoint();
+				deleteRetiredFiles();
+			}
+		}
+		
+		if (null != _syncTimer)
+			_syncTimer.cancel();
+		if (null != _activeWriteFile)
+			syncActiveFile();
+		
 		if (null != _activeWriteFile && null != _activeWriteFile.openFile) {
 			try {
 				synchronized (_activeWriteFile) {
@@ -675,7 +1380,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		if (!file.renameTo(repoFile))
 			throw new RepositoryException("Can not rename file: " + file);
 		try {
-			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex, _currentFileIndex, true);
+			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex, _currentFileIndex, true, 0, 0);
 		} catch (RepositoryException re) {
 			// The seemingly logical thing to do would be to verify the data for errors first and then submit it if it
 			// was OK. But that would require 2 passes through the data in the mainline case in which the data is good
@@ -687,4 +1392,63 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		_bulkImportInProgress.remove(name);
 		return true;
 	}
+
+	// Statistics
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.CompactionRuns);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		CompactionRuns ("calls", "The number of times files were checked for compaction"),
+		CompactionFiles ("files", "The number of files compacted"),
+		CompactionObjectsCopied ("ContentObjects", "The number of objects copied by compaction"),
+		CompactionBytesCopied ("bytes", "The number of bytes copied by compaction"),
+		CompactionKBytesReclaimed ("KB", "The amount of disk space freed by compaction"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
 }
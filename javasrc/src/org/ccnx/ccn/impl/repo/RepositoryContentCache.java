@@ -0,0 +1,359 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * A cache of the content most recently returned for interests, so popular content can be
+ * answered without walking the index and reading it from disk again.
+ *
+ * Content is held once, keyed by its full name, however many interests it has answered. For each
+ * interest name we remember the content the store returned and the interest it was returned for.
+ * A later interest with that name is answered from the cache if it matches the content and
+ * can't match anything the original interest didn't, so the store would have given the same
+ * answer. This covers publisher and suffix component selectors, as used for segments, but not
+ * exclusions or child selectors, where the answer depends on content we don't have.
+ *
+ * Saving content under a name invalidates the answers for every prefix of that name, because the
+ * new content could be the answer for any of them.
+ *
+ * The cache is a segmented LRU bounded by the bytes of content it holds. New entries go into a
+ * probationary segment, and only move to the protected segment, which holds PROTECTED_PERCENT of
+ * the capacity, when they are asked for again. So content read once, as when a consumer scans a
+ * large file, can't push out content many consumers are asking for.
+ *
+ * A store read that started before an invalidation may return content which is out of date by
+ * the time it is put in the cache. Callers get a generation number for the interest before
+ * reading from the store and pass it to put(), which ignores the content if there has been an
+ * invalidation under the interest's name since. Generations are kept in GENERATION_SLOTS
+ * counters shared by the prefixes that hash to them, so an invalidation elsewhere in the
+ * namespace rarely stops content being cached.
+ */
+public class RepositoryContentCache implements CCNStatistics {
+
+	public static final int PROTECTED_PERCENT = 80;
+	public static final int GENERATION_SLOTS = 1024;
+
+	/**
+	 * Bytes charged for each entry on top of its content
+	 */
+	public static final int ENTRY_OVERHEAD = 512;
+
+	/**
+	 * Cached content, and the names of the interests it is the answer for
+	 */
+	protected static class Entry {
+		protected final ContentObject _co;
+		protected final ContentName _fullName;
+		protected final ArrayList<ContentName> _answers = new ArrayList<ContentName>(1);
+
+		protected Entry(ContentObject co, ContentName fullName) {
+			_co = co;
+			_fullName = fullName;
+		}
+	}
+
+	/**
+	 * The content the store returned for an interest
+	 */
+	protected static class Answer {
+		protected final Interest _interest;
+		protected final Entry _entry;
+
+		protected Answer(Interest interest, Entry entry) {
+			_interest = interest;
+			_entry = entry;
+		}
+	}
+
+	protected final long _capacity;
+	protected final long _protectedCapacity;
+	protected final LinkedHashMap<ContentName, Entry> _probation = new LinkedHashMap<ContentName, Entry>(16, 0.75f, true);
+	protected final LinkedHashMap<ContentName, Entry> _protected = new LinkedHashMap<ContentName, Entry>(16, 0.75f, true);
+	protected final HashMap<ContentName, Answer> _answers = new HashMap<ContentName, Answer>();
+	protected final long [] _generations = new long[GENERATION_SLOTS];
+	protected long _probationBytes = 0;
+	protected long _protectedBytes = 0;
+
+	/**
+	 * @param capacity the most bytes of content to hold, 0 to cache nothing
+	 */
+	public RepositoryContentCache(long capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("RepositoryContentCache capacity cannot be negative, got " + capacity);
+		_capacity = capacity;
+		_protectedCapacity = capacity * PROTECTED_PERCENT / 100;
+	}
+
+	/**
+	 * @return whether the answer for interest can be cached
+	 */
+	public static boolean isCacheable(Interest interest) {
+		return null == interest.exclude() && null == interest.childSelector();
+	}
+
+	/**
+	 * @return whether everything interest matches is also matched by original, so if the
+	 * answer to original matches interest it is the answer to interest too
+	 */
+	protected static boolean narrows(Interest interest, Interest original) {
+		if (null != original.publisherID() && !original.publisherID().equals(interest.publisherID()))
+			return false;
+		if (null != original.minSuffixComponents()
+				&& (null == interest.minSuffixComponents() || interest.minSuffixComponents() < original.minSuffixComponents()))
+			return false;
+		if (null != original.maxSuffixComponents()
+				&& (null == interest.maxSuffixComponents() || interest.maxSuffixComponents() > original.maxSuffixComponents()))
+			return false;
+		return true;
+	}
+
+	/**
+	 * @return the cached answer for interest, or null
+	 */
+	public synchronized ContentObject get(Interest interest) {
+		if (_capacity == 0 || !isCacheable(interest))
+			return null;
+		Answer answer = _answers.get(interest.name());
+		if (null == answer || !narrows(interest, answer._interest) || !interest.matches(answer._entry._co)) {
+			_stats.increment(StatsEnum.CacheMisses);
+			return null;
+		}
+		Entry entry = answer._entry;
+		if (null == _protected.get(entry._fullName)) {
+			// Asked for again, so protect it
+			_probation.remove(entry._fullName);
+			_probationBytes -= size(entry._co);
+			_protected.put(entry._fullName, entry);
+			_protectedBytes += size(entry._co);
+			demote();
+		}
+		_stats.increment(StatsEnum.CacheHits);
+		return entry._co;
+	}
+
+	/**
+	 * @param interest
+	 * @return the generation to pass to put() for content about to be read from the store
+	 * for interest
+	 */
+	public synchronized long generation(Interest interest) {
+		return _generations[slot(interest.name())];
+	}
+
+	/**
+	 * Remember the answer for an interest
+	 * @param interest
+	 * @param co the answer the store gave
+	 * @param generation from generation(interest), before the store was asked
+	 */
+	public synchronized void put(Interest interest, ContentObject co, long generation) {
+		if (_capacity == 0 || !isCacheable(interest) || generation != _generations[slot(interest.name())])
+			return;
+		long size = size(co);
+		if (size > _capacity - _protectedCapacity)
+			return;
+		ContentName fullName = co.fullName();
+		Entry entry = _protected.get(fullName);
+		if (null == entry)
+			entry = _probation.get(fullName);
+		if (null == entry) {
+			entry = new Entry(co, fullName);
+			_probation.put(fullName, entry);
+			_probationBytes += size;
+		}
+		ContentName name = interest.name();
+		Answer old = _answers.get(name);
+		if (null != old && old._entry != entry)
+			removeAnswer(name);
+		_answers.put(name, new Answer(interest, entry));
+		if (!entry._answers.contains(name))
+			entry._answers.add(name);
+		trim();
+	}
+
+	/**
+	 * Forget the answers that content saved under name might change
+	 * @param name
+	 */
+	public synchronized void invalidate(ContentName name) {
+		for (int i = name.count(); i >= 0; i--) {
+			ContentName prefix = (i == name.count()) ? name : name.cut(i);
+			_generations[slot(prefix)]++;
+			if (removeAnswer(prefix))
+				_stats.increment(StatsEnum.CacheInvalidations);
+		}
+	}
+
+	/**
+	 * Forget everything, for example when the namespace or policy changes
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < _generations.length; i++)
+			_generations[i]++;
+		_protected.clear();
+		_probation.clear();
+		_answers.clear();
+		_protectedBytes = 0;
+		_probationBytes = 0;
+	}
+
+	/**
+	 * @return the bytes of content held
+	 */
+	public synchronized long bytes() {
+		return _protectedBytes + _probationBytes;
+	}
+
+	/**
+	 * @return the number of objects held
+	 */
+	public synchronized int size() {
+		return _protected.size() + _probation.size();
+	}
+
+	/**
+	 * Move the least recently used protected entries back to probation until the protected
+	 * segment fits
+	 */
+	protected void demote() {
+		Iterator<Entry> it = _protected.values().iterator();
+		while (_protectedBytes > _protectedCapacity && it.hasNext()) {
+			Entry entry = it.next();
+			it.remove();
+			_protectedBytes -= size(entry._co);
+			_probation.put(entry._fullName, entry);
+			_probationBytes += size(entry._co);
+		}
+		trim();
+	}
+
+	/**
+	 * Evict the least recently used probationary entries until everything fits
+	 */
+	protected void trim() {
+		Iterator<Entry> it = _probation.values().iterator();
+		while (_probationBytes + _protectedBytes > _capacity && it.hasNext()) {
+			Entry entry = it.next();
+			it.remove();
+			_probationBytes -= size(entry._co);
+			for (ContentName name : entry._answers)
+				_answers.remove(name);
+			_stats.increment(StatsEnum.CacheEvictions);
+		}
+	}
+
+	/**
+	 * Forget the answer for interests with name, and the content it was if that answers nothing else
+	 * @return whether there was an answer
+	 */
+	protected boolean removeAnswer(ContentName name) {
+		Answer answer = _answers.remove(name);
+		if (null == answer)
+			return false;
+		Entry entry = answer._entry;
+		entry._answers.remove(name);
+		if (entry._answers.isEmpty()) {
+			if (null != _protected.remove(entry._fullName))
+				_protectedBytes -= size(entry._co);
+			else if (null != _probation.remove(entry._fullName))
+				_probationBytes -= size(entry._co);
+		}
+		return true;
+	}
+
+	protected static int slot(ContentName name) {
+		return (name.hashCode() & Integer.MAX_VALUE) % GENERATION_SLOTS;
+	}
+
+	protected static long size(ContentObject co) {
+		return co.contentLength() + ENTRY_OVERHEAD;
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.CacheHits);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		CacheHits ("interests", "The number of interests answered from the content cache"),
+		CacheMisses ("interests", "The number of cacheable interests not found in the content cache"),
+		CacheEvictions ("objects", "The number of objects evicted from the content cache to make room"),
+		CacheInvalidations ("answers", "The number of cached answers dropped because new content was saved under their name"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
@@ -18,14 +18,24 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.InterestTable;
 import org.ccnx.ccn.impl.InterestTable.Entry;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentEncodingException;
+import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -33,34 +43,97 @@ import org.ccnx.ccn.protocol.Interest;
 
 /**
  * So the main listener can output interests sooner, we do the data store work
- * in a separate thread.
+ * in separate threads.
+ *
+ * Incoming content goes through three stages:
+ * - preparation, where the object's encoding and digest are computed. This is spread across
+ *   shards by namespace (the name less any segment number), so the segments of one stream stay
+ *   in order while different streams are prepared in parallel.
+ * - append, where a single thread hands prepared objects to the store in batches, so the
+ *   store sees one ordered stream of writes.
+ * - follow up, where name enumeration responses are sent and the keys of newly stored content
+ *   are checked for. This goes back to the object's shard.
+ *
+ * Ingest is throttled by the number of bytes of content waiting to be appended, set by
+ * SystemConfiguration.REPO_THROTTLE_BYTES. Throttling stops when it falls below
+ * THROTTLE_LOW_PERCENT of that.
  */
 
 public class RepositoryDataHandler implements Runnable {
-	public static final int THROTTLE_TOP = 2000;
-	public static final int THROTTLE_BOTTOM = 1800;
+	public static final int THROTTLE_LOW_PERCENT = 90;
+	public static final int WRITE_BATCH_SIZE = 64;	// Most objects handed to the store in one save
+	
+	/**
+	 * Bytes charged for each object on top of its content, for the name, signature and
+	 * signed info. Only used for throttling, so it doesn't need to be exact.
+	 */
+	public static final int OBJECT_OVERHEAD = 512;
 
 	private final RepositoryServer _server;
 	private final Queue<ContentObject> _queue = new ConcurrentLinkedQueue<ContentObject>();
 	private final InterestTable<ContentName> _pendingKeyChecks = new InterestTable<ContentName>();
-	private boolean _shutdown = false;
+	private final ExecutorService [] _shards;
+	private final long _throttleTop;
+	private final long _throttleBottom;
+	private volatile boolean _shutdown = false;
 	private boolean _shutdownComplete = false;
 	protected int _currentQueueSize;
+	protected long _currentQueueBytes;
 	protected boolean _throttled = false;
 
 	public RepositoryDataHandler(RepositoryServer server) {
+		this(server, SystemConfiguration.REPO_INGEST_THREADS, SystemConfiguration.REPO_THROTTLE_BYTES);
+	}
+
+	/**
+	 * @param server
+	 * @param shards the number of threads preparing content, 0 for one per processor
+	 * @param throttleBytes the number of bytes waiting to be stored at which to throttle ingest
+	 */
+	public RepositoryDataHandler(RepositoryServer server, int shards, long throttleBytes) {
+		if (shards < 0)
+			throw new IllegalArgumentException("RepositoryDataHandler shard count cannot be negative, got " + shards);
+		if (shards == 0)
+			shards = Runtime.getRuntime().availableProcessors();
 		_server = server;
+		_throttleTop = throttleBytes;
+		_throttleBottom = throttleBytes * THROTTLE_LOW_PERCENT / 100;
+		_shards = new ExecutorService[shards];
+		for (int i = 0; i < shards; i++) {
+			final int shard = i;
+			_shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "RepositoryDataHandler shard " + shard);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
 	}
 
-	public void add(ContentObject co) {
+	public void add(final ContentObject co) {
 		synchronized(_queue) {
 			_currentQueueSize++;
-			if (!_throttled && _currentQueueSize > THROTTLE_TOP) {
+			_currentQueueBytes += size(co);
+			if (!_throttled && _currentQueueBytes > _throttleTop) {
 				_throttled = true;
+				_server._stats.increment(RepositoryServer.StatsEnum.DataHandlerThrottled);
 				_server.setThrottle(true);
 			}
-			_queue.add(co);
-			_queue.notify();
+		}
+		try {
+			shard(co).execute(new Runnable() {
+				public void run() {
+					prepare(co);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Log.warning(Log.FAC_REPO, "Tried to save: {0} after repository data handler shutdown", co.name());
+			synchronized (_queue) {
+				removed(co);
+				_queue.notifyAll();
+			}
 		}
 	}
 
@@ -68,22 +141,43 @@ public class RepositoryDataHandler implements Runnable {
 		_pendingKeyChecks.add(new Interest(target), target);
 	}
 
+	/**
+	 * Do the work of encoding the object and computing its digest before it is appended,
+	 * so the append thread only has to copy it.
+	 */
+	protected void prepare(ContentObject co) {
+		try {
+			co.encodedLength();
+			co.digest();
+		} catch (ContentEncodingException e) {
+			// The store will skip it
+			Log.warning(Log.FAC_REPO, "Failed to encode content {0}: {1}", co.name(), e.getMessage());
+		}
+		synchronized (_queue) {
+			_queue.add(co);
+			_queue.notify();
+		}
+	}
+
 	/**
 	 * The content listener runs this thread to store data using the content store.
-	 * The thread also checks for policy updates which may reset the repository's
-	 * namespace and sends "early" nameEnumerationResponses when requested by the
-	 * store.
+	 * Follow up work for stored data, sending "early" nameEnumerationResponses when requested
+	 * by the store and checking for keys, is handed back to the shards.
 	 *
 	 * @see RepositoryStore
 	 */
 	public void run() {
 		while (!_shutdownComplete) {
-			ContentObject co = null;
+			ArrayList<ContentObject> batch = new ArrayList<ContentObject>(WRITE_BATCH_SIZE);
 			synchronized (_queue) {
 				do {
-					co = _queue.poll();
-					if (null == co) {
-						if (_shutdown) {
+					ContentObject co;
+					while (batch.size() < WRITE_BATCH_SIZE && null != (co = _queue.poll()))
+						batch.add(co);
+					if (batch.isEmpty()) {
+						if (_shutdown && _currentQueueSize == 0) {
+							for (ExecutorService shard : _shards)
+								shard.shutdown();
 							synchronized (this) {
 								_shutdownComplete = true;
 								notifyAll();
@@ -94,55 +188,115 @@ public class RepositoryDataHandler implements Runnable {
 							_queue.wait(SystemConfiguration.MEDIUM_TIMEOUT);
 						} catch (InterruptedException e) {}
 					}
-				} while (null == co);
-				_currentQueueSize--;
-				if (_throttled && _currentQueueSize < THROTTLE_BOTTOM) {
-					_throttled = false;
-					_server.setThrottle(false);
-				}
+				} while (batch.isEmpty());
 			}
+			
+			// Save everything we have at once so the store can write it as one batch
+			List<NameEnumerationResponse> ners = null;
+			boolean [] stored = null;
 			try {
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-					Log.finer(Log.FAC_REPO, "Saving content in: " + co.toString());
+					for (ContentObject co : batch)
+						Log.finer(Log.FAC_REPO, "Saving content in: " + co.toString());
 				}
+				_server._stats.addSample(RepositoryServer.StatsEnum.DataHandlerBatchSize, batch.size());
+				ners = _server.getRepository().saveContent(batch);
+			} catch (Exception e) {
+				Log.warning(Log.FAC_REPO, "Failed to save a batch of {0} objects, saving them one at a time: {1}", batch.size(), e.getMessage());
+				Log.logStackTrace(Level.WARNING, e);
+				stored = new boolean[batch.size()];
+				ners = saveEach(batch, stored);
+			} finally {
+				for (ContentObject co : batch)
+					_server.getContentCache().invalidate(co.name());
+				synchronized (_queue) {
+					for (ContentObject co : batch)
+						removed(co);
+				}
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				final ContentObject co = batch.get(i);
+				final NameEnumerationResponse ner = ners.get(i);
+				if (null != stored && !stored[i])
+					continue;
+				try {
+					shard(co).execute(new Runnable() {
+						public void run() {
+							followUp(co, ner);
+						}
+					});
+				} catch (RejectedExecutionException e) {}	// Shutting down
+			}
+		}
+	}
 
-				NameEnumerationResponse ner = _server.getRepository().saveContent(co);
-				if (!_shutdown) {
-					if (ner!=null && ner.hasNames()) {
-						_server.sendEnumerationResponse(ner);
-					}
+	/**
+	 * Save objects one at a time after saving them together failed, so one object that can't
+	 * be saved doesn't lose the rest of its batch
+	 * @param batch
+	 * @param stored set to whether each object was saved
+	 * @return the response for each object, null where there is none
+	 */
+	protected List<NameEnumerationResponse> saveEach(List<ContentObject> batch, boolean [] stored) {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			ContentObject co = batch.get(i);
+			NameEnumerationResponse ner = null;
+			try {
+				ner = _server.getRepository().saveContent(co);
+				stored[i] = true;
+			} catch (Exception e) {
+				Log.warning(Log.FAC_REPO, "Failed to save content {0}: {1}", co.name(), e.getMessage());
+				Log.logStackTrace(Level.WARNING, e);
+			}
+			ners.add(ner);
+		}
+		return ners;
+	}
+
+	/**
+	 * Do what is needed once an object is stored. The key and link checks look in the store
+	 * for what the object refers to, so they can't be done until the batch it was in is stored.
+	 * @param co the object
+	 * @param ner the response to send for it, or null
+	 */
+	protected void followUp(ContentObject co, NameEnumerationResponse ner) {
+		try {
+			if (!_shutdown) {
+				if (ner!=null && ner.hasNames()) {
+					_server.sendEnumerationResponse(ner);
 				}
+			}
 
-				// When a write or some syncs are first requested we don't know what key data
-				// was being used because this is in the ContentObject which of course we didn't
-				// have yet. Bbut we need this data to make sure the key is saved along with the file.
-				// Now we can find the key data and check if we have it already or need to get it
-				// too. Also the key locator that we dont have yet could have been a link. We
-				// didn't know that either. If it was we have to get the data it points to.
-				//
-				// Also we have to check for more locators associated with our new object
-				// and the objects pointed to by the links.
-				Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
-				if (null != entry) {
-					ContentName nameToCheck = entry.value();
+			// When a write or some syncs are first requested we don't know what key data
+			// was being used because this is in the ContentObject which of course we didn't
+			// have yet. Bbut we need this data to make sure the key is saved along with the file.
+			// Now we can find the key data and check if we have it already or need to get it
+			// too. Also the key locator that we dont have yet could have been a link. We
+			// didn't know that either. If it was we have to get the data it points to.
+			//
+			// Also we have to check for more locators associated with our new object
+			// and the objects pointed to by the links.
+			Entry<ContentName> entry = _pendingKeyChecks.removeMatch(co);
+			if (null != entry) {
+				ContentName nameToCheck = entry.value();
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+					Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
+				}
+				ContentName linkCheck = _server.getLinkedKeyTarget(co);
+				if (null != linkCheck) {
 					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-						Log.finer(Log.FAC_REPO, "Processing key check entry: {0}", nameToCheck);
-					}
-					ContentName linkCheck = _server.getLinkedKeyTarget(co);
-					if (null != linkCheck) {
-						if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-							Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
-						}
-						Interest linkInterest = new Interest(linkCheck);
-						_server.doSync(linkInterest, linkInterest);
-						syncKeysForObject(co, linkCheck);
+						Log.finer(Log.FAC_REPO, "Processing key check entry for link: {0}", linkCheck);
 					}
-					syncKeysForObject(co, nameToCheck);
+					Interest linkInterest = new Interest(linkCheck);
+					_server.doSync(linkInterest, linkInterest);
+					syncKeysForObject(co, linkCheck);
 				}
-			} catch (Exception e) {
-				e.printStackTrace();
-				Log.logStackTrace(Level.WARNING, e);
+				syncKeysForObject(co, nameToCheck);
 			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Log.logStackTrace(Level.WARNING, e);
 		}
 	}
 
@@ -158,8 +312,38 @@ public class RepositoryDataHandler implements Runnable {
 		}
 	}
 
+	/**
+	 * @return the shard for the namespace co is in
+	 */
+	protected ExecutorService shard(ContentObject co) {
+		int hash = SegmentationProfile.segmentRoot(co.name()).hashCode();
+		return _shards[(hash & Integer.MAX_VALUE) % _shards.length];
+	}
+
+	/**
+	 * @return the bytes co is charged for throttling
+	 */
+	protected static long size(ContentObject co) {
+		return co.contentLength() + OBJECT_OVERHEAD;
+	}
+
+	/**
+	 * Account for an object leaving the queue. Must be called with _queue locked.
+	 */
+	private void removed(ContentObject co) {
+		_currentQueueSize--;
+		_currentQueueBytes -= size(co);
+		if (_throttled && _currentQueueBytes < _throttleBottom) {
+			_throttled = false;
+			_server.setThrottle(false);
+		}
+	}
+
 	public void shutdown() {
 		_shutdown = true;
+		synchronized (_queue) {
+			_queue.notifyAll();
+		}
 		synchronized (this) {
 			while (!_shutdownComplete) {
 				try {
@@ -169,7 +353,21 @@ public class RepositoryDataHandler implements Runnable {
 		}
 	}
 
+	/**
+	 * @return the number of objects waiting to be stored
+	 */
 	public int getCurrentQueueSize() {
-		return _currentQueueSize;
+		synchronized (_queue) {
+			return _currentQueueSize;
+		}
+	}
+
+	/**
+	 * @return the bytes of content waiting to be stored
+	 */
+	public long getCurrentQueueBytes() {
+		synchronized (_queue) {
+			return _currentQueueBytes;
+		}
 	}
 }
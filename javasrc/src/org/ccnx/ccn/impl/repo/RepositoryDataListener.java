@@ -24,8 +24,11 @@ import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNContentHandler;
 import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.InterestTable;
 import org.ccnx.ccn.impl.InterestTable.Entry;
+import org.ccnx.ccn.impl.security.crypto.VerificationService;
+import org.ccnx.ccn.impl.security.crypto.VerificationService.VerificationListener;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.protocol.ContentName;
@@ -76,7 +79,8 @@ public class RepositoryDataListener implements CCNContentHandler {
 
 	/**
 	 * The actual incoming data handler. Kicks off a thread to store the data and expresses interest in data following
-	 * the incoming data.
+	 * the incoming data. If SystemConfiguration.REPO_VERIFY is set, the data is verified on the default
+	 * VerificationService first, and dropped if it fails.
 	 */
 	public Interest handleContent(ContentObject co,
 			Interest interest) {
@@ -167,7 +171,20 @@ public class RepositoryDataListener implements CCNContentHandler {
 				}
 			}
 		}
-		handleData(co);
+		if (SystemConfiguration.REPO_VERIFY) {
+			VerificationService.getDefault().verifyAsync(co, _handle.defaultVerifier(), new VerificationListener() {
+				public void verificationComplete(ContentObject content, boolean verified) {
+					if (verified) {
+						handleData(content);
+					} else {
+						_server._stats.increment(RepositoryServer.StatsEnum.HandleContentVerifyFailed);
+						if (Log.isLoggable(Log.FAC_REPO, Level.WARNING))
+							Log.warning(Log.FAC_REPO, "Dropping content which failed verification: {0}", content.name());
+					}
+				}
+			});
+		} else
+			handleData(co);
 		return null;
 	}
 
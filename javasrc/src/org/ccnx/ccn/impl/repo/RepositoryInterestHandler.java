@@ -109,7 +109,7 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 				}
 			}
 			_server._stats.increment(RepositoryServer.StatsEnum.HandleInterestUncategorized);
-			ContentObject content = _server.getRepository().getContent(interest);
+			ContentObject content = _server.getContent(interest);
 			if (content != null) {
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINEST))
 					Log.finest(Log.FAC_REPO, "Satisfying interest: {0} with content {1}", interest, content.name());
@@ -303,6 +303,7 @@ public class RepositoryInterestHandler extends QueuedContentHandler<Interest> im
 				try {
 					if (!_server.getRepository().bulkImport(args[0]))
 						return;		// reexpression - ignore
+					_server.getContentCache().clear();
 				} catch (RepositoryException e) {
 					Log.warning(Log.FAC_REPO, "Bulk import error : " + e.getMessage());
 					result = e.getMessage();
@@ -28,9 +28,11 @@ import java.util.logging.Level;
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNCompositeStats;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.CCNWriter;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -84,6 +86,7 @@ public class RepositoryServer implements CCNStatistics {
 	private final int _windowSize = SystemConfiguration.PIPELINE_SIZE;
 	private final int _ephemeralFreshness = FRESHNESS;
 	private final RepositoryDataHandler _dataHandler;
+	private final RepositoryContentCache _contentCache = new RepositoryContentCache(SystemConfiguration.REPO_CACHE_BYTES);
 	private ContentName _responseName = null;
 
 	public static final int PERIOD = 2000; // period for interest timeout check in ms.
@@ -175,6 +178,7 @@ public class RepositoryServer implements CCNStatistics {
 			_dataHandler = new RepositoryDataHandler(this);
 			Thread dataHandlerThread = new Thread(_dataHandler, "RepositoryDataHandler");
 			dataHandlerThread.start();
+			CCNStatsRegistry.registerStats(this);
 	}
 
 	/**
@@ -241,6 +245,7 @@ public class RepositoryServer implements CCNStatistics {
 	public void shutDown() {
 		waitForStart();
 		Log.info(Log.FAC_REPO, "Stopping service of repository requests");
+		CCNStatsRegistry.unregisterStats(this);
 
 		if( _periodicTimer != null ) {
 			synchronized (_currentListeners) {
@@ -285,6 +290,7 @@ public class RepositoryServer implements CCNStatistics {
 	 * @throws IOException
 	 */
 	public void resetNamespaceFromHandler() throws IOException {
+		_contentCache.clear();
 		synchronized (_currentListeners) {
 			synchronized (_pendingNamespaceChangeLock) {
 				_pendingNamespaceChange = true;
@@ -311,6 +317,7 @@ public class RepositoryServer implements CCNStatistics {
 	 * @throws IOException
 	 */
 	private void resetNamespace() throws IOException {
+		_contentCache.clear();
 		ArrayList<ContentName> newNamespace = null;
 		ArrayList<ContentName> unMatchedOld = null;
 		ArrayList<ContentName> needToAdd = null;
@@ -404,6 +411,28 @@ public class RepositoryServer implements CCNStatistics {
 		return _dataHandler;
 	}
 
+	public RepositoryContentCache getContentCache() {
+		return _contentCache;
+	}
+
+	/**
+	 * Get content matching an interest, from the content cache if it is there
+	 *
+	 * @param interest
+	 * @return the matching content, or null if there is none
+	 * @throws RepositoryException
+	 */
+	public ContentObject getContent(Interest interest) throws RepositoryException {
+		ContentObject content = _contentCache.get(interest);
+		if (null != content)
+			return content;
+		long generation = _contentCache.generation(interest);
+		content = _repo.getContent(interest);
+		if (null != content)
+			_contentCache.put(interest, content, generation);
+		return content;
+	}
+
 	public int getWindowSize() {
 		return _windowSize;
 	}
@@ -640,8 +669,13 @@ public class RepositoryServer implements CCNStatistics {
 
 	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.HandleInterest);
 
+	/**
+	 * @return our statistics, and those of the store if it keeps any
+	 */
 	public CCNStats getStats() {
-		return _stats;
+		if (_repo instanceof CCNStatistics)
+			return new CCNCompositeStats(_stats, _contentCache.getStats(), ((CCNStatistics)_repo).getStats());
+		return new CCNCompositeStats(_stats, _contentCache.getStats());
 	}
 
 	public enum StatsEnum implements IStatsEnum {
@@ -679,9 +713,13 @@ public class RepositoryServer implements CCNStatistics {
 
 		HandleContent ("objects", "Calls to ResponsitoryDataListener.handleContent()"),
 		HandleContentHandleData ("objects", "Calls to handleData in RepositoryDataListener"),
+		HandleContentVerifyFailed ("objects", "Objects dropped by RepositoryDataListener because they failed verification"),
 		HandleContentExpressInterest ("interests", "Number of interests expressed in handleContent()"),
 		HandleContentCancelInterest ("interests", "Number of interests cancelled"),
 		HandleContentExpressInterestErrors ("errors", "Number of errors expressing interests in handleContent()"),
+
+		DataHandlerThrottled ("events", "Number of times RepositoryDataHandler throttled ingest"),
+		DataHandlerBatchSize ("objects", "Objects handed to the store in one save by RepositoryDataHandler"),
 ;
 
 
@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
@@ -94,6 +95,15 @@ public interface RepositoryStore {
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
 	
+	/**
+	 * Save several pieces of content at once. Stores which can write a batch more cheaply than
+	 * the same objects one at a time (for example with a single write and sync) should do so.
+	 * If a RepositoryException is thrown, content later in the list may not have been saved.
+	 * @param content the content to save, in order
+	 * @return the NameEnumerationResponse for each object, in the same order, null where there is none
+	 */
+	public List<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException;
+	
 	/**
 	 * Return the matching content if it exists
 	 * @param interest Interest to match
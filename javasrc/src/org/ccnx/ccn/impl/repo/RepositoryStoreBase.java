@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
@@ -202,6 +203,16 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	}
 
 	public abstract NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
+	
+	/**
+	 * Default batch save, one object at a time
+	 */
+	public List<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		for (ContentObject co : content)
+			ners.add(saveContent(co));
+		return ners;
+	}
 
 	public void setPolicy(Policy policy) {
 		_policy = policy;
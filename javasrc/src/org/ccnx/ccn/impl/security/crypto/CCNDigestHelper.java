@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.security.crypto;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 
@@ -125,9 +126,9 @@ public class CCNDigestHelper extends DigestHelper {
 	 * @return digest of content using DEFAULT_DIGEST_ALGORITHM
 	 */
 	public static byte [] digest(byte [] content, int offset, int length) {
-		CCNDigestHelper dh = new CCNDigestHelper();
-		dh.update(content, offset, length);
-		return dh.digest();
+		MessageDigest md = threadDefaultDigest(DEFAULT_DIGEST_ALGORITHM);
+		md.update(content, offset, length);
+		return md.digest();
 	}
 
 	/**
@@ -140,9 +141,9 @@ public class CCNDigestHelper extends DigestHelper {
 	 * @throws NoSuchAlgorithmException if the algorithm is unknown to any of our providers
 	 */
 	public static byte [] digest(String digestAlgorithm, byte [] content, int offset, int length) throws NoSuchAlgorithmException {
-		CCNDigestHelper dh = new CCNDigestHelper(digestAlgorithm);
-		dh.update(content, offset, length);
-		return dh.digest();
+		MessageDigest md = threadDigest((null == digestAlgorithm) ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
+		md.update(content, offset, length);
+		return md.digest();
 	}
 
 	/**
@@ -176,12 +177,12 @@ public class CCNDigestHelper extends DigestHelper {
 	 * @return digest of concatenated content using DEFAULT_DIGEST_ALGORITHM
 	 */
 	public static byte [] digest(byte contents[][]) {
-		CCNDigestHelper dh = new CCNDigestHelper();
+		MessageDigest md = threadDefaultDigest(DEFAULT_DIGEST_ALGORITHM);
 		for (int i=0; i < contents.length; ++i) {
 			if (null != contents[i])
-				dh.update(contents[i], 0, contents[i].length);
+				md.update(contents[i], 0, contents[i].length);
 		}
-		return dh.digest();
+		return md.digest();
 	}	
 
 	/**
@@ -193,17 +194,18 @@ public class CCNDigestHelper extends DigestHelper {
 	 * @throws NoSuchAlgorithmException if the algorithm is unknown to any of our providers
 	 */
 	public static byte [] digest(String digestAlgorithm, byte contents[][]) throws NoSuchAlgorithmException {
-		CCNDigestHelper dh = new CCNDigestHelper(digestAlgorithm);
+		MessageDigest md = threadDigest((null == digestAlgorithm) ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
 		for (int i=0; i < contents.length; ++i) {
 			if (null != contents[i])
-				dh.update(contents[i], 0, contents[i].length);
+				md.update(contents[i], 0, contents[i].length);
 		}
-		return dh.digest();
+		return md.digest();
 	}
 
 
 	public static byte [] digest(String digestAlgorithm, InputStream input) throws NoSuchAlgorithmException, IOException {
-		// Don't need data, so don't bother with digest input stream.
+		// Don't need data, so don't bother with digest input stream. Reading the stream could
+		// digest on this thread, so this can't use the thread's shared digest.
 		CCNDigestHelper dh = new CCNDigestHelper(digestAlgorithm);
 		byte [] buffer = new byte[1024];
 		int read = 0;
@@ -103,6 +103,31 @@ public class CCNMerkleTree extends MerkleTree {
 			Log.fine(Log.FAC_SIGNING, "CCNMerkleTree: built a tree of " + contentObjects.length + " objects.");
 	}
 
+	/**
+	 * Build a CCNMerkleTree from a set of leaf ContentObjects whose leaf digests have already
+	 * been computed, for example by a CCNMerkleTreeBuilder.
+	 * @param contentObjects must be at least 2 blocks, or will throw IllegalArgumentException.
+	 * @param leafDigests the digest of each object, as computed by computeLeafDigest(ContentObject)
+	 * @param signingKey key to sign the root with
+	 * @throws NoSuchAlgorithmException if key or DEFAULT_DIGEST_ALGORITHM are unknown
+	 * @throws InvalidKeyException if signingKey is invalid
+	 * @throws SignatureException if we cannot sign
+	 */
+	public CCNMerkleTree(ContentObject [] contentObjects, byte [][] leafDigests,
+						 PrivateKey signingKey) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+
+		super(CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM, ((null != contentObjects) ? contentObjects.length : 0));
+		_segmentObjects = contentObjects;
+		if ((null == leafDigests) || (leafDigests.length != contentObjects.length))
+			throw new IllegalArgumentException("Need one leaf digest per object!");
+
+		initializeTree(leafDigests, true, 0, 0);
+		_rootSignature = computeRootSignature(root(), signingKey);
+		setSignatures();
+		if (Log.isLoggable(Log.FAC_SIGNING, Level.FINE))
+			Log.fine(Log.FAC_SIGNING, "CCNMerkleTree: built a tree of " + contentObjects.length + " objects from leaf digests.");
+	}
+
 	/**
 	 * Returns the root signature on the tree.
 	 * @return the root signature
@@ -162,8 +187,17 @@ public class CCNMerkleTree extends MerkleTree {
 	 * Sets the signatures of all the contained ContentObjects.
 	 */
 	public void setSignatures() {
-		for (int i=0; i < numLeaves(); ++i) {
-			segmentSignature(i); // DKS TODO refactor, sets signature as a side effect
+		try {
+			ParallelDigester.getDefault().run(numLeaves(), PARALLEL_MIN_LEAVES, new ParallelDigester.Range() {
+				public void run(int from, int to) {
+					for (int i=from; i < to; ++i) {
+						segmentSignature(i); // DKS TODO refactor, sets signature as a side effect
+					}
+				}
+			});
+		} catch (NoSuchAlgorithmException e) {
+			// not thrown by segmentSignature
+			throw new RuntimeException(e);
 		}
 	}
 			
@@ -227,26 +261,40 @@ public class CCNMerkleTree extends MerkleTree {
 	 * @param contentObjects the content
 	 * @throws NoSuchAlgorithmException if the digestAlgorithm unknown
 	 */
-	protected void computeLeafValues(ContentObject [] contentObjects) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final ContentObject [] contentObjects) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
-			// DKS -- need to make sure content() doesn't clone
-			try {
-				ContentObject co = contentObjects[i];
-				byte [] blockDigest = CCNDigestHelper.digest(co.prepareContent()); 
-				_tree[leafNodeIndex(i)-1] = new DEROctetString(blockDigest);
-				
-				if (Log.isLoggable(Log.FAC_SIGNING, Level.FINER)) {
-					Log.finer(Log.FAC_SIGNING, "offset: " + 0 + " block length: " + co.contentLength() + " blockDigest " + 
-							DataUtils.printBytes(blockDigest) + " content digest: " + 
-							DataUtils.printBytes(CCNDigestHelper.digest(co.content(), 0, co.contentLength())));
-				}
+		ParallelDigester.getDefault().run(numLeaves(), PARALLEL_MIN_LEAVES, new ParallelDigester.Range() {
+			public void run(int from, int to) {
+				for (int i=from; i < to; ++i) {
+					// DKS -- need to make sure content() doesn't clone
+					try {
+						ContentObject co = contentObjects[i];
+						byte [] blockDigest = computeLeafDigest(co); 
+						_tree[leafNodeIndex(i)-1] = new DEROctetString(blockDigest);
+						
+						if (Log.isLoggable(Log.FAC_SIGNING, Level.FINER)) {
+							Log.finer(Log.FAC_SIGNING, "offset: " + 0 + " block length: " + co.contentLength() + " blockDigest " + 
+									DataUtils.printBytes(blockDigest) + " content digest: " + 
+									DataUtils.printBytes(CCNDigestHelper.digest(co.content(), 0, co.contentLength())));
+						}
 
-			} catch (ContentEncodingException e) {
-				Log.info("Exception in computeBlockDigest, leaf: " + i + " out of " + numLeaves() + " type: " + e.getClass().getName() + ": " + e.getMessage());
-				e.printStackTrace();
-				// DKS todo -- what to throw?
+					} catch (ContentEncodingException e) {
+						Log.info("Exception in computeBlockDigest, leaf: " + i + " out of " + numLeaves() + " type: " + e.getClass().getName() + ": " + e.getMessage());
+						e.printStackTrace();
+						// DKS todo -- what to throw?
+					}
+				}
 			}
-		}
+		});
+	}
+
+	/**
+	 * Compute the leaf digest of an object: the digest of everything its signature covers.
+	 * @param co the object
+	 * @return its digest
+	 * @throws ContentEncodingException if the object cannot be encoded
+	 */
+	public static byte [] computeLeafDigest(ContentObject co) throws ContentEncodingException {
+		return CCNDigestHelper.digest(co.prepareContent());
 	}
 }
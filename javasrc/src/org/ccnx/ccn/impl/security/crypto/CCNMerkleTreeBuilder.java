@@ -0,0 +1,110 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.ccnx.ccn.io.content.ContentEncodingException;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Builds a CCNMerkleTree a segment at a time. Each segment's leaf digest is started on the
+ * default ParallelDigester as soon as the segment is added, so by the time the tree is built
+ * most of the hashing has been done and what is left is the interior nodes and the root
+ * signature.
+ *
+ * Segments must not be changed once added. Not thread safe; meant to be fed by one writer,
+ * such as a CCNSegmenter.
+ */
+public class CCNMerkleTreeBuilder {
+
+	protected final ArrayList<ContentObject> _objects = new ArrayList<ContentObject>();
+	protected final ArrayList<FutureTask<byte []>> _leafDigests = new ArrayList<FutureTask<byte []>>();
+	protected final ParallelDigester _digester = ParallelDigester.getDefault();
+
+	/**
+	 * Add a segment to the tree, and start computing its leaf digest
+	 * @param co the segment, complete except for its signature
+	 */
+	public void add(final ContentObject co) {
+		_objects.add(co);
+		_leafDigests.add(_digester.submit(new Callable<byte []>() {
+			public byte [] call() throws ContentEncodingException {
+				return CCNMerkleTree.computeLeafDigest(co);
+			}
+		}));
+	}
+
+	/**
+	 * @return the number of segments added since the tree was last built or cleared
+	 */
+	public int size() {
+		return _objects.size();
+	}
+
+	/**
+	 * @return the segments added since the tree was last built or cleared
+	 */
+	public ContentObject [] objects() {
+		return _objects.toArray(new ContentObject[_objects.size()]);
+	}
+
+	/**
+	 * Build and sign the tree of the segments added so far, setting their signatures, and
+	 * start over with an empty tree.
+	 * @param signingKey key to sign the root with
+	 * @return the tree
+	 * @throws ContentEncodingException if a segment could not be encoded
+	 * @throws NoSuchAlgorithmException if key or the default digest algorithm are unknown
+	 * @throws InvalidKeyException if signingKey is invalid
+	 * @throws SignatureException if we cannot sign
+	 */
+	public CCNMerkleTree build(PrivateKey signingKey) throws ContentEncodingException, NoSuchAlgorithmException,
+							InvalidKeyException, SignatureException {
+		ContentObject [] objects = objects();
+		byte [][] leafDigests = new byte[objects.length][];
+		try {
+			for (int i = 0; i < leafDigests.length; i++)
+				leafDigests[i] = _digester.get(_leafDigests.get(i));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ContentEncodingException)
+				throw (ContentEncodingException)e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			clear();
+		}
+		return new CCNMerkleTree(objects, leafDigests, signingKey);
+	}
+
+	/**
+	 * Drop the segments added so far
+	 */
+	public void clear() {
+		_objects.clear();
+		_leafDigests.clear();
+	}
+}
@@ -249,4 +249,27 @@ public class CCNSignatureHelper extends SignatureHelper {
 	throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
 		return verify(new byte[][]{data}, signature, digestAlgorithm, verificationKey);
 	}
+
+	/**
+	 * Verify a signature over part of a buffer.
+	 * Overrides SignatureHelper to get correct default digest.
+	 * @param data the buffer holding the data whose signature we want to verify
+	 * @param offset the start of the signed data in data
+	 * @param length the length of the signed data
+	 * @param signature the signature itself
+	 * @param digestAlgorithm the digest algorithm used to generate the signature.
+	 * 		if null uses DEFAULT_DIGEST_ALGORITHM
+	 * @param verificationKey the public key to verify the signature with
+	 * @return true if signature valid, false otherwise
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static boolean verify(byte [] data, int offset, int length, byte [] signature, String digestAlgorithm,
+			PublicKey verificationKey)
+	throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+		return SignatureHelper.verify(data, offset, length, signature,
+				((null == digestAlgorithm) || (digestAlgorithm.length() == 0)) ?
+						CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM : digestAlgorithm, verificationKey);
+	}
 }
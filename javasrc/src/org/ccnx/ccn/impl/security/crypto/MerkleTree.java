@@ -67,6 +67,10 @@ import org.ccnx.ccn.impl.support.Log;
  * 
  * Store node digests internally as DEROctetStrings for more efficient
  * encoding. 
+ * 
+ * Leaf digests, and the digests of each level of interior nodes, are independent
+ * of one another, so large trees spread them over the threads of the default
+ * ParallelDigester.
  */
 public class MerkleTree {
 	
@@ -75,6 +79,12 @@ public class MerkleTree {
 	 */
 	protected static final int ROOT_NODE = 1;
 	
+	/**
+	 * The fewest leaves, and interior nodes, worth hashing on another thread.
+	 */
+	protected static final int PARALLEL_MIN_LEAVES = 8;
+	protected static final int PARALLEL_MIN_NODES = 256;
+	
 	protected DEROctetString [] _tree;
 	protected int _numLeaves;
 	protected String _digestAlgorithm;
@@ -494,14 +504,18 @@ public class MerkleTree {
 	 * @param lastBlockLength number of bytes of the last block to use; N/A if isDigest is true
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
-	protected void computeLeafValues(byte contentBlocks[][], boolean isDigest, int baseBlockIndex, int lastBlockLength) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final byte contentBlocks[][], final boolean isDigest, final int baseBlockIndex, final int lastBlockLength) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
-			_tree[leafNodeIndex(i)-1] = 
-				new DEROctetString(
-						(isDigest ? contentBlocks[i+baseBlockIndex] : 
-									computeBlockDigest(i, contentBlocks, baseBlockIndex, lastBlockLength)));
-		}
+		ParallelDigester.getDefault().run(numLeaves(), (isDigest ? numLeaves() : PARALLEL_MIN_LEAVES), new ParallelDigester.Range() {
+			public void run(int from, int to) throws NoSuchAlgorithmException {
+				for (int i=from; i < to; ++i) {
+					_tree[leafNodeIndex(i)-1] = 
+						new DEROctetString(
+								(isDigest ? contentBlocks[i+baseBlockIndex] : 
+											computeBlockDigest(i, contentBlocks, baseBlockIndex, lastBlockLength)));
+				}
+			}
+		});
 	}
 	
 	/**
@@ -515,27 +529,42 @@ public class MerkleTree {
 	 * @param blockWidth the length of leaf blocks to create
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
-	protected void computeLeafValues(byte [] content, int offset, int length, int blockWidth) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final byte [] content, final int offset, final int length, final int blockWidth) throws NoSuchAlgorithmException {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
-			_tree[leafNodeIndex(i)-1] = 
-				new DEROctetString(
-						(computeBlockDigest(i, content, offset + (blockWidth*i), 
-											((i < numLeaves()-1) ? blockWidth : (length - (blockWidth*i))))));
-		}
+		ParallelDigester.getDefault().run(numLeaves(), PARALLEL_MIN_LEAVES, new ParallelDigester.Range() {
+			public void run(int from, int to) throws NoSuchAlgorithmException {
+				for (int i=from; i < to; ++i) {
+					_tree[leafNodeIndex(i)-1] = 
+						new DEROctetString(
+								(computeBlockDigest(i, content, offset + (blockWidth*i), 
+													((i < numLeaves()-1) ? blockWidth : (length - (blockWidth*i))))));
+				}
+			}
+		});
 	}
 
 	/**
 	 * Compute the intermediate node values by digesting the concatenation of the
 	 * left and right children (or the left child alone if there is no right child).
+	 * Works up the tree a level at a time; the nodes in a level depend only on
+	 * those below, so each level can be split across threads.
 	 * @throws NoSuchAlgorithmException if digestAlgorithm is unknown
 	 */
 	protected void computeNodeValues() throws NoSuchAlgorithmException {
 		// Climb the tree
-		int firstNode = firstLeaf()-1;
-		for (int i=firstNode; i >= ROOT_NODE; --i) {
-			byte [] nodeDigest = CCNDigestHelper.digest(digestAlgorithm(), get(leftChild(i)), get(rightChild(i)));
-			_tree[i-1] = new DEROctetString(nodeDigest);
+		int lastNode = firstLeaf()-1;
+		ParallelDigester digester = ParallelDigester.getDefault();
+		for (int levelStart = Integer.highestOneBit(lastNode); levelStart >= ROOT_NODE; levelStart >>= 1) {
+			final int firstNode = levelStart;
+			int levelEnd = Math.min(lastNode, 2*levelStart-1);
+			digester.run(levelEnd - firstNode + 1, PARALLEL_MIN_NODES, new ParallelDigester.Range() {
+				public void run(int from, int to) throws NoSuchAlgorithmException {
+					for (int i=firstNode+from; i < firstNode+to; ++i) {
+						byte [] nodeDigest = CCNDigestHelper.digest(digestAlgorithm(), get(leftChild(i)), get(rightChild(i)));
+						_tree[i-1] = new DEROctetString(nodeDigest);
+					}
+				}
+			});
 		}
 	}
 	
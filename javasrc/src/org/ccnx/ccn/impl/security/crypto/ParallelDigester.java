@@ -0,0 +1,197 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+
+/**
+ * A pool of threads for spreading digest computations, such as the leaves and levels of a
+ * MerkleTree, across processors.
+ *
+ * Threads waiting on work they gave the pool run any of it which hasn't started yet
+ * themselves, rather than only waiting for it. So nothing waits on work queued behind
+ * it, and a pool of one thread (the default on a single processor machine) just runs
+ * everything on the caller's thread.
+ */
+public class ParallelDigester {
+
+	/**
+	 * A piece of work which can be split in to independent ranges
+	 */
+	public interface Range {
+		/**
+		 * Do the work for indices from (inclusive) to to (exclusive)
+		 */
+		public void run(int from, int to) throws NoSuchAlgorithmException;
+	}
+
+	protected static ParallelDigester _defaultDigester = null;
+
+	protected final int _threads;
+	protected final ThreadPoolExecutor _executor;
+
+	/**
+	 * @param threads the number of threads, or 0 for one per processor. With one thread,
+	 * 	all work is done on the caller's thread.
+	 */
+	public ParallelDigester(int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException("ParallelDigester thread count cannot be negative, got " + threads);
+		_threads = (threads == 0) ? Runtime.getRuntime().availableProcessors() : threads;
+		if (_threads > 1) {
+			_executor = new ThreadPoolExecutor(_threads, _threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private int _count = 0;
+						public synchronized Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "ParallelDigester " + _count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		} else {
+			_executor = null;
+		}
+	}
+
+	/**
+	 * @return the shared digester, sized by SystemConfiguration.DIGEST_THREADS
+	 */
+	public static synchronized ParallelDigester getDefault() {
+		if (null == _defaultDigester)
+			_defaultDigester = new ParallelDigester(SystemConfiguration.DIGEST_THREADS);
+		return _defaultDigester;
+	}
+
+	/**
+	 * Replace the shared digester
+	 * @param digester the new digester, or null to make a new one as configured when next needed
+	 */
+	public static synchronized void setDefault(ParallelDigester digester) {
+		_defaultDigester = digester;
+	}
+
+	/**
+	 * @return the number of threads work is spread over
+	 */
+	public int threads() {
+		return _threads;
+	}
+
+	/**
+	 * Do some work, split across the pool, and wait for it to finish
+	 * @param count the number of indices to do the work for
+	 * @param minPerTask the fewest indices worth handing to another thread
+	 * @param range the work
+	 * @throws NoSuchAlgorithmException if any part of the work did
+	 */
+	public void run(int count, int minPerTask, final Range range) throws NoSuchAlgorithmException {
+		int tasks = Math.min(_threads, count / Math.max(minPerTask, 1));
+		if (tasks <= 1) {
+			range.run(0, count);
+			return;
+		}
+		int chunk = (count + tasks - 1) / tasks;
+		ArrayList<FutureTask<Object>> others = new ArrayList<FutureTask<Object>>(tasks - 1);
+		for (int i = 1; i < tasks; i++) {
+			final int from = i * chunk;
+			final int to = Math.min(count, from + chunk);
+			others.add(submit(new Callable<Object>() {
+				public Object call() throws NoSuchAlgorithmException {
+					range.run(from, to);
+					return null;
+				}
+			}));
+		}
+		range.run(0, chunk);
+		for (FutureTask<Object> task : others) {
+			try {
+				get(task);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof NoSuchAlgorithmException)
+					throw (NoSuchAlgorithmException)e.getCause();
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException)e.getCause();
+				if (e.getCause() instanceof Error)
+					throw (Error)e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Start a piece of work. Use get(FutureTask) to wait for it.
+	 * @param work the work to do
+	 * @return the pending result
+	 */
+	public <T> FutureTask<T> submit(Callable<T> work) {
+		FutureTask<T> task = new FutureTask<T>(work);
+		if (null == _executor) {
+			task.run();
+		} else {
+			try {
+				_executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.run();
+			}
+		}
+		return task;
+	}
+
+	/**
+	 * Wait for the result of submit(), running the work on this thread if it hasn't started
+	 * @param task the work
+	 * @return its result
+	 * @throws ExecutionException if the work threw an exception
+	 */
+	public <T> T get(FutureTask<T> task) throws ExecutionException {
+		if ((null != _executor) && _executor.remove(task))
+			task.run();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop the pool's threads once the work already given to them is done
+	 */
+	public void shutdown() {
+		if (null != _executor)
+			_executor.shutdown();
+	}
+}
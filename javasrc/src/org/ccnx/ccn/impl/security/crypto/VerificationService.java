@@ -0,0 +1,418 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.ContentVerifier;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.support.SettableFuture;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+
+/**
+ * Verifies content on a pool of worker threads, so that threads receiving content don't have
+ * to do the public key work themselves and many objects can be verified at once.
+ *
+ * The segments of a stream signed by CCNMerkleTreeSigner all carry the same signature, over the
+ * root of their Merkle tree. When several such objects are waiting to be verified by the same
+ * SimpleVerifier, only the first has its signature checked. The others are given the same answer
+ * if the root computed from their own witness matches, which costs a few digests rather than a
+ * public key operation, and are verified in full otherwise. Other verifiers may base their answer
+ * on more than the signature and the publisher, so objects given to them are always verified one
+ * at a time.
+ *
+ * Work is never queued behind a busy thread. If every verification thread is busy, the object is
+ * verified on the caller's thread instead. A verifier may have to read content from the network,
+ * for example to fetch a key, and that content may itself need verifying; with a queue the
+ * verification it is waiting for could be stuck behind it.
+ */
+public class VerificationService implements CCNStatistics {
+
+	/**
+	 * Told the outcome of an asynchronous verification. Called on a verification thread.
+	 */
+	public interface VerificationListener {
+		public void verificationComplete(ContentObject content, boolean verified);
+	}
+
+	protected static VerificationService _defaultService = null;
+
+	protected final ThreadPoolExecutor _executor;
+
+	// Merkle signatures being checked right now, with the requests waiting on each
+	protected final HashMap<SignatureKey, ArrayList<Request>> _pending = new HashMap<SignatureKey, ArrayList<Request>>();
+
+	protected static class Request {
+		protected final ContentObject _content;
+		protected final ContentVerifier _verifier;
+		protected final VerificationListener _listener;
+		protected final SettableFuture<Boolean> _future = new SettableFuture<Boolean>();
+
+		protected Request(ContentObject content, ContentVerifier verifier, VerificationListener listener) {
+			_content = content;
+			_verifier = verifier;
+			_listener = listener;
+		}
+	}
+
+	/**
+	 * Objects with equal keys are signed by the same key with the same signature bits, and
+	 * are being checked by the same verifier.
+	 */
+	protected static class SignatureKey {
+		protected final ContentVerifier _verifier;
+		protected final PublisherPublicKeyDigest _publisher;
+		protected final String _digestAlgorithm;
+		protected final byte [] _signature;
+		protected final int _hashCode;
+
+		protected SignatureKey(ContentVerifier verifier, PublisherPublicKeyDigest publisher, Signature signature) {
+			_verifier = verifier;
+			_publisher = publisher;
+			_digestAlgorithm = signature.digestAlgorithm();
+			_signature = signature.signature();
+			_hashCode = Arrays.hashCode(_signature) ^ publisher.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof SignatureKey))
+				return false;
+			SignatureKey other = (SignatureKey)obj;
+			if (_verifier != other._verifier)
+				return false;
+			if (!_publisher.equals(other._publisher))
+				return false;
+			if ((null == _digestAlgorithm) ? (null != other._digestAlgorithm) : !_digestAlgorithm.equals(other._digestAlgorithm))
+				return false;
+			return Arrays.equals(_signature, other._signature);
+		}
+	}
+
+	/**
+	 * Create a service
+	 * @param threads the number of verification threads, or 0 for one per processor
+	 */
+	public VerificationService(int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException("VerificationService thread count cannot be negative, got " + threads);
+		if (threads == 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		_executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					private int _count = 0;
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "VerificationService " + _count++);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		CCNStatsRegistry.registerStats(this);
+	}
+
+	/**
+	 * @return the shared service, sized by SystemConfiguration.VERIFY_THREADS
+	 */
+	public static synchronized VerificationService getDefault() {
+		if (null == _defaultService)
+			_defaultService = new VerificationService(SystemConfiguration.VERIFY_THREADS);
+		return _defaultService;
+	}
+
+	/**
+	 * Verify an object on a verification thread, or on this thread if they are all busy
+	 * @param content the object to verify
+	 * @param verifier the verifier to check it with
+	 * @param listener told the result when verification is complete, may be null
+	 * @return the result, true if the object verified
+	 */
+	public Future<Boolean> verifyAsync(ContentObject content, ContentVerifier verifier, VerificationListener listener) {
+		if ((null == content) || (null == verifier))
+			throw new IllegalArgumentException("Content and verifier cannot be null");
+		_stats.increment(StatsEnum.Requests);
+		Request request = new Request(content, verifier, listener);
+		SignatureKey key = signatureKey(content, verifier);
+		if (null != key) {
+			synchronized (_pending) {
+				ArrayList<Request> waiting = _pending.get(key);
+				if (null != waiting) {
+					waiting.add(request);
+					return request._future;
+				}
+				_pending.put(key, new ArrayList<Request>());
+			}
+			execute(new RootTask(key, request));
+		} else {
+			execute(new VerifyTask(request));
+		}
+		return request._future;
+	}
+
+	/**
+	 * Verify a number of objects in parallel, and wait for the results
+	 * @param content the objects to verify
+	 * @param verifier the verifier to check them with
+	 * @return whether each object verified, in the same order as content
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean [] verifyBatch(List<ContentObject> content, ContentVerifier verifier) throws InterruptedException {
+		ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(content.size());
+		for (ContentObject co : content)
+			futures.add(verifyAsync(co, verifier, null));
+		boolean [] results = new boolean[futures.size()];
+		for (int i = 0; i < results.length; i++) {
+			try {
+				results[i] = futures.get(i).get();
+			} catch (ExecutionException e) {
+				results[i] = false;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stop the verification threads once the work in progress is done. Objects submitted
+	 * afterwards are verified on the caller's thread.
+	 */
+	public void shutdown() {
+		_executor.shutdown();
+		CCNStatsRegistry.unregisterStats(this);
+	}
+
+	/**
+	 * @return the key to share verification of this object under, or null if it must be
+	 * 	verified on its own
+	 */
+	protected SignatureKey signatureKey(ContentObject content, ContentVerifier verifier) {
+		if (!(verifier instanceof ContentObject.SimpleVerifier))
+			return null;
+		Signature signature = content.signature();
+		if ((null == signature) || (null == signature.witness()) || (null == content.signedInfo()))
+			return null;
+		PublisherPublicKeyDigest publisher = content.signedInfo().getPublisherKeyID();
+		if (null == publisher)
+			return null;
+		return new SignatureKey(verifier, publisher, signature);
+	}
+
+	protected void execute(Runnable task) {
+		try {
+			_executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	/**
+	 * @return the Merkle root for this object, or null if it can't be computed
+	 */
+	protected byte [] root(ContentObject content) {
+		try {
+			return content.computeProxy();
+		} catch (Exception e) {
+			if (Log.isLoggable(Log.FAC_VERIFY, Level.INFO))
+				Log.info(Log.FAC_VERIFY, "Cannot compute Merkle root of {0}: {1}", content.name(), e.getMessage());
+			return null;
+		}
+	}
+
+	protected boolean verify(Request request) {
+		boolean verified;
+		try {
+			verified = request._verifier.verify(request._content);
+		} catch (RuntimeException e) {
+			_stats.increment(StatsEnum.Errors);
+			Log.warning(Log.FAC_VERIFY, "Verifier failed on {0}: {1}", request._content.name(), e);
+			Log.warningStackTrace(e);
+			verified = false;
+		}
+		_stats.increment(StatsEnum.SignatureChecks);
+		complete(request, verified);
+		return verified;
+	}
+
+	protected void complete(Request request, boolean verified) {
+		if (!verified)
+			_stats.increment(StatsEnum.Failed);
+		request._future.set(verified);
+		if (null != request._listener) {
+			try {
+				request._listener.verificationComplete(request._content, verified);
+			} catch (RuntimeException e) {
+				Log.warning(Log.FAC_VERIFY, "Verification listener failed on {0}: {1}", request._content.name(), e);
+				Log.warningStackTrace(e);
+			}
+		}
+	}
+
+	private class VerifyTask implements Runnable {
+		private final Request _request;
+
+		private VerifyTask(Request request) {
+			_request = request;
+		}
+
+		public void run() {
+			verify(_request);
+		}
+	}
+
+	/**
+	 * Fully verify the first object with a given Merkle signature, then hand its answer on
+	 * to any others that arrived in the meantime
+	 */
+	private class RootTask implements Runnable {
+		private final SignatureKey _key;
+		private final Request _request;
+
+		private RootTask(SignatureKey key, Request request) {
+			_key = key;
+			_request = request;
+		}
+
+		public void run() {
+			byte [] root = null;
+			boolean verified = false;
+			try {
+				root = root(_request._content);
+				verified = verify(_request);
+			} finally {
+				ArrayList<Request> waiting;
+				synchronized (_pending) {
+					waiting = _pending.remove(_key);
+				}
+				if (null != waiting) {
+					for (Request request : waiting)
+						execute(new MemberTask(request, root, verified));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give an object the answer for its Merkle signature if its root matches the one that
+	 * was checked, otherwise verify it in full
+	 */
+	private class MemberTask implements Runnable {
+		private final Request _request;
+		private final byte [] _root;
+		private final boolean _verified;
+
+		private MemberTask(Request request, byte [] root, boolean verified) {
+			_request = request;
+			_root = root;
+			_verified = verified;
+		}
+
+		public void run() {
+			if (null != _root && Arrays.equals(_root, root(_request._content))) {
+				_stats.increment(StatsEnum.MerkleRootMatches);
+				complete(_request, _verified);
+			} else {
+				verify(_request);
+			}
+		}
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Requests);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Requests ("objects", "Objects submitted for verification"),
+		SignatureChecks ("objects", "Objects checked by their ContentVerifier"),
+		MerkleRootMatches ("objects", "Objects given the answer for a Merkle signature already checked"),
+		Failed ("objects", "Objects that failed verification"),
+		Errors ("errors", "Exceptions thrown by a ContentVerifier"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
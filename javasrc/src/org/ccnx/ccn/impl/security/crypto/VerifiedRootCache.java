@@ -0,0 +1,213 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.security.crypto;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
+
+/**
+ * Remembers Merkle tree roots whose signatures have been verified, and the keys they were
+ * verified with.
+ *
+ * CCNMerkleTreeSigner signs the root of a tree once and gives every segment in the tree that
+ * signature and a path to the root. Once one segment's signature has been verified, the root
+ * is known to come from the holder of the key, and any other segment whose path leads to the
+ * same root is as good as verified; checking it costs a digest of the segment and the path,
+ * rather than a public key operation.
+ *
+ * The cache holds at most SystemConfiguration.VERIFIED_ROOT_CACHE_SIZE roots, discarding the
+ * least recently used. A size of 0 turns it off.
+ */
+public class VerifiedRootCache implements CCNStatistics {
+
+	protected static VerifiedRootCache _defaultCache = null;
+
+	protected final int _capacity;
+	protected final LinkedHashMap<RootKey, RootKey> _roots;
+
+	protected static class RootKey {
+		protected final byte [] _root;
+		protected final PublicKey _key;
+		protected final int _hashCode;
+
+		protected RootKey(byte [] root, PublicKey key) {
+			_root = root;
+			_key = key;
+			_hashCode = Arrays.hashCode(root) ^ key.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RootKey))
+				return false;
+			RootKey other = (RootKey)obj;
+			return Arrays.equals(_root, other._root) && _key.equals(other._key);
+		}
+	}
+
+	/**
+	 * @param capacity the largest number of roots to remember, 0 to remember none
+	 */
+	public VerifiedRootCache(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("VerifiedRootCache capacity cannot be negative, got " + capacity);
+		_capacity = capacity;
+		_roots = new LinkedHashMap<RootKey, RootKey>(16, 0.75f, true) {
+			private static final long serialVersionUID = 6735101487386372150L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RootKey, RootKey> eldest) {
+				if (size() <= _capacity)
+					return false;
+				_stats.increment(StatsEnum.Evictions);
+				return true;
+			}
+		};
+		CCNStatsRegistry.registerStats(this);
+	}
+
+	/**
+	 * @return the cache used by ContentObject.verify(), sized by
+	 * 	SystemConfiguration.VERIFIED_ROOT_CACHE_SIZE
+	 */
+	public static synchronized VerifiedRootCache getDefault() {
+		if (null == _defaultCache)
+			_defaultCache = new VerifiedRootCache(SystemConfiguration.VERIFIED_ROOT_CACHE_SIZE);
+		return _defaultCache;
+	}
+
+	/**
+	 * @param root the Merkle root, or other signature proxy, of some content
+	 * @param key the key the content claims to be signed with
+	 * @return true if a signature over root has already been verified with key
+	 */
+	public boolean isVerified(byte [] root, PublicKey key) {
+		if (_capacity == 0)
+			return false;
+		boolean found;
+		synchronized (_roots) {
+			found = (null != _roots.get(new RootKey(root, key)));
+		}
+		_stats.increment(found ? StatsEnum.Hits : StatsEnum.Misses);
+		return found;
+	}
+
+	/**
+	 * Note that a signature over root has been verified with key
+	 * @param root the Merkle root, or other signature proxy. It must not be changed afterwards.
+	 * @param key
+	 */
+	public void addVerified(byte [] root, PublicKey key) {
+		if (_capacity == 0)
+			return;
+		RootKey rootKey = new RootKey(root, key);
+		synchronized (_roots) {
+			_roots.put(rootKey, rootKey);
+		}
+	}
+
+	/**
+	 * @return the number of roots remembered
+	 */
+	public int size() {
+		synchronized (_roots) {
+			return _roots.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (_roots) {
+			_roots.clear();
+		}
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Hits);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Hits ("objects", "Objects whose root had already been verified"),
+		Misses ("objects", "Objects whose root had to have its signature verified"),
+		Evictions ("roots", "Roots discarded to make room for others"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
+import java.util.HashMap;
 
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERObject;
@@ -43,6 +44,18 @@ public class DigestHelper {
 
 	protected MessageDigest _md;
 
+	/**
+	 * MessageDigest.getInstance is expensive next to digesting a small object, so the static
+	 * helpers reuse one MessageDigest per algorithm per thread.
+	 */
+	private static final ThreadLocal<HashMap<String, MessageDigest>> _threadDigests = 
+		new ThreadLocal<HashMap<String, MessageDigest>>() {
+			@Override
+			protected HashMap<String, MessageDigest> initialValue() {
+				return new HashMap<String, MessageDigest>();
+			}
+		};
+
 	/**
 	 * Instantiates a MessageDigest of type DEFAULT_DIGEST_ALGORITHM.
 	 */
@@ -65,6 +78,41 @@ public class DigestHelper {
 		_md = MessageDigest.getInstance((null == digestAlgorithm) ? getDefaultDigest() : digestAlgorithm);
 	}
 
+	/**
+	 * Get the calling thread's MessageDigest for an algorithm, reset and ready to use. The caller
+	 * must complete its digest before doing anything that could digest again on the same thread,
+	 * e.g. reading from a stream.
+	 * @param digestAlgorithm the digest algorithm
+	 * @return the MessageDigest
+	 * @throws NoSuchAlgorithmException
+	 */
+	protected static MessageDigest threadDigest(String digestAlgorithm) throws NoSuchAlgorithmException {
+		HashMap<String, MessageDigest> digests = _threadDigests.get();
+		MessageDigest md = digests.get(digestAlgorithm);
+		if (null == md) {
+			md = MessageDigest.getInstance(digestAlgorithm);
+			digests.put(digestAlgorithm, md);
+		} else {
+			md.reset();
+		}
+		return md;
+	}
+
+	/**
+	 * As threadDigest(String) for one of our default algorithms, which must be available
+	 * @param digestAlgorithm the default digest algorithm
+	 * @return the MessageDigest
+	 */
+	protected static MessageDigest threadDefaultDigest(String digestAlgorithm) {
+		try {
+			return threadDigest(digestAlgorithm);
+		} catch (java.security.NoSuchAlgorithmException ex) {
+			// possible configuration problem
+			Log.warning("Fatal Error: cannot find default algorithm " + digestAlgorithm);
+			throw new RuntimeException("Error: can't find default algorithm " + digestAlgorithm + "!  " + ex.toString());
+		}
+	}
+
 	/**
 	 * This method is non-static so subclasses can override it.
 	 * @return the default digest algorithm.
@@ -129,9 +177,9 @@ public class DigestHelper {
 	 * @return the array of bytes for the resulting hash value.
 	 */
 	public static byte [] digest(byte [] content, int offset, int length) {
-		DigestHelper dh = new DigestHelper();
-		dh.update(content, offset, length);
-		return dh.digest();
+		MessageDigest md = threadDefaultDigest(DEFAULT_DIGEST_ALGORITHM);
+		md.update(content, offset, length);
+		return md.digest();
 	}
 
 	/**
@@ -145,9 +193,9 @@ public class DigestHelper {
 	 * @throws NoSuchAlgorithmException
 	 */
 	public static byte [] digest(String digestAlgorithm, byte [] content, int offset, int length) throws NoSuchAlgorithmException {
-		DigestHelper dh = new DigestHelper(digestAlgorithm);
-		dh.update(content, offset, length);
-		return dh.digest();
+		MessageDigest md = threadDigest((null == digestAlgorithm) ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
+		md.update(content, offset, length);
+		return md.digest();
 	}
 
 	/**
@@ -184,11 +232,11 @@ public class DigestHelper {
 	 * @return the array of bytes for the resulting hash value.
 	 */
 	public static byte [] digest(byte[][] contents) {
-		DigestHelper dh = new DigestHelper();
+		MessageDigest md = threadDefaultDigest(DEFAULT_DIGEST_ALGORITHM);
 		for (int i=0; i < contents.length; ++i) {
-			dh.update(contents[i], 0, contents[i].length);
+			md.update(contents[i], 0, contents[i].length);
 		}
-		return dh.digest();
+		return md.digest();
 	}	
 
 	/**
@@ -201,11 +249,11 @@ public class DigestHelper {
 	 * @throws NoSuchAlgorithmException
 	 */
 	public static byte [] digest(String digestAlgorithm, byte[][] contents) throws NoSuchAlgorithmException {
-		DigestHelper dh = new DigestHelper(digestAlgorithm);
+		MessageDigest md = threadDigest((null == digestAlgorithm) ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
 		for (int i=0; i < contents.length; ++i) {
-			dh.update(contents[i], 0, contents[i].length);
+			md.update(contents[i], 0, contents[i].length);
 		}
-		return dh.digest();
+		return md.digest();
 	}
 
 	/**
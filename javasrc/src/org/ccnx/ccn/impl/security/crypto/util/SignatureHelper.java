@@ -20,6 +20,7 @@ package org.ccnx.ccn.impl.security.crypto.util;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.AlgorithmParameters;
+import java.security.Key;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -28,6 +29,7 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidParameterSpecException;
+import java.util.HashMap;
 import java.util.logging.Level;
 
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -46,6 +48,39 @@ import org.ccnx.ccn.impl.support.Log;
  */
 public class SignatureHelper {
 	
+	/**
+	 * A Signature kept by a thread for reuse, with the key it is initialized with. Signature.getInstance
+	 * and initializing with a key are both expensive next to signing a small object, so each thread
+	 * keeps one Signature per algorithm, and reinitializes it only when the key (or between signing
+	 * and verifying) changes. A Signature goes back to its initialized state after each sign or verify.
+	 */
+	private static class ThreadSignature {
+		final Signature _sig;
+		Key _key;		// null if not in a known state
+
+		ThreadSignature(Signature sig) {
+			_sig = sig;
+		}
+	}
+	
+	private static final ThreadLocal<HashMap<String, ThreadSignature>> _threadSignatures =
+		new ThreadLocal<HashMap<String, ThreadSignature>>() {
+			@Override
+			protected HashMap<String, ThreadSignature> initialValue() {
+				return new HashMap<String, ThreadSignature>();
+			}
+		};
+	
+	private static ThreadSignature threadSignature(String sigAlgName) throws NoSuchAlgorithmException {
+		HashMap<String, ThreadSignature> signatures = _threadSignatures.get();
+		ThreadSignature ts = signatures.get(sigAlgName);
+		if (null == ts) {
+			ts = new ThreadSignature(Signature.getInstance(sigAlgName));
+			signatures.put(sigAlgName, ts);
+		}
+		return ts;
+	}
+	
 	/**
 	 * Signs an array of bytes with a private signing key and specified digest algorithm. 
 	 * @param digestAlgorithm the digest algorithm. if null uses DEFAULT_DIGEST_ALGORITHM
@@ -74,17 +109,7 @@ public class SignatureHelper {
 					DigestHelper.DEFAULT_DIGEST_ALGORITHM : digestAlgorithm,
 					signingKey);
 		// DKS TODO if we switch to SHA256, this fails.
-		Signature sig = Signature.getInstance(sigAlgName);
-
-		// Protect against GC on platforms that don't do JNI for crypto properly
-		SignatureLocks.signingLock();
-		try {
-			sig.initSign(signingKey);
-			sig.update(toBeSigned);
-			return sig.sign();
-		} finally {
-			SignatureLocks.signingUnock();
-		}
+		return sign(threadSignature(sigAlgName), new byte[][]{toBeSigned}, signingKey);
 	}
 	
 	/**
@@ -116,17 +141,29 @@ public class SignatureHelper {
 					DigestHelper.DEFAULT_DIGEST_ALGORITHM : digestAlgorithm,
 					signingKey);
 
-		Signature sig = Signature.getInstance(sigAlgName);
-
+		return sign(threadSignature(sigAlgName), toBeSigneds, signingKey);
+	}
+	
+	private static byte [] sign(ThreadSignature ts, byte[][] toBeSigneds, PrivateKey signingKey) 
+				throws SignatureException, InvalidKeyException {
+		boolean done = false;
 		// Protect against GC on platforms that don't do JNI for crypto properly
 		SignatureLocks.signingLock();
 		try {
-			sig.initSign(signingKey);
+			if (ts._key != signingKey) {
+				ts._key = null;
+				ts._sig.initSign(signingKey);
+				ts._key = signingKey;
+			}
 			for (int i=0; i < toBeSigneds.length; ++i) {
-				sig.update(toBeSigneds[i]);
+				ts._sig.update(toBeSigneds[i]);
 			}
-			return sig.sign();
+			byte [] signature = ts._sig.sign();
+			done = true;
+			return signature;
 		} finally {
+			if (!done)
+				ts._key = null;
 			SignatureLocks.signingUnock();
 		}
 	}
@@ -150,6 +187,41 @@ public class SignatureHelper {
 			String digestAlgorithm,
 			final PublicKey verificationKey) throws SignatureException, 
 						NoSuchAlgorithmException, InvalidKeyException {
+		return verify(data, 0, -1, signature, digestAlgorithm, verificationKey);
+	}
+
+	/**
+	 * Verify a signature over part of a buffer.
+	 * @param data the buffer holding the data whose signature we want to verify
+	 * @param offset the start of the signed data in data
+	 * @param length the length of the signed data
+	 * @param signature the signature itself
+	 * @param digestAlgorithm the digest algorithm used to generate the signature,
+	 * 		if null uses DEFAULT_DIGEST_ALGORITHM
+	 * @param verificationKey the public key to verify the signature with
+	 * @return true if signature valid, false otherwise
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static boolean verify(byte [] data, int offset, int length, byte [] signature, String digestAlgorithm,
+										PublicKey verificationKey)
+					throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
+		return verify(new byte[][]{data}, offset, length, signature, digestAlgorithm, verificationKey);
+	}
+
+	/**
+	 * If length is negative all of each array in data is verified, otherwise data holds
+	 * a single array of which only length bytes from offset are verified.
+	 */
+	private static boolean verify(
+			final byte[][] data,
+			final int offset,
+			final int length,
+			final byte [] signature,
+			String digestAlgorithm,
+			final PublicKey verificationKey) throws SignatureException,
+						NoSuchAlgorithmException, InvalidKeyException {
 		if (null == verificationKey) {
 			Log.info("verify: Verifying key cannot be null.");
 			throw new IllegalArgumentException("verify: Verifying key cannot be null.");
@@ -171,8 +243,12 @@ public class SignatureHelper {
 						engineInitVerify(verificationKey);
 						if (null != data) {
 							for (int i=0; i < data.length; ++i) {
-								if (data[i] != null)
-									engineUpdate(data[i], 0, data[i].length);
+								if (data[i] != null) {
+									if (length < 0)
+										engineUpdate(data[i], 0, data[i].length);
+									else
+										engineUpdate(data[i], offset, length);
+								}
 							}
 						}
 						return engineVerify(signature);
@@ -182,20 +258,33 @@ public class SignatureHelper {
 				}
 			}.verify();
 		} else {
-			Signature sig = Signature.getInstance(sigAlgName);
+			ThreadSignature ts = threadSignature(sigAlgName);
+			boolean done = false;
 
 			// Protect against GC on platforms that don't do JNI for crypto properly
 			SignatureLocks.signingLock();
 			try {
-				sig.initVerify(verificationKey);
+				if (ts._key != verificationKey) {
+					ts._key = null;
+					ts._sig.initVerify(verificationKey);
+					ts._key = verificationKey;
+				}
 				if (null != data) {
 					for (int i=0; i < data.length; ++i) {
-						if (data[i] != null)
-							sig.update(data[i]);
+						if (data[i] != null) {
+							if (length < 0)
+								ts._sig.update(data[i]);
+							else
+								ts._sig.update(data[i], offset, length);
+						}
 					}
 				}
-				return sig.verify(signature);
+				boolean result = ts._sig.verify(signature);
+				done = true;
+				return result;
 			} finally {
+				if (!done)
+					ts._key = null;
 				SignatureLocks.signingUnock();
 			}
 		}
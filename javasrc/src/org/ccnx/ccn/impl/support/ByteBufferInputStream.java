@@ -0,0 +1,100 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.support;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream reading from the position to the limit of a ByteBuffer. Reads advance the
+ * position of the buffer, so callers sharing a buffer between threads should give each stream
+ * its own duplicate().
+ *
+ * Mark and reset are supported, so the stream can be handed straight to the decoders.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	protected final ByteBuffer _buffer;
+	protected int _mark = -1;
+
+	/**
+	 * @param buffer the buffer to read. It is used directly, not copied.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		_buffer = buffer;
+	}
+
+	/**
+	 * @return the underlying buffer
+	 */
+	public ByteBuffer buffer() {
+		return _buffer;
+	}
+
+	@Override
+	public int read() {
+		if (! _buffer.hasRemaining())
+			return -1;
+		return _buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		int remaining = _buffer.remaining();
+		if (remaining == 0)
+			return -1;
+		if (len > remaining)
+			len = remaining;
+		_buffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0)
+			return 0;
+		int skipped = (int)Math.min(n, _buffer.remaining());
+		_buffer.position(_buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return _buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		_mark = _buffer.position();
+	}
+
+	@Override
+	public void reset() {
+		if (_mark >= 0)
+			_buffer.position(_mark);
+	}
+}
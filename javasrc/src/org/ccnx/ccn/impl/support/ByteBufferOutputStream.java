@@ -0,0 +1,141 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.support;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream writing to a ByteBuffer. It either writes in to a buffer supplied by the caller,
+ * starting at the buffer's position and throwing BufferOverflowException if the buffer fills, or
+ * to a heap buffer of its own which grows as needed.
+ *
+ * Unlike ByteArrayOutputStream it is not synchronized, and the data written can be got at without
+ * copying it, so a growable stream can be reset() and reused for many encodings.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+	protected ByteBuffer _buffer;
+	protected final int _start;
+	protected final boolean _growable;
+
+	/**
+	 * Write in to an existing buffer, from its position
+	 * @param buffer the buffer to write to. It is used directly, not copied.
+	 */
+	public ByteBufferOutputStream(ByteBuffer buffer) {
+		_buffer = buffer;
+		_start = buffer.position();
+		_growable = false;
+	}
+
+	/**
+	 * Write in to a heap buffer which grows as needed
+	 * @param initialSize
+	 */
+	public ByteBufferOutputStream(int initialSize) {
+		_buffer = ByteBuffer.allocate(initialSize > 0 ? initialSize : 1);
+		_start = 0;
+		_growable = true;
+	}
+
+	@Override
+	public void write(int b) {
+		if (! _buffer.hasRemaining())
+			ensureRemaining(1);
+		_buffer.put((byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len > _buffer.remaining())
+			ensureRemaining(len);
+		_buffer.put(b, off, len);
+	}
+
+	/**
+	 * Make sure at least count more bytes can be written without reallocating
+	 * @param count
+	 * @throws BufferOverflowException if the stream is writing to a caller's buffer which
+	 * 		does not have room
+	 */
+	public void ensureRemaining(int count) {
+		if (_buffer.remaining() >= count)
+			return;
+		if (! _growable)
+			throw new BufferOverflowException();
+		int capacity = _buffer.capacity();
+		int needed = _buffer.position() + count;
+		while (capacity < needed)
+			capacity = (capacity > Integer.MAX_VALUE / 2) ? needed : capacity * 2;
+		ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+		_buffer.flip();
+		newBuffer.put(_buffer);
+		_buffer = newBuffer;
+	}
+
+	/**
+	 * @return the number of bytes written since construction or the last reset()
+	 */
+	public int size() {
+		return _buffer.position() - _start;
+	}
+
+	/**
+	 * Discard what has been written and start writing from the beginning again.
+	 */
+	public void reset() {
+		_buffer.position(_start);
+	}
+
+	/**
+	 * @return the capacity of the current underlying buffer
+	 */
+	public int capacity() {
+		return _buffer.capacity();
+	}
+
+	/**
+	 * @return a read-only view of the bytes written so far. It shares the stream's storage,
+	 * 	so is only valid until the stream is next written to or reset.
+	 */
+	public ByteBuffer buffer() {
+		ByteBuffer view = _buffer.duplicate();
+		view.limit(view.position());
+		view.position(_start);
+		return view.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a copy of the bytes written so far
+	 */
+	public byte [] toByteArray() {
+		byte [] result = new byte[size()];
+		if (_buffer.hasArray()) {
+			System.arraycopy(_buffer.array(), _buffer.arrayOffset() + _start, result, 0, result.length);
+		} else {
+			ByteBuffer view = _buffer.duplicate();
+			view.position(_start);
+			view.get(result);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.support;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Future whose result is filled in by whoever is doing the work, rather than by running
+ * a Callable. Only the first of set(), setException() or cancel() has any effect.
+ * Listeners may be added to be told when the future completes, so that callers with many
+ * outstanding futures don't need a thread blocked in get() for each of them.
+ *
+ * @param <V> the result type
+ */
+public class SettableFuture<V> implements Future<V> {
+
+	protected final CountDownLatch _done = new CountDownLatch(1);
+	protected V _value = null;
+	protected Throwable _exception = null;
+	protected boolean _cancelled = false;
+	protected boolean _complete = false;
+	protected ArrayList<Runnable> _listeners = new ArrayList<Runnable>();
+
+	/**
+	 * Complete this future with a value
+	 * @param value the result
+	 * @return true if this completed the future, false if it was already complete
+	 */
+	public boolean set(V value) {
+		synchronized (this) {
+			if (_complete)
+				return false;
+			_value = value;
+			_complete = true;
+		}
+		completed();
+		return true;
+	}
+
+	/**
+	 * Complete this future with a failure. get() will throw an ExecutionException wrapping it.
+	 * @param exception the failure
+	 * @return true if this completed the future, false if it was already complete
+	 */
+	public boolean setException(Throwable exception) {
+		synchronized (this) {
+			if (_complete)
+				return false;
+			_exception = exception;
+			_complete = true;
+		}
+		completed();
+		return true;
+	}
+
+	/**
+	 * Mark this future cancelled. The work itself is not interrupted; its result, when it
+	 * arrives, is ignored.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (_complete)
+				return false;
+			_cancelled = true;
+			_complete = true;
+		}
+		completed();
+		return true;
+	}
+
+	/**
+	 * Run a listener when this future completes, or straight away if it already has.
+	 * Listeners should be quick and must not block if executor is null.
+	 * @param listener the listener
+	 * @param executor where to run the listener, or null to run it on the thread completing the future
+	 */
+	public void addListener(Runnable listener, Executor executor) {
+		Runnable toRun = (null == executor) ? listener : new ExecutorListener(listener, executor);
+		synchronized (this) {
+			if (! _complete) {
+				_listeners.add(toRun);
+				return;
+			}
+		}
+		runListener(toRun);
+	}
+
+	protected void completed() {
+		_done.countDown();
+		ArrayList<Runnable> listeners;
+		synchronized (this) {
+			listeners = _listeners;
+			_listeners = null;
+		}
+		for (Runnable listener : listeners)
+			runListener(listener);
+	}
+
+	protected void runListener(Runnable listener) {
+		try {
+			listener.run();
+		} catch (RuntimeException re) {
+			Log.warning("Future listener {0} failed: {1}", listener, re);
+		}
+	}
+
+	protected static class ExecutorListener implements Runnable {
+		protected final Runnable _listener;
+		protected final Executor _executor;
+
+		protected ExecutorListener(Runnable listener, Executor executor) {
+			_listener = listener;
+			_executor = executor;
+		}
+
+		public void run() {
+			_executor.execute(_listener);
+		}
+
+		@Override
+		public String toString() {
+			return _listener.toString();
+		}
+	}
+
+	public synchronized boolean isCancelled() {
+		return _cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return _complete;
+	}
+
+	public V get() throws InterruptedException, ExecutionException {
+		_done.await();
+		return result();
+	}
+
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (! _done.await(timeout, unit))
+			throw new TimeoutException();
+		return result();
+	}
+
+	protected synchronized V result() throws ExecutionException {
+		if (_cancelled)
+			throw new CancellationException();
+		if (null != _exception)
+			throw new ExecutionException(_exception);
+		return _value;
+	}
+}
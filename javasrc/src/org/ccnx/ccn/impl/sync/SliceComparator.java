@@ -17,15 +17,17 @@
 package org.ccnx.ccn.impl.sync;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -66,6 +68,12 @@ import org.ccnx.ccn.protocol.Interest;
  * Note: We purposely don't decode SyncNodeComposites in handlers since they are big and slow and we risk
  * timing out the handler by doing so.
  * 
+ * Comparisons for all slices run on a shared pool of SystemConfiguration.SYNC_COMPARE_THREADS threads.
+ * A comparison runs until it needs a node it doesn't have, then gives up its thread; the arrival of the
+ * node (or of a new hash) kicks it off again. Before comparing, we look ahead of where the comparison
+ * is in both trees and request up to SystemConfiguration.SYNC_FETCH_WINDOW nodes at once, so catching
+ * up with a big tree isn't held up waiting for nodes one at a time.
+ * 
  * Note about synchronization:  This class is multi-threaded and contains many class global fields which at first
  * glance would seem to need synchronization. However care has been taken to insure that the "run" loop can not be
  * run more than once simultaneously and that all unsynchronized global fields are only referenced from the run
@@ -76,13 +84,15 @@ public class SliceComparator implements Runnable {
 	public static final int DECODER_SIZE = 756;
 	public static enum SyncCompareState {INIT, PRELOAD, COMPARE, DONE, UPDATE};
 
-	public ScheduledThreadPoolExecutor _executor = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1);
-	public final int COMPARE_INTERVAL = 100; // ms
+	public static final int PRELOAD_VISIT_FACTOR = 4;	// Entries looked at per node requested in a preload
+
+	protected static ThreadPoolExecutor _compareExecutor = null;
 	protected BinaryXMLDecoder _decoder;
 	protected Object _timerLock = new Object();
 	protected boolean _needToCompare = true;
 	protected boolean _comparing = false;
 	protected boolean _shutdown = false;
+	protected boolean _waitingForNode = false;	// Only referenced by the run loop
 	
 	// Prevents the comparison task from being run more than once simultaneously
 	protected Semaphore _compareSemaphore = new Semaphore(1);
@@ -158,8 +168,10 @@ public class SliceComparator implements Runnable {
 		_slice = slice;
 		_callbacks.add(callback);
 		_handle = handle;
-		if (null != startHash)
+		if (null != startHash) {
 			_startHash = _shc.addHash(startHash, _snc);
+			_shc.pin(_startHash);
+		}
 		_startName = startName;
 		if (null != startName)
 			_doCallbacks = false;
@@ -191,6 +203,7 @@ public class SliceComparator implements Runnable {
 				}
 			}
 			_pendingEntries.add(ste);
+			_shc.pin(ste);
 			return true;
 		}
 	}
@@ -303,10 +316,8 @@ public class SliceComparator implements Runnable {
 	 */
 	public boolean shutdownIfUseless() {
 		synchronized (this) {
-			if (_callbacks.size() == 0) {
+			if (_callbacks.size() == 0)
 				_shutdown = true;
-				_executor.shutdownNow();
-			}
 			return _shutdown;
 		}
 	}
@@ -356,29 +367,84 @@ public class SliceComparator implements Runnable {
 			if (! _comparing) {
 				_comparing = true;
 				_needToCompare = false;
-				_executor.schedule(this, COMPARE_INTERVAL, TimeUnit.MILLISECONDS);
+				compareExecutor().execute(this);
 			} else
 				_needToCompare = true;
 		}
 	}
 	
 	/**
-	 * Request nodes that we will need for the compare. By requesting multiple nodes
-	 * simultaneously we can speed up the process.
+	 * @return the pool comparisons for all slices run on, sized by SystemConfiguration.SYNC_COMPARE_THREADS
+	 */
+	protected static synchronized ThreadPoolExecutor compareExecutor() {
+		if (null == _compareExecutor) {
+			int threads = SystemConfiguration.SYNC_COMPARE_THREADS;
+			if (threads <= 0)
+				threads = Runtime.getRuntime().availableProcessors();
+			_compareExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private int _count = 0;
+						public synchronized Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "SliceComparator " + _count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return _compareExecutor;
+	}
+	
+	/**
+	 * Request nodes that we will need for the compare. We start with the nodes the compare
+	 * will reach next, under the current position at each level of both trees, and work
+	 * down from there breadth first until we have SystemConfiguration.SYNC_FETCH_WINDOW
+	 * requests outstanding. Nodes that have been requested but haven't arrived yet count
+	 * towards the window, so each time we are kicked by an arriving node we top it back up.
 	 * 
-	 * @param srt
-	 * @return false if no preloads requested
 	 * @throws SyncException 
 	 */
-	private void doPreload(SyncTreeEntry srt) throws SyncException {
-		SyncNodeComposite snc = null;
-		snc = srt.getNode(_decoder);
-		if (null != snc) {
-			for (SyncNodeElement sne : snc.getRefs()) {
-				if (sne.getType() == SyncNodeType.HASH) {
-					SyncTreeEntry tsrt = _shc.addHash(sne.getData(), _snc);
-					getOrRequestNode(tsrt, false);
-				}
+	private void doPreload() throws SyncException {
+		LinkedList<SyncTreeEntry> queue = new LinkedList<SyncTreeEntry>();
+		addUpcoming(_next, queue);
+		addUpcoming(_current, queue);
+		int window = SystemConfiguration.SYNC_FETCH_WINDOW;
+		int outstanding = 0;
+		int visited = 0;
+		while (!queue.isEmpty() && outstanding < window && visited < window * PRELOAD_VISIT_FACTOR) {
+			SyncTreeEntry srt = queue.removeFirst();
+			visited++;
+			SyncNodeComposite snc = getOrRequestNode(srt, false);
+			if (null == snc)
+				outstanding++;
+			else
+				addChildren(snc, 0, queue);
+		}
+		if (Log.isLoggable(Log.FAC_SYNC, Level.FINE))
+			Log.fine(Log.FAC_SYNC, "Preload looked at {0} entries, {1} nodes outstanding", visited, outstanding);
+	}
+	
+	/**
+	 * Add the entries the compare will come to next in a tree, deepest level first
+	 */
+	private void addUpcoming(Stack<SyncTreeEntry> stack, LinkedList<SyncTreeEntry> queue) {
+		for (int i = stack.size() - 1; i >= 0; i--) {
+			SyncTreeEntry srt = stack.get(i);
+			SyncNodeComposite snc = srt.getNode(_decoder);
+			if (null == snc)
+				queue.add(srt);
+			else
+				addChildren(snc, srt.getPos(), queue);
+		}
+	}
+	
+	private void addChildren(SyncNodeComposite snc, int from, LinkedList<SyncTreeEntry> queue) {
+		ArrayList<SyncNodeElement> refs = snc.getRefs();
+		for (int i = from; i < refs.size(); i++) {
+			SyncNodeElement sne = refs.get(i);
+			if (sne.getType() == SyncNodeType.HASH) {
+				SyncTreeEntry entry = _shc.addHash(sne.getData(), _snc);
+				if (!entry.isCovered())
+					queue.add(entry);
 			}
 		}
 	}
@@ -387,14 +453,14 @@ public class SliceComparator implements Runnable {
 	 * Nodes can be shared across comparators so if we are missing a node, we really only want to
 	 * do one request for the node for the whole slice. Then when the node is returned other comparators
 	 * that want it can just retrieve the information from the cache. We use a boolean lock to accomplish this.
-	 * In some cases (preload) we want to issue the request but we don't want to wait for an answer. That's
-	 * what the wait flag is for.
 	 * 
-	 * Note: Since we are potentially waiting for an outside object here, we probably don't want to call
-	 * this synchronized to avoid potential deadlocks.
+	 * We never wait here for the node to arrive. If the caller needs the node to go on (the wait flag), we
+	 * note that the run loop should give up its thread until the node arrives, and arrange to be kicked when
+	 * it does - by our own NodeFetchHandler, or by the cache if another comparator is fetching it. A request
+	 * that has been outstanding for longer than SystemConfiguration.LONG_TIMEOUT is made again.
 	 * 
 	 * @param srt
-	 * @param wait Wait for the node if true
+	 * @param wait true if the compare can't go on without the node
 	 * @return null if node not found but request made
 	 * @throws SyncException
 	 */
@@ -402,29 +468,15 @@ public class SliceComparator implements Runnable {
 		SyncNodeComposite node = srt.getNode(_decoder);
 		if (null != node)
 			return node;
+		if (wait)
+			_waitingForNode = true;
 		Pending lock = _snc.pending(srt.getHash());
-		long ourTime = System.currentTimeMillis();
-		long endTime = ourTime + SystemConfiguration.LONG_TIMEOUT;
-		while (wait && lock.getPending()) {
-			try {
-				synchronized (lock) {
-					lock.wait(SystemConfiguration.LONG_TIMEOUT);
-					node = srt.getNode(_decoder);
-					if (null != node)
-						return node;
-				}
-			} catch (InterruptedException e) {
-				return null;
-			}
-			ourTime = System.currentTimeMillis();
-			if (ourTime > endTime) {
-				throw new SyncException("Node fetch timeout for: " + Component.printURI(srt.getHash()));
-			}
-		}
-		
 		synchronized (lock) {
-			if (lock.getPending())	// For non wait case when someone else already requested it
+			if (lock.getPending() && System.currentTimeMillis() - lock.getRequestTime() < SystemConfiguration.LONG_TIMEOUT) {
+				if (wait)
+					lock.addWaiter(this);
 				return null;
+			}
 			lock.setPending(true);
 		}
 		ProtocolBasedSyncMonitor.requestNode(_slice, srt.getHash(), _handle, _nfh);
@@ -480,6 +532,7 @@ public class SliceComparator implements Runnable {
 			if (null == sncY) {
 				if (Log.isLoggable(Log.FAC_SYNC, Level.FINE))
 					Log.fine(Log.FAC_SYNC, "No data for Y: {0}, pos is {1}", Component.printURI(srtY.getHash()), srtY.getPos());
+				changeState(SyncCompareState.PRELOAD);
 				return;
 			}
 			if (srtY.lastPos())
@@ -495,6 +548,7 @@ public class SliceComparator implements Runnable {
 				if (null == sncX) {
 					if (Log.isLoggable(Log.FAC_SYNC, Level.FINE))
 						Log.fine(Log.FAC_SYNC, "No data for X: {0}, pos is {1}", Component.printURI(srtX.getHash()), srtX.getPos());
+					changeState(SyncCompareState.PRELOAD);
 					return;
 				}
 				if (srtX.lastPos())
@@ -701,8 +755,26 @@ public class SliceComparator implements Runnable {
 	}
 	
 	protected void push(SyncTreeEntry srt, Stack<SyncTreeEntry> stack) {
+		_shc.pin(srt);
 		stack.push(srt);
 	}
+
+	/**
+	 * Pin what we are working with in the hash cache - the trees we have the roots of, and
+	 * everything on our stacks - so that the entries, which hold the state of the compare,
+	 * aren't evicted from under us. Anything pinned before and no longer needed is let go.
+	 * Entries we come across during the compare are pinned as we push them.
+	 */
+	protected void pinWorkingSet() {
+		synchronized (this) {
+			ArrayList<SyncTreeEntry> roots = new ArrayList<SyncTreeEntry>(_pendingEntries);
+			roots.add(_currentRoot);
+			roots.add(_startHash);
+			roots.addAll(_current);
+			roots.addAll(_next);
+			_shc.pinTrees(roots);
+		}
+	}
 		
 	protected SyncTreeEntry pop(Stack<SyncTreeEntry> stack) {
 		if (!stack.empty()) {
@@ -944,6 +1016,7 @@ public class SliceComparator implements Runnable {
 			Log.fine(Log.FAC_SYNC, "Starting comparator run - state is {0}, sc is {1}", _state, this);
 		_compareSemaphore.acquireUninterruptibly();
 		boolean keepComparing = true;
+		boolean failed = true;
 		try {
 			do {
 				synchronized (this) {
@@ -988,6 +1061,7 @@ public class SliceComparator implements Runnable {
 							_currentRoot = ste;
 						else
 							nextRound();
+						pinWorkingSet();
 						changeState(SyncCompareState.PRELOAD);
 					}
 						
@@ -1024,7 +1098,7 @@ public class SliceComparator implements Runnable {
 					// someone else might be receiving the data. So we'll just wait in compare for
 					// our data if we need it. At least we've now requested multiple data if we
 					// need it
-					doPreload(getHead(_next));
+					doPreload();
 					changeState(SyncCompareState.COMPARE);
 					// Fall through
 				case COMPARE:	// We are currently in the process of comparing
@@ -1070,6 +1144,7 @@ public class SliceComparator implements Runnable {
 							_shutdown = true;
 						}
 						changeState(SyncCompareState.INIT);
+						pinWorkingSet();
 						if (_pendingEntries.size() > 0) {
 							break;
 						}
@@ -1080,6 +1155,11 @@ public class SliceComparator implements Runnable {
 					keepComparing = false;
 					break;
 				}
+				if (_waitingForNode) {
+					// Give up the thread until the node we need arrives and we are kicked
+					_waitingForNode = false;
+					keepComparing = false;
+				}
 				synchronized (_timerLock) {
 					if (!keepComparing) {
 						if (_needToCompare) {
@@ -1091,7 +1171,7 @@ public class SliceComparator implements Runnable {
 					}
 				}
 			} while (keepComparing);
-			_compareSemaphore.release();
+			failed = false;
 		} catch (Exception ex) {
 			Log.logStackTrace(Log.FAC_SYNC, Level.WARNING, ex);
 			changeState(SyncCompareState.INIT);
@@ -1099,6 +1179,15 @@ public class SliceComparator implements Runnable {
 		} catch (Error er) {
 			Log.logStackTrace(Log.FAC_SYNC, Level.WARNING, er);
 			changeState(SyncCompareState.INIT);
+		} finally {
+			_waitingForNode = false;
+			_compareSemaphore.release();
+			if (failed) {
+				// Let the next kick start us again
+				synchronized (_timerLock) {
+					_comparing = false;
+				}
+			}
 		}
 	}
 	
@@ -1119,8 +1208,7 @@ public class SliceComparator implements Runnable {
 			byte[] hash = name.component(hashComponent + 2);
 			if (Log.isLoggable(Log.FAC_SYNC, Level.FINE))
 				Log.fine(Log.FAC_SYNC, "Saw data from nodefind: hash: {0}", Component.printURI(hash));
-			SyncTreeEntry ste = _shc.addHash(hash, _snc);
-			ste.setRawContent(data.content());
+			_snc.putRawNode(hash, data.content());
 			_snc.clearPending(hash);
 			kickCompare();
 			return null;
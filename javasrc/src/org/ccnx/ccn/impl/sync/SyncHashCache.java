@@ -17,10 +17,67 @@ package org.ccnx.ccn.impl.sync;
  * Fifth Floor, Boston, MA 02110-1301 USA.
  */
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
-public class SyncHashCache {
-	protected HashMap<SyncHashEntry, SyncTreeEntry> _hashes = new HashMap<SyncHashEntry, SyncTreeEntry>();
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
+import org.ccnx.ccn.io.content.SyncNodeComposite;
+import org.ccnx.ccn.io.content.SyncNodeComposite.SyncNodeElement;
+import org.ccnx.ccn.io.content.SyncNodeComposite.SyncNodeType;
+
+/**
+ * The SyncTreeEntries a comparator knows about, by hash.
+ *
+ * Holds at most SystemConfiguration.SYNC_HASH_CACHE_SIZE entries, discarding the least recently
+ * used. Entries for nodes that were built locally are never discarded, as there is no way to get
+ * their nodes back; the comparator removes them explicitly when it no longer needs them.
+ * Nor are entries a comparator is working with - those in the trees it holds the roots of, and
+ * on its stacks - as they carry the state of the comparison; see pinTrees() and pin().
+ * A discarded entry for a node from the network is recreated, and its node refetched if the
+ * SyncNodeCache no longer has it, the next time it is needed.
+ */
+public class SyncHashCache implements CCNStatistics {
+	protected final SyncLRUCache<SyncTreeEntry> _hashes;
+
+	/**
+	 * Entries pinned by comparators, by identity. Only ever locked on its own, or
+	 * inside a stripe lock of _hashes.
+	 */
+	protected final Set<SyncTreeEntry> _active = Collections.newSetFromMap(new IdentityHashMap<SyncTreeEntry, Boolean>());
+
+	public SyncHashCache() {
+		this(SystemConfiguration.SYNC_HASH_CACHE_SIZE);
+	}
+
+	/**
+	 * @param capacity the number of entries for network nodes to hold, 0 for no limit
+	 */
+	public SyncHashCache(int capacity) {
+		_hashes = new SyncLRUCache<SyncTreeEntry>(capacity) {
+			@Override
+			protected boolean isPinned(SyncTreeEntry entry) {
+				if (entry.isLocal())
+					return true;
+				synchronized (_active) {
+					return _active.contains(entry);
+				}
+			}
+
+			@Override
+			protected void evicted(SyncTreeEntry entry) {
+				_stats.increment(StatsEnum.Evictions);
+			}
+		};
+		CCNStatsRegistry.registerStats(this);
+	}
 
 	/**
 	 * Add a new hash to the list of ones we've seen
@@ -28,14 +85,14 @@ public class SyncHashCache {
 	 * @return new SyncTreeEntry for the hash
 	 */
 	public SyncTreeEntry addHash(byte[] hash, SyncNodeCache snc) {
-		synchronized (this) {
-			SyncTreeEntry entry = _hashes.get(new SyncHashEntry(hash));
-			if (null == entry) {
-				entry = new SyncTreeEntry(hash, snc);
-				_hashes.put(new SyncHashEntry(hash), entry);
-			}
+		SyncTreeEntry entry = _hashes.get(hash);
+		if (null != entry) {
+			_stats.increment(StatsEnum.Hits);
 			return entry;
 		}
+		_stats.increment(StatsEnum.Misses);
+		entry = new SyncTreeEntry(hash, snc);
+		return _hashes.putIfAbsent(entry.getHash(), entry);
 	}
 	
 	/**
@@ -46,22 +103,16 @@ public class SyncHashCache {
 	public SyncTreeEntry getHash(byte[] hash) {
 		if (null == hash)
 			return null;
-		synchronized (this) {
-			return _hashes.get(new SyncHashEntry(hash));
-		}
+		SyncTreeEntry entry = _hashes.get(hash);
+		_stats.increment(null == entry ? StatsEnum.Misses : StatsEnum.Hits);
+		return entry;
 	}
 	
 	/**
 	 * Put a specific entry in for a hash
 	 */
 	public void putHashEntry(SyncTreeEntry entry) {
-		SyncHashEntry she = new SyncHashEntry(entry.getHash());
-		synchronized (this) {
-			SyncTreeEntry tste = _hashes.get(she);
-			if (null != tste)
-				_hashes.remove(she);
-			_hashes.put(she, entry);
-		}
+		_hashes.put(entry.getHash(), entry);
 	}
 	
 	/**
@@ -69,9 +120,112 @@ public class SyncHashCache {
 	 * memory leaks
 	 */
 	public void removeHashEntry(SyncTreeEntry entry) {
-		SyncHashEntry she = new SyncHashEntry(entry.getHash());
-		synchronized (this) {
-			_hashes.remove(she);
+		_hashes.remove(entry.getHash());
+	}
+	
+	/**
+	 * Keep an entry a comparator is working with, in addition to those already pinned
+	 * @param entry
+	 */
+	public void pin(SyncTreeEntry entry) {
+		synchronized (_active) {
+			_active.add(entry);
+		}
+	}
+
+	/**
+	 * Keep exactly the entries reachable from roots, following the nodes we have, and
+	 * let anything else pinned before go back to being evicted as needed.
+	 * @param roots the roots of the trees the comparator holds, and the entries on its stacks
+	 */
+	public void pinTrees(Collection<SyncTreeEntry> roots) {
+		Set<SyncTreeEntry> active = Collections.newSetFromMap(new IdentityHashMap<SyncTreeEntry, Boolean>());
+		ArrayList<SyncTreeEntry> toVisit = new ArrayList<SyncTreeEntry>(roots);
+		while (!toVisit.isEmpty()) {
+			SyncTreeEntry entry = toVisit.remove(toVisit.size() - 1);
+			if (null == entry || !active.add(entry))
+				continue;
+			SyncNodeComposite node = entry.getNode();
+			if (null == node)
+				continue;
+			for (SyncNodeElement sne : node.getRefs()) {
+				if (sne.getType() == SyncNodeType.HASH) {
+					SyncTreeEntry child = _hashes.get(sne.getData());
+					if (null != child)
+						toVisit.add(child);
+				}
+			}
+		}
+		synchronized (_active) {
+			_active.clear();
+			_active.addAll(active);
+		}
+		_hashes.releasePinned();
+	}
+
+	/**
+	 * @return the number of entries held
+	 */
+	public int size() {
+		return _hashes.size();
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Hits);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Hits ("lookups", "Hashes that had an entry"),
+		Misses ("lookups", "Hashes that had no entry"),
+		Evictions ("entries", "Entries discarded to make room for others"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
 		}
 	}
 }
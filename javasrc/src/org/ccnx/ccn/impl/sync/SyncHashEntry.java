@@ -21,14 +21,25 @@ import java.util.Arrays;
 
 public class SyncHashEntry {
 	protected byte[] _hash;
+	protected int _hashCode;
 	
 	public SyncHashEntry(byte[] hash) {
 		_hash = hash;
+		_hashCode = Arrays.hashCode(hash);
 	}
+	
+	/**
+	 * Reuse this entry as a lookup key
+	 */
+	void set(byte[] hash, int hashCode) {
+		_hash = hash;
+		_hashCode = hashCode;
+	}
+	
 	public boolean equals(Object hash) {
 		return Arrays.equals(((SyncHashEntry)hash)._hash, _hash);
 	}
 	public int hashCode() {
-		return Arrays.hashCode(_hash);
+		return _hashCode;
 	}
 }
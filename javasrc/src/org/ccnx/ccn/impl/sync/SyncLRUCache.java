@@ -0,0 +1,266 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package org.ccnx.ccn.impl.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map from sync hashes to values, shared between threads.
+ *
+ * The map is split into stripes, each a least recently used ordered map with its own lock, so
+ * lookups of different hashes rarely contend. When a stripe grows past its share of the capacity
+ * the least recently used values are evicted. Pinned values are those that can't be got back
+ * once they are gone, or that someone is still working with. Rather than being evicted they are
+ * moved out of the way to a map of their own, which doesn't count against the capacity, and it is
+ * up to their owner to remove them, or to call releasePinned() once they no longer need to be
+ * pinned.
+ *
+ * Lookups don't allocate: each stripe keeps a SyncHashEntry to probe with, used under its lock.
+ */
+public class SyncLRUCache<V> {
+
+	public static final int DEFAULT_STRIPES = 16;
+	public static final int MIN_STRIPE_CAPACITY = 64;
+
+	protected final int _capacity;
+	protected final int _stripeCapacity;
+	protected final ArrayList<Stripe<V>> _stripes;
+
+	protected static class Stripe<V> extends LinkedHashMap<SyncHashEntry, V> {
+		private static final long serialVersionUID = -5102640416624478405L;
+
+		protected final SyncHashEntry _probe = new SyncHashEntry(null);
+		protected final HashMap<SyncHashEntry, V> _pinned = new HashMap<SyncHashEntry, V>();
+
+		protected V find(SyncHashEntry key) {
+			V value = get(key);
+			if (null == value && !_pinned.isEmpty())
+				value = _pinned.get(key);
+			return value;
+		}
+
+		protected Stripe() {
+			super(16, 0.75f, true);
+		}
+	}
+
+	/**
+	 * @param capacity the number of values to hold, not counting pinned values beyond it.
+	 * 	0 means no limit.
+	 * @param stripes the number of independently locked stripes
+	 */
+	public SyncLRUCache(int capacity, int stripes) {
+		if (capacity < 0 || stripes < 1)
+			throw new IllegalArgumentException("Bad sync cache capacity " + capacity + " or stripes " + stripes);
+		// Keep stripes big enough that eviction is close to least recently used overall
+		if (capacity > 0)
+			stripes = Math.min(stripes, Math.max(1, capacity / MIN_STRIPE_CAPACITY));
+		_capacity = capacity;
+		_stripeCapacity = (capacity + stripes - 1) / stripes;
+		_stripes = new ArrayList<Stripe<V>>(stripes);
+		for (int i = 0; i < stripes; i++)
+			_stripes.add(new Stripe<V>());
+	}
+
+	public SyncLRUCache(int capacity) {
+		this(capacity, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param hash
+	 * @return the value for hash, or null if there isn't one
+	 */
+	public V get(byte [] hash) {
+		int hashCode = Arrays.hashCode(hash);
+		Stripe<V> stripe = stripe(hashCode);
+		synchronized (stripe) {
+			stripe._probe.set(hash, hashCode);
+			V value = stripe.find(stripe._probe);
+			stripe._probe.set(null, 0);
+			return value;
+		}
+	}
+
+	/**
+	 * Add a value if there isn't one for hash already
+	 * @param hash must not be changed afterwards
+	 * @param value
+	 * @return the value now in the cache for hash
+	 */
+	public V putIfAbsent(byte [] hash, V value) {
+		SyncHashEntry key = new SyncHashEntry(hash);
+		Stripe<V> stripe = stripe(key.hashCode());
+		ArrayList<V> evicted;
+		synchronized (stripe) {
+			V existing = stripe.find(key);
+			if (null != existing)
+				return existing;
+			stripe.put(key, value);
+			evicted = trim(stripe);
+		}
+		notifyEvicted(evicted);
+		return value;
+	}
+
+	/**
+	 * Add a value, replacing any there is for hash
+	 * @param hash must not be changed afterwards
+	 * @param value
+	 * @return the value replaced, or null
+	 */
+	public V put(byte [] hash, V value) {
+		SyncHashEntry key = new SyncHashEntry(hash);
+		Stripe<V> stripe = stripe(key.hashCode());
+		ArrayList<V> evicted;
+		V old;
+		synchronized (stripe) {
+			old = stripe._pinned.remove(key);
+			V replaced = stripe.put(key, value);
+			if (null == old)
+				old = replaced;
+			evicted = trim(stripe);
+		}
+		notifyEvicted(evicted);
+		return old;
+	}
+
+	/**
+	 * @param hash
+	 * @return the value removed, or null if there wasn't one
+	 */
+	public V remove(byte [] hash) {
+		int hashCode = Arrays.hashCode(hash);
+		Stripe<V> stripe = stripe(hashCode);
+		synchronized (stripe) {
+			stripe._probe.set(hash, hashCode);
+			V value = stripe.remove(stripe._probe);
+			if (null == value)
+				value = stripe._pinned.remove(stripe._probe);
+			stripe._probe.set(null, 0);
+			return value;
+		}
+	}
+
+	/**
+	 * @return the number of values held, including pinned ones
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : _stripes) {
+			synchronized (stripe) {
+				size += stripe.size() + stripe._pinned.size();
+			}
+		}
+		return size;
+	}
+
+	public int capacity() {
+		return _capacity;
+	}
+
+	public void clear() {
+		for (Stripe<V> stripe : _stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+				stripe._pinned.clear();
+			}
+		}
+	}
+
+	/**
+	 * Move values which isPinned() no longer holds on to back in with the others, evicting
+	 * as needed. Call this when something isPinned() depends on has changed.
+	 */
+	public void releasePinned() {
+		for (Stripe<V> stripe : _stripes) {
+			ArrayList<V> evicted;
+			synchronized (stripe) {
+				if (stripe._pinned.isEmpty())
+					continue;
+				Iterator<Map.Entry<SyncHashEntry, V>> it = stripe._pinned.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<SyncHashEntry, V> entry = it.next();
+					if (!isPinned(entry.getValue())) {
+						it.remove();
+						stripe.put(entry.getKey(), entry.getValue());
+					}
+				}
+				evicted = trim(stripe);
+			}
+			notifyEvicted(evicted);
+		}
+	}
+
+	/**
+	 * Override to keep values that couldn't be got back if they were evicted
+	 * @param value
+	 * @return true if value must not be evicted
+	 */
+	protected boolean isPinned(V value) {
+		return false;
+	}
+
+	/**
+	 * Override to be told about evicted values. Called without any locks held.
+	 * @param value
+	 */
+	protected void evicted(V value) {}
+
+	protected Stripe<V> stripe(int hashCode) {
+		// Spread the high bits down, as HashMap does, so similar hashes don't share a stripe
+		hashCode ^= (hashCode >>> 20) ^ (hashCode >>> 12);
+		hashCode ^= (hashCode >>> 7) ^ (hashCode >>> 4);
+		return _stripes.get((hashCode & 0x7fffffff) % _stripes.size());
+	}
+
+	/**
+	 * Evict least recently used values until the stripe is within its capacity, moving
+	 * pinned ones aside instead. Must be called with the stripe locked.
+	 * @return the values evicted, or null if there were none
+	 */
+	protected ArrayList<V> trim(Stripe<V> stripe) {
+		if (_capacity == 0 || stripe.size() <= _stripeCapacity)
+			return null;
+		ArrayList<V> evicted = null;
+		Iterator<Map.Entry<SyncHashEntry, V>> it = stripe.entrySet().iterator();
+		while (stripe.size() > _stripeCapacity && it.hasNext()) {
+			Map.Entry<SyncHashEntry, V> entry = it.next();
+			V value = entry.getValue();
+			it.remove();
+			if (isPinned(value)) {
+				stripe._pinned.put(entry.getKey(), value);
+				continue;
+			}
+			if (null == evicted)
+				evicted = new ArrayList<V>();
+			evicted.add(value);
+		}
+		return evicted;
+	}
+
+	private void notifyEvicted(ArrayList<V> values) {
+		if (null == values)
+			return;
+		for (V value : values)
+			evicted(value);
+	}
+}
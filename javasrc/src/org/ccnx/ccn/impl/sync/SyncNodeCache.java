@@ -16,45 +16,110 @@
  */
 package org.ccnx.ccn.impl.sync;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
 import org.ccnx.ccn.io.content.SyncNodeComposite;
 
 /**
- * Nodes can be cached by hash across different comparators. We use WeakReferences to avoid accidentally caching nodes that
- * no longer have any real referents.
+ * Nodes can be cached by hash across different comparators.
+ * 
+ * The most recently used SystemConfiguration.SYNC_NODE_CACHE_SIZE nodes are held directly, so
+ * a comparison doesn't have to refetch nodes it was just looking at because the GC decided to
+ * throw them away. Nodes that fall out of that are held by WeakReference, so they can still be
+ * found as long as something else, such as the SyncTreeEntry for a locally built node, holds on
+ * to them, but we don't accidentally cache nodes that no longer have any real referents.
  * 
  * Since we only need to request nodes once per slice, the pending mechanism should be global
  */
-public class SyncNodeCache {
+public class SyncNodeCache implements CCNStatistics {
 	
 	public class Pending {
 		boolean _pending = false;
+		long _requestTime = 0;
+		ArrayList<SliceComparator> _waiters = null;
 		
 		public void setPending(boolean value) {
 			_pending = value;
+			if (value)
+				_requestTime = System.currentTimeMillis();
 		}
 		
 		public boolean getPending() {
 			return _pending;
 		}
+		
+		/**
+		 * @return when the node was last requested
+		 */
+		public long getRequestTime() {
+			return _requestTime;
+		}
+		
+		/**
+		 * Kick a comparator when the node arrives
+		 * @param sc
+		 */
+		public void addWaiter(SliceComparator sc) {
+			if (null == _waiters)
+				_waiters = new ArrayList<SliceComparator>();
+			if (!_waiters.contains(sc))
+				_waiters.add(sc);
+		}
+	}
+	
+	protected static class NodeReference extends WeakReference<SyncNodeComposite> {
+		protected final SyncHashEntry _key;
+		
+		protected NodeReference(SyncHashEntry key, SyncNodeComposite node, ReferenceQueue<SyncNodeComposite> queue) {
+			super(node, queue);
+			_key = key;
+		}
 	}
 	
 	// For holding objects used as locks for each pending hash
-	private HashMap<SyncHashEntry, Pending> _hashesPending = new HashMap<SyncHashEntry, Pending>();
+	private ConcurrentHashMap<SyncHashEntry, Pending> _hashesPending = new ConcurrentHashMap<SyncHashEntry, Pending>();
 	
-	protected HashMap<SyncHashEntry, WeakReference<SyncNodeComposite>> _nodes = new HashMap<SyncHashEntry, WeakReference<SyncNodeComposite>>();
+	protected final SyncLRUCache<SyncNodeComposite> _nodes;
+	protected final SyncLRUCache<byte[]> _rawNodes;
+	protected ConcurrentHashMap<SyncHashEntry, NodeReference> _weakNodes = new ConcurrentHashMap<SyncHashEntry, NodeReference>();
+	protected ReferenceQueue<SyncNodeComposite> _collected = new ReferenceQueue<SyncNodeComposite>();
+	
+	public SyncNodeCache() {
+		this(SystemConfiguration.SYNC_NODE_CACHE_SIZE);
+	}
+	
+	/**
+	 * @param capacity the number of recently used nodes to hold directly, 0 for no limit
+	 */
+	public SyncNodeCache(int capacity) {
+		_nodes = new SyncLRUCache<SyncNodeComposite>(capacity) {
+			@Override
+			protected void evicted(SyncNodeComposite node) {
+				_stats.increment(StatsEnum.Evictions);
+				SyncHashEntry key = new SyncHashEntry(node.getHash());
+				_weakNodes.put(key, new NodeReference(key, node, _collected));
+			}
+		};
+		_rawNodes = new SyncLRUCache<byte[]>(capacity);
+		CCNStatsRegistry.registerStats(this);
+	}
 
 	/**
 	 * Put a newly decoded node into the cache
 	 * @param node
 	 */
 	public void putNode(SyncNodeComposite node) {
-		synchronized (this) {
-			WeakReference<SyncNodeComposite> wr = new WeakReference<SyncNodeComposite>(node);
-			_nodes.put((new SyncHashEntry(node.getHash())), wr);
-		}
+		expunge();
+		_nodes.put(node.getHash(), node);
 	}
 	
 	/**
@@ -65,12 +130,50 @@ public class SyncNodeCache {
 	public SyncNodeComposite getNode(byte[] hash) {
 		if (null == hash)
 			return null;
-		synchronized (this) {
-			WeakReference<SyncNodeComposite> wr = _nodes.get(new SyncHashEntry(hash));
-			if (null == wr)
-				return null;
-			return wr.get();
+		SyncNodeComposite node = _nodes.get(hash);
+		if (null == node && !_weakNodes.isEmpty()) {
+			NodeReference ref = _weakNodes.remove(new SyncHashEntry(hash));
+			if (null != ref) {
+				node = ref.get();
+				if (null != node)
+					_nodes.putIfAbsent(node.getHash(), node);
+			}
 		}
+		_stats.increment(null == node ? StatsEnum.Misses : StatsEnum.Hits);
+		return node;
+	}
+	
+	/**
+	 * Hold the content of a node that has arrived from the network until it is decoded, by
+	 * whichever comparator gets to it first. We don't decode nodes in handlers.
+	 * @param hash
+	 * @param content
+	 */
+	public void putRawNode(byte[] hash, byte[] content) {
+		_rawNodes.put(hash, content);
+	}
+	
+	/**
+	 * @param hash
+	 * @return the undecoded content of the node for hash, or null if we don't have it
+	 */
+	public byte[] getRawNode(byte[] hash) {
+		return _rawNodes.get(hash);
+	}
+	
+	/**
+	 * Call this once a node has been decoded
+	 * @param hash
+	 */
+	public void removeRawNode(byte[] hash) {
+		_rawNodes.remove(hash);
+	}
+	
+	/**
+	 * @return the number of nodes held directly
+	 */
+	public int size() {
+		return _nodes.size();
 	}
 	
 	/**
@@ -85,34 +188,105 @@ public class SyncNodeCache {
 	 * @return Lock object for waiting for the node
 	 */
 	public Pending pending(byte[] hash) {
-		Pending lock = null;
-		synchronized (this) {
-			SyncHashEntry she = new SyncHashEntry(hash);
-			lock = _hashesPending.get(she);
-			if (null == lock) {
-				lock = new Pending();
-				_hashesPending.put(she, lock);
-			}
-			return lock;
+		SyncHashEntry she = new SyncHashEntry(hash);
+		Pending lock = _hashesPending.get(she);
+		if (null == lock) {
+			lock = new Pending();
+			Pending existing = _hashesPending.putIfAbsent(she, lock);
+			if (null != existing)
+				lock = existing;
 		}
+		return lock;
 	}
 		
 	/**
 	 * Call this after a node has been returned. It releases the semaphore (allowing waiters to
-	 * continue) and removes the entry from the array of pending node requests
+	 * continue), kicks any comparators waiting for the node, and removes the entry from the array
+	 * of pending node requests
 	 * @param hash
 	 */
 	public void clearPending(byte[] hash) {
-		Pending lock;
-		synchronized (this) {
-			SyncHashEntry she = new SyncHashEntry(hash);
-			lock = _hashesPending.remove(she);
-		}
+		Pending lock = _hashesPending.remove(new SyncHashEntry(hash));
 		if (null != lock) {
+			ArrayList<SliceComparator> waiters;
 			synchronized (lock) {
 				lock.setPending(false);
 				lock.notifyAll();
+				waiters = lock._waiters;
+				lock._waiters = null;
 			}
+			if (null != waiters) {
+				for (SliceComparator sc : waiters)
+					sc.kickCompare();
+			}
+		}
+	}
+	
+	/**
+	 * Forget nodes the GC has collected
+	 */
+	protected void expunge() {
+		NodeReference ref;
+		while (null != (ref = (NodeReference)_collected.poll()))
+			_weakNodes.remove(ref._key, ref);
+	}
+
+	// ==============================================================
+	// Statistics
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.Hits);
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		Hits ("lookups", "Nodes found in the cache"),
+		Misses ("lookups", "Nodes not in the cache, which have to be fetched"),
+		Evictions ("nodes", "Nodes no longer held directly to make room for others"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
 		}
 	}
 }
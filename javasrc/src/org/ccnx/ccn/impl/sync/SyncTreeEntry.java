@@ -89,7 +89,8 @@ public class SyncTreeEntry {
 	}
 	
 	/**
-	 * Decodes the hash if not yet done. Note that this should not be called from a
+	 * Decodes the hash if not yet done. The content comes either from setRawContent or from
+	 * content the SyncNodeCache is holding for the hash. Note that this should not be called from a
 	 * handler (unless we already know the node is decoded) because decoding is long and 
 	 * expensive and could stall the netmanager thread. We allow a separate decoder because
 	 * nodes typically contain more elements than are usually allowed by default by the
@@ -101,7 +102,10 @@ public class SyncTreeEntry {
 	public SyncNodeComposite getNode(XMLDecoder decoder) {
 		SyncNodeComposite node = getNodeIfPossible();
 		synchronized (this) {
-			if (null != node || null == _rawContent || null == decoder) {
+			byte[] content = _rawContent;
+			if (null == node && null == content && null != decoder && null != _snc)
+				content = _snc.getRawNode(_hash);
+			if (null != node || null == content || null == decoder) {
 				if (null != node)
 					_rawContent = null;
 				return node;
@@ -110,18 +114,25 @@ public class SyncTreeEntry {
 			// If we have to decode it, its not local by definition
 			node = new SyncNodeComposite();
 			try {
-				node.decode(_rawContent, decoder);
+				node.decode(content, decoder);
 			} catch (ContentDecodingException e) {
 				Log.warning("Couldn't decode node {0} due to: {1}", (_hash == null ? "(unknown)"
 						: Component.printURI(_hash)), e.getMessage());
 				_rawContent = null;
+				if (null != _snc) {
+					_snc.removeRawNode(_hash);
+					_snc.clearPending(_hash);
+				}
 				return null;
 			}
 			_rawContent = null;
 			_softNodeRef = new SoftReference<SyncNodeComposite>(node);
-			_snc.clearPending(_hash);
-			if (null != _snc)
+			if (null != _snc) {
+				// Cache it before waiters are told it has arrived
 				_snc.putNode(node);
+				_snc.removeRawNode(_hash);
+				_snc.clearPending(_hash);
+			}
 		}
 		if (Log.isLoggable(Log.FAC_SYNC, Level.FINEST)) {
 			SyncNodeComposite.decodeLogging(node);
@@ -25,6 +25,7 @@ import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.logging.Level;
 
 import javax.crypto.BadPaddingException;
@@ -34,7 +35,10 @@ import javax.crypto.IllegalBlockSizeException;
 import org.ccnx.ccn.CCNContentHandler;
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNNetworkManager;
 import org.ccnx.ccn.impl.security.crypto.ContentKeys;
+import org.ccnx.ccn.impl.security.crypto.VerificationService;
+import org.ccnx.ccn.impl.security.crypto.VerificationService.VerificationListener;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.Link.LinkObject;
@@ -127,9 +131,8 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 	protected int _timeout = SystemConfiguration.getDefaultTimeout();
 
 	/**
-	 *  Encryption/decryption handler.
+	 *  Keys to decrypt segments, if the content is encrypted.
 	 */
-	protected Cipher _cipher;
 	protected ContentKeys _keys;
 
 	/**
@@ -161,6 +164,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 	protected ContentName _basePipelineName = null;
 	protected long _lastSegmentNumber = -1;
 	protected ArrayList<Interest> _sentInterests = new ArrayList<Interest>();
+	private final HashSet<Long> _lostSegments = new HashSet<Long>();	// reported to the window, guarded by inOrderSegments
 	private long waitingSegment;
 	private long _holes = 0;
 	private long _totalReceived = 0;
@@ -170,8 +174,24 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 	private double avgResponseTime = -1;
 
+	/**
+	 * Limits how many segments the pipeline has requested or buffered at once
+	 */
+	protected PipelineWindow _pipelineWindow = PipelineWindow.fromConfiguration();
+
+	/**
+	 * If not null, pipelined segments are verified on this service's threads
+	 */
+	protected VerificationService _verificationService =
+		SystemConfiguration.PIPELINE_VERIFY_ASYNC ? VerificationService.getDefault() : null;
+
 	private final Object processingSegmentLock = new Object();
-	private long processingSegment = -1;
+
+	/**
+	 * Segments which have arrived but aren't in the pipeline yet. With asynchronous
+	 * verification there can be several of these at once. Guarded by processingSegmentLock.
+	 */
+	private final HashSet<Long> processingSegments = new HashSet<Long>();
 
 	private final int processingDefer = 0;
 
@@ -373,6 +393,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 			}
 			_sentInterests.removeAll(toRemove);
 			toRemove.clear();
+			_lostSegments.remove(returnedSegment);
 			//_lastRequestedPipelineSegment = returnedSegment;
 
 		//no good reason to release the lock here...
@@ -383,6 +404,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 			if (returnedSegment == _nextPipelineSegment) {
 				_totalReceived++;
+				_pipelineWindow.segmentReceived();
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: we got the segment ({0}) we were expecting!", returnedSegment);
 				if(waitingSegment!=-1)
@@ -431,11 +453,15 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				if (_nextPipelineSegment > returnedSegment || returnedSegment > _lastRequestedPipelineSegment) {
 					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 						Log.info(Log.FAC_PIPELINE, "PIPELINE: this is an out of range segment...  drop");
+					synchronized(processingSegmentLock) {
+						processingSegments.remove(returnedSegment);
+					}
 					returnedSegment = -1;
 				} else {
 					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 						Log.info(Log.FAC_PIPELINE, "PIPELINE: this is a pipeline segment, add to outOfOrderSegment queue");
 					_totalReceived++;
+					_pipelineWindow.segmentReceived();
 					_holes++;
 					int i = 0;
 					for (ContentObject c:outOfOrderSegments) {
@@ -457,7 +483,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: the next segment needed is {0}", _nextPipelineSegment);
 			synchronized(processingSegmentLock) {
-				processingSegment = -1;
+				processingSegments.remove(returnedSegment);
 			}
 
 			if(returnedSegment == waitingSegment) {
@@ -467,6 +493,15 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 	}
 
 	private void advancePipeline() {
+		try {
+			advancePipelineInner();
+		} finally {
+			// The interests just expressed may be held back in the network manager's write batch
+			flushInterests();
+		}
+	}
+
+	private void advancePipelineInner() {
 		synchronized(inOrderSegments) {
 			//first check if we have tokens to spend on interests...
 			boolean doneAdvancing = false;
@@ -485,8 +520,9 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 			}
 
 			Interest i = null;
+			int window = _pipelineWindow.size();
 
-			while (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer < SystemConfiguration.PIPELINE_SIZE && !doneAdvancing) {
+			while (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer < window && !doneAdvancing) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: _sentInterests.size() = {0} inOrderSegments.size() = {1} outOfOrderSegments.size()  = {2} processingDefer = {3} total = {4}", _sentInterests.size(), inOrderSegments.size(), outOfOrderSegments.size(), processingDefer, (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size() + processingDefer) );
 
@@ -519,7 +555,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 						_sentInterests.add(i);
 						_lastRequestedPipelineSegment++;
 						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment "+_lastRequestedPipelineSegment +" ("+(SystemConfiguration.PIPELINE_SIZE - _sentInterests.size())+" tokens)");
+							Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment "+_lastRequestedPipelineSegment +" ("+(window - _sentInterests.size())+" tokens)");
 					} catch (IOException e) {
 						// This could happen if the handle got closed underneath us - maybe that's OK?
 						// For now will leave it as a warning
@@ -536,6 +572,16 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 		}
 	}
 
+	/**
+	 * Write out any interests held back in the network manager's write batch, so the pipeline
+	 * doesn't wait out the batch delay for them.
+	 */
+	private void flushInterests() {
+		CCNNetworkManager cnm = _handle.getNetworkManager();
+		if (null != cnm)
+			cnm.flush();
+	}
+
 	private void attemptHoleFilling() {
 		synchronized(inOrderSegments) {
 			if(outOfOrderSegments.size() > 0) {
@@ -558,7 +604,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 
 		//first check the incoming segment to see if it is here already
 		synchronized (processingSegmentLock) {
-			if(processingSegment != -1 && hole == processingSegment) {
+			if(processingSegments.contains(hole)) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: the segment is being processed... not a hole.");
 				return;
@@ -685,7 +731,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 							_handle.cancelInterest(toDelete, this);
 							_sentInterests.remove(toDelete);
 
-							adjustAvgResponseTimeForHole();
+							adjustAvgResponseTimeForHole(hole);
 
 							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
 								Log.info(Log.FAC_PIPELINE, "PIPELINE: expressed: {0} deleted: {1}", i, toDelete);
@@ -738,7 +784,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					// interest
 					if (index != -1) {
 						_handle.cancelInterest(_sentInterests.remove(index+1), this);
-						adjustAvgResponseTimeForHole();
+						adjustAvgResponseTimeForHole(hole);
 					}
 
 					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
@@ -756,11 +802,18 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 		}
 	}
 
-	private void adjustAvgResponseTimeForHole() {
+	/**
+	 * The interest for hole had to be expressed again. The window only hears about the
+	 * first time for each segment, however many attempts it takes.
+	 * Must be called with inOrderSegments locked.
+	 */
+	private void adjustAvgResponseTimeForHole(long hole) {
 		synchronized (processingSegmentLock) {
 			Log.info(Log.FAC_PIPELINE, "PIPELINE: before adjusting avgResponseTime for hole. avgResponseTime = {0}", avgResponseTime);
 			avgResponseTime = 0.9 * avgResponseTime + 0.1 * (SystemConfiguration.PIPELINE_RTTFACTOR * avgResponseTime);
 			Log.info(Log.FAC_PIPELINE, "PIPELINE: after adjusting avgResponseTime for hole. avgResponseTime = {0}", avgResponseTime);
+			if (_lostSegments.add(hole))
+				_pipelineWindow.segmentLost(avgResponseTime);
 		}
 	}
 
@@ -910,7 +963,7 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					interest.userTime = System.currentTimeMillis();
 					_handle.expressInterest(interest, this);
 					ArrayList<Object> toRemove = new ArrayList<Object>();
-					long maxExpress = segmentNumber + SystemConfiguration.PIPELINE_SIZE-1;
+					long maxExpress = segmentNumber + _pipelineWindow.size()-1;
 					long lastExpressed = segmentNumber;
 					long segNum;
 					for (Interest i: _sentInterests) {
@@ -1052,13 +1105,17 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 			_lastInOrderSegment = -1;
 			_lastSegmentNumber = -1;
 			_currentSegment = null;
+			_lostSegments.clear();
+		}
+		synchronized(processingSegmentLock) {
+			processingSegments.clear();
 		}
 	}
 
 
 	private boolean requestedSegment(long number) {
 		synchronized(processingSegmentLock) {
-			if (processingSegment!=-1 && processingSegment == number) {
+			if (processingSegments.contains(number)) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: someone is processing it right now!");
 				return true;
@@ -1167,9 +1224,32 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: in handleContent after reading {0} avgResponseTime {1}", result.name(), avgResponseTime);
 			is = new IncomingSegment(result, interest);
 
-			processingSegment = SegmentationProfile.getSegmentNumber(is.content.name());
+			processingSegments.add(SegmentationProfile.getSegmentNumber(is.content.name()));
+		}
+
+		VerificationService verificationService = _verificationService;
+		if (null != verificationService) {
+			final IncomingSegment segment = is;
+			final long verifyStartTime = starttime;
+			verificationService.verifyAsync(is.content, _handle.defaultVerifier(), new VerificationListener() {
+				public void verificationComplete(ContentObject content, boolean verified) {
+					handleSegment(segment, verified, verifyStartTime);
+				}
+			});
+		} else {
+			handleSegment(is, null, starttime);
 		}
+		return null;
+	}
 
+	/**
+	 * Hand a received segment to the pipeline
+	 * @param is the segment and the interest it answers
+	 * @param verified whether the segment verified, or null to verify it here
+	 * @param starttime when handleContent was called
+	 */
+	private void handleSegment(IncomingSegment is, Boolean verified, long starttime) {
+		ContentName name = is.content.name();
 		synchronized(inOrderSegments){
 
 			//was this a content object we were looking for?
@@ -1203,14 +1283,14 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				if (is.interest == null) {
 					is = null;
 					synchronized(processingSegmentLock) {
-						processingSegment = -1;
+						processingSegments.remove(SegmentationProfile.getSegmentNumber(name));
 					}
 				}
 			}
 
 			if (is != null) {
 				// verify the content object
-				if (_handle.defaultVerifier().verify(is.content)) {
+				if ((null != verified) ? verified : _handle.defaultVerifier().verify(is.content)) {
 					// this content verified
 					receivePipelineContent(is.content);
 				} else {
@@ -1219,6 +1299,9 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 					if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
 						Log.warning(Log.FAC_PIPELINE, "Dropping content object due to failed verification: {0} Need to add interest re-expression with exclude", is.content.name());
 					_sentInterests.remove(is.interest);
+					synchronized(processingSegmentLock) {
+						processingSegments.remove(SegmentationProfile.getSegmentNumber(name));
+					}
 				}
 			}
 
@@ -1227,12 +1310,44 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 		attemptHoleFilling();
 
 		if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: {0} done with handleContent after reading {1}", (System.currentTimeMillis() - starttime),  result.name());
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: {0} done with handleContent after reading {1}", (System.currentTimeMillis() - starttime),  name);
+	}
 
-		return null;
+
+
+	/**
+	 * Set the window used to pipeline segment requests on this stream. The default is
+	 * given by PipelineWindow#fromConfiguration().
+	 * @param window the new window
+	 */
+	public void setPipelineWindow(PipelineWindow window) {
+		if (null == window)
+			throw new IllegalArgumentException("Pipeline window cannot be null");
+		synchronized (inOrderSegments) {
+			_pipelineWindow = window;
+		}
+	}
+
+	/**
+	 * @return the window used to pipeline segment requests on this stream
+	 */
+	public PipelineWindow getPipelineWindow() {
+		return _pipelineWindow;
 	}
 
+	/**
+	 * Verify segments received by the pipeline on a VerificationService, rather than
+	 * on the thread which delivers them. The default is given by
+	 * SystemConfiguration.PIPELINE_VERIFY_ASYNC.
+	 * @param service the service to use, or null to verify segments as they arrive
+	 */
+	public void setVerificationService(VerificationService service) {
+		_verificationService = service;
+	}
 
+	public VerificationService getVerificationService() {
+		return _verificationService;
+	}
 
 	/**
 	 * Set the timeout that will be used for all content retrievals on this stream.
@@ -1454,83 +1569,87 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 		_publisher = newSegment.signedInfo().getPublisherKeyID();
 
 		if (deletionInformation() != newSegment) { // want pointer ==, not equals() here
-			// if we're decrypting, then set it up now
-			if (_keys != null) {
-				// We only do automated lookup of keys on first segment. Otherwise
-				// we assume we must have the keys or don't try to decrypt.
-				try {
-					// Reuse of current segment OK. Don't expect to have two separate readers
-					// independently use this stream without state confusion anyway.
-
-					// Assume getBaseName() returns name without segment information.
-					// Log verification only on highest log level (won't execute on lower logging level).
-					if (Log.isLoggable(Log.FAC_IO, Level.FINEST)) {
-						if (!SegmentationProfile.segmentRoot(_currentSegment.name()).equals(getBaseName())) {
-							Log.finest(Log.FAC_IO, "ASSERT: getBaseName()={0} does not match segmentless part of _currentSegment.name()={1}",
-									getBaseName(),
-									SegmentationProfile.segmentRoot(_currentSegment.name()));
-						}
-					}
-					_cipher = _keys.getSegmentDecryptionCipher(getBaseName(), _publisher,
-							SegmentationProfile.getSegmentNumber(_currentSegment.name()));
-				} catch (InvalidKeyException e) {
-					Log.warning(Log.FAC_IO, "InvalidKeyException: " + e.getMessage());
-					throw new IOException("InvalidKeyException: " + e.getMessage());
-				} catch (InvalidAlgorithmParameterException e) {
-					Log.warning(Log.FAC_IO, "InvalidAlgorithmParameterException: " + e.getMessage());
-					throw new IOException("InvalidAlgorithmParameterException: " + e.getMessage());
+			// Assume getBaseName() returns name without segment information.
+			// Log verification only on highest log level (won't execute on lower logging level).
+			if ((_keys != null) && Log.isLoggable(Log.FAC_IO, Level.FINEST)) {
+				if (!SegmentationProfile.segmentRoot(_currentSegment.name()).equals(getBaseName())) {
+					Log.finest(Log.FAC_IO, "ASSERT: getBaseName()={0} does not match segmentless part of _currentSegment.name()={1}",
+							getBaseName(),
+							SegmentationProfile.segmentRoot(_currentSegment.name()));
 				}
+			}
+			_segmentReadStream = new ByteArrayInputStream(segmentContent(_currentSegment));
+		}
+	}
 
-				// Let's optimize random access to this buffer (e.g. as used by the decoders) by
-				// decrypting a whole ContentObject at a time. It's not a huge security risk,
-				// and right now we can't rewind the buffers so if we do try to decode out of
-				// an encrypted block we constantly restart from the beginning and redecrypt
-				// the content.
-				// Previously we used our own UnbufferedCipherInputStream class directly as
-				// our _segmentReadStream for encrypted data, as Java's CipherInputStreams
-				// assume block-oriented boundaries for decryption, and buffer incorrectly as a result.
-				// If we want to go back to incremental decryption, putting a small cache into that
-				// class to optimize going backwards would help.
-
-				// Unless we use a compressing cipher, the maximum data length for decrypted data
-				//  is _currentSegment.content().length. But we might as well make something
-				// general that will handle all cases. There may be a more efficient way to
-				// do this; want to minimize copies.
-				byte [] bodyData = _cipher.update(_currentSegment.content());
-				byte[] tailData;
-				try {
-					tailData = _cipher.doFinal();
-				} catch (IllegalBlockSizeException e) {
-					Log.warning(Log.FAC_IO, "IllegalBlockSizeException: " + e.getMessage());
-					throw new IOException("IllegalBlockSizeException: " + e.getMessage());
-				} catch (BadPaddingException e) {
-					Log.warning(Log.FAC_IO, "BadPaddingException: " + e.getMessage());
-					throw new IOException("BadPaddingException: " + e.getMessage());
-				}
-				if ((null == tailData) || (0 == tailData.length)) {
-					if (null == bodyData)
-						_segmentReadStream = new ByteArrayInputStream(new byte[0]);
-					else 
-						_segmentReadStream = new ByteArrayInputStream(bodyData);
-				}
-				else if ((null == bodyData) || (0 == bodyData.length)) {
-					_segmentReadStream = new ByteArrayInputStream(tailData);
-				}
-				else {
-					byte [] allData = new byte[bodyData.length + tailData.length];
-					// Still avoid 1.6 array ops
-					System.arraycopy(bodyData, 0, allData, 0, bodyData.length);
-					System.arraycopy(tailData, 0, allData, bodyData.length, tailData.length);
-					_segmentReadStream = new ByteArrayInputStream(allData);
-				}
-			} else {
-				if (_currentSegment.signedInfo().getType().equals(ContentType.ENCR)) {
-					// We only do automated lookup of keys on first segment.
-					Log.warning(Log.FAC_IO, "Asked to read encrypted content, but not given a key to decrypt it. Decryption happening at higher level?");
-				}
-				_segmentReadStream = new ByteArrayInputStream(_currentSegment.content());
+	/**
+	 * Get the content of a segment of this stream, decrypting it if we have keys. Uses its own
+	 * cipher, so may be called on segments other than the current one, from any thread.
+	 * @param segment the segment
+	 * @return the segment's content
+	 * @throws IOException if the segment can't be decrypted
+	 */
+	protected byte [] segmentContent(ContentObject segment) throws IOException {
+		if (_keys == null) {
+			if (segment.signedInfo().getType().equals(ContentType.ENCR)) {
+				// We only do automated lookup of keys on first segment.
+				Log.warning(Log.FAC_IO, "Asked to read encrypted content, but not given a key to decrypt it. Decryption happening at higher level?");
 			}
+			return segment.content();
+		}
+		// We only do automated lookup of keys on first segment. Otherwise
+		// we assume we must have the keys or don't try to decrypt.
+		Cipher cipher;
+		try {
+			cipher = _keys.getSegmentDecryptionCipher(getBaseName(), segment.signedInfo().getPublisherKeyID(),
+					SegmentationProfile.getSegmentNumber(segment.name()));
+		} catch (InvalidKeyException e) {
+			Log.warning(Log.FAC_IO, "InvalidKeyException: " + e.getMessage());
+			throw new IOException("InvalidKeyException: " + e.getMessage());
+		} catch (InvalidAlgorithmParameterException e) {
+			Log.warning(Log.FAC_IO, "InvalidAlgorithmParameterException: " + e.getMessage());
+			throw new IOException("InvalidAlgorithmParameterException: " + e.getMessage());
+		}
+
+		// Let's optimize random access to this buffer (e.g. as used by the decoders) by
+		// decrypting a whole ContentObject at a time. It's not a huge security risk,
+		// and right now we can't rewind the buffers so if we do try to decode out of
+		// an encrypted block we constantly restart from the beginning and redecrypt
+		// the content.
+		// Previously we used our own UnbufferedCipherInputStream class directly as
+		// our _segmentReadStream for encrypted data, as Java's CipherInputStreams
+		// assume block-oriented boundaries for decryption, and buffer incorrectly as a result.
+		// If we want to go back to incremental decryption, putting a small cache into that
+		// class to optimize going backwards would help.
+
+		// Unless we use a compressing cipher, the maximum data length for decrypted data
+		//  is segment.content().length. But we might as well make something
+		// general that will handle all cases. There may be a more efficient way to
+		// do this; want to minimize copies.
+		byte [] bodyData = cipher.update(segment.content());
+		byte[] tailData;
+		try {
+			tailData = cipher.doFinal();
+		} catch (IllegalBlockSizeException e) {
+			Log.warning(Log.FAC_IO, "IllegalBlockSizeException: " + e.getMessage());
+			throw new IOException("IllegalBlockSizeException: " + e.getMessage());
+		} catch (BadPaddingException e) {
+			Log.warning(Log.FAC_IO, "BadPaddingException: " + e.getMessage());
+			throw new IOException("BadPaddingException: " + e.getMessage());
+		}
+		if ((null == tailData) || (0 == tailData.length)) {
+			if (null == bodyData)
+				return new byte[0];
+			return bodyData;
+		}
+		else if ((null == bodyData) || (0 == bodyData.length)) {
+			return tailData;
 		}
+		byte [] allData = new byte[bodyData.length + tailData.length];
+		// Still avoid 1.6 array ops
+		System.arraycopy(bodyData, 0, allData, 0, bodyData.length);
+		System.arraycopy(tailData, 0, allData, bodyData.length, tailData.length);
+		return allData;
 	}
 
 	/**
@@ -1625,6 +1744,8 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNC
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: _timeout = {0}", _timeout);
 				waitingSegment = number;
 				while (sleep < _timeout || _timeout == SystemConfiguration.NO_TIMEOUT) {
+					// Don't block with the interests we're waiting on still held back in a batch
+					flushInterests();
 					try{
 						start = System.currentTimeMillis();
 
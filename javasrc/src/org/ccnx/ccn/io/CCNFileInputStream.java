@@ -18,13 +18,19 @@
 package org.ccnx.ccn.io;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.security.crypto.ContentKeys;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.support.SettableFuture;
 import org.ccnx.ccn.io.content.CCNNetworkObject;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentGoneException;
@@ -32,9 +38,11 @@ import org.ccnx.ccn.io.content.ContentNotReadyException;
 import org.ccnx.ccn.io.content.Header;
 import org.ccnx.ccn.io.content.UpdateListener;
 import org.ccnx.ccn.io.content.Header.HeaderObject;
+import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.profiles.metadata.MetadataProfile;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
 import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 
 
@@ -69,6 +77,11 @@ public class CCNFileInputStream extends CCNVersionedInputStream implements Updat
 	 */
 	protected HeaderObject _oldHeader = null;
 
+	/**
+	 * Serializes setup for positional reads, which may come from several threads.
+	 */
+	protected final Object _positionalLock = new Object();
+
 	
 	/**
 	 * Set up an input stream to read segmented CCN content under a given versioned name. 
@@ -482,6 +495,197 @@ public class CCNFileInputStream extends CCNVersionedInputStream implements Updat
 		}
 	}
 
+	/**
+	 * Read bytes from a given position into a buffer, without changing the position of the
+	 * stream. The segments covering the read are split into up to
+	 * SystemConfiguration.PIPELINE_PARALLEL_RANGES contiguous ranges, each fetched by its own
+	 * pipeline of SystemConfiguration.PIPELINE_SIZE outstanding interests, so a large read
+	 * keeps many segments in flight at once. Unlike the other read methods, this may be called
+	 * from several threads at once. It needs the header, and will wait for it if necessary.
+	 *
+	 * @param position where in the content to start reading
+	 * @param dst the buffer to read into, up to its remaining() bytes
+	 * @return the number of bytes read, or -1 if position is at or past the end of the content
+	 * @throws IOException if the header or a segment can't be retrieved
+	 */
+	public int read(long position, ByteBuffer dst) throws IOException {
+		if (position < 0)
+			throw new IllegalArgumentException("Negative position " + position);
+		Header header = positionalHeader();
+		if (position >= header.length())
+			return -1;
+		int length = (int)Math.min(dst.remaining(), header.length() - position);
+		if (length == 0)
+			return 0;
+		if (Log.isLoggable(Log.FAC_IO, Level.FINE))
+			Log.fine(Log.FAC_IO, "read: {0} bytes at {1} of {2}", length, position, _baseName);
+		RangeRead read = new RangeRead(header.blockSize(), position, length, dst);
+		return read.fetch();
+	}
+
+	/**
+	 * Get the header for a positional read, asking for it first if need be
+	 */
+	protected Header positionalHeader() throws IOException {
+		synchronized (_positionalLock) {
+			// Reads the first segment if we haven't yet, which finds the version and requests the header
+			if (isGone())
+				throw new ContentGoneException("Content " + _baseName + " has been deleted");
+		}
+		if (!hasHeader())
+			waitForHeader((_timeout == SystemConfiguration.NO_TIMEOUT) ? null : Long.valueOf(_timeout));
+		if (!hasHeader())
+			throw new ContentNotReadyException("Positional reads need the header of " + _baseName + ", which is not available");
+		return header();
+	}
+
+	/**
+	 * One positional read. Segments are requested with CCNHandle#getAsync, and as they complete
+	 * they are queued back to the reading thread, which verifies and copies them and keeps
+	 * each range's pipeline full.
+	 */
+	protected class RangeRead {
+
+		/**
+		 * A contiguous run of segments fetched by one pipeline
+		 */
+		protected class Range {
+			protected long _next;
+			protected final long _last;
+
+			protected Range(long first, long last) {
+				_next = first;
+				_last = last;
+			}
+
+			protected boolean hasNext() {
+				return _next <= _last;
+			}
+		}
+
+		/**
+		 * A segment requested by the read
+		 */
+		protected class SegmentFetch {
+			protected final Range _range;
+			protected final long _segment;
+			protected final int _attempts;
+			protected final SettableFuture<ContentObject> _future;
+
+			protected SegmentFetch(Range range, long segment, int attempts, SettableFuture<ContentObject> future) {
+				_range = range;
+				_segment = segment;
+				_attempts = attempts;
+				_future = future;
+			}
+		}
+
+		protected final int _blockSize;
+		protected final long _position;
+		protected final int _length;
+		protected final ByteBuffer _dst;
+		protected final int _dstStart;
+		protected long _end;
+		protected final ArrayList<SegmentFetch> _outstanding = new ArrayList<SegmentFetch>();
+		protected final LinkedBlockingQueue<SegmentFetch> _completed = new LinkedBlockingQueue<SegmentFetch>();
+
+		protected RangeRead(int blockSize, long position, int length, ByteBuffer dst) {
+			_blockSize = blockSize;
+			_position = position;
+			_length = length;
+			_dst = dst;
+			_dstStart = dst.position();
+			_end = position;
+		}
+
+		/**
+		 * Fetch all the segments and copy them into the buffer
+		 * @return the number of bytes read
+		 */
+		protected int fetch() throws IOException {
+			long first = _position / _blockSize;
+			long last = (_position + _length - 1) / _blockSize;
+			long count = last - first + 1;
+			long ranges = Math.min(Math.max(1, SystemConfiguration.PIPELINE_PARALLEL_RANGES), count);
+			long perRange = (count + ranges - 1) / ranges;
+			int window = Math.max(1, SystemConfiguration.PIPELINE_SIZE);
+			try {
+				for (long start = first; start <= last; start += perRange) {
+					Range range = new Range(start, Math.min(start + perRange - 1, last));
+					for (int i = 0; i < window && range.hasNext(); i++)
+						request(range, range._next++, 1);
+				}
+				while (!_outstanding.isEmpty()) {
+					SegmentFetch fetch;
+					try {
+						fetch = _completed.take();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Interrupted reading " + _baseName);
+					}
+					_outstanding.remove(fetch);
+					ContentObject segment = result(fetch);
+					if ((null == segment) || !_handle.defaultVerifier().verify(segment)) {
+						if (fetch._attempts >= SystemConfiguration.PIPELINE_SEGMENTATTEMPTS)
+							throw new IOException("Cannot get segment " + fetch._segment + " of file " + _baseName);
+						if (Log.isLoggable(Log.FAC_IO, Level.INFO))
+							Log.info(Log.FAC_IO, "read: retrying segment {0} of {1}, {2}", fetch._segment, _baseName,
+									(null == segment) ? "timed out" : "failed to verify");
+						request(fetch._range, fetch._segment, fetch._attempts + 1);
+						continue;
+					}
+					copy(fetch._segment, segmentContent(segment));
+					if (fetch._range.hasNext())
+						request(fetch._range, fetch._range._next++, 1);
+				}
+			} finally {
+				for (SegmentFetch fetch : _outstanding)
+					fetch._future.cancel(false);
+			}
+			int read = (int)(_end - _position);
+			_dst.position(_dstStart + read);
+			return read;
+		}
+
+		protected void request(Range range, long segment, int attempts) throws IOException {
+			Interest interest = SegmentationProfile.segmentInterest(_baseName, segment, _publisher);
+			final SegmentFetch fetch = new SegmentFetch(range, segment, attempts, _handle.getAsync(interest, _timeout));
+			_outstanding.add(fetch);
+			fetch._future.addListener(new Runnable() {
+				public void run() {
+					_completed.add(fetch);
+				}
+			}, null);
+		}
+
+		protected ContentObject result(SegmentFetch fetch) throws IOException {
+			try {
+				return fetch._future.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted reading " + _baseName);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				throw new IOException("Error getting segment " + fetch._segment + " of file " + _baseName + ": " + e.getCause());
+			}
+		}
+
+		/**
+		 * Copy the part of a segment's content that falls within the read
+		 */
+		protected void copy(long segment, byte [] content) {
+			long segmentStart = segment * _blockSize;
+			long from = Math.max(segmentStart, _position);
+			long to = Math.min(segmentStart + content.length, _position + _length);
+			if (to <= from)
+				return;
+			ByteBuffer target = _dst.duplicate();
+			target.position(_dstStart + (int)(from - _position));
+			target.put(content, (int)(from - segmentStart), (int)(to - from));
+			if (to > _end)
+				_end = to;
+		}
+	}
+
 	@Override
 	public long tell() throws IOException {
 		if (hasHeader()) {
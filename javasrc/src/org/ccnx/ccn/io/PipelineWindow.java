@@ -0,0 +1,140 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+
+/**
+ * The number of segments CCNAbstractInputStream may have outstanding or buffered at once.
+ *
+ * A fixed window always has the same size. An adaptive window does additive increase,
+ * multiplicative decrease (AIMD) between a minimum and maximum size. Each segment received grows
+ * the window by one segment per window's worth of segments (or by one segment per segment while
+ * in slow start), and each lost segment halves it, no more than once per round trip time.
+ */
+public class PipelineWindow {
+
+	protected final boolean _adaptive;
+	protected final int _minWindow;
+	protected final int _maxWindow;
+	protected final boolean _slowStart;
+
+	protected double _window;
+	protected double _threshold;
+	protected long _lastDecrease = 0;
+
+	/**
+	 * Create a fixed size window
+	 * @param size the window size, must be at least 1
+	 */
+	public PipelineWindow(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Pipeline window must be at least 1, got " + size);
+		_adaptive = false;
+		_minWindow = size;
+		_maxWindow = size;
+		_slowStart = false;
+		_window = size;
+		_threshold = size;
+	}
+
+	/**
+	 * Create an adaptive window. It starts at the minimum size.
+	 * @param minWindow the smallest the window will shrink to, must be at least 1
+	 * @param maxWindow the largest the window will grow to
+	 * @param slowStart if true the window grows exponentially until the first loss
+	 */
+	public PipelineWindow(int minWindow, int maxWindow, boolean slowStart) {
+		if (minWindow < 1 || maxWindow < minWindow)
+			throw new IllegalArgumentException("Bad pipeline window bounds: " + minWindow + " to " + maxWindow);
+		_adaptive = true;
+		_minWindow = minWindow;
+		_maxWindow = maxWindow;
+		_slowStart = slowStart;
+		_window = minWindow;
+		_threshold = slowStart ? maxWindow : minWindow;
+	}
+
+	/**
+	 * @return a window as configured by SystemConfiguration.PIPELINE_ADAPTIVE and related settings
+	 */
+	public static PipelineWindow fromConfiguration() {
+		if (SystemConfiguration.PIPELINE_ADAPTIVE)
+			return new PipelineWindow(SystemConfiguration.PIPELINE_MIN_SIZE, SystemConfiguration.PIPELINE_MAX_SIZE,
+					SystemConfiguration.PIPELINE_SLOW_START);
+		return new PipelineWindow(SystemConfiguration.PIPELINE_SIZE);
+	}
+
+	public boolean isAdaptive() {
+		return _adaptive;
+	}
+
+	public int getMinWindow() {
+		return _minWindow;
+	}
+
+	public int getMaxWindow() {
+		return _maxWindow;
+	}
+
+	/**
+	 * @return the current window size in segments
+	 */
+	public synchronized int size() {
+		return (int)_window;
+	}
+
+	/**
+	 * Note that a requested segment arrived
+	 */
+	public synchronized void segmentReceived() {
+		if (!_adaptive)
+			return;
+		if (_window < _threshold)
+			_window += 1.0;
+		else
+			_window += 1.0 / _window;
+		if (_window > _maxWindow)
+			_window = _maxWindow;
+	}
+
+	/**
+	 * Note that a segment was lost and had to be asked for again. Losses within a round trip
+	 * time of the last decrease are taken to be part of the same congestion event and don't
+	 * shrink the window again.
+	 *
+	 * @param rtt the current round trip time estimate in ms, or a negative number if there isn't one
+	 */
+	public synchronized void segmentLost(double rtt) {
+		if (!_adaptive)
+			return;
+		long now = System.currentTimeMillis();
+		if (rtt > 0 && now - _lastDecrease < rtt)
+			return;
+		_lastDecrease = now;
+		_window = Math.max(_window / 2.0, _minWindow);
+		_threshold = _window;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (!_adaptive)
+			return "fixed window " + _maxWindow;
+		return "window " + size() + " (" + _minWindow + "-" + _maxWindow + ", threshold " + (int)_threshold + ")";
+	}
+}
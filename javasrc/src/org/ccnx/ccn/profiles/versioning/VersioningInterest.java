@@ -29,6 +29,7 @@ import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.impl.CCNStats;
 import org.ccnx.ccn.impl.CCNStats.CCNCategorizedStatistics;
 import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Interest;
@@ -254,6 +255,7 @@ public class VersioningInterest implements CCNCategorizedStatistics {
 		
 		public BasenameState(CCNHandle handle, ContentName basename, Set<VersionNumber> exclusions, VersionNumber startingVersion) {
 			_vim = new VersioningInterestManager(handle, basename, exclusions, startingVersion, this);
+			CCNStatsRegistry.registerStats(this);
 		}
 		
 		/**
@@ -300,6 +302,7 @@ public class VersioningInterest implements CCNCategorizedStatistics {
 		public void stop() {
 			_running = false;
 			_vim.stop();
+			CCNStatsRegistry.unregisterStats(this);
 		}
 		
 		/**
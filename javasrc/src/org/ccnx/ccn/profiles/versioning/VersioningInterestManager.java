@@ -29,6 +29,7 @@ import org.ccnx.ccn.impl.CCNStats;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNStats.CCNStatistics;
 import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.impl.support.TreeSet6;
 import org.ccnx.ccn.profiles.VersionMissingException;
@@ -136,6 +137,7 @@ public class VersioningInterestManager implements CCNContentHandler, CCNStatisti
 		
 		if( null != exclusions )
 			_exclusions.addAll(exclusions);
+		CCNStatsRegistry.registerStats(this);
 	}
 
 	/**
@@ -153,6 +155,7 @@ public class VersioningInterestManager implements CCNContentHandler, CCNStatisti
 	public synchronized void stop() {
 		//		_running = false;
 		cancelInterests();
+		CCNStatsRegistry.unregisterStats(this);
 	}
 
 	public Interest handleContent(ContentObject data, Interest interest) {
@@ -17,12 +17,11 @@
 
 package org.ccnx.ccn.protocol;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -35,6 +34,7 @@ import org.ccnx.ccn.ContentVerifier;
 import org.ccnx.ccn.KeyManager;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLCodecFactory;
@@ -43,9 +43,10 @@ import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.encoding.XMLEncoder;
 import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.security.crypto.CCNSignatureHelper;
+import org.ccnx.ccn.impl.security.crypto.VerifiedRootCache;
+import org.ccnx.ccn.impl.support.ByteBufferOutputStream;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
-import org.ccnx.ccn.io.NullOutputStream;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 import org.ccnx.ccn.protocol.SignedInfo.ContentType;
@@ -56,7 +57,8 @@ import org.ccnx.ccn.protocol.SignedInfo.ContentType;
  * cf. Interest
  * 
  * prepareContent() is called to create the MerkelTree hash.  That encoding can be cached because
- * _name, _signedInfo, and _content are only assigned in a constructor or in decode.
+ * _name, _signedInfo, and _content are only assigned in a constructor or in decode. The whole
+ * binary encoding is cached the same way; see _wire.
  */
 public class ContentObject extends GenericXMLEncodable implements XMLEncodable, Comparable<ContentObject>, ContentNameProvider {
 
@@ -72,6 +74,32 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 */
 	protected byte [] _digest = null;
 	protected Signature _signature; 
+
+	/**
+	 * Cache of the binary (wire) encoding of this object and the part of it covered by the
+	 * signature. Kept from decode when the object is decoded from a buffer, so it holds
+	 * exactly the bytes received; otherwise made the first time it is needed. Binary
+	 * encodes, digest(), prepareContent(), computeProxy() and verify() all use it rather
+	 * than encoding the object again. Like _digest it relies on the object not changing
+	 * after it is built, and is cleared by setSignature().
+	 */
+	protected WireEncoding _wire = null;
+
+	/**
+	 * An encoding and the range within it covered by the signature (the name, signedInfo
+	 * and content elements). Immutable, so it can be shared between threads without locking.
+	 */
+	protected static class WireEncoding {
+		protected final byte [] _bytes;
+		protected final int _signedStart;
+		protected final int _signedLength;
+
+		protected WireEncoding(byte [] bytes, int signedStart, int signedLength) {
+			_bytes = bytes;
+			_signedStart = signedStart;
+			_signedLength = signedLength;
+		}
+	}
 	
 	/**
 	 * We don't specify a required publisher, and right now we don't enforce
@@ -366,11 +394,20 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 * @see org.ccnx.ccn.impl.encoding.XMLEncodable
 	 */
 	public void decode(XMLDecoder decoder) throws ContentDecodingException {
+		_digest = null;
+		_wire = null;
+
+		// If decoding in place from a buffer, keep the bytes we were decoded from
+		BinaryXMLDecoder bufferDecoder = (decoder instanceof BinaryXMLDecoder) ? (BinaryXMLDecoder)decoder : null;
+		ByteBuffer wire = (null == bufferDecoder) ? null : bufferDecoder.peekElementBuffer();
+
 		decoder.readStartElement(getElementLabel());
 
 		_signature = new Signature();
 		_signature.decode(decoder);
 
+		int signedStart = (null == wire) ? 0 : bufferDecoder.peekElementBuffer().position() - wire.position();
+
 		_name = new ContentName();
 		_name.decode(decoder);
 
@@ -380,6 +417,98 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		_content = decoder.readBinaryElement(CCNProtocolDTags.Content);
 
 		decoder.readEndElement();
+
+		if (null != wire) {
+			byte [] bytes = new byte[wire.remaining()];
+			wire.get(bytes);
+			// The signed part runs up to the ContentObject's one byte end tag
+			_wire = new WireEncoding(bytes, signedStart, bytes.length - 1 - signedStart);
+		}
+	}
+
+	/**
+	 * Returns the cached binary encoding of this object, making it if need be.
+	 */
+	protected WireEncoding wireEncoding() throws ContentEncodingException {
+		WireEncoding wire = _wire;
+		if (null != wire)
+			return wire;
+		if (!validate()) {
+			throw new ContentEncodingException("Cannot encode " + this.getClass().getName() + ": field values missing.");
+		}
+		ByteBufferOutputStream bbos = takeEncodeBuffer();
+		try {
+			XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
+			encoder.beginEncoding(bbos);
+			encoder.writeStartElement(getElementLabel());
+			_signature.encode(encoder);
+			int signedStart = bbos.size();
+			encodeSigned(encoder, _name, _signedInfo, _content, 0, contentLength());
+			int signedLength = bbos.size() - signedStart;
+			encoder.writeEndElement();
+			encoder.endEncoding();
+			wire = new WireEncoding(bbos.toByteArray(), signedStart, signedLength);
+		} finally {
+			returnEncodeBuffer(bbos);
+		}
+		_wire = wire;
+		return wire;
+	}
+
+	private static boolean isBinaryCodec(String codec) {
+		return BinaryXMLCodec.CODEC_NAME.equals((null == codec) ? XMLCodecFactory.getDefaultCodecName() : codec);
+	}
+
+	/**
+	 * Binary encodings are written from the cached wire encoding.
+	 */
+	@Override
+	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
+		if (!isBinaryCodec(codec)) {
+			super.encode(ostream, codec);
+			return;
+		}
+		try {
+			ostream.write(wireEncoding()._bytes);
+		} catch (IOException e) {
+			throw new ContentEncodingException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public byte [] encode(String codec) throws ContentEncodingException {
+		if (!isBinaryCodec(codec))
+			return super.encode(codec);
+		return wireEncoding()._bytes.clone();
+	}
+
+	@Override
+	public void encode(ByteBuffer buffer) throws ContentEncodingException {
+		if (!isBinaryCodec(null)) {
+			super.encode(buffer);
+			return;
+		}
+		byte [] bytes = wireEncoding()._bytes;
+		if (buffer.remaining() < bytes.length)
+			throw new ContentEncodingException("Buffer of " + buffer.remaining() + " bytes too small to encode " + getClass().getName());
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Returns a view of the cached wire encoding, which unlike the general case stays valid.
+	 */
+	@Override
+	public ByteBuffer encodeShared() throws ContentEncodingException {
+		if (!isBinaryCodec(null))
+			return super.encodeShared();
+		return ByteBuffer.wrap(wireEncoding()._bytes).asReadOnlyBuffer();
+	}
+
+	@Override
+	public int encodedLength() throws ContentEncodingException {
+		if (!isBinaryCodec(null))
+			return super.encodedLength();
+		return wireEncoding()._bytes.length;
 	}
 
 	/**
@@ -467,6 +596,8 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 				Log.fine(Log.FAC_SIGNING, "Setting signature to null on content object: " + name());
 		}
 		_signature = signature;
+		_digest = null;
+		_wire = null;
 	}
 
 	public void sign(PrivateKey signingKey) throws InvalidKeyException, SignatureException {
@@ -596,9 +727,19 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		boolean result; 
 		
 		if (null != contentProxy) {
-			result = CCNSignatureHelper.verify(contentProxy, object.signature().signature(), object.signature().digestAlgorithm(), publicKey);
+			// Segments signed in the same Merkle tree share a root; if its signature has
+			// already been checked, the path to it is all that needs checking.
+			VerifiedRootCache rootCache = VerifiedRootCache.getDefault();
+			result = rootCache.isVerified(contentProxy, publicKey);
+			if (!result) {
+				result = CCNSignatureHelper.verify(contentProxy, object.signature().signature(), object.signature().digestAlgorithm(), publicKey);
+				if (result)
+					rootCache.addVerified(contentProxy, publicKey);
+			}
 		} else {
-			result = verify(object.name(), object.signedInfo(), object.content(), object.signature(), publicKey);
+			WireEncoding wire = object.wireEncoding();
+			result = CCNSignatureHelper.verify(wire._bytes, wire._signedStart, wire._signedLength,
+					object.signature().signature(), object.signature().digestAlgorithm(), publicKey);
 		}
 	
 		if ((!result) && Log.isLoggable(Log.FAC_VERIFY, Level.WARNING)) {
@@ -722,13 +863,20 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		}
 		// Have to eventually handle various forms of witnesses...
 		// Need to take an algorithm to control the digest used.
-		byte[] blockDigest = CCNDigestHelper.digest(
-					prepareContent());
+		WireEncoding wire = wireEncoding();
+		byte[] blockDigest = CCNDigestHelper.digest(wire._bytes, wire._signedStart, wire._signedLength);
 		return signature().computeProxy(blockDigest, true);
 	}
 	
+	/**
+	 * The part of this object covered by its signature, taken from the cached wire
+	 * encoding if there is one.
+	 */
 	public byte [] prepareContent() throws ContentEncodingException {
-		return prepareContent(name(), signedInfo(), content());
+		if (null == signature())
+			return prepareContent(name(), signedInfo(), content());
+		WireEncoding wire = wireEncoding();
+		return Arrays.copyOfRange(wire._bytes, wire._signedStart, wire._signedStart + wire._signedLength);
 	}
 
 	public static byte [] prepareContent(ContentName name, 
@@ -752,10 +900,24 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 
 		// Do setup. Binary codec doesn't write a preamble or anything.
 		// If allow to pick, text encoder would sometimes write random stuff...
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
-		encoder.beginEncoding(baos);
+		ByteBufferOutputStream bbos = takeEncodeBuffer();
+		try {
+			XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
+			encoder.beginEncoding(bbos);
+			encodeSigned(encoder, name, signedInfo, content, start, length);
+			encoder.endEncoding();
+
+			return bbos.toByteArray();
+		} finally {
+			returnEncodeBuffer(bbos);
+		}
+	}
 
+	/**
+	 * Write the parts of an object covered by its signature.
+	 */
+	private static void encodeSigned(XMLEncoder encoder, ContentName name, SignedInfo signedInfo,
+			byte [] content, int start, int length) throws ContentEncodingException {
 		// We include the tags in what we verify, to allow routers to merely
 		// take a chunk of data from the packet and sign/verify it en masse
 		name.encode(encoder);
@@ -764,31 +926,20 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		// sign the same thing, plus it's really hard to do the automated codec
 		// stuff without doing a whole document, unless we do some serious
 		// rearranging.
-		
-		encoder.writeElement(CCNProtocolDTags.Content, content, start, length);
-
-		encoder.endEncoding();	
 
-		return baos.toByteArray();
+		encoder.writeElement(CCNProtocolDTags.Content, content, start, length);
 	}
 
 	/**
-	 * Encode this object and calculate the digest.
+	 * Calculate the digest of the wire encoding.
 	 */
 	protected byte[] calcDigest() {
-		MessageDigest md;
 		try {
-			md = MessageDigest.getInstance(CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM);
-			DigestOutputStream dos = new DigestOutputStream(new NullOutputStream(), md);
-			encode(dos);
-		} catch (NoSuchAlgorithmException e) {
-			// Should never happen since we are using a default algorithm.
-			throw new RuntimeException(e);
+			return CCNDigestHelper.digest(wireEncoding()._bytes);
 		} catch (ContentEncodingException e) {
 			// Should never happen since we are writing out to make a digest only.
 			throw new RuntimeException(e);
 		}
-		return md.digest();
 	}
 	
 	/**
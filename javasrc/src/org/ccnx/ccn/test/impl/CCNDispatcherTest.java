@@ -0,0 +1,103 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ccnx.ccn.impl.CCNDispatcher;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the network manager dispatcher keeps tasks for a given key in order
+ * and doesn't let a blocked key hold up the others.
+ */
+public class CCNDispatcherTest {
+
+	@Test
+	public void testOrderPerKey() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testOrderPerKey");
+
+		final int KEYS = 8;
+		final int TASKS = 500;
+		CCNDispatcher dispatcher = new CCNDispatcher("testOrderPerKey", 4);
+		final CountDownLatch done = new CountDownLatch(KEYS * TASKS);
+		final ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+		for (int k = 0; k < KEYS; k++)
+			seen.add(new ArrayList<Integer>());
+
+		for (int i = 0; i < TASKS; i++) {
+			for (int k = 0; k < KEYS; k++) {
+				final ArrayList<Integer> list = seen.get(k);
+				final int value = i;
+				dispatcher.dispatch(ContentName.fromNative("/test/dispatch/" + k), new Runnable() {
+					public void run() {
+						synchronized (list) {
+							list.add(value);
+						}
+						done.countDown();
+					}
+				});
+			}
+		}
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (ArrayList<Integer> list : seen) {
+			Assert.assertEquals(TASKS, list.size());
+			for (int i = 0; i < TASKS; i++)
+				Assert.assertEquals(i, list.get(i).intValue());
+		}
+		dispatcher.shutdown();
+
+		Log.info(Log.FAC_TEST, "Completed testOrderPerKey");
+	}
+
+	@Test
+	public void testBlockedKey() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBlockedKey");
+
+		CCNDispatcher dispatcher = new CCNDispatcher("testBlockedKey", 2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch other = new CountDownLatch(1);
+
+		// Integer keys hash to themselves so these land on different workers
+		Integer blockedKey = 0;
+		Integer otherKey = 1;
+
+		dispatcher.dispatch(blockedKey, new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		});
+		dispatcher.dispatch(otherKey, new Runnable() {
+			public void run() {
+				other.countDown();
+			}
+		});
+		Assert.assertTrue(other.await(5, TimeUnit.SECONDS));
+		release.countDown();
+		dispatcher.shutdown();
+
+		Log.info(Log.FAC_TEST, "Completed testBlockedKey");
+	}
+}
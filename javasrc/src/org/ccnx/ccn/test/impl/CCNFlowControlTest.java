@@ -132,6 +132,44 @@ public class CCNFlowControlTest extends CCNFlowControlTestBase {
 		Log.info(Log.FAC_TEST, "Completed testMixedOrderInterestPut");
 	}
 	
+	/**
+	 * Check that matching only looks at the interest's part of the holding area,
+	 * including at the edges of that range
+	 */
+	@Test
+	public void testMatchRange() throws Throwable {
+		Log.info(Log.FAC_TEST, "Starting testMatchRange");
+		
+		ContentName base = ContentName.fromNative("/testMatchRange");
+		ContentName ffName = new ContentName(base, new byte[]{(byte)0xff});
+		ContentName ff0Name = new ContentName(ffName, new byte[]{0});
+		ContentName ff1Name = new ContentName(ffName, new byte[]{1});
+		ContentName nextName = new ContentName(base, new byte[]{0, 0});
+		ContentName prevName = new ContentName(base, new byte[]{(byte)0xfe});
+		normalReset(base);
+		fc.setCapacity(10);
+		ContentObject ff = ContentObject.buildContentObject(ffName, "ff".getBytes());
+		ContentObject ff0 = ContentObject.buildContentObject(ff0Name, "ff0".getBytes());
+		ContentObject ff1 = ContentObject.buildContentObject(ff1Name, "ff1".getBytes());
+		fc.put(ContentObject.buildContentObject(nextName, "next".getBytes()));
+		fc.put(ContentObject.buildContentObject(prevName, "prev".getBytes()));
+		fc.put(ff1);
+		fc.put(ff0);
+		fc.put(ff);
+		
+		Interest rightmost = Interest.constructInterest(ffName, null, Interest.CHILD_SELECTOR_RIGHT, null, null, null);
+		Assert.assertTrue(fc.handleInterest(rightmost));
+		testExpected(queue.poll(), ff1);
+		Assert.assertTrue(fc.handleInterest(new Interest(ffName)));
+		testExpected(queue.poll(), ff);
+		Assert.assertTrue(fc.handleInterest(new Interest(ff0.fullName())));
+		testExpected(queue.poll(), ff0);
+		Assert.assertFalse(fc.handleInterest(rightmost));
+		Assert.assertEquals(2, fc.size());
+		
+		Log.info(Log.FAC_TEST, "Completed testMatchRange");
+	}
+	
 	protected void normalReset(ContentName n) throws IOException {
 		_handle.reset();
 		interestList.clear();
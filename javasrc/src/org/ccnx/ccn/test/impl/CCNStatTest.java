@@ -21,6 +21,9 @@ import java.util.Random;
 
 import org.ccnx.ccn.impl.CCNStats;
 import org.ccnx.ccn.impl.CCNStats.ExampleClassWithStatistics;
+import org.ccnx.ccn.impl.CCNStats.Histogram;
+import org.ccnx.ccn.impl.CCNStats.ExampleClassWithStatistics.MyStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.support.Log;
 import org.junit.Assert;
 import org.junit.Test;
@@ -64,6 +67,96 @@ public class CCNStatTest {
 		Log.info(Log.FAC_TEST, "Completed testExample");
 	}
 
+	@Test
+	public void testHistogram() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testHistogram");
+
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 10000; i++)
+			histogram.addSample(i);
+
+		// Default buckets are within 25% of the true value
+		Histogram.Snapshot snapshot = histogram.snapshot(false);
+		Assert.assertEquals(10000, snapshot.getCount());
+		Assert.assertEquals(10000, snapshot.getMax());
+		for (double percent : Histogram.REPORTED_PERCENTILES) {
+			double expected = percent * 100;
+			long actual = snapshot.getPercentile(percent);
+			Assert.assertTrue("p" + percent + " was " + actual, actual >= expected && actual <= expected * 1.25);
+		}
+		Assert.assertEquals(10000, snapshot.getPercentile(100));
+		Assert.assertEquals(5000.5, snapshot.getAverageAndStdev()[0], 0.001);
+
+		// A window starts afresh after a reset
+		Assert.assertEquals(10000, histogram.snapshot(true).getCount());
+		Assert.assertEquals(0, histogram.snapshot(false).getCount());
+		histogram.addSample(7);
+		snapshot = histogram.snapshot(true);
+		Assert.assertEquals(1, snapshot.getCount());
+		Assert.assertEquals(7, snapshot.getPercentile(99.9));
+
+		// Given buckets
+		histogram = new Histogram(new long[]{10, 100, 1000});
+		for (int i = 0; i < 90; i++)
+			histogram.addSample(5);
+		for (int i = 0; i < 9; i++)
+			histogram.addSample(50);
+		histogram.addSample(5000);
+		snapshot = histogram.snapshot(false);
+		Assert.assertEquals(10, snapshot.getPercentile(50));
+		Assert.assertEquals(10, snapshot.getPercentile(90));
+		Assert.assertEquals(100, snapshot.getPercentile(99));
+		Assert.assertEquals(5000, snapshot.getPercentile(99.9));
+		Assert.assertEquals("999", Histogram.Snapshot.percentileName(99.9));
+
+		// Samples from many threads all get counted
+		final Histogram shared = new Histogram();
+		Thread [] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 100000; i++)
+						shared.addSample(i & 1023);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(800000, shared.getCount());
+
+		Log.info(Log.FAC_TEST, "Completed testHistogram");
+	}
+
+	@Test
+	public void testAveragingCounterHistogram() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testAveragingCounterHistogram");
+
+		CCNEnumStats<MyStats> stats = new CCNEnumStats<MyStats>(MyStats.SendRequests);
+		Assert.assertFalse(stats.isAveragingCounter("BytesPerPacket"));
+		Assert.assertNull(stats.getHistogram("BytesPerPacket", false));
+		Assert.assertTrue(Double.isNaN(stats.getAverageAndStdev("BytesPerPacket")[0]));
+
+		stats.addSample(MyStats.BytesPerPacket, 10);
+		stats.addSample(MyStats.BytesPerPacket, 20);
+		Assert.assertTrue(stats.isAveragingCounter("BytesPerPacket"));
+		Assert.assertEquals(15.0, stats.getAverageAndStdev("BytesPerPacket")[0], 0.001);
+		Assert.assertEquals(Math.sqrt(50), stats.getAverageAndStdev("BytesPerPacket")[1], 0.001);
+		Assert.assertTrue(stats.toString().contains("p99 20"));
+
+		Assert.assertEquals(2, stats.getHistogram("BytesPerPacket", true).getCount());
+		Assert.assertEquals(0, stats.getHistogram("BytesPerPacket", false).getCount());
+
+		stats.setHistogramBounds(MyStats.SendRate, new long[]{100, 200});
+		stats.addSample(MyStats.SendRate, 150);
+		Assert.assertEquals(150, stats.getHistogram("SendRate", false).getPercentile(50));
+
+		stats.clearCounters();
+		Assert.assertFalse(stats.isAveragingCounter("SendRate"));
+
+		Log.info(Log.FAC_TEST, "Completed testAveragingCounterHistogram");
+	}
+
 	@Test
 	public void testPerformance() throws Exception {
 		Log.info(Log.FAC_TEST, "Starting testPerformance");
@@ -0,0 +1,128 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ccnx.ccn.impl.CCNStatsRegistry;
+import org.ccnx.ccn.impl.CCNStats.ExampleClassWithStatistics;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CCNStatsRegistryTest {
+
+	@Test
+	public void testRegistration() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testRegistration");
+
+		CCNStatsRegistry registry = new CCNStatsRegistry(false);
+		ExampleClassWithStatistics first = new ExampleClassWithStatistics();
+		ExampleClassWithStatistics second = new ExampleClassWithStatistics();
+		Assert.assertEquals("1", registry.register(first, "Example"));
+		Assert.assertEquals("2", registry.register(second, "Example"));
+		Assert.assertEquals(2, registry.size());
+
+		registry.unregister(first);
+		Assert.assertEquals(1, registry.size());
+
+		// Collected objects drop out by themselves
+		second = null;
+		for (int i = 0; i < 50 && registry.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(0, registry.size());
+
+		Log.info(Log.FAC_TEST, "Completed testRegistration");
+	}
+
+	@Test
+	public void testJMX() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testJMX");
+
+		CCNStatsRegistry registry = new CCNStatsRegistry(true);
+		ExampleClassWithStatistics example = new ExampleClassWithStatistics();
+		String id = registry.register(example, "JMXExample");
+		example.send("x", 10);
+		example.send("x", 30);
+		example.recv("x");
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(CCNStatsRegistry.JMX_DOMAIN + ":type=\"JMXExample\",name=" + id);
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertEquals(2L, server.getAttribute(name, "SendRequests"));
+		Assert.assertEquals(1L, server.getAttribute(name, "RecvMessages"));
+		Assert.assertEquals(20.0, (Double)server.getAttribute(name, "BytesPerPacketAverage"), 0.0);
+		Assert.assertEquals(30L, server.getAttribute(name, "BytesPerPacketP99"));
+
+		server.invoke(name, "clearCounters", new Object[0], new String[0]);
+		Assert.assertEquals(0L, server.getAttribute(name, "SendRequests"));
+
+		registry.unregister(example);
+		Assert.assertFalse(server.isRegistered(name));
+
+		Log.info(Log.FAC_TEST, "Completed testJMX");
+	}
+
+	@Test
+	public void testPrometheus() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testPrometheus");
+
+		CCNStatsRegistry registry = new CCNStatsRegistry(false);
+		ExampleClassWithStatistics example = new ExampleClassWithStatistics();
+		registry.register(example, "HttpExample");
+		example.send("x", 10);
+		example.send("x", 30);
+
+		int port = registry.startHttpServer(0);
+		try {
+			Socket socket = new Socket("127.0.0.1", port);
+			OutputStream out = socket.getOutputStream();
+			out.write("GET /metrics HTTP/1.0\r\n\r\n".getBytes("US-ASCII"));
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			StringBuilder response = new StringBuilder();
+			String line;
+			while (null != (line = in.readLine()))
+				response.append(line).append('\n');
+			socket.close();
+			String text = response.toString();
+
+			Assert.assertTrue(text.startsWith("HTTP/1.0 200 OK"));
+			Assert.assertTrue(text.contains("# HELP ccnx_http_example_send_requests The number of packets sent (packets)\n"));
+			Assert.assertTrue(text.contains("# TYPE ccnx_http_example_send_requests counter\n"));
+			Assert.assertTrue(text.contains("ccnx_http_example_send_requests{id=\"1\"} 2\n"));
+			Assert.assertTrue(text.contains("# TYPE ccnx_http_example_bytes_per_packet summary\n"));
+			Assert.assertTrue(text.contains("ccnx_http_example_bytes_per_packet{id=\"1\",quantile=\"0.99\"} 30\n"));
+			Assert.assertTrue(text.contains("ccnx_http_example_bytes_per_packet_sum{id=\"1\"} 40\n"));
+			Assert.assertTrue(text.contains("ccnx_http_example_bytes_per_packet_count{id=\"1\"} 2\n"));
+		} finally {
+			registry.stopHttpServer();
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testPrometheus");
+	}
+}
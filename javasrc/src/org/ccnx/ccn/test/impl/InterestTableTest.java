@@ -703,4 +703,51 @@ public class InterestTableTest extends CCNTestBase {
 		
 		Log.info(Log.FAC_TEST, "Completed testLRU");
 	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentAccess");
+
+		setID(-1);
+		final InterestTable<Integer> table = new InterestTable<Integer>();
+		final int THREADS = 4;
+		final int ENTRIES = 2000;
+		final ContentName prefix = ContentName.fromNative("/test/concurrent");
+		addEntry(table, prefix, Integer.valueOf(-1));
+
+		Thread [] threads = new Thread[THREADS];
+		final Throwable [] failure = new Throwable[1];
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < ENTRIES; i++) {
+							// Threads share names so adds and prunes race with each other
+							ContentName name = new ContentName(prefix, Integer.toString(i % 50), Integer.toString(thread));
+							Integer value = Integer.valueOf(thread * ENTRIES + i);
+							table.add(name, value);
+							List<Integer> values = table.getValues(name);
+							if (!values.contains(value) || !values.contains(Integer.valueOf(-1)))
+								throw new AssertionError("Lost entry for " + name);
+							if (null == table.remove(name, value))
+								throw new AssertionError("Failed to remove entry for " + name);
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		if (null != failure[0])
+			throw new AssertionError(failure[0]);
+		sizes(table, 1, 1);
+		match(table, new ContentName(prefix, "0", "0"), -1);
+
+		Log.info(Log.FAC_TEST, "Completed testConcurrentAccess");
+	}
 }
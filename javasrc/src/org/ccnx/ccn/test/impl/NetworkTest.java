@@ -19,15 +19,19 @@ package org.ccnx.ccn.test.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.ccnx.ccn.CCNContentHandler;
+import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.CCNInterestHandler;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.support.SettableFuture;
 import org.ccnx.ccn.io.CCNWriter;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -302,6 +306,182 @@ public class NetworkTest extends CCNTestBase {
 		Log.info(Log.FAC_TEST, "Completed testFlood");
 	}
 
+	@Test
+	public void testGetAsync() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testGetAsync");
+
+		// Express the interest before putting so the put is flow balanced
+		ContentName testName = new ContentName(testPrefix, "async");
+		SettableFuture<ContentObject> get = getHandle.getAsync(new Interest(testName), WAIT_MILLIS);
+		Assert.assertFalse(get.isDone());
+		ContentObject co = ContentObject.buildContentObject(testName, "async".getBytes());
+		Assert.assertEquals(co, putHandle.putAsync(co).get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(co, get.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+		// A timeout completes the future with null
+		long start = System.currentTimeMillis();
+		get = getHandle.getAsync(new Interest(new ContentName(testPrefix, "asyncMissing")), 200);
+		Assert.assertNull(get.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+
+		// Cancelling a get with no timeout
+		get = getHandle.getAsync(new Interest(new ContentName(testPrefix, "asyncCancel")), SystemConfiguration.NO_TIMEOUT);
+		Assert.assertTrue(get.cancel(false));
+		Assert.assertTrue(get.isCancelled());
+
+		// getAll with some present and one missing
+		CCNWriter writer = new CCNWriter(testPrefix, putHandle);
+		writer.disableFlowControl();
+		ArrayList<Interest> interests = new ArrayList<Interest>();
+		for (int i = 0; i < 10; i++) {
+			ContentName name = new ContentName(testPrefix, "all", Integer.toString(i));
+			writer.put(name, Integer.toString(i));
+			interests.add(new Interest(name));
+		}
+		interests.add(new Interest(new ContentName(testPrefix, "all", "missing")));
+		List<ContentObject> results = getHandle.getAll(interests, 1000).get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(interests.size(), results.size());
+		for (int i = 0; i < 10; i++) {
+			Assert.assertNotNull(results.get(i));
+			Assert.assertTrue(interests.get(i).matches(results.get(i)));
+		}
+		Assert.assertNull(results.get(10));
+		writer.close();
+
+		Log.info(Log.FAC_TEST, "Completed testGetAsync");
+	}
+
+	/**
+	 * Test that shutting down the network manager fails the gets still outstanding, including
+	 * those with no timeout
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetAsyncShutdown() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testGetAsyncShutdown");
+
+		CCNHandle handle = CCNHandle.open();
+		ArrayList<SettableFuture<ContentObject>> gets = new ArrayList<SettableFuture<ContentObject>>();
+		gets.add(handle.getAsync(new Interest(new ContentName(testPrefix, "shutdownForever")), SystemConfiguration.NO_TIMEOUT));
+		gets.add(handle.getAsync(new Interest(new ContentName(testPrefix, "shutdownTimed")), WAIT_MILLIS * 10));
+		handle.close();
+		for (SettableFuture<ContentObject> get : gets) {
+			try {
+				get.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				Assert.fail("Get outstanding at shutdown didn't fail");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testGetAsyncShutdown");
+	}
+
+	/**
+	 * Test that with dispatch threads, content handlers run on them rather than on the reader
+	 * thread, and that a handler cancelled while its content is queued is never called
+	 * @throws Exception
+	 */
+	@Test
+	public void testDispatchThreads() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDispatchThreads");
+
+		// One dispatch thread so everything queues behind the blocked handler
+		int dispatchThreads = SystemConfiguration.NETMANAGER_DISPATCH_THREADS;
+		SystemConfiguration.NETMANAGER_DISPATCH_THREADS = 1;
+		CCNHandle handle = CCNHandle.open();
+		try {
+			final Semaphore entered = new Semaphore(0);
+			final Semaphore release = new Semaphore(0);
+			final String [] threadName = new String[1];
+			CCNContentHandler blocker = new CCNContentHandler() {
+				public Interest handleContent(ContentObject data, Interest interest) {
+					threadName[0] = Thread.currentThread().getName();
+					entered.release();
+					release.acquireUninterruptibly();
+					return null;
+				}
+			};
+			final Semaphore delivered = new Semaphore(0);
+			CCNContentHandler cancelled = new CCNContentHandler() {
+				public Interest handleContent(ContentObject data, Interest interest) {
+					delivered.release();
+					return null;
+				}
+			};
+
+			ContentName blockName = new ContentName(testPrefix, "dispatch", "block");
+			ContentName cancelName = new ContentName(testPrefix, "dispatch", "cancel");
+			Interest blockInterest = new Interest(blockName);
+			Interest cancelInterest = new Interest(cancelName);
+			handle.expressInterest(blockInterest, blocker);
+			handle.expressInterest(cancelInterest, cancelled);
+
+			putHandle.put(ContentObject.buildContentObject(blockName, "block".getBytes()));
+			Assert.assertTrue(entered.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(threadName[0], threadName[0].contains("dispatcher"));
+
+			// Wait for the second delivery to be queued behind the first, then cancel it
+			putHandle.put(ContentObject.buildContentObject(cancelName, "cancel".getBytes()));
+			long end = System.currentTimeMillis() + WAIT_MILLIS;
+			while (handle.getNetworkManager().getStats().getCounter("Dispatched") < 2 && System.currentTimeMillis() < end)
+				Thread.sleep(10);
+			Assert.assertEquals(2, handle.getNetworkManager().getStats().getCounter("Dispatched"));
+			handle.cancelInterest(cancelInterest, cancelled);
+			release.release();
+			Assert.assertFalse(delivered.tryAcquire(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+		} finally {
+			SystemConfiguration.NETMANAGER_DISPATCH_THREADS = dispatchThreads;
+			handle.close();
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testDispatchThreads");
+	}
+
+	/**
+	 * Test that writes held back in a batch all go out together when the batch is flushed
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteBatching() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testWriteBatching");
+
+		// Express the interests before batching is turned on so they go out right away
+		ArrayList<SettableFuture<ContentObject>> gets = new ArrayList<SettableFuture<ContentObject>>();
+		ArrayList<ContentObject> objects = new ArrayList<ContentObject>();
+		for (int i = 0; i < 10; i++) {
+			ContentName name = new ContentName(testPrefix, "batch", Integer.toString(i));
+			gets.add(getHandle.getAsync(new Interest(name), WAIT_MILLIS));
+			objects.add(ContentObject.buildContentObject(name, Integer.toString(i).getBytes()));
+		}
+
+		int batchBytes = SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES;
+		int batchDelay = SystemConfiguration.NETMANAGER_WRITE_BATCH_DELAY;
+		try {
+			// Make the batch big and the delay longer than the gets will wait, so the
+			// objects can only arrive in time if the flush sends them. (An interest refresh
+			// on the put handle may flush them sooner, which is fine.)
+			SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES = 1024 * 1024;
+			SystemConfiguration.NETMANAGER_WRITE_BATCH_DELAY = WAIT_MILLIS * 10;
+			for (ContentObject co : objects)
+				putHandle.put(co);
+
+			putHandle.getNetworkManager().flush();
+			for (int i = 0; i < gets.size(); i++)
+				Assert.assertEquals(objects.get(i), gets.get(i).get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+			// A blocking get must not leave its own interest in the batch while it waits. The
+			// timeout is shorter than the refresh period, so a refresh can't flush it instead.
+			Assert.assertEquals(objects.get(0), getHandle.get(objects.get(0).name(), TEST_TIMEOUT));
+		} finally {
+			SystemConfiguration.NETMANAGER_WRITE_BATCH_BYTES = batchBytes;
+			SystemConfiguration.NETMANAGER_WRITE_BATCH_DELAY = batchDelay;
+			putHandle.getNetworkManager().flush();
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testWriteBatching");
+	}
+
 	/**
 	 * Test that when we cancel an interest and the interest is satisfied during the cancel, side affects
 	 * from handling the interest are not allowed to keep the interest alive.
@@ -0,0 +1,111 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.TimingWheel;
+import org.ccnx.ccn.impl.TimingWheel.Node;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	static final long TICK = 20;
+
+	@Test
+	public void testExpiry() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testExpiry");
+
+		long start = 1000000;
+		TimingWheel<long []> wheel = new TimingWheel<long []>(TICK, start);
+		Random rand = new Random(1);
+		ArrayList<Node<long []>> nodes = new ArrayList<Node<long []>>();
+		for (int i = 0; i < 5000; i++) {
+			// Deadlines across every level, and a few already past
+			long delay = (i % 5 == 0) ? rand.nextInt(1000000000) : rand.nextInt(200000) - 100;
+			Node<long []> node = new Node<long []>(new long[] { start + delay });
+			wheel.schedule(node, start + delay);
+			nodes.add(node);
+		}
+		int cancelled = 0;
+		for (int i = 0; i < nodes.size(); i += 7) {
+			Assert.assertTrue(wheel.cancel(nodes.get(i)));
+			cancelled++;
+		}
+		Assert.assertFalse(wheel.cancel(nodes.get(0)));
+		Assert.assertEquals(nodes.size() - cancelled, wheel.size());
+
+		// Reschedule some to earlier and later times
+		for (int i = 1; i < nodes.size(); i += 11) {
+			if (i % 7 == 0)
+				continue;
+			Node<long []> node = nodes.get(i);
+			node.value()[0] = start + rand.nextInt(100000);
+			wheel.schedule(node, node.value()[0]);
+		}
+		Assert.assertEquals(nodes.size() - cancelled, wheel.size());
+
+		int expired = 0;
+		long now = start;
+		long last = Long.MIN_VALUE;
+		while (wheel.size() > 0) {
+			// Jump ahead irregularly, but never past the next deadline
+			long next = wheel.nextDeadline();
+			now = Math.max(now + 1, Math.min(next, now + rand.nextInt(50000)));
+			for (long [] deadline : wheel.advance(now)) {
+				Assert.assertTrue("expired " + (deadline[0] - now) + "ms early", deadline[0] / TICK <= now / TICK);
+				if (last != Long.MIN_VALUE)
+					Assert.assertTrue("expired " + (now - deadline[0]) + "ms late", deadline[0] / TICK > last / TICK);
+				expired++;
+			}
+			last = now;
+		}
+		Assert.assertEquals(nodes.size() - cancelled, expired);
+
+		Log.info(Log.FAC_TEST, "Completed testExpiry");
+	}
+
+	@Test
+	public void testReschedule() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testReschedule");
+
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK, 0);
+		Node<String> node = new Node<String>("refresh");
+		wheel.schedule(node, 4000);
+		Assert.assertTrue(wheel.advance(3000).isEmpty());
+		wheel.schedule(node, 8000);
+		Assert.assertEquals(1, wheel.size());
+		Assert.assertTrue(wheel.advance(7000).isEmpty());
+		List<String> due = wheel.advance(8000);
+		Assert.assertEquals(1, due.size());
+		Assert.assertEquals("refresh", due.get(0));
+		Assert.assertEquals(0, wheel.size());
+		Assert.assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+
+		// Schedule again after expiring
+		wheel.schedule(node, 9000);
+		Assert.assertTrue(wheel.nextDeadline() <= 9000);
+		Assert.assertEquals(1, wheel.advance(9000).size());
+
+		Log.info(Log.FAC_TEST, "Completed testReschedule");
+	}
+}
@@ -1,12 +1,15 @@
 package org.ccnx.ccn.test.impl.encoding;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 import junit.framework.Assert;
 
 import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
+import org.ccnx.ccn.impl.support.ByteBufferInputStream;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.protocol.ContentName;
@@ -43,6 +46,56 @@ public class DecoderTest {
 		Assert.assertEquals(((ContentObject)packet).name(), contentName);
 	}
 
+	@Test
+	public void testBufferDecoding() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBufferDecoding");
+		ContentName interestName = ContentName.fromNative(interestTest);
+		byte[] interestBytes = new Interest(interestName).encode();
+		ContentName contentName = ContentName.fromNative(contentTest);
+		byte[] content = "test buffer decoder".getBytes();
+		ContentObject co = ContentObject.buildContentObject(contentName, content);
+		byte[] contentBytes = co.encode();
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(interestBytes.length + contentBytes.length);
+		buffer.put(interestBytes);
+		buffer.put(contentBytes);
+		buffer.flip();
+
+		// Decode both packets in place
+		Assert.assertTrue(_decoder.tryDecoding(buffer));
+		Assert.assertEquals(interestBytes.length, buffer.position());
+		XMLEncodable packet = _decoder.getPacket();
+		Assert.assertTrue("Packet has incorrect type", packet instanceof Interest);
+		Assert.assertEquals(interestName, ((Interest)packet).name());
+
+		_decoder.beginDecoding(buffer);
+		Assert.assertFalse(buffer.hasRemaining());
+		packet = _decoder.getPacket();
+		Assert.assertTrue("Packet has incorrect type", packet instanceof ContentObject);
+		Assert.assertEquals(co, packet);
+
+		// Copies out of the buffer must survive its reuse
+		byte [] decodedContent = ((ContentObject)packet).content();
+		buffer.clear();
+		while (buffer.hasRemaining())
+			buffer.put((byte)0);
+		Assert.assertTrue(Arrays.equals(content, decodedContent));
+
+		// A partial packet leaves the buffer alone
+		ByteBuffer partial = ByteBuffer.wrap(contentBytes, 0, contentBytes.length - 1);
+		Assert.assertFalse(_decoder.tryDecoding(partial));
+		Assert.assertEquals(0, partial.position());
+		try {
+			_decoder.beginDecoding(partial);
+			Assert.fail("Decoded a partial packet");
+		} catch (ContentDecodingException cde) {}
+
+		// and through a ByteBufferInputStream
+		_decoder.beginDecoding(new ByteBufferInputStream(ByteBuffer.wrap(contentBytes)));
+		Assert.assertEquals(co, _decoder.getPacket());
+		Log.info(Log.FAC_TEST, "Completed testBufferDecoding");
+	}
+
 	@Test
 	public void testResync() throws Exception {
 		Log.info(Log.FAC_TEST, "Starting testResync");
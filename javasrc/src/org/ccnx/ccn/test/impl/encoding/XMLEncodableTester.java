@@ -18,11 +18,15 @@
 package org.ccnx.ccn.test.impl.encoding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
 import org.ccnx.ccn.impl.encoding.TextXMLCodec;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -111,6 +115,45 @@ public class XMLEncodableTester {
 		assertEquals(toEncode, decodeTarget);
 	}
 	
+	/**
+	 * Test the ByteBuffer encoders produce the same thing as encode(), that
+	 * encodedLength() gives its length, and that the result decodes.
+	 */
+	public static void encodeDecodeBufferTest(String label,
+			GenericXMLEncodable toEncode,
+			XMLEncodable decodeTarget) throws Exception {
+		System.out.println("Encoding " + label + " to buffers:");
+		byte [] encoded = toEncode.encode();
+		int length = toEncode.encodedLength();
+		assertEquals(encoded.length, length);
+
+		ByteBuffer shared = toEncode.encodeShared();
+		assertTrue(shared.isReadOnly());
+		assertEquals(ByteBuffer.wrap(encoded), shared);
+
+		// Write at an offset, into exactly enough room
+		ByteBuffer buffer = ByteBuffer.allocateDirect(length + 10);
+		buffer.position(10);
+		toEncode.encode(buffer);
+		assertEquals(length + 10, buffer.position());
+		buffer.position(10);
+		assertEquals(ByteBuffer.wrap(encoded), buffer);
+
+		ByteBuffer tooSmall = ByteBuffer.allocate(length - 1);
+		try {
+			toEncode.encode(tooSmall);
+			fail("Encoded " + label + " in to too small a buffer");
+		} catch (ContentEncodingException e) {}
+		assertEquals(0, tooSmall.position());
+
+		byte [] decodeBytes = new byte[length];
+		buffer.position(10);
+		buffer.get(decodeBytes);
+		decodeTarget.decode(decodeBytes);
+		System.out.println("Decoded " + label + ": " + decodeTarget);
+		assertEquals(toEncode, decodeTarget);
+	}
+
 	public static void handleException(Exception ex) {
 		System.out.println("Got exception of type: " + ex.getClass().getName() + " message: " +
 										ex.getMessage());
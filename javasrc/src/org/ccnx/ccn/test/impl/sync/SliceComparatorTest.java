@@ -0,0 +1,127 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+package org.ccnx.ccn.test.impl.sync;
+
+import java.util.TreeSet;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.CCNSyncHandler;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.sync.SliceComparator;
+import org.ccnx.ccn.impl.sync.SyncNodeCache;
+import org.ccnx.ccn.io.content.ConfigSlice;
+import org.ccnx.ccn.io.content.SyncNodeComposite;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.test.CCNTestHelper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test a comparator picks up where it left off when a node it needed arrives.
+ *
+ * Note - this test requires ccnd to be running, as the comparator asks for the node
+ */
+public class SliceComparatorTest {
+
+	static CCNTestHelper testHelper = new CCNTestHelper(SliceComparatorTest.class);
+	static CCNHandle handle;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		handle = CCNHandle.open();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		handle.close();
+	}
+
+	/**
+	 * A comparator whose state we can see
+	 */
+	protected static class TestComparator extends SliceComparator {
+		public TestComparator(SyncNodeCache snc, CCNSyncHandler callback, ConfigSlice slice) {
+			super(null, snc, callback, slice, null, null, handle);
+		}
+
+		public synchronized SyncCompareState state() {
+			return _state;
+		}
+	}
+
+	protected static class NameCollector implements CCNSyncHandler {
+		protected TreeSet<ContentName> _names = new TreeSet<ContentName>();
+
+		public synchronized void handleContentName(ConfigSlice syncSlice, ContentName syncedContent) {
+			_names.add(syncedContent);
+			notifyAll();
+		}
+
+		public synchronized boolean waitForNames(int count, long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (_names.size() < count && System.currentTimeMillis() < end)
+				wait(end - System.currentTimeMillis());
+			return _names.size() >= count;
+		}
+	}
+
+	@Test
+	public void testResumeAfterNodeMiss() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testResumeAfterNodeMiss");
+
+		ContentName prefix = testHelper.getTestNamespace("testResumeAfterNodeMiss");
+		ConfigSlice slice = new ConfigSlice(new ContentName(prefix, "topo"), prefix, null);
+		SyncNodeCache snc = new SyncNodeCache();
+		NameCollector names = new NameCollector();
+		TestComparator sc = new TestComparator(snc, names, slice);
+
+		// A root we don't have the node for yet
+		SyncNodeComposite root = new SyncNodeComposite();
+		root._longhash = new byte[32];
+		root._longhash[0] = 1;
+		for (int i = 0; i < 3; i++) {
+			ContentName name = new ContentName(prefix, "name" + i, "digest");
+			root._refs.add(new SyncNodeComposite.SyncNodeElement(name));
+		}
+		root._minName = root._refs.get(0);
+		root._maxName = root._refs.get(2);
+		root._leafCount = 3;
+		sc.addPending(sc.getHashCache().addHash(root.getHash(), snc));
+		sc.kickCompare();
+
+		// The compare stops for the node, ready to preload when it resumes
+		long end = System.currentTimeMillis() + SystemConfiguration.MEDIUM_TIMEOUT;
+		while (sc.state() != SliceComparator.SyncCompareState.PRELOAD && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		Assert.assertFalse(names.waitForNames(1, 100));
+		Assert.assertEquals(SliceComparator.SyncCompareState.PRELOAD, sc.state());
+
+		// As NodeFetchHandler does when the node arrives
+		snc.putNode(root);
+		snc.clearPending(root.getHash());
+		sc.kickCompare();
+		Assert.assertTrue(names.waitForNames(3, SystemConfiguration.MEDIUM_TIMEOUT));
+		for (int i = 0; i < 3; i++)
+			Assert.assertTrue(names._names.contains(new ContentName(prefix, "name" + i)));
+
+		sc.removeCallback(names);
+		Log.info(Log.FAC_TEST, "Completed testResumeAfterNodeMiss");
+	}
+}
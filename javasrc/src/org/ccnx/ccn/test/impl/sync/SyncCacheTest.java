@@ -0,0 +1,189 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.impl.sync.SyncHashCache;
+import org.ccnx.ccn.impl.sync.SyncLRUCache;
+import org.ccnx.ccn.impl.sync.SyncNodeCache;
+import org.ccnx.ccn.impl.sync.SyncTreeEntry;
+import org.ccnx.ccn.io.content.SyncNodeComposite;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the bounds and eviction policy of the sync node and hash caches
+ */
+public class SyncCacheTest {
+
+	@Test
+	public void testLRUCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testLRUCache");
+
+		SyncLRUCache<String> cache = new SyncLRUCache<String>(4, 1);
+		for (int i = 0; i < 4; i++)
+			cache.put(hash(i), "value" + i);
+		Assert.assertEquals(4, cache.size());
+
+		// Touch 0 so 1 is the least recently used
+		Assert.assertEquals("value0", cache.get(hash(0)));
+		cache.put(hash(4), "value4");
+		Assert.assertEquals(4, cache.size());
+		Assert.assertNull(cache.get(hash(1)));
+		Assert.assertEquals("value0", cache.get(hash(0)));
+
+		Assert.assertEquals("value4", cache.putIfAbsent(hash(4), "other"));
+		Assert.assertEquals("value4", cache.remove(hash(4)));
+		Assert.assertNull(cache.get(hash(4)));
+
+		// The bound holds across stripes too
+		SyncLRUCache<String> striped = new SyncLRUCache<String>(1024);
+		for (int i = 0; i < 5000; i++)
+			striped.put(hash(i), "value" + i);
+		Assert.assertTrue(striped.size() <= 1024);
+		Assert.assertEquals("value4999", striped.get(hash(4999)));
+
+		Log.info(Log.FAC_TEST, "Completed testLRUCache");
+	}
+
+	@Test
+	public void testHashCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testHashCache");
+
+		SyncNodeCache snc = new SyncNodeCache();
+		SyncHashCache shc = new SyncHashCache(8);
+
+		ArrayList<SyncTreeEntry> local = new ArrayList<SyncTreeEntry>();
+		for (int i = 0; i < 4; i++) {
+			SyncTreeEntry entry = new SyncTreeEntry(hash(1000 + i), snc);
+			shc.putHashEntry(entry);
+			entry.setLocal(true);
+			local.add(entry);
+		}
+		SyncTreeEntry first = shc.addHash(hash(0), snc);
+		Assert.assertSame(first, shc.addHash(hash(0), snc));
+		for (int i = 1; i < 100; i++)
+			shc.addHash(hash(i), snc);
+
+		// Network entries come and go, local ones stay until they are removed
+		Assert.assertNull(shc.getHash(hash(0)));
+		Assert.assertNotNull(shc.getHash(hash(99)));
+		for (SyncTreeEntry entry : local)
+			Assert.assertSame(entry, shc.getHash(entry.getHash()));
+		Assert.assertEquals(8 + local.size(), shc.size());
+		Assert.assertTrue(shc.getStats().getCounter("Evictions") > 0);
+
+		shc.removeHashEntry(local.get(0));
+		Assert.assertNull(shc.getHash(local.get(0).getHash()));
+		Assert.assertEquals(8 + local.size() - 1, shc.size());
+
+		Log.info(Log.FAC_TEST, "Completed testHashCache");
+	}
+
+	/**
+	 * Fill the hash cache while a comparator is part way through comparing a tree, and
+	 * check nothing it is working with is evicted
+	 */
+	@Test
+	public void testEvictionDuringCompare() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testEvictionDuringCompare");
+
+		SyncNodeCache snc = new SyncNodeCache();
+		SyncHashCache shc = new SyncHashCache(8);
+
+		// A two level tree from the network, and an entry for a node not fetched yet
+		SyncNodeComposite root = node(500);
+		for (int i = 501; i < 504; i++) {
+			root._refs.add(new SyncNodeComposite.SyncNodeElement(hash(i)));
+			snc.putNode(node(i));
+		}
+		snc.putNode(root);
+		SyncTreeEntry rootEntry = shc.addHash(hash(500), snc);
+		ArrayList<SyncTreeEntry> tree = new ArrayList<SyncTreeEntry>();
+		tree.add(rootEntry);
+		for (int i = 501; i < 504; i++)
+			tree.add(shc.addHash(hash(i), snc));
+		SyncTreeEntry stacked = shc.addHash(hash(600), snc);
+
+		// What the comparator does at the start of a round, and as it descends
+		ArrayList<SyncTreeEntry> roots = new ArrayList<SyncTreeEntry>();
+		roots.add(rootEntry);
+		shc.pinTrees(roots);
+		shc.pin(stacked);
+
+		for (int i = 0; i < 100; i++)
+			shc.addHash(hash(i), snc);
+		Assert.assertNull(shc.getHash(hash(0)));
+		for (SyncTreeEntry entry : tree)
+			Assert.assertSame(entry, shc.getHash(entry.getHash()));
+		Assert.assertSame(stacked, shc.getHash(hash(600)));
+
+		// Once the compare moves on they go like anything else
+		shc.pinTrees(Collections.<SyncTreeEntry>emptyList());
+		Assert.assertEquals(8, shc.size());
+		for (int i = 100; i < 200; i++)
+			shc.addHash(hash(i), snc);
+		Assert.assertNull(shc.getHash(hash(500)));
+		Assert.assertNull(shc.getHash(hash(600)));
+
+		Log.info(Log.FAC_TEST, "Completed testEvictionDuringCompare");
+	}
+
+	@Test
+	public void testNodeCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testNodeCache");
+
+		SyncNodeCache snc = new SyncNodeCache(4);
+		SyncNodeComposite held = node(0);
+		snc.putNode(held);
+		for (int i = 1; i < 10; i++)
+			snc.putNode(node(i));
+		Assert.assertEquals(4, snc.size());
+
+		// The most recent nodes are held whether or not anything else refers to them
+		for (int i = 6; i < 10; i++)
+			Assert.assertNotNull(snc.getNode(hash(i)));
+		Assert.assertEquals(4, snc.getStats().getCounter("Hits"));
+
+		// Older ones can still be found while something refers to them, and come back in
+		Assert.assertSame(held, snc.getNode(hash(0)));
+		Assert.assertEquals(4, snc.size());
+		Assert.assertTrue(snc.getStats().getCounter("Evictions") >= 6);
+
+		Assert.assertNull(snc.getNode(hash(10)));
+		Assert.assertEquals(1, snc.getStats().getCounter("Misses"));
+
+		Log.info(Log.FAC_TEST, "Completed testNodeCache");
+	}
+
+	private static byte [] hash(int i) {
+		byte [] hash = new byte[32];
+		for (int b = 0; b < 4; b++)
+			hash[b] = (byte)(i >>> (8 * b));
+		return hash;
+	}
+
+	private static SyncNodeComposite node(int i) {
+		SyncNodeComposite node = new SyncNodeComposite();
+		node._longhash = hash(i);
+		return node;
+	}
+}
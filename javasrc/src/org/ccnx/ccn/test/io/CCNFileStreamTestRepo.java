@@ -21,10 +21,15 @@ package org.ccnx.ccn.test.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
@@ -115,6 +120,63 @@ public class CCNFileStreamTestRepo extends CCNTestBase {
 		Log.info(Log.FAC_TEST, "Completed testRepoFileOutputStream");
 	}
 
+	@Test
+	public void testPositionalRead() throws Exception {
+		Log.info(Log.FAC_TEST, "Started testPositionalRead");
+
+		final byte [] data = new byte[100000 + random.nextInt(50000)];
+		random.nextBytes(data);
+		ContentName fileName = new ContentName(testHelper.getTestNamespace("testPositionalRead"), "positionalFile.bin");
+		RepositoryFileOutputStream rfos = new RepositoryFileOutputStream(fileName, putHandle);
+		rfos.write(data);
+		rfos.close();
+
+		final CCNFileInputStream fis = new CCNFileInputStream(rfos.getBaseName(), getHandle);
+
+		// The whole file, into a buffer with room to spare
+		ByteBuffer all = ByteBuffer.allocate(data.length + 100);
+		Assert.assertEquals(data.length, fis.read(0, all));
+		Assert.assertEquals(data.length, all.position());
+		Assert.assertArrayEquals(data, Arrays.copyOf(all.array(), data.length));
+		Assert.assertEquals(-1, fis.read(data.length, ByteBuffer.allocate(10)));
+
+		// Random ranges from several threads at once
+		final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+		Thread [] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random();
+					try {
+						for (int j = 0; j < 10; j++) {
+							int position = r.nextInt(data.length);
+							ByteBuffer buf = ByteBuffer.allocate(1 + r.nextInt(20000));
+							int read = fis.read(position, buf);
+							int expected = Math.min(buf.capacity(), data.length - position);
+							if (read != expected)
+								failures.add("Read " + read + " at " + position + ", expected " + expected);
+							else if (!Arrays.equals(Arrays.copyOfRange(data, position, position + read), Arrays.copyOf(buf.array(), read)))
+								failures.add("Wrong data read at " + position);
+						}
+					} catch (IOException e) {
+						failures.add(e.toString());
+					}
+				}
+			});
+			readers[i].start();
+		}
+		for (Thread reader : readers)
+			reader.join();
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+
+		// Positional reads don't move the stream
+		CountAndDigest readDigest = readRandomFile(fis);
+		Assert.assertEquals(data.length, readDigest.count());
+		fis.close();
+
+		Log.info(Log.FAC_TEST, "Completed testPositionalRead");
+	}
+
 	public static byte [] writeRandomFile(int bytes, OutputStream out) throws IOException {
 		try {
 			DigestOutputStream dos = new DigestOutputStream(out, MessageDigest.getInstance(CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM));
@@ -23,10 +23,12 @@ import junit.framework.Assert;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.impl.security.crypto.VerificationService;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.CCNInputStream;
 import org.ccnx.ccn.io.CCNVersionedInputStream;
+import org.ccnx.ccn.io.PipelineWindow;
 import org.ccnx.ccn.profiles.SegmentationProfile;
 import org.ccnx.ccn.profiles.VersioningProfile;
 import org.ccnx.ccn.protocol.ContentName;
@@ -133,6 +135,111 @@ public class PipelineTest {
 	}
 	
 	
+	@Test
+	public void testAdaptiveWindowPipeline() {
+		Log.info(Log.FAC_TEST, "Starting testAdaptiveWindowPipeline");
+
+		long received = 0;
+		byte[] bytes = new byte[1024];
+		PipelineWindow window = new PipelineWindow(1, 8, true);
+		
+		try {
+			istream = new CCNInputStream(testName, readHandle);
+			istream.setPipelineWindow(window);
+		} catch (IOException e1) {
+			Log.warning(Log.FAC_TEST, "failed to open stream for pipeline test: "+e1.getMessage());
+			Assert.fail();
+		}
+		
+		while (!istream.eof()) {
+			try {
+				received += istream.read(bytes);
+			} catch (IOException e) {
+				Log.warning(Log.FAC_TEST, "failed to read segments: "+e.getMessage());
+				Assert.fail();
+			}
+		}
+		Log.info(Log.FAC_TEST, "read "+received+" from stream, ended with "+window);
+		Assert.assertTrue(received == bytesWritten);
+		Assert.assertTrue(window.size() > 1);
+		
+		Log.info(Log.FAC_TEST, "Completed testAdaptiveWindowPipeline");
+	}
+	
+	@Test
+	public void testAsyncVerifyPipeline() {
+		Log.info(Log.FAC_TEST, "Starting testAsyncVerifyPipeline");
+
+		long received = 0;
+		byte[] bytes = new byte[1024];
+		
+		// With a wide window, several segments are being verified at once
+		try {
+			istream = new CCNInputStream(testName, readHandle);
+			istream.setPipelineWindow(new PipelineWindow(8));
+			istream.setVerificationService(VerificationService.getDefault());
+		} catch (IOException e1) {
+			Log.warning(Log.FAC_TEST, "failed to open stream for pipeline test: "+e1.getMessage());
+			Assert.fail();
+		}
+		
+		while (!istream.eof()) {
+			try {
+				received += istream.read(bytes);
+			} catch (IOException e) {
+				Log.warning(Log.FAC_TEST, "failed to read segments: "+e.getMessage());
+				Assert.fail();
+			}
+		}
+		Log.info(Log.FAC_TEST, "read "+received+" from stream");
+		Assert.assertTrue(received == bytesWritten);
+		
+		Log.info(Log.FAC_TEST, "Completed testAsyncVerifyPipeline");
+	}
+	
+	@Test
+	public void testWindowShrinksOnTimeout() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testWindowShrinksOnTimeout");
+
+		// A stream with a segment that never arrives
+		ContentName holeName = VersioningProfile.addVersion(new ContentName(testHelper.getTestNamespace("pipelineTest"), "PipelineHole"));
+		long missing = segments / 2;
+		for (int i = 0; i < segments; i++) {
+			if (i == missing)
+				continue;
+			ContentObject object = ContentObject.buildContentObject(SegmentationProfile.segmentName(holeName, i),
+					("this is segment "+i+" of "+segments).getBytes(), null, null,
+					SegmentationProfile.getSegmentNumberNameComponent(segments-1));
+			writeHandle.put(object);
+		}
+
+		final int [] lost = new int[1];
+		PipelineWindow window = new PipelineWindow(1, 8, true) {
+			@Override
+			public synchronized void segmentLost(double rtt) {
+				lost[0]++;
+				super.segmentLost(rtt);
+			}
+		};
+		CCNInputStream holeStream = new CCNInputStream(holeName, readHandle);
+		holeStream.setPipelineWindow(window);
+		holeStream.setTimeout(2000);
+		
+		byte[] bytes = new byte[1024];
+		try {
+			while (!holeStream.eof())
+				holeStream.read(bytes);
+			Assert.fail("read past a missing segment");
+		} catch (IOException e) {
+			Log.info(Log.FAC_TEST, "read failed as expected: "+e.getMessage());
+		}
+		Log.info(Log.FAC_TEST, "window lost "+lost[0]+" segments, ended with "+window);
+		Assert.assertTrue(lost[0] > 0);
+		holeStream.close();
+		
+		Log.info(Log.FAC_TEST, "Completed testWindowShrinksOnTimeout");
+	}
+	
 	//skip
 	@Test
 	public void testSkipWithPipeline() {
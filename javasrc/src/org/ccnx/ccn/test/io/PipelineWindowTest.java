@@ -0,0 +1,94 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.PipelineWindow;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the growth and shrinkage of pipeline windows
+ */
+public class PipelineWindowTest {
+
+	@Test
+	public void testFixedWindow() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testFixedWindow");
+
+		PipelineWindow window = new PipelineWindow(4);
+		Assert.assertFalse(window.isAdaptive());
+		for (int i = 0; i < 100; i++)
+			window.segmentReceived();
+		Assert.assertEquals(4, window.size());
+		window.segmentLost(-1);
+		Assert.assertEquals(4, window.size());
+
+		Log.info(Log.FAC_TEST, "Completed testFixedWindow");
+	}
+
+	@Test
+	public void testSlowStart() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSlowStart");
+
+		PipelineWindow window = new PipelineWindow(2, 32, true);
+		Assert.assertEquals(2, window.size());
+		for (int i = 0; i < 10; i++)
+			window.segmentReceived();
+		Assert.assertEquals(12, window.size());
+		for (int i = 0; i < 100; i++)
+			window.segmentReceived();
+		Assert.assertEquals(32, window.size());
+
+		// After a loss growth is additive - one segment per window of segments
+		window.segmentLost(-1);
+		Assert.assertEquals(16, window.size());
+		for (int i = 0; i < 15; i++)
+			window.segmentReceived();
+		Assert.assertEquals(16, window.size());
+		for (int i = 0; i < 5; i++)
+			window.segmentReceived();
+		Assert.assertEquals(17, window.size());
+
+		Log.info(Log.FAC_TEST, "Completed testSlowStart");
+	}
+
+	@Test
+	public void testDecrease() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDecrease");
+
+		PipelineWindow window = new PipelineWindow(3, 64, false);
+		for (int i = 0; i < 100; i++)
+			window.segmentReceived();
+		int grown = window.size();
+		Assert.assertTrue(grown > 3 && grown < 64);
+
+		// Losses within a round trip are one congestion event
+		window.segmentLost(60000);
+		Assert.assertEquals(grown / 2, window.size());
+		window.segmentLost(60000);
+		Assert.assertEquals(grown / 2, window.size());
+
+		// Never below the minimum
+		for (int i = 0; i < 10; i++)
+			window.segmentLost(-1);
+		Assert.assertEquals(3, window.size());
+
+		Log.info(Log.FAC_TEST, "Completed testDecrease");
+	}
+}
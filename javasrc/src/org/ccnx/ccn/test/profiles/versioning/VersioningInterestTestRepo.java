@@ -27,6 +27,7 @@ import junit.framework.Assert;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.impl.CCNFlowControl.SaveType;
+import org.ccnx.ccn.impl.CCNStatsRegistry;
 import org.ccnx.ccn.io.content.CCNStringObject;
 import org.ccnx.ccn.profiles.VersioningProfile;
 import org.ccnx.ccn.profiles.versioning.VersionNumber;
@@ -191,6 +192,24 @@ public class VersioningInterestTestRepo {
 		
 		System.out.println("****** testThreeNamesFourListener done");
 	}
+
+	/**
+	 * The state kept for each basename publishes its counters while it is in use
+	 */
+	@Test
+	public void testStatsRegistration() throws Exception {
+		System.out.println("****** testStatsRegistration starting");
+		ContentName base = new ContentName(prefix, String.format("content_%016X", _rnd.nextLong()));
+		TestListener listener = new TestListener();
+		VersioningInterest vi = new VersioningInterest(recvhandle);
+
+		vi.expressInterest(base, listener);
+		Assert.assertTrue(CCNStatsRegistry.getDefault().toPrometheus().contains(CCNStatsRegistry.METRIC_PREFIX + "basename_state_"));
+
+		vi.close();
+		Assert.assertFalse(CCNStatsRegistry.getDefault().toPrometheus().contains(CCNStatsRegistry.METRIC_PREFIX + "basename_state_"));
+		System.out.println("****** testStatsRegistration done");
+	}
 	
 	// ========================================================
 	
@@ -17,6 +17,8 @@
 
 package org.ccnx.ccn.test.protocol;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -26,6 +28,9 @@ import java.util.Arrays;
 import java.util.Date;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.encoding.TextXMLCodec;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.protocol.CCNTime;
@@ -155,6 +160,75 @@ public class ContentObjectTest {
 		Log.info(Log.FAC_TEST, "Completed testDecodeInputStream");
 	}
 	
+	@Test
+	public void testEncodeBuffer() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testEncodeBuffer");
+
+		ContentObject co = new ContentObject(name, auth, document3, pair.getPrivate());
+		XMLEncodableTester.encodeDecodeBufferTest("ContentObject", co, new ContentObject());
+		ContentObject coempty = new ContentObject(name, auth, null, pair.getPrivate());
+		XMLEncodableTester.encodeDecodeBufferTest("ContentObject - empty content", coempty, new ContentObject());
+
+		// Bigger than the pooled buffer starts out, and prepareContent uses
+		// the pooled buffer too
+		byte [] big = new byte[5000];
+		Arrays.fill(big, (byte)7);
+		ContentObject cobig = new ContentObject(name, auth, big, pair.getPrivate());
+		XMLEncodableTester.encodeDecodeBufferTest("ContentObject - big", cobig, new ContentObject());
+		Assert.assertTrue(cobig.verify(pair.getPublic()));
+
+		Log.info(Log.FAC_TEST, "Completed testEncodeBuffer");
+	}
+
+	@Test
+	public void testWireEncoding() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testWireEncoding");
+
+		ContentObject co = new ContentObject(name, auth, document3, pair.getPrivate());
+		byte [] encoded = co.encode();
+		byte [] signed = ContentObject.prepareContent(name, auth, document3);
+		Assert.assertTrue(Arrays.equals(signed, co.prepareContent()));
+		Assert.assertTrue(Arrays.equals(CCNDigestHelper.digest(encoded), co.digest()));
+
+		// Callers get their own copy
+		encoded[encoded.length - 2]++;
+		Assert.assertFalse(Arrays.equals(encoded, co.encode()));
+		encoded[encoded.length - 2]--;
+
+		// Decoded in place we keep the received bytes
+		BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+		decoder.beginDecoding(ByteBuffer.wrap(encoded));
+		ContentObject received = new ContentObject();
+		received.decode(decoder);
+		Assert.assertEquals(co, received);
+		Assert.assertTrue(Arrays.equals(encoded, received.encode()));
+		Assert.assertEquals(ByteBuffer.wrap(encoded), received.encodeShared());
+		Assert.assertEquals(encoded.length, received.encodedLength());
+		Assert.assertTrue(Arrays.equals(signed, received.prepareContent()));
+		Assert.assertTrue(Arrays.equals(co.digest(), received.digest()));
+		Assert.assertTrue(received.verify(pair.getPublic()));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		received.encode(baos);
+		Assert.assertTrue(Arrays.equals(encoded, baos.toByteArray()));
+
+		// and a text encoding still works
+		ContentObject textDecoded = new ContentObject();
+		textDecoded.decode(received.encode(TextXMLCodec.codecName()), TextXMLCodec.codecName());
+		Assert.assertEquals(co, textDecoded);
+
+		// A new signature means a new encoding
+		byte [] oldDigest = received.digest();
+		ContentObject other = new ContentObject(name, auth, new byte[0], pair.getPrivate());
+		received.setSignature(other.signature());
+		Assert.assertFalse(Arrays.equals(encoded, received.encode()));
+		Assert.assertFalse(Arrays.equals(oldDigest, received.digest()));
+		Assert.assertFalse(received.verify(pair.getPublic()));
+		received.sign(pair.getPrivate());
+		Assert.assertTrue(received.verify(pair.getPublic()));
+
+		Log.info(Log.FAC_TEST, "Completed testWireEncoding");
+	}
+
 	@Test
 	public void testImmutable() {
 		Log.info(Log.FAC_TEST, "Starting testImmutable");
@@ -97,7 +97,7 @@ public class InterestTest extends CCNTestBase {
 	}
 
 	@Test
-	public void testSimpleInterest() {
+	public void testSimpleInterest() throws Exception {
 		Log.info(Log.FAC_TEST, "Starting testSimpleInterest");
 
 		Interest plain = new Interest(tcn);
@@ -109,6 +109,7 @@ public class InterestTest extends CCNTestBase {
 		Interest nplainDec = new Interest();
 		Interest nplainBDec = new Interest();
 		XMLEncodableTester.encodeDecodeTest("FancyInterest", nplain, nplainDec, nplainBDec);
+		XMLEncodableTester.encodeDecodeBufferTest("FancyInterest", nplain, new Interest());
 		
 		Interest opPlain = new Interest(tcn);
 		opPlain.childSelector(Interest.CHILD_SELECTOR_RIGHT);
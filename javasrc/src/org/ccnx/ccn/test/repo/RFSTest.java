@@ -20,12 +20,22 @@ package org.ccnx.ccn.test.repo;
 import static org.ccnx.ccn.profiles.CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.RepositoryContentCache;
+import org.ccnx.ccn.impl.repo.RepositoryDataHandler;
 import org.ccnx.ccn.impl.repo.RepositoryException;
+import org.ccnx.ccn.impl.repo.RepositoryServer;
 import org.ccnx.ccn.impl.repo.RepositoryStore;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
 import org.ccnx.ccn.impl.support.DataUtils;
@@ -125,6 +135,535 @@ public class RFSTest extends RepoTestBase {
 		Log.info(Log.FAC_TEST, "Completed testBulkImport");
 	}
 	
+	/**
+	 * Check that the index is rebuilt correctly from a checkpoint plus the data written after it,
+	 * and from the data files alone when the checkpoint is bad
+	 */
+	@Test
+	public void testIndexCheckpoint() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testIndexCheckpoint");
+
+		String repoDir = _fileTestDir + "checkpoint";
+		DataUtils.deleteDirectory(new File(repoDir));
+		File checkpoint = new File(repoDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+					LogStructRepoStoreProfile.INDEX_CHECKPOINT_FILE);
+		File saved = new File(repoDir, "savedCheckpoint");
+		ContentName name1 = ContentName.fromNative("/repoTest/checkpoint/before");
+		ContentName name2 = ContentName.fromNative("/repoTest/checkpoint/after");
+		
+		RepositoryStore repo = new LogStructRepoStore();
+		repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+		repo.saveContent(ContentObject.buildContentObject(name1, "before".getBytes()));
+		repo.shutDown();
+		Assert.assertTrue(checkpoint.exists());
+		Assert.assertTrue(checkpoint.renameTo(saved));
+		
+		repo = new LogStructRepoStore();
+		repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "before");
+		repo.saveContent(ContentObject.buildContentObject(name2, "after".getBytes()));
+		repo.shutDown();
+		
+		// Go back to the checkpoint from before name2 was written. name2 has to come from the tail of the file.
+		Assert.assertTrue(checkpoint.delete());
+		Assert.assertTrue(saved.renameTo(checkpoint));
+		repo = new LogStructRepoStore();
+		repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "before");
+		checkData(repo, name2, "after");
+		repo.shutDown();
+		
+		// A corrupted checkpoint must be ignored
+		FileOutputStream fos = new FileOutputStream(checkpoint, true);
+		fos.write("garbage".getBytes());
+		fos.close();
+		repo = new LogStructRepoStore();
+		repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+		checkData(repo, name1, "before");
+		checkData(repo, name2, "after");
+		repo.shutDown();
+		
+		Log.info(Log.FAC_TEST, "Completed testIndexCheckpoint");
+	}
+	
+	/**
+	 * Read content from a file that isn't being written using the memory mapped read path
+	 */
+	@Test
+	public void testMappedReads() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testMappedReads");
+
+		String repoDir = _fileTestDir + "mmap";
+		String importRepoDir = _fileTestDir + "mmap2";
+		DataUtils.deleteDirectory(new File(repoDir));
+		DataUtils.deleteDirectory(new File(importRepoDir));
+		
+		// Make a file to import - once imported it isn't the file the repo is writing
+		RepositoryStore repo = new LogStructRepoStore();
+		repo.initialize(importRepoDir, null, Repository2, _globalPrefix, null, null);
+		ContentName name = ContentName.fromNative("/repoTest/mmap");
+		for (int i = 0; i < 10; i++)
+			repo.saveContent(ContentObject.buildContentObject(new ContentName(name, "" + i), ("mapped" + i).getBytes()));
+		repo.shutDown();
+		File importDir = new File(repoDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.REPO_IMPORT_DIR);
+		Assert.assertTrue(importDir.mkdirs());
+		File importFile = new File(importRepoDir, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "1");
+		Assert.assertTrue(importFile.renameTo(new File(importDir, "MappedReadTest")));
+		
+		boolean mmap = SystemConfiguration.REPO_MMAP_READS;
+		SystemConfiguration.REPO_MMAP_READS = true;
+		try {
+			repo = new LogStructRepoStore();
+			repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+			Assert.assertTrue(repo.bulkImport("MappedReadTest"));
+			ContentName written = ContentName.fromNative("/repoTest/mmap/written");
+			repo.saveContent(ContentObject.buildContentObject(written, "written".getBytes()));
+			for (int i = 9; i >= 0; i--)
+				checkData(repo, new ContentName(name, "" + i), "mapped" + i);
+			checkData(repo, written, "written");
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_MMAP_READS = mmap;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testMappedReads");
+	}
+	
+	/**
+	 * Compact a sealed file containing a duplicate
+	 */
+	@Test
+	public void testCompaction() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testCompaction");
+
+		String repoDir = _fileTestDir + "compact";
+		String importRepoDir = _fileTestDir + "compact2";
+		DataUtils.deleteDirectory(new File(repoDir));
+		DataUtils.deleteDirectory(new File(importRepoDir));
+		
+		// Make a file with a duplicate in it to import, so that it is sealed
+		RepositoryStore repo = new LogStructRepoStore();
+		repo.initialize(importRepoDir, null, Repository2, _globalPrefix, null, null);
+		ContentName xName = ContentName.fromNative("/repoTest/compact/x");
+		ContentName yName = ContentName.fromNative("/repoTest/compact/y");
+		ContentObject x = ContentObject.buildContentObject(xName, "compactX".getBytes());
+		repo.saveContent(x);
+		repo.saveContent(x);
+		repo.saveContent(ContentObject.buildContentObject(yName, "compactY".getBytes()));
+		repo.shutDown();
+		File importDir = new File(repoDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.REPO_IMPORT_DIR);
+		Assert.assertTrue(importDir.mkdirs());
+		File importFile = new File(importRepoDir, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "1");
+		long importLength = importFile.length();
+		Assert.assertTrue(importFile.renameTo(new File(importDir, "CompactionTest")));
+		
+		int threshold = SystemConfiguration.REPO_COMPACT_THRESHOLD;
+		SystemConfiguration.REPO_COMPACT_THRESHOLD = 1;
+		try {
+			LogStructRepoStore lrepo = new LogStructRepoStore();
+			lrepo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+			Assert.assertTrue(lrepo.bulkImport("CompactionTest"));
+			Assert.assertEquals(1, lrepo.compact());
+			Assert.assertEquals(1, lrepo.getStats().getCounter("CompactionFiles"));
+			Assert.assertEquals(2, lrepo.getStats().getCounter("CompactionObjectsCopied"));
+			checkData(lrepo, xName, "compactX");
+			checkData(lrepo, yName, "compactY");
+			
+			// Nothing left to compact
+			Assert.assertEquals(0, lrepo.compact());
+			File compacted = new File(repoDir, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "3");
+			Assert.assertTrue(compacted.length() < importLength);
+			Assert.assertFalse(new File(repoDir, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "2").exists());
+			lrepo.shutDown();
+			
+			repo = new LogStructRepoStore();
+			repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+			checkData(repo, xName, "compactX");
+			checkData(repo, yName, "compactY");
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_COMPACT_THRESHOLD = threshold;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testCompaction");
+	}
+	
+	/**
+	 * Save content in batches with each of the sync modes
+	 */
+	@Test
+	public void testBatchSave() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBatchSave");
+
+		String repoDir = _fileTestDir + "batch";
+		DataUtils.deleteDirectory(new File(repoDir));
+		String syncMode = SystemConfiguration.REPO_SYNC_MODE;
+		RepositoryStore repo;
+		try {
+			String [] modes = {"none", "batch", "periodic"};
+			for (String mode : modes) {
+				SystemConfiguration.REPO_SYNC_MODE = mode;
+				repo = new LogStructRepoStore();
+				repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+				ArrayList<ContentObject> batch = new ArrayList<ContentObject>();
+				for (int i = 0; i < 20; i++) {
+					ContentName name = ContentName.fromNative("/repoTest/batch/" + mode + "/" + i);
+					batch.add(ContentObject.buildContentObject(name, (mode + i).getBytes()));
+				}
+				List<NameEnumerationResponse> ners = repo.saveContent(batch);
+				Assert.assertEquals(batch.size(), ners.size());
+				for (int i = 0; i < 20; i++) {
+					Assert.assertNotNull(ners.get(i));
+					checkData(repo, ContentName.fromNative("/repoTest/batch/" + mode + "/" + i), mode + i);
+				}
+				repo.shutDown();
+			}
+			
+			// Everything should still be there after a restart
+			repo = new LogStructRepoStore();
+			repo.initialize(repoDir, null, _repoName, _globalPrefix, null, null);
+			for (String mode : modes) {
+				for (int i = 0; i < 20; i++)
+					checkData(repo, ContentName.fromNative("/repoTest/batch/" + mode + "/" + i), mode + i);
+			}
+			repo.shutDown();
+		} finally {
+			SystemConfiguration.REPO_SYNC_MODE = syncMode;
+		}
+		
+		Log.info(Log.FAC_TEST, "Completed testBatchSave");
+	}
+	
+	/**
+	 * A data handler whose prepare stage can be held up, and which records the order
+	 * objects are followed up in
+	 */
+	protected static class TestDataHandler extends RepositoryDataHandler {
+		protected final CountDownLatch _gate;
+		protected final Random _rnd = new Random();
+		protected final ArrayList<ContentName> _followedUp = new ArrayList<ContentName>();
+
+		public TestDataHandler(RepositoryServer server, int shards, long throttleBytes, CountDownLatch gate) {
+			super(server, shards, throttleBytes);
+			_gate = gate;
+		}
+
+		@Override
+		protected void prepare(ContentObject co) {
+			try {
+				_gate.await();
+				Thread.sleep(_rnd.nextInt(3));
+			} catch (InterruptedException e) {}
+			super.prepare(co);
+		}
+
+		@Override
+		protected void followUp(ContentObject co, NameEnumerationResponse ner) {
+			super.followUp(co, ner);
+			synchronized (_followedUp) {
+				_followedUp.add(co.name());
+				_followedUp.notifyAll();
+			}
+		}
+
+		public boolean waitForFollowUps(int count, long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			synchronized (_followedUp) {
+				while (_followedUp.size() < count && System.currentTimeMillis() < end)
+					_followedUp.wait(end - System.currentTimeMillis());
+				return _followedUp.size() >= count;
+			}
+		}
+
+		public void waitForEmpty(long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (getCurrentQueueSize() > 0 && System.currentTimeMillis() < end)
+				Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * The segments of a stream reach the store, and are followed up, in the order they arrived
+	 * even though streams are prepared in parallel
+	 */
+	@Test
+	public void testDataHandlerOrdering() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDataHandlerOrdering");
+
+		initRepoLog();
+		RepositoryServer server = new RepositoryServer(repolog);
+		TestDataHandler handler = new TestDataHandler(server, 3, Long.MAX_VALUE, new CountDownLatch(0));
+		new Thread(handler, "testDataHandlerOrdering").start();
+
+		int streams = 6;
+		int segments = 25;
+		ContentName [] bases = new ContentName[streams];
+		for (int s = 0; s < streams; s++)
+			bases[s] = ContentName.fromNative("/repoTest/dataHandler/order/stream" + s);
+		for (int i = 0; i < segments; i++) {
+			for (int s = 0; s < streams; s++) {
+				ContentName name = SegmentationProfile.segmentName(bases[s], i);
+				handler.add(ContentObject.buildContentObject(name, ("segment " + i).getBytes()));
+			}
+		}
+		Assert.assertTrue(handler.waitForFollowUps(streams * segments, SystemConfiguration.EXTRA_LONG_TIMEOUT * 2));
+
+		long [] last = new long[streams];
+		Arrays.fill(last, -1);
+		synchronized (handler._followedUp) {
+			for (ContentName name : handler._followedUp) {
+				int s = Arrays.asList(bases).indexOf(SegmentationProfile.segmentRoot(name));
+				long segment = SegmentationProfile.getSegmentNumber(name);
+				Assert.assertEquals(last[s] + 1, segment);
+				last[s] = segment;
+			}
+		}
+		for (int s = 0; s < streams; s++)
+			checkData(repolog, SegmentationProfile.segmentName(bases[s], segments - 1), "segment " + (segments - 1));
+
+		handler.shutdown();
+		repolog.shutDown();
+		Log.info(Log.FAC_TEST, "Completed testDataHandlerOrdering");
+	}
+
+	/**
+	 * Ingest is throttled once the bytes waiting to be stored pass the limit, and not released
+	 * until they fall below the low water mark
+	 */
+	@Test
+	public void testDataHandlerThrottle() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDataHandlerThrottle");
+
+		initRepoLog();
+		final ArrayList<Boolean> throttles = new ArrayList<Boolean>();
+		final ArrayList<Long> throttleBytes = new ArrayList<Long>();
+		final TestDataHandler [] handler = new TestDataHandler[1];
+		RepositoryServer server = new RepositoryServer(repolog) {
+			@Override
+			public void setThrottle(boolean throttle) {
+				if (null != handler[0]) {
+					throttles.add(throttle);
+					throttleBytes.add(handler[0].getCurrentQueueBytes());
+				}
+				super.setThrottle(throttle);
+			}
+		};
+		long size = 100 + RepositoryDataHandler.OBJECT_OVERHEAD;
+		long limit = 4 * size;
+		CountDownLatch gate = new CountDownLatch(1);
+		handler[0] = new TestDataHandler(server, 2, limit, gate);
+		new Thread(handler[0], "testDataHandlerThrottle").start();
+
+		// Nothing is stored while the gate is shut. Reaching the limit isn't enough to throttle.
+		byte [] content = new byte[(int)(size - RepositoryDataHandler.OBJECT_OVERHEAD)];
+		for (int i = 0; i < 4; i++)
+			handler[0].add(ContentObject.buildContentObject(ContentName.fromNative("/repoTest/dataHandler/throttle/" + i), content));
+		Assert.assertFalse(server.getThrottle());
+		Assert.assertTrue(throttles.isEmpty());
+
+		handler[0].add(ContentObject.buildContentObject(ContentName.fromNative("/repoTest/dataHandler/throttle/4"), content));
+		Assert.assertTrue(server.getThrottle());
+		for (int i = 5; i < 10; i++)
+			handler[0].add(ContentObject.buildContentObject(ContentName.fromNative("/repoTest/dataHandler/throttle/" + i), content));
+		Assert.assertEquals(1, throttles.size());
+		Assert.assertEquals(5 * size, (long)throttleBytes.get(0));
+
+		// Released once below the low water mark, which is between 3 and 4 objects
+		gate.countDown();
+		handler[0].waitForEmpty(SystemConfiguration.EXTRA_LONG_TIMEOUT);
+		Assert.assertEquals(0, handler[0].getCurrentQueueBytes());
+		Assert.assertFalse(server.getThrottle());
+		Assert.assertEquals(2, throttles.size());
+		Assert.assertFalse(throttles.get(1));
+		Assert.assertEquals(3 * size, (long)throttleBytes.get(1));
+
+		handler[0].shutdown();
+		repolog.shutDown();
+		Log.info(Log.FAC_TEST, "Completed testDataHandlerThrottle");
+	}
+
+	/**
+	 * Shutdown stores everything already handed to the data handler before it returns, and
+	 * doesn't wait for the store thread to time out when there is nothing to store
+	 */
+	@Test
+	public void testDataHandlerShutdown() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDataHandlerShutdown");
+
+		initRepoLog();
+		RepositoryServer server = new RepositoryServer(repolog);
+		CountDownLatch gate = new CountDownLatch(1);
+		final TestDataHandler handler = new TestDataHandler(server, 2, Long.MAX_VALUE, gate);
+		new Thread(handler, "testDataHandlerShutdown").start();
+		for (int i = 0; i < 10; i++) {
+			ContentName name = ContentName.fromNative("/repoTest/dataHandler/shutdown/" + i);
+			handler.add(ContentObject.buildContentObject(name, ("shutdown " + i).getBytes()));
+		}
+
+		Thread shutdown = new Thread() {
+			public void run() {
+				handler.shutdown();
+			}
+		};
+		shutdown.start();
+		Thread.sleep(SystemConfiguration.SHORT_TIMEOUT);
+		Assert.assertTrue(shutdown.isAlive());
+		gate.countDown();
+		shutdown.join(SystemConfiguration.EXTRA_LONG_TIMEOUT);
+		Assert.assertFalse(shutdown.isAlive());
+		Assert.assertEquals(0, handler.getCurrentQueueSize());
+		for (int i = 0; i < 10; i++)
+			checkData(repolog, ContentName.fromNative("/repoTest/dataHandler/shutdown/" + i), "shutdown " + i);
+
+		// Content that comes in after shutdown isn't counted as waiting
+		handler.add(ContentObject.buildContentObject(ContentName.fromNative("/repoTest/dataHandler/shutdown/late"), "late".getBytes()));
+		Assert.assertEquals(0, handler.getCurrentQueueSize());
+
+		TestDataHandler idle = new TestDataHandler(server, 1, Long.MAX_VALUE, new CountDownLatch(0));
+		new Thread(idle, "testDataHandlerShutdown idle").start();
+		Thread.sleep(50);
+		long start = System.currentTimeMillis();
+		idle.shutdown();
+		Assert.assertTrue(System.currentTimeMillis() - start < SystemConfiguration.MEDIUM_TIMEOUT / 2);
+
+		repolog.shutDown();
+		Log.info(Log.FAC_TEST, "Completed testDataHandlerShutdown");
+	}
+
+	/**
+	 * When a batch can't be saved, its objects are saved one at a time and only those
+	 * that couldn't be saved are lost
+	 */
+	@Test
+	public void testDataHandlerSaveFailure() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDataHandlerSaveFailure");
+
+		final ContentName bad = ContentName.fromNative("/repoTest/dataHandler/failure/bad");
+		RepositoryStore failing = new LogStructRepoStore() {
+			@Override
+			public List<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+				throw new RepositoryException("Batch save failed");
+			}
+
+			@Override
+			public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException {
+				if (content.name().equals(bad))
+					throw new RepositoryException("Save failed");
+				return super.saveContent(content);
+			}
+		};
+		failing.initialize(_fileTestDir, null, _repoName, _globalPrefix, null, null);
+		RepositoryServer server = new RepositoryServer(failing);
+		CountDownLatch gate = new CountDownLatch(1);
+		TestDataHandler handler = new TestDataHandler(server, 1, Long.MAX_VALUE, gate);
+		new Thread(handler, "testDataHandlerSaveFailure").start();
+
+		// Hold the objects back so they are saved as one batch
+		for (int i = 0; i < 5; i++) {
+			ContentName name = ContentName.fromNative("/repoTest/dataHandler/failure/" + i);
+			handler.add(ContentObject.buildContentObject(name, ("failure " + i).getBytes()));
+		}
+		handler.add(ContentObject.buildContentObject(bad, "bad".getBytes()));
+		gate.countDown();
+
+		Assert.assertTrue(handler.waitForFollowUps(5, SystemConfiguration.EXTRA_LONG_TIMEOUT));
+		handler.waitForEmpty(SystemConfiguration.EXTRA_LONG_TIMEOUT);
+		Assert.assertEquals(0, handler.getCurrentQueueSize());
+		for (int i = 0; i < 5; i++)
+			checkData(failing, ContentName.fromNative("/repoTest/dataHandler/failure/" + i), "failure " + i);
+		Assert.assertNull(failing.getContent(new Interest(bad)));
+		Thread.sleep(SystemConfiguration.SHORT_TIMEOUT);
+		synchronized (handler._followedUp) {
+			Assert.assertEquals(5, handler._followedUp.size());
+			Assert.assertFalse(handler._followedUp.contains(bad));
+		}
+
+		handler.shutdown();
+		failing.shutDown();
+		Log.info(Log.FAC_TEST, "Completed testDataHandlerSaveFailure");
+	}
+
+	/**
+	 * Test the cache of content answering interests
+	 */
+	@Test
+	public void testContentCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testContentCache");
+
+		// Room for 10 small objects, 8 of them protected
+		RepositoryContentCache cache = new RepositoryContentCache(10 * (RepositoryContentCache.ENTRY_OVERHEAD + 10));
+		ContentName hotName = ContentName.fromNative("/repoTest/cache/hot");
+		ContentObject hot = ContentObject.buildContentObject(hotName, "hot".getBytes());
+		Interest hotInterest = new Interest(hotName);
+		Assert.assertNull(cache.get(hotInterest));
+		cache.put(hotInterest, hot, cache.generation(hotInterest));
+		Assert.assertSame(hot, cache.get(hotInterest));
+
+		// Interests with exclusions or child selectors aren't cached
+		Interest selective = new Interest(hotName);
+		selective.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		Assert.assertNull(cache.get(selective));
+		cache.put(selective, hot, cache.generation(selective));
+		Assert.assertNull(cache.get(selective));
+
+		// Segment interests are answered, for the publisher asked for
+		ContentName segmentName = SegmentationProfile.segmentName(ContentName.fromNative("/repoTest/cache/file"), 0);
+		ContentObject segment = ContentObject.buildContentObject(segmentName, "segment".getBytes());
+		PublisherPublicKeyDigest publisher = segment.signedInfo().getPublisherKeyID();
+		Interest segmentInterest = Interest.lower(segmentName, 1, publisher);
+		cache.put(segmentInterest, segment, cache.generation(segmentInterest));
+		Assert.assertSame(segment, cache.get(Interest.lower(segmentName, 1, publisher)));
+		Assert.assertNull(cache.get(Interest.lower(segmentName, 1, new PublisherPublicKeyDigest(new byte[32]))));
+
+		// A plain interest for the segment could match more than the segment interest did, but
+		// once we know its answer the segment interest is answered from it too
+		Interest segmentPrefix = new Interest(segmentName);
+		Assert.assertNull(cache.get(segmentPrefix));
+		cache.put(segmentPrefix, segment, cache.generation(segmentPrefix));
+		Assert.assertSame(segment, cache.get(segmentPrefix));
+		Assert.assertSame(segment, cache.get(segmentInterest));
+		Assert.assertEquals(2, cache.size());
+
+		// Content read once doesn't push out content asked for again
+		for (int i = 0; i < 50; i++) {
+			ContentName name = ContentName.fromNative("/repoTest/cache/scan/" + i);
+			Interest interest = new Interest(name);
+			cache.put(interest, ContentObject.buildContentObject(name, "scan".getBytes()), cache.generation(interest));
+		}
+		Assert.assertSame(hot, cache.get(hotInterest));
+		Assert.assertTrue(cache.size() <= 10);
+
+		// The same content answering another interest is only held once
+		Interest prefixInterest = new Interest(ContentName.fromNative("/repoTest/cache"));
+		int size = cache.size();
+		cache.put(prefixInterest, hot, cache.generation(prefixInterest));
+		Assert.assertSame(hot, cache.get(prefixInterest));
+		Assert.assertEquals(size, cache.size());
+
+		// Saving under a name invalidates the answers for its prefixes
+		cache.invalidate(ContentName.fromNative("/repoTest/cache/new"));
+		Assert.assertNull(cache.get(prefixInterest));
+		Assert.assertSame(hot, cache.get(hotInterest));
+
+		// Content read before an invalidation under the interest's name isn't cached after it,
+		// but an invalidation elsewhere doesn't matter
+		long generation = cache.generation(prefixInterest);
+		cache.invalidate(ContentName.fromNative("/repoTest/other"));
+		cache.put(prefixInterest, hot, generation);
+		Assert.assertSame(hot, cache.get(prefixInterest));
+		generation = cache.generation(prefixInterest);
+		cache.invalidate(ContentName.fromNative("/repoTest/cache/newer"));
+		cache.put(prefixInterest, hot, generation);
+		Assert.assertNull(cache.get(prefixInterest));
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.bytes());
+		Assert.assertNull(cache.get(hotInterest));
+
+		Log.info(Log.FAC_TEST, "Completed testContentCache");
+	}
+
 	/**
 	 * Tests policy file parsing
 	 */
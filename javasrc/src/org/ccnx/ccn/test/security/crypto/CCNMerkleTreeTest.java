@@ -25,6 +25,9 @@ import java.util.Random;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTreeBuilder;
+import org.ccnx.ccn.impl.security.crypto.ParallelDigester;
+import org.ccnx.ccn.impl.security.crypto.VerifiedRootCache;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.profiles.SegmentationProfile;
@@ -121,6 +124,86 @@ public class CCNMerkleTreeTest {
 		Log.info(Log.FAC_TEST, "Completed testMerkleTreeBuf");
 	}
 
+	@Test
+	public void testTreeBuilder() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testTreeBuilder");
+
+		ParallelDigester parallel = new ParallelDigester(4);
+		ParallelDigester.setDefault(parallel);
+		try {
+			ContentName theName = VersioningProfile.addVersion(new ContentName(baseName, "testTreeBuilder.txt"), _rand.nextInt(1000));
+			ContentObject [] cos = makeContent(theName, 300, 512, true);
+			ContentObject [] copies = new ContentObject[cos.length];
+
+			CCNMerkleTreeBuilder builder = new CCNMerkleTreeBuilder();
+			for (int i = 0; i < cos.length; i++) {
+				builder.add(cos[i]);
+				copies[i] = new ContentObject(cos[i].name(), cos[i].signedInfo(), cos[i].content(), (Signature)null);
+			}
+			Assert.assertEquals(cos.length, builder.size());
+			CCNMerkleTree built = builder.build(pair.getPrivate());
+			Assert.assertEquals(0, builder.size());
+
+			// Same tree as building it all at once
+			CCNMerkleTree tree = new CCNMerkleTree(copies, pair.getPrivate());
+			Assert.assertArrayEquals(tree.root(), built.root());
+			for (int i = 0; i < cos.length; i++) {
+				Assert.assertNotNull(cos[i].signature());
+				Assert.assertEquals(copies[i].signature(), cos[i].signature());
+				Assert.assertTrue("segment " + i, cos[i].verify(pair.getPublic()));
+			}
+		} finally {
+			ParallelDigester.setDefault(null);
+			parallel.shutdown();
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testTreeBuilder");
+	}
+
+	@Test
+	public void testVerifiedRootCache() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testVerifiedRootCache");
+
+		ContentName theName = VersioningProfile.addVersion(new ContentName(baseName, "testRootCache.txt"), _rand.nextInt(1000));
+		ContentObject [] cos = makeContent(theName, 16, 256, false);
+		CCNMerkleTree tree = new CCNMerkleTree(cos, pair.getPrivate());
+		tree.setSignatures();
+
+		VerifiedRootCache cache = VerifiedRootCache.getDefault();
+		long hits = cache.getStats().getCounter("Hits");
+		long misses = cache.getStats().getCounter("Misses");
+		for (ContentObject co : cos)
+			Assert.assertTrue(co.verify(pair.getPublic()));
+		// Only the first segment needed its signature checked
+		Assert.assertEquals(misses + 1, cache.getStats().getCounter("Misses"));
+		Assert.assertEquals(hits + cos.length - 1, cache.getStats().getCounter("Hits"));
+
+		// A segment whose path doesn't lead to a verified root still fails
+		byte [] forged = cos[5].content().clone();
+		forged[0]++;
+		ContentObject bad = new ContentObject(cos[5].name(), cos[5].signedInfo(), forged, cos[5].signature());
+		Assert.assertFalse(bad.verify(pair.getPublic()));
+
+		// A root verified with one key isn't taken as verified with another
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(512);
+		Assert.assertFalse(cos[1].verify(kpg.generateKeyPair().getPublic()));
+
+		// Roots are discarded least recently used first
+		VerifiedRootCache small = new VerifiedRootCache(2);
+		byte [][] roots = new byte[][]{{1}, {2}, {3}};
+		small.addVerified(roots[0], pair.getPublic());
+		small.addVerified(roots[1], pair.getPublic());
+		Assert.assertTrue(small.isVerified(roots[0], pair.getPublic()));
+		small.addVerified(roots[2], pair.getPublic());
+		Assert.assertEquals(2, small.size());
+		Assert.assertTrue(small.isVerified(roots[0], pair.getPublic()));
+		Assert.assertFalse(small.isVerified(roots[1], pair.getPublic()));
+		Assert.assertTrue(small.isVerified(roots[2], pair.getPublic()));
+
+		Log.info(Log.FAC_TEST, "Completed testVerifiedRootCache");
+	}
+
 	public static void testTreeWrapper(int testNodeCount, int blockWidth, boolean randomWidths) {
 		try {
 			testTree(testNodeCount, blockWidth, randomWidths);
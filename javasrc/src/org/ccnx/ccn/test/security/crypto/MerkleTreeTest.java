@@ -25,6 +25,7 @@ import org.bouncycastle.asn1.x509.DigestInfo;
 import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.security.crypto.MerklePath;
 import org.ccnx.ccn.impl.security.crypto.MerkleTree;
+import org.ccnx.ccn.impl.security.crypto.ParallelDigester;
 import org.ccnx.ccn.impl.support.Log;
 import org.junit.Assert;
 import org.junit.Before;
@@ -80,6 +81,36 @@ public class MerkleTreeTest {
 		Log.info(Log.FAC_TEST, "Completed testMerkleTree");
 	}
 	
+	@Test
+	public void testParallelTree() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testParallelTree");
+
+		ParallelDigester parallel = new ParallelDigester(4);
+		try {
+			// Big enough for interior levels to be split too
+			for (int numLeaves : new int[]{2, 9, 100, 1025, 5147}) {
+				byte [][] blocks = new byte[numLeaves][];
+				for (int i = 0; i < numLeaves; i++) {
+					blocks[i] = new byte[128];
+					_rand.nextBytes(blocks[i]);
+				}
+				ParallelDigester.setDefault(new ParallelDigester(1));
+				MerkleTree serialTree = new MerkleTree(blocks, false, numLeaves, 0, 128);
+				ParallelDigester.setDefault(parallel);
+				MerkleTree parallelTree = new MerkleTree(blocks, false, numLeaves, 0, 128);
+				for (int node = 1; node <= serialTree.size(); node++)
+					Assert.assertArrayEquals("node " + node + " of " + numLeaves + " leaves", serialTree.get(node), parallelTree.get(node));
+				for (int i = 0; i < numLeaves; i++)
+					Assert.assertArrayEquals(parallelTree.root(), parallelTree.path(i).root(blocks[i], false));
+			}
+		} finally {
+			ParallelDigester.setDefault(null);
+			parallel.shutdown();
+		}
+
+		Log.info(Log.FAC_TEST, "Completed testParallelTree");
+	}
+
 	public static void testTree(int numLeaves, int nodeLength, boolean digest) throws Exception {
 		try {
 			byte [][] data = makeContent(numLeaves, nodeLength, digest);
@@ -0,0 +1,126 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.security.crypto;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
+import org.ccnx.ccn.impl.security.crypto.util.DigestHelper;
+import org.ccnx.ccn.impl.security.crypto.util.SignatureHelper;
+import org.ccnx.ccn.impl.support.Log;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test that the signature and digest helpers give the same answers when they reuse
+ * their per thread instances, including when keys are switched and threads run at once.
+ */
+public class SignatureHelperTest {
+
+	static KeyPair pair1;
+	static KeyPair pair2;
+	static Random random = new Random();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(512); // go for fast
+		pair1 = kpg.generateKeyPair();
+		pair2 = kpg.generateKeyPair();
+	}
+
+	@Test
+	public void testSwitchKeys() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testSwitchKeys");
+
+		byte [] data = new byte[500];
+		random.nextBytes(data);
+		byte [] sig1 = SignatureHelper.sign(null, data, pair1.getPrivate());
+		byte [] sig2 = SignatureHelper.sign(null, data, pair2.getPrivate());
+		Assert.assertTrue(SignatureHelper.verify(data, sig1, null, pair1.getPublic()));
+		Assert.assertFalse(SignatureHelper.verify(data, sig1, null, pair2.getPublic()));
+		Assert.assertTrue(SignatureHelper.verify(data, sig2, null, pair2.getPublic()));
+		Assert.assertArrayEquals(sig1, SignatureHelper.sign(null, data, pair1.getPrivate()));
+
+		// A bad signature mustn't leave the thread's instance in a bad state
+		try {
+			SignatureHelper.verify(data, new byte[3], null, pair1.getPublic());
+		} catch (java.security.SignatureException e) {}
+		Assert.assertTrue(SignatureHelper.verify(data, sig1, null, pair1.getPublic()));
+
+		Log.info(Log.FAC_TEST, "Completed testSwitchKeys");
+	}
+
+	@Test
+	public void testDigests() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testDigests");
+
+		byte [] data = new byte[1000];
+		random.nextBytes(data);
+		Assert.assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(data), DigestHelper.digest(data));
+		Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), CCNDigestHelper.digest(data));
+		Assert.assertArrayEquals(CCNDigestHelper.digest(data), 
+				CCNDigestHelper.digest(new byte[][]{data, null}));
+		Assert.assertArrayEquals(DigestHelper.digest(data), DigestHelper.digest((String)null, data));
+
+		Log.info(Log.FAC_TEST, "Completed testDigests");
+	}
+
+	@Test
+	public void testConcurrentSigning() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testConcurrentSigning");
+
+		final int THREADS = 4;
+		final int COUNT = 50;
+		final AtomicInteger failures = new AtomicInteger(0);
+		Thread [] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final KeyPair pair = (t % 2 == 0) ? pair1 : pair2;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						Random r = new Random();
+						byte [] data = new byte[200];
+						for (int i = 0; i < COUNT; i++) {
+							r.nextBytes(data);
+							byte [] sig = SignatureHelper.sign(null, data, pair.getPrivate());
+							if (!SignatureHelper.verify(data, sig, null, pair.getPublic()))
+								failures.incrementAndGet();
+							if (!MessageDigest.isEqual(MessageDigest.getInstance("SHA-256").digest(data), CCNDigestHelper.digest(data)))
+								failures.incrementAndGet();
+						}
+					} catch (Exception e) {
+						Log.warning(Log.FAC_TEST, "Signing thread failed: {0}", e);
+						failures.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(0, failures.get());
+
+		Log.info(Log.FAC_TEST, "Completed testConcurrentSigning");
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2012 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation. 
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.security.crypto;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.impl.security.crypto.CCNMerkleTree;
+import org.ccnx.ccn.impl.security.crypto.VerificationService;
+import org.ccnx.ccn.impl.security.crypto.VerificationService.VerificationListener;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test verifying content on a VerificationService.
+ */
+public class VerificationServiceTest {
+
+	static Random _rand = new Random();
+	static ContentName baseName = new ContentName("test","data","verificationServiceTest");
+
+	static KeyPair pair = null;
+	static PublisherPublicKeyDigest publisher = null;
+	static KeyLocator keyLoc = null;
+
+	/**
+	 * A SimpleVerifier which holds up verification until it is released, so that
+	 * objects queue up behind the first one.
+	 */
+	static class GatedVerifier extends ContentObject.SimpleVerifier {
+		CountDownLatch _gate = new CountDownLatch(1);
+		AtomicInteger _calls = new AtomicInteger();
+
+		GatedVerifier() {
+			super(null, KeyManager.getDefaultKeyManager());
+		}
+
+		@Override
+		public boolean verify(ContentObject object) {
+			_calls.incrementAndGet();
+			try {
+				_gate.await();
+			} catch (InterruptedException e) {
+				return false;
+			}
+			return super.verify(object);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Security.addProvider(new BouncyCastleProvider());
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+		kpg.initialize(512); // go for fast
+		pair = kpg.generateKeyPair();
+		publisher = new PublisherPublicKeyDigest(pair.getPublic());
+		keyLoc = new KeyLocator(pair.getPublic());
+	}
+
+	static ContentObject [] makeSegments(String name, int count) throws Exception {
+		ContentName segmentBase = new ContentName(baseName, name);
+		SignedInfo si = new SignedInfo(publisher, keyLoc);
+		ContentObject [] segments = new ContentObject[count];
+		for (int i = 0; i < count; i++) {
+			byte [] content = new byte[100];
+			_rand.nextBytes(content);
+			segments[i] = new ContentObject(SegmentationProfile.segmentName(segmentBase, i), si, content, (Signature)null);
+		}
+		CCNMerkleTree tree = new CCNMerkleTree(segments, pair.getPrivate());
+		tree.setSignatures();
+		return segments;
+	}
+
+	@Test
+	public void testMerkleBatch() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testMerkleBatch");
+
+		ContentObject [] segments = makeSegments("batch", 20);
+		VerificationService service = new VerificationService(1);
+		GatedVerifier verifier = new GatedVerifier();
+
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (ContentObject segment : segments)
+			results.add(service.verifyAsync(segment, verifier, null));
+		verifier._gate.countDown();
+		for (Future<Boolean> result : results)
+			Assert.assertTrue(result.get(10, TimeUnit.SECONDS));
+
+		// Only the first segment needed its signature checked
+		Assert.assertEquals(1, verifier._calls.get());
+		Assert.assertEquals(1, service.getStats().getCounter("SignatureChecks"));
+		Assert.assertEquals(segments.length - 1, service.getStats().getCounter("MerkleRootMatches"));
+
+		// Without the gate the batch call gives the same answers
+		Assert.assertTrue(Arrays.equals(new boolean[]{true, true, true},
+				service.verifyBatch(Arrays.asList(makeSegments("unshared", 3)), new ContentObject.SimpleVerifier(null, KeyManager.getDefaultKeyManager()))));
+		service.shutdown();
+
+		Log.info(Log.FAC_TEST, "Completed testMerkleBatch");
+	}
+
+	@Test
+	public void testBadSegment() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testBadSegment");
+
+		ContentObject [] segments = makeSegments("bad", 8);
+		// Same signature and witness as segment 3, different content
+		byte [] forged = segments[3].content().clone();
+		forged[0]++;
+		segments[3] = new ContentObject(segments[3].name(), segments[3].signedInfo(), forged, segments[3].signature());
+
+		VerificationService service = new VerificationService(2);
+		GatedVerifier verifier = new GatedVerifier();
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (ContentObject segment : segments)
+			results.add(service.verifyAsync(segment, verifier, null));
+		verifier._gate.countDown();
+		for (int i = 0; i < segments.length; i++)
+			Assert.assertEquals("segment " + i, i != 3, results.get(i).get(10, TimeUnit.SECONDS));
+
+		// The forged segment's root doesn't match, so it is checked in full
+		Assert.assertEquals(2, verifier._calls.get());
+		Assert.assertEquals(1, service.getStats().getCounter("Failed"));
+		service.shutdown();
+
+		Log.info(Log.FAC_TEST, "Completed testBadSegment");
+	}
+
+	@Test
+	public void testListener() throws Exception {
+		Log.info(Log.FAC_TEST, "Starting testListener");
+
+		ContentObject signed = new ContentObject(new ContentName(baseName, "single"), new SignedInfo(publisher, keyLoc),
+				"single object".getBytes(), pair.getPrivate());
+		final CountDownLatch done = new CountDownLatch(1);
+		final boolean [] answer = new boolean[1];
+		VerificationService service = new VerificationService(0);
+		service.verifyAsync(signed, new ContentObject.SimpleVerifier(null, KeyManager.getDefaultKeyManager()), new VerificationListener() {
+			public void verificationComplete(ContentObject content, boolean verified) {
+				answer[0] = verified;
+				done.countDown();
+			}
+		});
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(answer[0]);
+
+		// A verifier which isn't a SimpleVerifier is always called
+		ContentObject [] segments = makeSegments("other", 4);
+		final AtomicInteger calls = new AtomicInteger();
+		boolean [] verified = service.verifyBatch(Arrays.asList(segments), new org.ccnx.ccn.ContentVerifier() {
+			public boolean verify(ContentObject content) {
+				calls.incrementAndGet();
+				return true;
+			}
+		});
+		Assert.assertEquals(segments.length, calls.get());
+		for (boolean v : verified)
+			Assert.assertTrue(v);
+		service.shutdown();
+
+		Log.info(Log.FAC_TEST, "Completed testListener");
+	}
+}